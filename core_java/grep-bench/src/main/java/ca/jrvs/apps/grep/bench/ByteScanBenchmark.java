@@ -0,0 +1,92 @@
+package ca.jrvs.apps.grep.bench;
+
+import ca.jrvs.apps.grep.ByteScanner;
+import ca.jrvs.apps.grep.LineMatcher;
+import ca.jrvs.apps.grep.LineMatchers;
+import ca.jrvs.apps.grep.MappedFileScanner;
+import ca.jrvs.apps.grep.MatchStage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The byte loops of the memory mapped scanner, with the scalar and the SWAR ByteScanner
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ByteScanBenchmark {
+
+  @Param({"scalar", "swar"})
+  public String kernel;
+
+  private ByteScanner bytes;
+  private LineMatcher matcher;
+
+  @Setup
+  public void setup() {
+    bytes = ByteScanner.select(kernel, null);
+    matcher = LineMatchers.compile(Corpus.LITERAL_REGEX);
+  }
+
+  /**
+   * Every line is split off and rejected without being matched, so only finding line breaks
+   * and telling ASCII lines apart is measured
+   */
+  @Benchmark
+  public void lineBreaks(Corpus corpus, Throughput throughput, Blackhole blackhole)
+      throws IOException {
+    MatchStage stage = new MatchStage(line -> {
+      blackhole.consume(line.length());
+      return false;
+    }, new NullLineSink(blackhole));
+    scan(corpus, throughput, stage, null);
+  }
+
+  /**
+   * The literal regex matched on every line
+   */
+  @Benchmark
+  public void everyLine(Corpus corpus, Throughput throughput, Blackhole blackhole)
+      throws IOException {
+    scan(corpus, throughput, new MatchStage(matcher, new NullLineSink(blackhole)), null);
+  }
+
+  /**
+   * The literal regex matched only on lines found to contain it by a search for its first
+   * byte
+   */
+  @Benchmark
+  public void requiredBytes(Corpus corpus, Throughput throughput, Blackhole blackhole)
+      throws IOException {
+    scan(corpus, throughput, new MatchStage(matcher, new NullLineSink(blackhole)),
+        Corpus.LITERAL_REGEX.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private void scan(Corpus corpus, Throughput throughput, MatchStage stage, byte[] required)
+      throws IOException {
+    MappedFileScanner scanner =
+        new MappedFileScanner(MappedFileScanner.DEFAULT_WINDOW_SIZE, true, bytes);
+    scanner.setRequiredBytes(required);
+    for (File file : corpus.files) {
+      scanner.scan(file, stage);
+    }
+    throughput.megabytes += corpus.megabytes();
+  }
+}
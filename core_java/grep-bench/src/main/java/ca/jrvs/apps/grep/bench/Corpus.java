@@ -0,0 +1,58 @@
+package ca.jrvs.apps.grep.bench;
+
+import ca.jrvs.apps.grep.bench.CorpusGenerator.Shape;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark state holding one generated corpus. The parameters select its shape, the
+ * fraction of matching lines and whether lines contain non-ASCII text.
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+
+  /** Literal regex, which takes the literal fast path */
+  public static final String LITERAL_REGEX = CorpusGenerator.NEEDLE;
+  /** Regex that has to go through java.util.regex */
+  public static final String COMPLEX_REGEX = "NEE[D]LE\\s+\\w+\\s+\\w+";
+  /** Regex with a required literal, shaped like ERROR.*timeout=\\d+ */
+  public static final String FILTERED_REGEX = CorpusGenerator.NEEDLE + ".* \\d+$";
+
+  @Param({"MANY_SMALL", "FEW_HUGE"})
+  public Shape shape;
+
+  @Param({"0.001", "0.2"})
+  public double matchRate;
+
+  @Param({"ASCII", "UTF8"})
+  public String charset;
+
+  public Path root;
+  public List<File> files;
+  public long totalBytes;
+
+  @Setup
+  public void setup() throws IOException {
+    root = CorpusGenerator.generate(shape, matchRate, charset.equals("UTF8"));
+    try (Stream<Path> paths = Files.walk(root)) {
+      files = paths.filter(path -> path.toString().endsWith(".log"))
+          .map(Path::toFile)
+          .sorted()
+          .collect(Collectors.toList());
+    }
+    totalBytes = files.stream().mapToLong(File::length).sum();
+  }
+
+  public double megabytes() {
+    return totalBytes / (1024.0 * 1024.0);
+  }
+}
@@ -0,0 +1,102 @@
+package ca.jrvs.apps.grep.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates synthetic log-like corpora for the benchmarks.
+ *
+ * A corpus is written once under java.io.tmpdir/grep-bench and reused by later runs with the
+ * same parameters, so forks don't spend their time writing files. Generation is seeded, so
+ * every run searches the same bytes.
+ */
+public final class CorpusGenerator {
+
+  /** Every matching line contains this word */
+  public static final String NEEDLE = "NEEDLE";
+
+  private static final String[] ASCII_WORDS = {"request", "user", "session", "timeout", "cache",
+      "INFO", "DEBUG", "WARN", "connection", "worker", "queue", "latency", "ms", "id", "ok"};
+  private static final String[] UTF8_WORDS = {"request", "utilisateur", "caf\u00e9",
+      "s\u00e9ance", "gr\u00fc\u00dfe", "\u00fcber", "\u65e5\u672c", "\u6570\u636e", "INFO",
+      "\u0441\u0435\u0441\u0441\u0438\u044f", "worker", "\u00e9t\u00e9", "ms", "id", "ok"};
+
+  /**
+   * Corpus layouts
+   */
+  public enum Shape {
+    /** 2000 files of 16 KB spread over 20 directories */
+    MANY_SMALL(2000, 16L * 1024),
+    /** 4 files of 32 MB */
+    FEW_HUGE(4, 32L * 1024 * 1024);
+
+    private final int files;
+    private final long fileSize;
+
+    Shape(int files, long fileSize) {
+      this.files = files;
+      this.fileSize = fileSize;
+    }
+  }
+
+  private CorpusGenerator() {
+  }
+
+  /**
+   * Generate a corpus, or reuse the one from an earlier run
+   * @param shape file layout
+   * @param matchRate fraction of lines that contain NEEDLE
+   * @param utf8 true to mix non-ASCII words into the lines
+   * @return root directory of the corpus
+   * @throws IOException if the corpus could not be written
+   */
+  public static Path generate(Shape shape, double matchRate, boolean utf8) throws IOException {
+    String name = String.format(Locale.ROOT, "%s-%s-%s", shape, matchRate, utf8 ? "utf8" : "ascii");
+    Path root = Paths.get(System.getProperty("java.io.tmpdir"), "grep-bench", name);
+    Path done = root.resolve(".done");
+    if (Files.exists(done)) {
+      return root;
+    }
+
+    Random random = new Random(shape.ordinal() * 31L + name.hashCode());
+    String[] words = utf8 ? UTF8_WORDS : ASCII_WORDS;
+    for (int i = 0; i < shape.files; i++) {
+      Path dir = Files.createDirectories(root.resolve("dir" + (i % 20)));
+      writeFile(dir.resolve("file" + i + ".log").toFile(), shape.fileSize, matchRate, words,
+          random);
+    }
+    // marker is written last so an interrupted run regenerates the corpus
+    Files.createFile(done);
+    return root;
+  }
+
+  private static void writeFile(File file, long size, double matchRate, String[] words,
+      Random random) throws IOException {
+    long written = 0;
+    StringBuilder line = new StringBuilder();
+    try (BufferedWriter writer = new BufferedWriter(
+        new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8))) {
+      while (written < size) {
+        line.setLength(0);
+        line.append("2024-01-01T00:00:").append(random.nextInt(60)).append(' ');
+        int count = 6 + random.nextInt(12);
+        int needleAt = random.nextDouble() < matchRate ? random.nextInt(count) : -1;
+        for (int w = 0; w < count; w++) {
+          line.append(w == needleAt ? NEEDLE : words[random.nextInt(words.length)]).append(' ');
+        }
+        line.append(random.nextInt(100000));
+        writer.write(line.toString());
+        writer.newLine();
+        written += line.toString().getBytes(StandardCharsets.UTF_8).length + 1;
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package ca.jrvs.apps.grep.bench;
+
+import ca.jrvs.apps.grep.JavaGrepImp;
+import ca.jrvs.apps.grep.JavaGrepLambdaImp;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole process() workflow, traversal to output file, for each implementation
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+
+  @Param({"JavaGrepImp", "JavaGrepLambdaImp"})
+  public String implementation;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  @Param({Corpus.LITERAL_REGEX, Corpus.COMPLEX_REGEX})
+  public String regex;
+
+  private File outFile;
+
+  @Setup
+  public void setup() throws IOException {
+    outFile = Files.createTempFile("grep-bench", ".out").toFile();
+  }
+
+  @TearDown
+  public void tearDown() {
+    outFile.delete();
+  }
+
+  @Benchmark
+  public void process(Corpus corpus, Throughput throughput, FileRate rate) throws IOException {
+    JavaGrepImp grep = implementation.equals("JavaGrepLambdaImp")
+        ? new JavaGrepLambdaImp() : new JavaGrepImp();
+    grep.setRegex(regex);
+    grep.setRootPath(corpus.root.toString());
+    grep.setOutFile(outFile.getPath());
+    grep.setThreads(threads);
+    grep.process();
+    throughput.megabytes += corpus.megabytes();
+    rate.files += corpus.files.size();
+  }
+
+  /**
+   * process() in pipeline mode, with threads matchers and the default readers
+   */
+  @Benchmark
+  public void pipeline(Corpus corpus, Throughput throughput, FileRate rate) throws IOException {
+    JavaGrepImp grep = implementation.equals("JavaGrepLambdaImp")
+        ? new JavaGrepLambdaImp() : new JavaGrepImp();
+    grep.setRegex(regex);
+    grep.setRootPath(corpus.root.toString());
+    grep.setOutFile(outFile.getPath());
+    grep.setPipeline(true);
+    grep.setMatchers(threads);
+    grep.process();
+    throughput.megabytes += corpus.megabytes();
+    rate.files += corpus.files.size();
+  }
+}
@@ -0,0 +1,22 @@
+package ca.jrvs.apps.grep.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counter of files visited, reported in files/s next to ops/s
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class FileRate {
+
+  public long files;
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    files = 0;
+  }
+}
@@ -0,0 +1,82 @@
+package ca.jrvs.apps.grep.bench;
+
+import ca.jrvs.apps.grep.CharBufferLineScanner;
+import ca.jrvs.apps.grep.LineMatcher;
+import ca.jrvs.apps.grep.MatchStage;
+import ca.jrvs.apps.grep.RegexLineMatcher;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Allocation per line of reading and matching lines that never match. One operation is one
+ * line, so with -prof gc, gc.alloc.rate.norm is bytes allocated per line. The regex has no
+ * prefilter and runs on every line.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+@OperationsPerInvocation(LineAllocationBenchmark.LINES)
+public class LineAllocationBenchmark {
+
+  static final int LINES = 10000;
+
+  @Param({"ASCII", "UTF8"})
+  public String charset;
+
+  private byte[] input;
+  private LineMatcher matcher;
+  private CharBufferLineScanner scanner;
+
+  @Setup
+  public void setup() {
+    String word = charset.equals("UTF8") ? "caf\u00e9 \u0436\u0443\u043a" : "cafe";
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < LINES; i++) {
+      text.append("INFO request ").append(i).append(' ').append(word)
+          .append(" handled in ").append(i % 97).append(" ms\n");
+    }
+    input = text.toString().getBytes(StandardCharsets.UTF_8);
+    matcher = new RegexLineMatcher(Pattern.compile(Corpus.COMPLEX_REGEX));
+    scanner = new CharBufferLineScanner();
+  }
+
+  @Benchmark
+  public void readLine(Blackhole blackhole) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new ByteArrayInputStream(input), StandardCharsets.UTF_8))) {
+      String line = reader.readLine();
+      while (line != null) {
+        blackhole.consume(matcher.find(line));
+        line = reader.readLine();
+      }
+    }
+  }
+
+  @Benchmark
+  public void charBufferScanner(Blackhole blackhole) throws IOException {
+    MatchStage stage = new MatchStage(matcher, new NullLineSink(blackhole));
+    scanner.scan(new ByteArrayInputStream(input), stage);
+    blackhole.consume(stage.getMatched());
+  }
+}
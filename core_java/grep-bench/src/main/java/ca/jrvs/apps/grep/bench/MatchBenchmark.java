@@ -0,0 +1,138 @@
+package ca.jrvs.apps.grep.bench;
+
+import ca.jrvs.apps.grep.JavaGrepImp;
+import ca.jrvs.apps.grep.LineMatcher;
+import ca.jrvs.apps.grep.LineMatchers;
+import ca.jrvs.apps.grep.RegexLineMatcher;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching only: lines are loaded into memory up front and every benchmark tests all of them
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatchBenchmark {
+
+  /** At most this much of the corpus is loaded, to keep the heap small */
+  private static final long SAMPLE_BYTES = 16L * 1024 * 1024;
+
+  @Param({Corpus.LITERAL_REGEX, Corpus.COMPLEX_REGEX, Corpus.FILTERED_REGEX})
+  public String regex;
+
+  private List<String> lines;
+  private double megabytes;
+  private JavaGrepImp grep;
+  private LineMatcher matcher;
+  private LineMatcher unfiltered;
+  private Pattern pattern;
+
+  @Setup
+  public void setup(Corpus corpus) {
+    JavaGrepImp reader = new JavaGrepImp();
+    lines = new ArrayList<>();
+    long bytes = 0;
+    for (File file : corpus.files) {
+      for (String line : reader.readLines(file)) {
+        lines.add(line);
+        bytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+      }
+      if (bytes >= SAMPLE_BYTES) {
+        break;
+      }
+    }
+    megabytes = bytes / (1024.0 * 1024.0);
+
+    grep = new JavaGrepImp();
+    grep.setRegex(regex);
+    matcher = LineMatchers.compile(regex);
+    pattern = Pattern.compile(regex);
+    unfiltered = new RegexLineMatcher(pattern);
+  }
+
+  /**
+   * What the original implementation did: Pattern.matches() per line with a .* wrapped regex
+   */
+  @Benchmark
+  public long patternMatchesPerLine(Throughput throughput) {
+    String wrapped = ".*" + regex + ".*";
+    long matched = 0;
+    for (String line : lines) {
+      if (Pattern.matches(wrapped, line)) {
+        matched++;
+      }
+    }
+    throughput.megabytes += megabytes;
+    return matched;
+  }
+
+  @Benchmark
+  public long precompiledPattern(Throughput throughput) {
+    long matched = 0;
+    for (String line : lines) {
+      if (pattern.matcher(line).find()) {
+        matched++;
+      }
+    }
+    throughput.megabytes += megabytes;
+    return matched;
+  }
+
+  @Benchmark
+  public long lineMatcher(Throughput throughput) {
+    long matched = 0;
+    for (String line : lines) {
+      if (matcher.find(line)) {
+        matched++;
+      }
+    }
+    throughput.megabytes += megabytes;
+    return matched;
+  }
+
+  /**
+   * Same engine as lineMatcher for regexes, without the required-literal prefilter
+   */
+  @Benchmark
+  public long lineMatcherWithoutPrefilter(Throughput throughput) {
+    long matched = 0;
+    for (String line : lines) {
+      if (unfiltered.find(line)) {
+        matched++;
+      }
+    }
+    throughput.megabytes += megabytes;
+    return matched;
+  }
+
+  @Benchmark
+  public long containsPattern(Throughput throughput) {
+    long matched = 0;
+    for (String line : lines) {
+      if (grep.containsPattern(line)) {
+        matched++;
+      }
+    }
+    throughput.megabytes += megabytes;
+    return matched;
+  }
+}
@@ -0,0 +1,33 @@
+package ca.jrvs.apps.grep.bench;
+
+import ca.jrvs.apps.grep.LineSink;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * LineSink that hands every line to a Blackhole, so matching can be measured without
+ * writing
+ */
+public class NullLineSink implements LineSink {
+
+  private final Blackhole blackhole;
+  private long count;
+
+  public NullLineSink(Blackhole blackhole) {
+    this.blackhole = blackhole;
+  }
+
+  @Override
+  public void write(String line) {
+    blackhole.consume(line);
+    count++;
+  }
+
+  @Override
+  public long count() {
+    return count;
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,64 @@
+package ca.jrvs.apps.grep.bench;
+
+import ca.jrvs.apps.grep.JavaGrepImp;
+import ca.jrvs.apps.grep.JavaGrepLambdaImp;
+import ca.jrvs.apps.grep.MappedFileScanner;
+import ca.jrvs.apps.grep.MatchStage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Line reading only: every line of the corpus is produced and consumed, nothing is matched
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+
+  @Benchmark
+  public void readLines(Corpus corpus, Throughput throughput, Blackhole blackhole) {
+    JavaGrepImp grep = new JavaGrepImp();
+    for (File file : corpus.files) {
+      blackhole.consume(grep.readLines(file));
+    }
+    throughput.megabytes += corpus.megabytes();
+  }
+
+  @Benchmark
+  public void lambdaLines(Corpus corpus, Throughput throughput, Blackhole blackhole) {
+    JavaGrepLambdaImp grep = new JavaGrepLambdaImp();
+    for (File file : corpus.files) {
+      try (Stream<String> lines = grep.lines(file)) {
+        lines.forEach(blackhole::consume);
+      }
+    }
+    throughput.megabytes += corpus.megabytes();
+  }
+
+  @Benchmark
+  public void mappedLines(Corpus corpus, Throughput throughput, Blackhole blackhole)
+      throws IOException {
+    MappedFileScanner scanner = new MappedFileScanner();
+    // the matcher sees every line and rejects it, so only line splitting is measured
+    MatchStage stage = new MatchStage(line -> {
+      blackhole.consume(line.length());
+      return false;
+    }, new NullLineSink(blackhole));
+    for (File file : corpus.files) {
+      scanner.scan(file, stage);
+    }
+    throughput.megabytes += corpus.megabytes();
+  }
+}
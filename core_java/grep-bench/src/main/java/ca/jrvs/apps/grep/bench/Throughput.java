@@ -0,0 +1,23 @@
+package ca.jrvs.apps.grep.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Extra counter reported next to ops/s. With Mode.Throughput JMH divides it by the
+ * measured time, so "megabytes" is reported in MB/s.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class Throughput {
+
+  public double megabytes;
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    megabytes = 0;
+  }
+}
@@ -0,0 +1,49 @@
+package ca.jrvs.apps.grep.bench;
+
+import ca.jrvs.apps.grep.JavaGrepImp;
+import ca.jrvs.apps.grep.JavaGrepLambdaImp;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Directory traversal only: how fast each implementation lists the corpus files
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TraversalBenchmark {
+
+  @Benchmark
+  public List<File> listFiles(Corpus corpus, FileRate rate) {
+    List<File> files = new JavaGrepImp().listFiles(corpus.root.toString());
+    rate.files += files.size();
+    return files;
+  }
+
+  @Benchmark
+  public List<File> lambdaListFiles(Corpus corpus, FileRate rate) {
+    List<File> files = new JavaGrepLambdaImp().listFiles(corpus.root.toString());
+    rate.files += files.size();
+    return files;
+  }
+
+  @Benchmark
+  public long streamFiles(Corpus corpus, FileRate rate) {
+    try (Stream<File> files = new JavaGrepImp().streamFiles(corpus.root.toString())) {
+      long count = files.count();
+      rate.files += count;
+      return count;
+    }
+  }
+}
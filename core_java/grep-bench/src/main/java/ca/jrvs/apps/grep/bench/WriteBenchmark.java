@@ -0,0 +1,123 @@
+package ca.jrvs.apps.grep.bench;
+
+import ca.jrvs.apps.grep.ChannelLineSink;
+import ca.jrvs.apps.grep.JavaGrepImp;
+import ca.jrvs.apps.grep.LineMatcher;
+import ca.jrvs.apps.grep.LineMatchers;
+import ca.jrvs.apps.grep.LineSink;
+import ca.jrvs.apps.grep.MappedFileScanner;
+import ca.jrvs.apps.grep.MatchStage;
+import ca.jrvs.apps.grep.WriterLineSink;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing only: the matching lines of the corpus are collected up front and written to a
+ * temporary output file. The mapped benchmarks scan the corpus with the memory mapped
+ * scanner as well and write its matches through either sink, matching the literal regex or
+ * every line (every file is a whole-file hit).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+
+  private List<String> matches;
+  private double megabytes;
+  private File outFile;
+
+  @Setup
+  public void setup(Corpus corpus) throws IOException {
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex(Corpus.LITERAL_REGEX);
+    matches = new ArrayList<>();
+    long bytes = 0;
+    for (File file : corpus.files) {
+      for (String line : grep.readLines(file)) {
+        if (grep.containsPattern(line)) {
+          matches.add(line);
+          bytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+      }
+    }
+    megabytes = bytes / (1024.0 * 1024.0);
+    outFile = Files.createTempFile("grep-bench", ".out").toFile();
+  }
+
+  @TearDown
+  public void tearDown() {
+    outFile.delete();
+  }
+
+  @Benchmark
+  public void writeToFile(Throughput throughput) throws IOException {
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setOutFile(outFile.getPath());
+    grep.writeToFile(matches);
+    throughput.megabytes += megabytes;
+  }
+
+  @Benchmark
+  public long lineSink(Throughput throughput) throws IOException {
+    try (LineSink sink = WriterLineSink.open(outFile)) {
+      for (String line : matches) {
+        sink.write(line);
+      }
+      throughput.megabytes += megabytes;
+      return sink.count();
+    }
+  }
+
+  @Benchmark
+  public long mappedToWriter(Corpus corpus, Throughput throughput) throws IOException {
+    return scanMapped(corpus, LineMatchers.compile(Corpus.LITERAL_REGEX), WriterLineSink.open(outFile),
+        throughput);
+  }
+
+  @Benchmark
+  public long mappedToChannel(Corpus corpus, Throughput throughput) throws IOException {
+    return scanMapped(corpus, LineMatchers.compile(Corpus.LITERAL_REGEX), ChannelLineSink.open(outFile),
+        throughput);
+  }
+
+  @Benchmark
+  public long everyLineToWriter(Corpus corpus, Throughput throughput) throws IOException {
+    return scanMapped(corpus, line -> true, WriterLineSink.open(outFile), throughput);
+  }
+
+  @Benchmark
+  public long everyLineToChannel(Corpus corpus, Throughput throughput) throws IOException {
+    return scanMapped(corpus, line -> true, ChannelLineSink.open(outFile), throughput);
+  }
+
+  private long scanMapped(Corpus corpus, LineMatcher matcher, LineSink sink,
+      Throughput throughput) throws IOException {
+    MappedFileScanner scanner = new MappedFileScanner();
+    try (LineSink out = sink) {
+      for (File file : corpus.files) {
+        scanner.scan(file, new MatchStage(matcher, out));
+      }
+    }
+    throughput.megabytes += outFile.length() / (1024.0 * 1024.0);
+    return sink.count();
+  }
+}
@@ -0,0 +1,151 @@
+package ca.jrvs.apps.grep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton that finds any number of literals in one pass over a line.
+ *
+ * Transitions for US-ASCII chars are fully resolved into a dense table, so the common case
+ * is one array lookup per char. Other chars use the trie edges and failure links.
+ */
+public class AhoCorasick {
+
+  private static final int ASCII = 128;
+
+  private final int[] asciiNext;
+  private final Map<Long, Integer> edges;
+  private final int[] fail;
+  // literal indexes recognised in each state, including those reached through failure links
+  private final int[][] outputs;
+
+  /**
+   * @param literals non-empty literals, identified by their index in the list
+   */
+  public AhoCorasick(List<String> literals) {
+    Map<Long, Integer> trie = new HashMap<>();
+    List<List<Integer>> ends = new ArrayList<>();
+    ends.add(new ArrayList<>());
+
+    for (int i = 0; i < literals.size(); i++) {
+      String literal = literals.get(i);
+      if (literal.isEmpty()) {
+        throw new IllegalArgumentException("literals must not be empty");
+      }
+      int state = 0;
+      for (int j = 0; j < literal.length(); j++) {
+        long key = key(state, literal.charAt(j));
+        Integer next = trie.get(key);
+        if (next == null) {
+          next = ends.size();
+          ends.add(new ArrayList<>());
+          trie.put(key, next);
+        }
+        state = next;
+      }
+      ends.get(state).add(i);
+    }
+
+    int states = ends.size();
+    this.edges = trie;
+    this.fail = new int[states];
+    this.outputs = new int[states][];
+    this.asciiNext = new int[states * ASCII];
+
+    // children of each state, so the breadth-first pass below can enumerate them
+    List<List<long[]>> children = new ArrayList<>();
+    for (int i = 0; i < states; i++) {
+      children.add(new ArrayList<>());
+    }
+    for (Map.Entry<Long, Integer> edge : trie.entrySet()) {
+      int parent = (int) (edge.getKey() >>> 16);
+      children.get(parent).add(new long[] {edge.getKey() & 0xFFFF, edge.getValue()});
+    }
+
+    Queue<Integer> queue = new LinkedList<>();
+    queue.add(0);
+    outputs[0] = toArray(ends.get(0));
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      for (int c = 0; c < ASCII; c++) {
+        Integer child = trie.get(key(state, (char) c));
+        asciiNext[state * ASCII + c] = child != null ? child
+            : state == 0 ? 0 : asciiNext[fail[state] * ASCII + c];
+      }
+      for (long[] edge : children.get(state)) {
+        char c = (char) edge[0];
+        int child = (int) edge[1];
+        fail[child] = state == 0 ? 0 : step(fail[state], c);
+        List<Integer> out = new ArrayList<>(ends.get(child));
+        for (int inherited : outputs[fail[child]]) {
+          out.add(inherited);
+        }
+        outputs[child] = toArray(out);
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * @return true if any literal occurs in the line
+   */
+  public boolean find(CharSequence line) {
+    int state = 0;
+    for (int i = 0; i < line.length(); i++) {
+      state = step(state, line.charAt(i));
+      if (outputs[state].length > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Mark every literal that occurs in the line
+   * @param line input line
+   * @param found set to true at the index of each literal found
+   */
+  public void findAll(CharSequence line, boolean[] found) {
+    int state = 0;
+    for (int i = 0; i < line.length(); i++) {
+      state = step(state, line.charAt(i));
+      for (int literal : outputs[state]) {
+        found[literal] = true;
+      }
+    }
+  }
+
+  private int step(int state, char c) {
+    if (c < ASCII) {
+      return asciiNext[state * ASCII + c];
+    }
+    while (true) {
+      Integer next = edges.get(key(state, c));
+      if (next != null) {
+        return next;
+      }
+      if (state == 0) {
+        return 0;
+      }
+      state = fail[state];
+    }
+  }
+
+  private static long key(int state, char c) {
+    return (long) state << 16 | c;
+  }
+
+  private static int[] toArray(List<Integer> values) {
+    int[] array = new int[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    Arrays.sort(array);
+    return array;
+  }
+}
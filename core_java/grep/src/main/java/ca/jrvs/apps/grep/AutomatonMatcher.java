@@ -0,0 +1,539 @@
+package ca.jrvs.apps.grep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Regex engine whose matching time is linear in the line length, whatever the pattern.
+ *
+ * The RegexParser tree is compiled into a Thompson NFA, which is run as a lazily built DFA:
+ * a DFA state is the set of NFA states alive after the chars read so far, and its
+ * transitions are computed on first use and then cached. Patterns like (a+)+b, which make
+ * java.util.regex backtrack exponentially, cost at most one NFA step per char.
+ *
+ * Chars that no atom of the pattern tells apart share a class, so a DFA state needs one
+ * transition per class rather than per char. Each thread keeps its own cache of DFA states.
+ * When the cache reaches its size limit it is cleared and matching carries on from the
+ * current state, so the limit costs time but never changes results.
+ *
+ * Results are the same as java.util.regex find(), which reads supplementary characters as
+ * one code point: a surrogate pair takes one step, and a match may also start on its low
+ * surrogate. Patterns containing surrogates themselves are not supported.
+ */
+public class AutomatonMatcher implements LineMatcher {
+
+  public static final int DEFAULT_CACHE_STATES = 4096;
+  /** NFAs beyond this size, e.g. from large counted repeats, are left to java.util.regex */
+  static final int MAX_NFA_STATES = 10000;
+
+  private static final int CHAR = 0;
+  private static final int SPLIT = 1;
+  private static final int BEGIN = 2;
+  private static final int END = 3;
+  private static final int MATCH = 4;
+
+  private final int[] kinds;
+  private final int[][] outs;
+  // for CHAR states: accepted classes, the last one being "any supplementary code point"
+  private final boolean[][] accepts;
+  private final int start;
+  private final char[] classOf;
+  private final int pairClass;
+  private final int lowSurrogateClass;
+  private final LineMatcher prefilter;
+  private final int cacheStates;
+  private final ThreadLocal<Dfa> dfas;
+
+  /**
+   * @param root parsed regex
+   * @param prefilter necessary condition tested before the automaton, or null
+   * @param cacheStates maximum number of DFA states each thread keeps
+   * @throws UnsupportedRegexException if the pattern contains surrogate chars or its NFA
+   *                                   would be too large
+   */
+  public AutomatonMatcher(RegexNode root, LineMatcher prefilter, int cacheStates) {
+    if (cacheStates < 1) {
+      throw new IllegalArgumentException("cacheStates must be >= 1");
+    }
+    Builder builder = new Builder(root);
+    this.kinds = builder.toKinds();
+    this.outs = builder.outs.toArray(new int[0][]);
+    this.accepts = builder.accepts.toArray(new boolean[0][]);
+    this.start = builder.start;
+    this.classOf = builder.classOf;
+    this.pairClass = builder.classCount;
+    this.lowSurrogateClass = classOf[Character.MIN_LOW_SURROGATE];
+    this.prefilter = prefilter;
+    this.cacheStates = cacheStates;
+    this.dfas = ThreadLocal.withInitial(Dfa::new);
+  }
+
+  /**
+   * Compile a regex for the automaton engine
+   * @param regex regex in java.util.regex syntax
+   * @return matcher giving the same results as Pattern.compile(regex).matcher(line).find()
+   * @throws java.util.regex.PatternSyntaxException if regex is not valid
+   * @throws UnsupportedRegexException if regex uses a construct the engine doesn't support
+   */
+  public static AutomatonMatcher compile(String regex) {
+    return new AutomatonMatcher(RegexParser.parse(regex),
+        LiteralPrefilter.of(RegexLiterals.analyze(regex)), DEFAULT_CACHE_STATES);
+  }
+
+  @Override
+  public boolean find(CharSequence line) {
+    if (prefilter != null && !prefilter.find(line)) {
+      return false;
+    }
+
+    Dfa dfa = dfas.get();
+    DfaState state = dfa.initial();
+    int length = line.length();
+    int i = 0;
+    while (true) {
+      if (state.end && isEnd(line, i, length)) {
+        state = dfa.withEnd(state, i == 0);
+      }
+      if (state.match) {
+        return true;
+      }
+      if (i == length) {
+        return false;
+      }
+
+      char c = line.charAt(i);
+      if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(line.charAt(i + 1))) {
+        state = dfa.next(state, pairClass);
+        i += 2;
+      }
+      else {
+        state = dfa.next(state, classOf[c]);
+        i++;
+      }
+    }
+  }
+
+  /**
+   * $ without MULTILINE: the end of the line, or before a final line terminator (but not
+   * between \r and \n)
+   */
+  private static boolean isEnd(CharSequence line, int i, int length) {
+    if (i == length) {
+      return true;
+    }
+    if (i == length - 2) {
+      return line.charAt(i) == '\r' && line.charAt(i + 1) == '\n';
+    }
+    if (i == length - 1) {
+      char c = line.charAt(i);
+      if (c == '\n') {
+        return i == 0 || line.charAt(i - 1) != '\r';
+      }
+      return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+    return false;
+  }
+
+  /**
+   * @return number of NFA states
+   */
+  public int size() {
+    return kinds.length;
+  }
+
+  @Override
+  public String toString() {
+    String automaton = "automaton(" + kinds.length + " states)";
+    return prefilter == null ? automaton : automaton + " after " + prefilter;
+  }
+
+  /**
+   * A set of NFA states, with its transitions once they are known
+   */
+  private static final class DfaState {
+    private final int[] nfa;
+    private final int generation;
+    private final boolean match;
+    // some NFA state waits on $
+    private final boolean end;
+    private final DfaState[] next;
+    private DfaState withEnd;
+
+    private DfaState(int[] nfa, int generation, boolean match, boolean end, int classes) {
+      this.nfa = nfa;
+      this.generation = generation;
+      this.match = match;
+      this.end = end;
+      this.next = new DfaState[classes];
+    }
+  }
+
+  /**
+   * One thread's DFA state cache, plus the scratch space to compute new states
+   */
+  private final class Dfa {
+    private final Map<StateSet, DfaState> states = new HashMap<>();
+    private final int[] marks = new int[kinds.length];
+    private final int[] stack = new int[kinds.length];
+    private final int[] members = new int[kinds.length];
+    private int mark;
+    private int size;
+    // bumped when the cache is cleared, so transitions into dropped states are recomputed
+    private int generation;
+    private DfaState initial;
+    private int[] restart;
+
+    private DfaState initial() {
+      if (initial == null || initial.generation != generation) {
+        clear();
+        add(start, true, false);
+        initial = intern();
+      }
+      return initial;
+    }
+
+    private DfaState next(DfaState state, int cls) {
+      DfaState next = state.next[cls];
+      if (next != null && next.generation == generation) {
+        return next;
+      }
+
+      int[] lowSurrogateStart = cls == pairClass ? restart() : null;
+      clear();
+      step(state.nfa, cls);
+      if (lowSurrogateStart != null) {
+        // java.util.regex also tries a match starting on the low surrogate of the pair
+        step(lowSurrogateStart, lowSurrogateClass);
+      }
+      // a match can start at every position
+      add(start, false, false);
+      next = intern();
+      state.next[cls] = next;
+      return next;
+    }
+
+    /**
+     * @return the state with every NFA state waiting on $ moved past it
+     */
+    private DfaState withEnd(DfaState state, boolean atBegin) {
+      DfaState withEnd = state.withEnd;
+      if (withEnd != null && withEnd.generation == generation && !atBegin) {
+        return withEnd;
+      }
+
+      clear();
+      for (int nfaState : state.nfa) {
+        add(nfaState, atBegin, true);
+      }
+      withEnd = intern();
+      if (!atBegin) {
+        state.withEnd = withEnd;
+      }
+      return withEnd;
+    }
+
+    /**
+     * @return the NFA states a match starting after position 0 begins with
+     */
+    private int[] restart() {
+      if (restart == null) {
+        clear();
+        add(start, false, false);
+        restart = Arrays.copyOf(members, size);
+      }
+      return restart;
+    }
+
+    private void step(int[] nfa, int cls) {
+      for (int nfaState : nfa) {
+        if (kinds[nfaState] == CHAR && accepts[nfaState][cls]) {
+          add(outs[nfaState][0], false, false);
+        }
+      }
+    }
+
+    private void clear() {
+      size = 0;
+      if (++mark == Integer.MAX_VALUE) {
+        Arrays.fill(marks, 0);
+        mark = 1;
+      }
+    }
+
+    /**
+     * Add an NFA state and everything reachable from it without reading a char
+     * @param atBegin true at the start of the line, where ^ holds
+     * @param atEnd true where $ holds
+     */
+    private void add(int nfaState, boolean atBegin, boolean atEnd) {
+      int top = 0;
+      if (marks[nfaState] != mark) {
+        marks[nfaState] = mark;
+        stack[top++] = nfaState;
+      }
+
+      while (top > 0) {
+        int s = stack[--top];
+        int[] successors = null;
+        switch (kinds[s]) {
+          case SPLIT:
+            successors = outs[s];
+            break;
+          case BEGIN:
+            successors = atBegin ? outs[s] : null;
+            break;
+          case END:
+            if (atEnd) {
+              successors = outs[s];
+            }
+            else {
+              members[size++] = s;
+            }
+            break;
+          default:
+            members[size++] = s;
+        }
+
+        if (successors != null) {
+          for (int successor : successors) {
+            if (marks[successor] != mark) {
+              marks[successor] = mark;
+              stack[top++] = successor;
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * @return the cached DFA state for the current members, created if needed
+     */
+    private DfaState intern() {
+      int[] nfa = Arrays.copyOf(members, size);
+      Arrays.sort(nfa);
+      StateSet key = new StateSet(nfa);
+      DfaState state = states.get(key);
+      if (state != null) {
+        return state;
+      }
+
+      if (states.size() >= cacheStates) {
+        states.clear();
+        generation++;
+      }
+      boolean match = false;
+      boolean end = false;
+      for (int nfaState : nfa) {
+        match |= kinds[nfaState] == MATCH;
+        end |= kinds[nfaState] == END;
+      }
+      state = new DfaState(nfa, generation, match, end, pairClass + 1);
+      states.put(key, state);
+      return state;
+    }
+  }
+
+  /**
+   * Sorted NFA state ids used as a hash key
+   */
+  private static final class StateSet {
+    private final int[] nfa;
+    private final int hash;
+
+    private StateSet(int[] nfa) {
+      this.nfa = nfa;
+      this.hash = Arrays.hashCode(nfa);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof StateSet && Arrays.equals(nfa, ((StateSet) o).nfa);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Builds the char classes and the NFA. States are compiled back to front: compile(node,
+   * next) returns the first state of node, whose match continues at next.
+   */
+  private static final class Builder {
+    private final List<Integer> kinds = new ArrayList<>();
+    private final List<int[]> outs = new ArrayList<>();
+    private final List<boolean[]> accepts = new ArrayList<>();
+    private final char[] classOf = new char[Character.MAX_VALUE + 1];
+    private final List<Character> representatives = new ArrayList<>();
+    private final int classCount;
+    private final int start;
+
+    private Builder(RegexNode root) {
+      TreeSet<Integer> bounds = new TreeSet<>();
+      bounds.add(0);
+      collectBounds(root, bounds);
+      int cls = -1;
+      for (int c = 0; c <= Character.MAX_VALUE; c++) {
+        if (bounds.contains(c)) {
+          cls++;
+          representatives.add((char) c);
+        }
+        classOf[c] = (char) cls;
+      }
+      classCount = cls + 1;
+
+      int match = newState(MATCH, new int[0], null);
+      start = compile(root, match);
+    }
+
+    private int[] toKinds() {
+      int[] array = new int[kinds.size()];
+      for (int i = 0; i < array.length; i++) {
+        array[i] = kinds.get(i);
+      }
+      return array;
+    }
+
+    /**
+     * Collect the chars where a new class starts: every char on which some atom of the
+     * pattern changes its answer
+     */
+    private void collectBounds(RegexNode node, TreeSet<Integer> bounds) {
+      if (node instanceof RegexNode.Literal) {
+        RegexNode.Literal literal = (RegexNode.Literal) node;
+        checkNotSurrogate(literal.c);
+        addChar(bounds, literal.c);
+        if (literal.foldCase) {
+          addChar(bounds, RegexNode.otherCase(literal.c));
+        }
+      }
+      else if (node instanceof RegexNode.CharClass) {
+        RegexNode.CharClass charClass = (RegexNode.CharClass) node;
+        for (int i = 0; i < charClass.ranges.length; i += 2) {
+          checkNotSurrogate(charClass.ranges[i]);
+          checkNotSurrogate(charClass.ranges[i + 1]);
+          bounds.add((int) charClass.ranges[i]);
+          bounds.add(charClass.ranges[i + 1] + 1);
+        }
+        if (charClass.foldCase) {
+          for (char c = 'A'; c <= 'Z'; c++) {
+            addChar(bounds, c);
+            addChar(bounds, RegexNode.otherCase(c));
+          }
+        }
+      }
+      else if (node instanceof RegexNode.Concat) {
+        for (RegexNode child : ((RegexNode.Concat) node).nodes) {
+          collectBounds(child, bounds);
+        }
+      }
+      else if (node instanceof RegexNode.Alternate) {
+        for (RegexNode child : ((RegexNode.Alternate) node).nodes) {
+          collectBounds(child, bounds);
+        }
+      }
+      else if (node instanceof RegexNode.Repeat) {
+        collectBounds(((RegexNode.Repeat) node).node, bounds);
+      }
+    }
+
+    private static void addChar(TreeSet<Integer> bounds, char c) {
+      bounds.add((int) c);
+      bounds.add(c + 1);
+    }
+
+    private static void checkNotSurrogate(char c) {
+      if (Character.isSurrogate(c)) {
+        throw new UnsupportedRegexException(String.valueOf(c), 0, "surrogate char");
+      }
+    }
+
+    private int compile(RegexNode node, int next) {
+      if (node instanceof RegexNode.Literal) {
+        RegexNode.Literal literal = (RegexNode.Literal) node;
+        boolean[] accepted = new boolean[classCount + 1];
+        accepted[classOf[literal.c]] = true;
+        if (literal.foldCase) {
+          accepted[classOf[RegexNode.otherCase(literal.c)]] = true;
+        }
+        return newState(CHAR, new int[] {next}, accepted);
+      }
+      if (node instanceof RegexNode.CharClass) {
+        RegexNode.CharClass charClass = (RegexNode.CharClass) node;
+        boolean[] accepted = new boolean[classCount + 1];
+        for (int cls = 0; cls < classCount; cls++) {
+          accepted[cls] = charClass.matches(representatives.get(cls));
+        }
+        // supplementary code points are outside every range
+        accepted[classCount] = charClass.negated;
+        return newState(CHAR, new int[] {next}, accepted);
+      }
+      if (node instanceof RegexNode.Begin) {
+        return newState(BEGIN, new int[] {next}, null);
+      }
+      if (node instanceof RegexNode.End) {
+        return newState(END, new int[] {next}, null);
+      }
+      if (node instanceof RegexNode.Concat) {
+        List<RegexNode> nodes = ((RegexNode.Concat) node).nodes;
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+          next = compile(nodes.get(i), next);
+        }
+        return next;
+      }
+      if (node instanceof RegexNode.Alternate) {
+        List<RegexNode> nodes = ((RegexNode.Alternate) node).nodes;
+        int[] alternatives = new int[nodes.size()];
+        for (int i = 0; i < alternatives.length; i++) {
+          alternatives[i] = compile(nodes.get(i), next);
+        }
+        return newState(SPLIT, alternatives, null);
+      }
+      if (node instanceof RegexNode.Repeat) {
+        return compileRepeat((RegexNode.Repeat) node, next);
+      }
+      // Empty
+      return next;
+    }
+
+    /**
+     * x{min,max} as min copies of x followed by max - min nested optional copies, or by a
+     * loop when max is unbounded
+     */
+    private int compileRepeat(RegexNode.Repeat repeat, int next) {
+      int tail = next;
+      if (repeat.max < 0) {
+        int loop = newState(SPLIT, null, null);
+        outs.set(loop, new int[] {compile(repeat.node, loop), next});
+        tail = loop;
+      }
+      else {
+        for (int i = repeat.min; i < repeat.max; i++) {
+          tail = newState(SPLIT, new int[] {compile(repeat.node, tail), next}, null);
+        }
+      }
+
+      for (int i = 0; i < repeat.min; i++) {
+        tail = compile(repeat.node, tail);
+      }
+      return tail;
+    }
+
+    private int newState(int kind, int[] successors, boolean[] accepted) {
+      if (kinds.size() >= MAX_NFA_STATES) {
+        throw new UnsupportedRegexException("", 0, "pattern of more than " + MAX_NFA_STATES
+            + " automaton states");
+      }
+      kinds.add(kind);
+      outs.add(successors);
+      accepts.add(accepted);
+      return kinds.size() - 1;
+    }
+  }
+}
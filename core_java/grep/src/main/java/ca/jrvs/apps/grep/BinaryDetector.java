@@ -0,0 +1,118 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Tells binary files from text by their leading block: a NUL byte, or bytes that are not
+ * valid UTF-8, make a file binary. Overlong forms, surrogates and code points past U+10FFFF
+ * are invalid; a sequence cut off by the end of the block is not, since its rest wasn't read.
+ */
+public final class BinaryDetector {
+
+  /** Bytes checked at the start of a file */
+  public static final int BLOCK_SIZE = 8192;
+
+  private BinaryDetector() {
+  }
+
+  /**
+   * Read the leading block of a stream and check it. A stream that supports mark is reset
+   * to where it was, so it can be read from the start afterwards.
+   * @param in stream of the file's bytes
+   * @return true if the block looks binary
+   * @throws IOException if the stream cannot be read
+   */
+  public static boolean isBinary(InputStream in) throws IOException {
+    boolean mark = in.markSupported();
+    if (mark) {
+      in.mark(BLOCK_SIZE);
+    }
+    byte[] block = new byte[BLOCK_SIZE];
+    int length = 0;
+    int read = 0;
+    while (length < block.length && (read = in.read(block, length, block.length - length)) >= 0) {
+      length += read;
+    }
+    if (mark) {
+      in.reset();
+    }
+    return isBinary(block, length, read < 0);
+  }
+
+  /**
+   * Read the leading block of a file through its channel, without moving the channel's
+   * position, and check it
+   * @param channel open channel of the file
+   * @return true if the block looks binary
+   * @throws IOException if the channel cannot be read
+   */
+  public static boolean isBinary(FileChannel channel) throws IOException {
+    ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+    while (block.hasRemaining() && channel.read(block, block.position()) >= 0) {
+      // keep reading until the block is full or the file ends
+    }
+    return isBinary(block.array(), block.position(), channel.size() <= block.position());
+  }
+
+  /**
+   * @param bytes leading bytes of a file
+   * @param length number of bytes to check
+   * @param complete true if the bytes are the whole file, so a sequence cut off at the end
+   *     is invalid
+   * @return true if the bytes contain a NUL or invalid UTF-8
+   */
+  public static boolean isBinary(byte[] bytes, int length, boolean complete) {
+    int i = 0;
+    while (i < length) {
+      int b = bytes[i] & 0xFF;
+      if (b < 0x80) {
+        if (b == 0) {
+          return true;
+        }
+        i++;
+        continue;
+      }
+
+      int continuation;
+      if (b >= 0xC2 && b <= 0xDF) {
+        continuation = 1;
+      }
+      else if (b >= 0xE0 && b <= 0xEF) {
+        continuation = 2;
+      }
+      else if (b >= 0xF0 && b <= 0xF4) {
+        continuation = 3;
+      }
+      else {
+        return true;
+      }
+      for (int k = 1; k <= continuation; k++) {
+        if (i + k >= length) {
+          return complete;
+        }
+        int c = bytes[i + k] & 0xFF;
+        // the second byte rules out overlong forms, surrogates and code points past U+10FFFF
+        int low = k == 1 && b == 0xE0 ? 0xA0 : k == 1 && b == 0xF0 ? 0x90 : 0x80;
+        int high = k == 1 && b == 0xED ? 0x9F : k == 1 && b == 0xF4 ? 0x8F : 0xBF;
+        if (c < low || c > high) {
+          return true;
+        }
+      }
+      i += continuation + 1;
+    }
+    return false;
+  }
+
+  /**
+   * Line written for a binary file or archive entry with matches under BinaryPolicy.COUNT
+   * @param label path of the file, or archive!entry
+   * @param matched number of matched lines
+   * @return the line
+   */
+  public static String matchLine(String label, long matched) {
+    return "Binary file " + label + ": " + matched + " matched lines";
+  }
+}
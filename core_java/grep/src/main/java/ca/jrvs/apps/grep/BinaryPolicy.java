@@ -0,0 +1,13 @@
+package ca.jrvs.apps.grep;
+
+/**
+ * What to do with a file whose leading block looks binary (see BinaryDetector)
+ *
+ * - TEXT scans it like any other file
+ * - SKIP leaves it unread; with --count it still gets a count of 0
+ * - COUNT matches it without writing its lines, and writes one line with the number of
+ *   matched lines instead. Other output modes write what they always do
+ */
+public enum BinaryPolicy {
+  TEXT, SKIP, COUNT
+}
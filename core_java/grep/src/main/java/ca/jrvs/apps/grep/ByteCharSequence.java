@@ -0,0 +1,101 @@
+package ca.jrvs.apps.grep;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CharSequence view over a range of single byte (US-ASCII) characters in a ByteBuffer.
+ * Matching can run directly on the bytes without decoding them into a String first. The
+ * view is mutable so one instance can be reused for every line in a buffer.
+ *
+ * A view can also know which file its buffer was mapped from, so a ByteLineSink can copy
+ * matched bytes straight from the file instead of from the buffer.
+ */
+public class ByteCharSequence implements CharSequence {
+
+  private ByteBuffer buffer;
+  private int offset;
+  private int length;
+  private FileChannel source;
+  private long sourcePosition;
+
+  public ByteCharSequence() {
+  }
+
+  public ByteCharSequence(ByteBuffer buffer, int offset, int length) {
+    reset(buffer, offset, length);
+  }
+
+  /**
+   * Point the view at a new range
+   * @return this view
+   */
+  public ByteCharSequence reset(ByteBuffer buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+    return this;
+  }
+
+  /**
+   * Set the file the buffer maps, kept by later resets until set again
+   * @param source channel the buffer was mapped from, or null if it wasn't
+   * @param sourcePosition file position of the buffer's index 0
+   * @return this view
+   */
+  public ByteCharSequence setSource(FileChannel source, long sourcePosition) {
+    this.source = source;
+    this.sourcePosition = sourcePosition;
+    return this;
+  }
+
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * @return index of the view's first byte in the buffer
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return channel the buffer was mapped from, or null
+   */
+  public FileChannel getSource() {
+    return source;
+  }
+
+  /**
+   * @return file position of the buffer's index 0
+   */
+  public long getSourcePosition() {
+    return sourcePosition;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return (char) (buffer.get(offset + index) & 0xFF);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return new ByteCharSequence(buffer, offset + start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+}
@@ -0,0 +1,19 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+
+/**
+ * LineSink that also takes matched lines as the US-ASCII bytes they were read from, so
+ * byte-level scanners can write a line without building a String and encoding it again.
+ */
+public interface ByteLineSink extends LineSink {
+
+  /**
+   * Write one matched line followed by a line separator. The sink may keep a reference to
+   * the line's buffer until it is flushed, so the buffer must not be reused before then; the
+   * view itself can be.
+   * @param line matched line, a view over bytes that are all US-ASCII
+   * @throws IOException if write failed
+   */
+  void write(ByteCharSequence line) throws IOException;
+}
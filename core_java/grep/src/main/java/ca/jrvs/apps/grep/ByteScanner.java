@@ -0,0 +1,62 @@
+package ca.jrvs.apps.grep;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Kernel of the byte-level scanners: the loops that look for line breaks, for a given byte
+ * and for non-ASCII bytes in a ByteBuffer. They are the hot loops once lines no longer
+ * allocate, so they have two implementations:
+ *
+ * - SCALAR: one byte at a time
+ * - SWAR: eight bytes at a time, read as one long and tested with bitwise arithmetic
+ *   (SIMD within a register), for 64-bit platforms with cheap unaligned loads
+ *
+ * DEFAULT is picked once at startup: SWAR on amd64 and aarch64, SCALAR elsewhere. The
+ * ca.jrvs.apps.grep.byteScanner system property (scalar or swar) overrides the choice.
+ * Both give the same results; they only differ in speed.
+ */
+public interface ByteScanner {
+
+  String PROPERTY = "ca.jrvs.apps.grep.byteScanner";
+
+  ByteScanner SCALAR = new ScalarByteScanner();
+  ByteScanner SWAR = new SwarByteScanner();
+  ByteScanner DEFAULT = select(System.getProperty(PROPERTY), System.getProperty("os.arch"));
+
+  /**
+   * @return index of the first \n or \r in [from, to) of buffer, or to if there is none
+   */
+  int indexOfLineBreak(ByteBuffer buffer, int from, int to);
+
+  /**
+   * @return index of the first b in [from, to) of buffer, or to if there is none
+   */
+  int indexOf(ByteBuffer buffer, byte b, int from, int to);
+
+  /**
+   * @return true if every byte in [from, to) of buffer is US-ASCII
+   */
+  boolean isAscii(ByteBuffer buffer, int from, int to);
+
+  /**
+   * @param name scalar or swar, or null to choose by platform
+   * @param arch value of os.arch
+   * @return the kernel to use
+   * @throws IllegalArgumentException if name is neither scalar nor swar
+   */
+  static ByteScanner select(String name, String arch) {
+    if (name == null) {
+      return "amd64".equals(arch) || "x86_64".equals(arch) || "aarch64".equals(arch)
+          ? SWAR : SCALAR;
+    }
+    switch (name.toLowerCase(Locale.ROOT)) {
+      case "scalar":
+        return SCALAR;
+      case "swar":
+        return SWAR;
+      default:
+        throw new IllegalArgumentException(PROPERTY + " must be scalar or swar but got " + name);
+    }
+  }
+}
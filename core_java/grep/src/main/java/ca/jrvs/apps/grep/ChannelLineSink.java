@@ -0,0 +1,267 @@
+package ca.jrvs.apps.grep;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ByteLineSink that writes UTF-8 to a FileChannel, the same bytes as a WriterLineSink.
+ *
+ * Lines given as bytes are not copied: the sink records the range of the buffer they are in
+ * and writes all recorded ranges with one gathering write when it is flushed or has
+ * MAX_RANGES of them. A line whose terminator in the buffer is the line separator takes the
+ * terminator along, so matched lines that follow each other are one range; when every line
+ * of a file matches, the file is one range. Ranges of a mapped file of at least
+ * TRANSFER_THRESHOLD bytes are copied from the file with FileChannel.transferTo, which the
+ * kernel can do without mapping the pages into the process at all.
+ *
+ * String lines are encoded into a staging buffer whose ranges are written in the same
+ * gathering write, so the output stays in order.
+ */
+public class ChannelLineSink implements ByteLineSink {
+
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  static final int MAX_RANGES = 1024;
+  static final int TRANSFER_THRESHOLD = 256 * 1024;
+
+  private static final byte[] SEPARATOR =
+      System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+  private final FileChannel channel;
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final List<Range> ranges = new ArrayList<>();
+  private final ByteBuffer staging;
+  private long count;
+  private long transferred;
+
+  public ChannelLineSink(FileChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.staging = ByteBuffer.allocate(Math.max(bufferSize, SEPARATOR.length));
+  }
+
+  /**
+   * Open a sink that truncates and writes to the given file
+   * @param outFile output file
+   * @return sink over the file
+   * @throws IOException if the file cannot be opened
+   */
+  public static ChannelLineSink open(File outFile) throws IOException {
+    return open(outFile, false);
+  }
+
+  /**
+   * @param append true to write after what the file already has instead of truncating it
+   * @see #open(File)
+   */
+  public static ChannelLineSink open(File outFile, boolean append) throws IOException {
+    FileChannel channel = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE);
+    // positioned rather than opened with APPEND, which sendfile(2) refuses to write to
+    if (append) {
+      channel.position(channel.size());
+    }
+    else {
+      channel.truncate(0);
+    }
+    return new ChannelLineSink(channel, DEFAULT_BUFFER_SIZE);
+  }
+
+  @Override
+  public void write(String line) throws IOException {
+    reserveRanges();
+    CharBuffer chars = CharBuffer.wrap(line);
+    encoder.reset();
+    while (true) {
+      int start = staging.position();
+      // UTF-8 keeps no state between chars, so there is nothing to flush from the encoder
+      CoderResult result = encoder.encode(chars, staging, true);
+      add(staging, start, staging.position(), null, 0);
+      if (!result.isOverflow()) {
+        break;
+      }
+      // the rest of the line goes to a fresh staging buffer
+      flush();
+    }
+    writeSeparator();
+    count++;
+  }
+
+  @Override
+  public void write(ByteCharSequence line) throws IOException {
+    reserveRanges();
+    ByteBuffer buffer = line.getBuffer();
+    int start = line.getOffset();
+    int end = start + line.length();
+    boolean terminated = isSeparator(buffer, end);
+    add(buffer, start, terminated ? end + SEPARATOR.length : end, line.getSource(),
+        line.getSourcePosition());
+    if (!terminated) {
+      writeSeparator();
+    }
+    count++;
+  }
+
+  private static boolean isSeparator(ByteBuffer buffer, int index) {
+    if (index + SEPARATOR.length > buffer.limit()) {
+      return false;
+    }
+    for (int i = 0; i < SEPARATOR.length; i++) {
+      if (buffer.get(index + i) != SEPARATOR[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void writeSeparator() throws IOException {
+    if (staging.remaining() < SEPARATOR.length) {
+      flush();
+    }
+    int start = staging.position();
+    staging.put(SEPARATOR);
+    add(staging, start, staging.position(), null, 0);
+  }
+
+  /**
+   * Make room for the two ranges a line can add, a line and a separator. Flushing clears the
+   * staging buffer, so it can't happen halfway through a line.
+   */
+  private void reserveRanges() throws IOException {
+    if (ranges.size() > MAX_RANGES - 2) {
+      flush();
+    }
+  }
+
+  /**
+   * Record a range, extending the last one if it ends where this one starts
+   */
+  private void add(ByteBuffer buffer, int start, int end, FileChannel source, long position) {
+    if (start == end) {
+      return;
+    }
+    Range last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+    if (last != null && last.buffer == buffer && last.end == start) {
+      last.end = end;
+      return;
+    }
+    ranges.add(new Range(buffer, start, end, source, position));
+  }
+
+  @Override
+  public long count() {
+    return count;
+  }
+
+  /**
+   * Write every recorded range, in order
+   * @throws IOException if write failed
+   */
+  @Override
+  public void flush() throws IOException {
+    List<ByteBuffer> gather = new ArrayList<>();
+    for (Range range : ranges) {
+      if (range.end - range.start >= TRANSFER_THRESHOLD && range.source != null) {
+        write(gather);
+        transfer(range);
+      }
+      else {
+        gather.add(range.slice());
+      }
+    }
+    write(gather);
+    ranges.clear();
+    staging.clear();
+  }
+
+  private void write(List<ByteBuffer> gather) throws IOException {
+    ByteBuffer[] buffers = gather.toArray(new ByteBuffer[0]);
+    int first = 0;
+    while (first < buffers.length) {
+      channel.write(buffers, first, buffers.length - first);
+      while (first < buffers.length && !buffers[first].hasRemaining()) {
+        first++;
+      }
+    }
+    gather.clear();
+  }
+
+  /**
+   * Copy a range from its file, or from the mapped buffer for whatever the file no longer
+   * has (it shrank) or can't give (it was closed)
+   */
+  private void transfer(Range range) throws IOException {
+    long position = range.position + range.start;
+    long length = range.end - range.start;
+    long done = 0;
+    if (range.source.isOpen()) {
+      long copied;
+      do {
+        copied = range.source.transferTo(position + done, length - done, channel);
+        done += copied;
+      } while (done < length && copied > 0);
+      transferred += done;
+    }
+    if (done < length) {
+      ByteBuffer rest = range.slice();
+      rest.position(rest.position() + (int) done);
+      while (rest.hasRemaining()) {
+        channel.write(rest);
+      }
+    }
+  }
+
+  /**
+   * @return bytes copied with transferTo so far
+   */
+  long getTransferred() {
+    return transferred;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Bytes [start, end) of a buffer, which was mapped from position of source if source is
+   * not null
+   */
+  private static class Range {
+    private final ByteBuffer buffer;
+    private final int start;
+    private int end;
+    private final FileChannel source;
+    private final long position;
+
+    private Range(ByteBuffer buffer, int start, int end, FileChannel source, long position) {
+      this.buffer = buffer;
+      this.start = start;
+      this.end = end;
+      this.source = source;
+      this.position = position;
+    }
+
+    private ByteBuffer slice() {
+      ByteBuffer slice = buffer.duplicate();
+      slice.limit(end);
+      slice.position(start);
+      return slice;
+    }
+  }
+}
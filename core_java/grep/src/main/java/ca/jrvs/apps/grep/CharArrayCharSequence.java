@@ -0,0 +1,53 @@
+package ca.jrvs.apps.grep;
+
+/**
+ * CharSequence view over a range of a char array. Like ByteCharSequence, the view is
+ * mutable so one instance can be reused for every line decoded into the same array.
+ */
+public class CharArrayCharSequence implements CharSequence {
+
+  private char[] array;
+  private int offset;
+  private int length;
+
+  public CharArrayCharSequence() {
+  }
+
+  public CharArrayCharSequence(char[] array, int offset, int length) {
+    reset(array, offset, length);
+  }
+
+  /**
+   * Point the view at a new range
+   * @return this view
+   */
+  public CharArrayCharSequence reset(char[] array, int offset, int length) {
+    this.array = array;
+    this.offset = offset;
+    this.length = length;
+    return this;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+    }
+    return array[offset + index];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return new CharArrayCharSequence(array, offset + start, end - start);
+  }
+
+  @Override
+  public String toString() {
+    return new String(array, offset, length);
+  }
+}
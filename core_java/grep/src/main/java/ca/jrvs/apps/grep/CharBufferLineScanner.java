@@ -0,0 +1,139 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Line scanner for byte streams that allocates nothing per line. Bytes are decoded as UTF-8
+ * into one reusable CharBuffer and every line is handed to the stage as a window over that
+ * buffer, so matchers run on the decoded chars in place and the stage only copies a String
+ * out of lines that match.
+ *
+ * Lines end at \n, \r or \r\n and malformed input is replaced, the same as
+ * BufferedReader.readLine() over a UTF-8 InputStreamReader. A line longer than the buffer
+ * makes it grow. Buffers are reused from one scan to the next, so an instance must not be
+ * shared between threads.
+ */
+public class CharBufferLineScanner {
+
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private final CharsetDecoder decoder = Utf8LineDecoder.newDecoder();
+  private final ByteBuffer bytes;
+  private final CharArrayCharSequence window = new CharArrayCharSequence();
+  private CharBuffer chars;
+
+  public CharBufferLineScanner() {
+    this(DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param bufferSize bytes read and chars decoded at a time
+   */
+  public CharBufferLineScanner(int bufferSize) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("bufferSize must be >= 1");
+    }
+    // at least room for the longest UTF-8 sequence, or a split char could never complete
+    this.bytes = ByteBuffer.allocate(Math.max(bufferSize, 4));
+    this.chars = CharBuffer.allocate(bufferSize);
+  }
+
+  /**
+   * Scan a stream to its end, or until the stage is done
+   * @param in stream of UTF-8 bytes, not closed
+   * @param stage match stage every line is handed to
+   * @throws IOException if the stream could not be read or the sink failed
+   */
+  public void scan(InputStream in, MatchStage stage) throws IOException {
+    decoder.reset();
+    bytes.clear();
+    chars.clear();
+    boolean eof = false;
+    boolean flushed = false;
+    // the last line ended with \r, so a \n right after it belongs to that line
+    boolean skipLf = false;
+    // chars before this offset are part of a line whose end hasn't been read yet
+    int from = 0;
+
+    while (true) {
+      if (!eof && bytes.hasRemaining()) {
+        int read = in.read(bytes.array(), bytes.position(), bytes.remaining());
+        if (read < 0) {
+          eof = true;
+        }
+        else {
+          bytes.position(bytes.position() + read);
+        }
+      }
+
+      bytes.flip();
+      CoderResult result = decoder.decode(bytes, chars, eof);
+      bytes.compact();
+      if (eof && result.isUnderflow()) {
+        result = decoder.flush(chars);
+        flushed = result.isUnderflow();
+      }
+
+      char[] array = chars.array();
+      int end = chars.position();
+      int lineStart = 0;
+      for (int i = from; i < end; i++) {
+        char c = array[i];
+        if (skipLf) {
+          skipLf = false;
+          if (c == '\n') {
+            lineStart = i + 1;
+            continue;
+          }
+        }
+        if (c == '\n' || c == '\r') {
+          if (accept(stage, lineStart, i)) {
+            return;
+          }
+          skipLf = c == '\r';
+          lineStart = i + 1;
+        }
+      }
+
+      if (eof && flushed) {
+        if (lineStart < end) {
+          accept(stage, lineStart, end);
+        }
+        return;
+      }
+
+      // move the unfinished line to the front and make room after it
+      System.arraycopy(array, lineStart, array, 0, end - lineStart);
+      chars.position(end - lineStart);
+      from = end - lineStart;
+      if (lineStart == 0 && (result.isOverflow() || !chars.hasRemaining())) {
+        // one line fills the buffer, or the next char doesn't fit after it
+        grow();
+      }
+    }
+  }
+
+  /**
+   * @return true if the stage is done
+   */
+  private boolean accept(MatchStage stage, int start, int end) throws IOException {
+    stage.accept(window.reset(chars.array(), start, end - start));
+    return stage.isDone();
+  }
+
+  private void grow() {
+    if (chars.capacity() == Integer.MAX_VALUE) {
+      throw new IllegalStateException("Line longer than " + Integer.MAX_VALUE + " chars");
+    }
+    CharBuffer bigger = CharBuffer.allocate((int) Math.min(chars.capacity() * 2L,
+        Integer.MAX_VALUE));
+    chars.flip();
+    bigger.put(chars);
+    chars = bigger;
+  }
+}
@@ -0,0 +1,264 @@
+package ca.jrvs.apps.grep;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journal of the files a run has finished and how much output they account for, so a run
+ * that dies can be resumed where its last checkpoint left off.
+ *
+ * Files must be reported in output order by the thread that writes the sink. Between
+ * checkpoints a finished file costs one path hash in memory; every interval the sink is
+ * flushed and the hashes are appended to the journal with the output length in one write.
+ * Nothing is synced to disk, so the journal survives the process dying but not the host.
+ *
+ * Resuming truncates the output to the last checkpoint's length and skips the files it
+ * covers. Files are known by a hash of their absolute path, 8 bytes each however long the
+ * path, so millions of finished files stay cheap to hold.
+ *
+ * File layout (big-endian):
+ * magic, version, runHash,
+ * per checkpoint: fileCount, fileCount x pathHash, files, matched, outputLength
+ */
+public class CheckpointJournal implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(CheckpointJournal.class);
+
+  public static final long DEFAULT_INTERVAL_MILLIS = 10_000;
+
+  private static final int MAGIC = 0x4A47434B;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+
+  private final FileChannel journal;
+  private final File outFile;
+  private final long intervalNanos;
+  // sorted hashes of the files finished by the resumed run
+  private final long[] done;
+  private final long resumedFiles;
+  private final long resumedMatched;
+  private final boolean resumed;
+
+  private long[] pending = new long[1024];
+  private int pendingCount;
+  private long files;
+  private long matched;
+  private long lastCheckpoint = System.nanoTime();
+
+  private CheckpointJournal(FileChannel journal, File outFile, long intervalMillis,
+      long[] done, long resumedFiles, long resumedMatched, boolean resumed) {
+    this.journal = journal;
+    this.outFile = outFile;
+    this.intervalNanos = intervalMillis * 1_000_000;
+    this.done = done;
+    this.resumedFiles = resumedFiles;
+    this.resumedMatched = resumedMatched;
+    this.resumed = resumed;
+    this.files = resumedFiles;
+    this.matched = resumedMatched;
+  }
+
+  /**
+   * Start a new journal, replacing any journal of an earlier run
+   * @param journalFile journal file
+   * @param outFile output file the checkpoints measure
+   * @param runKey everything that decides the output of the run, e.g. root and pattern
+   * @param intervalMillis time between checkpoints
+   * @return the journal
+   * @throws IOException if the journal cannot be written
+   */
+  public static CheckpointJournal create(Path journalFile, File outFile, String runKey,
+      long intervalMillis) throws IOException {
+    FileChannel journal = FileChannel.open(journalFile, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putInt(MAGIC).putInt(VERSION).putLong(ResultCache.hash(runKey)).flip();
+    writeFully(journal, header);
+    return new CheckpointJournal(journal, outFile, intervalMillis, new long[0], 0, 0, false);
+  }
+
+  /**
+   * Continue the journal of an earlier run of the same key, or start a new one if there is
+   * none. outFile is truncated to the length of the last checkpoint and must be appended to.
+   * @see #create(Path, File, String, long)
+   * @throws IllegalArgumentException if the journal was written by a run of another key
+   * @throws IOException if the journal is not valid or outFile is shorter than it says
+   */
+  public static CheckpointJournal resume(Path journalFile, File outFile, String runKey,
+      long intervalMillis) throws IOException {
+    if (!Files.isRegularFile(journalFile)) {
+      logger.info("No checkpoint journal at {}, starting from the beginning", journalFile);
+      return create(journalFile, outFile, runKey, intervalMillis);
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journalFile));
+    if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC
+        || buffer.getInt() != VERSION) {
+      throw new IOException("Not a checkpoint journal: " + journalFile);
+    }
+    if (buffer.getLong() != ResultCache.hash(runKey)) {
+      throw new IllegalArgumentException("Checkpoint journal " + journalFile
+          + " belongs to a run with another root, pattern or output mode");
+    }
+
+    // a checkpoint cut short by the process dying is dropped with everything after it
+    long[] hashes = new long[0];
+    int count = 0;
+    long files = 0;
+    long matched = 0;
+    long length = 0;
+    int end = buffer.position();
+    try {
+      while (buffer.hasRemaining()) {
+        int fileCount = getInt(buffer);
+        if (fileCount < 0 || fileCount > buffer.remaining() / 8) {
+          break;
+        }
+        if (count + fileCount > hashes.length) {
+          hashes = Arrays.copyOf(hashes, Math.max(count + fileCount, hashes.length * 2));
+        }
+        for (int i = 0; i < fileCount; i++) {
+          hashes[count + i] = buffer.getLong();
+        }
+        long checkpointFiles = getLong(buffer);
+        long checkpointMatched = getLong(buffer);
+        long checkpointLength = getLong(buffer);
+        count += fileCount;
+        files = checkpointFiles;
+        matched = checkpointMatched;
+        length = checkpointLength;
+        end = buffer.position();
+      }
+    }
+    catch (EOFException e) {
+      // torn checkpoint, the last complete one stands
+    }
+
+    long outLength = outFile.length();
+    if (outLength < length) {
+      throw new IOException("Output " + outFile + " has " + outLength
+          + " bytes but the checkpoint journal expects at least " + length);
+    }
+    try (FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE)) {
+      out.truncate(length);
+    }
+
+    FileChannel journal = FileChannel.open(journalFile, StandardOpenOption.WRITE);
+    journal.truncate(end);
+    journal.position(end);
+    long[] done = Arrays.copyOf(hashes, count);
+    Arrays.sort(done);
+    logger.info("Resuming after {} files and {} matched lines, output kept up to {} bytes",
+        files, matched, length);
+    return new CheckpointJournal(journal, outFile, intervalMillis, done, files, matched, true);
+  }
+
+  private static int getInt(ByteBuffer buffer) throws EOFException {
+    if (buffer.remaining() < 4) {
+      throw new EOFException();
+    }
+    return buffer.getInt();
+  }
+
+  private static long getLong(ByteBuffer buffer) throws EOFException {
+    if (buffer.remaining() < 8) {
+      throw new EOFException();
+    }
+    return buffer.getLong();
+  }
+
+  /**
+   * @param file file about to be scanned
+   * @return true if the resumed run finished the file and its output was kept
+   */
+  public boolean isDone(File file) {
+    return done.length > 0 && Arrays.binarySearch(done, pathHash(file)) >= 0;
+  }
+
+  /**
+   * Record that every line of a file has been written to the sink, and take a checkpoint
+   * if the interval has passed
+   * @param file finished file
+   * @param fileMatched matched lines of the file
+   * @param sink sink the lines were written to, flushed by a checkpoint
+   * @throws IOException if the sink or the journal failed
+   */
+  public void completed(File file, long fileMatched, LineSink sink) throws IOException {
+    if (pendingCount == pending.length) {
+      pending = Arrays.copyOf(pending, pending.length * 2);
+    }
+    pending[pendingCount++] = pathHash(file);
+    files++;
+    matched += fileMatched;
+    if (System.nanoTime() - lastCheckpoint >= intervalNanos) {
+      checkpoint(sink);
+    }
+  }
+
+  /**
+   * Flush the sink and append the files finished since the last checkpoint with the output
+   * length they account for
+   * @param sink sink of the run
+   * @throws IOException if the sink or the journal failed
+   */
+  public void checkpoint(LineSink sink) throws IOException {
+    sink.flush();
+    long length = outFile.length();
+    ByteBuffer record = ByteBuffer.allocate(4 + pendingCount * 8 + 24);
+    record.putInt(pendingCount);
+    for (int i = 0; i < pendingCount; i++) {
+      record.putLong(pending[i]);
+    }
+    record.putLong(files).putLong(matched).putLong(length).flip();
+    writeFully(journal, record);
+    pendingCount = 0;
+    lastCheckpoint = System.nanoTime();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static long pathHash(File file) {
+    return ResultCache.hash(file.getAbsolutePath());
+  }
+
+  /**
+   * @return true if the journal continues an earlier run, whose output must be appended to
+   */
+  public boolean isResumed() {
+    return resumed;
+  }
+
+  /**
+   * @return files finished by the resumed run
+   */
+  public long getResumedFiles() {
+    return resumedFiles;
+  }
+
+  /**
+   * @return matched lines of the files finished by the resumed run
+   */
+  public long getResumedMatched() {
+    return resumedMatched;
+  }
+
+  @Override
+  public void close() throws IOException {
+    journal.close();
+  }
+}
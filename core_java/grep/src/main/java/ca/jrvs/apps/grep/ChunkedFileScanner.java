@@ -0,0 +1,141 @@
+package ca.jrvs.apps.grep;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * Scans one large file on several threads by splitting it into byte ranges.
+ *
+ * Every chunk boundary is moved forward to just after the next \n, so each chunk starts at
+ * the beginning of a line and no line is split. Chunks are matched independently with a
+ * MappedFileScanner and written in file order through OrderedSlots, so the output is the
+ * same as a sequential scan.
+ */
+public class ChunkedFileScanner {
+
+  private static final int BOUNDARY_BUFFER_SIZE = 64 * 1024;
+
+  private final long chunkSize;
+  private final int threads;
+  private final int window;
+  private final MappedFileScanner scanner;
+
+  public ChunkedFileScanner(long chunkSize, int threads) {
+    this(chunkSize, threads, new MappedFileScanner(Math.min(chunkSize,
+        MappedFileScanner.DEFAULT_WINDOW_SIZE)));
+  }
+
+  public ChunkedFileScanner(long chunkSize, int threads, MappedFileScanner scanner) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("chunkSize must be >= 1");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be >= 1");
+    }
+    this.chunkSize = chunkSize;
+    this.threads = threads;
+    this.window = threads * 2;
+    this.scanner = scanner;
+  }
+
+  /**
+   * Scan a file chunk by chunk and write matched lines to the sink in file order
+   * @param file file to be scanned
+   * @param stages creates the match stage of one chunk for a given result slot
+   * @param sink destination of matched lines
+   * @return number of matched lines
+   * @throws IOException if the file could not be read or the sink failed
+   */
+  public long scan(File file, Function<LineSink, MatchStage> stages, LineSink sink)
+      throws IOException {
+    return scan(file, stages, Long.MAX_VALUE, sink);
+  }
+
+  /**
+   * Scan a file chunk by chunk until limit lines have matched. Every chunk is drained
+   * whole, so the stages should stop at the limit themselves, and matched lines past the
+   * limit can still be written when chunks are scanned in parallel.
+   * @param limit number of matched lines after which the remaining chunks are skipped
+   * @return number of matched lines, at most limit
+   * @see #scan(File, Function, LineSink)
+   */
+  public long scan(File file, Function<LineSink, MatchStage> stages, long limit, LineSink sink)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return scan(channel, stages, limit, sink);
+    }
+  }
+
+  /**
+   * @param channel open channel of the file, not closed
+   * @see #scan(File, Function, long, LineSink)
+   */
+  public long scan(FileChannel channel, Function<LineSink, MatchStage> stages, long limit,
+      LineSink sink) throws IOException {
+    try {
+      return OrderedSlots.run(new Iterator<OrderedSlots.Piece>() {
+        private final long size = channel.size();
+        private long start = 0;
+
+        @Override
+        public boolean hasNext() {
+          return start < size;
+        }
+
+        @Override
+        public OrderedSlots.Piece next() {
+          long chunkStart = start;
+          long chunkEnd;
+          try {
+            chunkEnd = nextLineStart(channel, Math.min(start + chunkSize, size), size);
+          }
+          catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          start = chunkEnd;
+          return slot -> {
+            MatchStage stage = stages.apply(slot);
+            scanner.scan(channel, chunkStart, chunkEnd, stage);
+            return stage.getMatched();
+          };
+        }
+      }, threads, window, limit, sink);
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Find the first line start at or after pos
+   * @return offset just after the first \n at or after pos - 1, or size if there is none
+   */
+  static long nextLineStart(FileChannel channel, long pos, long size) throws IOException {
+    if (pos >= size || pos == 0) {
+      return Math.min(pos, size);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_BUFFER_SIZE);
+    // pos is a line start already if the byte before it is \n
+    long offset = pos - 1;
+    while (offset < size) {
+      buffer.clear();
+      int read = channel.read(buffer, offset);
+      if (read < 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') {
+          return offset + i + 1;
+        }
+      }
+      offset += read;
+    }
+    return size;
+  }
+}
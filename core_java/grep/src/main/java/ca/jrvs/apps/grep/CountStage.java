@@ -0,0 +1,17 @@
+package ca.jrvs.apps.grep;
+
+/**
+ * Match stage that only counts matched lines. Nothing is written and no String is built for
+ * a match, so lines of the memory mapped scanner never leave their byte view.
+ */
+public class CountStage extends MatchStage {
+
+  public CountStage(LineMatcher matcher) {
+    super(matcher, null);
+  }
+
+  @Override
+  public void emit(CharSequence line) {
+    matched++;
+  }
+}
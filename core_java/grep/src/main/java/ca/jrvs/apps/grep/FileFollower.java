@@ -0,0 +1,343 @@
+package ca.jrvs.apps.grep;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follow mode: keeps searching the files under the root as they grow, like tail -f piped to
+ * grep.
+ *
+ * Every plain file is scanned once, then a WatchService reports changes and only the bytes
+ * appended since the last scan are matched. Each file keeps an open channel and the offset
+ * after its last complete line; a trailing line without newline waits until it is finished.
+ * - truncation (size below the offset, or no line break just before it) starts the file
+ *   over from 0
+ * - rotation (the path now names another file, by file key) finishes the old file from its
+ *   still open channel before the new file is read from 0. If the old file is found under a
+ *   new name in the same directory, e.g. app.log.1, the walk of the same batch follows it
+ *   from the same offset instead of starting over
+ * - deleted files are finished and closed, and their offsets forgotten
+ * - new files and directories trigger a new walk, so the walker's filters still apply
+ *
+ * Matches are flushed to the sink after every batch of events, so they reach the output
+ * as soon as they are found. Compressed files are scanned once and not followed.
+ */
+public class FileFollower implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(FileFollower.class);
+
+  private static final int TAIL_BUFFER_SIZE = 64 * 1024;
+  private static final long WINDOW_SIZE = 1024 * 1024;
+
+  private final JavaGrepImp grep;
+  private final LineSink sink;
+  // followed files can be truncated at any time, so they are read rather than mapped
+  private final MappedFileScanner scanner = new MappedFileScanner(WINDOW_SIZE, false);
+  private final WatchService watcher;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  private final Map<Path, Followed> files = new LinkedHashMap<>();
+  private final Set<Path> scannedOnce = new LinkedHashSet<>();
+  // files rotated away in the current batch, by their new name, until the walk takes them
+  private final Map<Path, Followed> rotated = new HashMap<>();
+
+  public FileFollower(JavaGrepImp grep, LineSink sink) throws IOException {
+    this.grep = grep;
+    this.sink = sink;
+    this.watcher = FileSystems.getDefault().newWatchService();
+  }
+
+  /**
+   * Scan every file under the root and start watching
+   * @throws IOException if a file could not be read or the sink failed
+   */
+  public void start() throws IOException {
+    rescan();
+    sink.flush();
+  }
+
+  /**
+   * Follow the files until the thread is interrupted or the follower is closed
+   * @throws IOException if a file could not be read or the sink failed
+   */
+  public void run() throws IOException {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        poll(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+    }
+    catch (InterruptedException | ClosedWatchServiceException e) {
+      logger.info("Stopped following {}", grep.getRootPath());
+    }
+  }
+
+  /**
+   * Wait for changes and scan them
+   * @param timeout how long to wait for the first change
+   * @param unit unit of timeout
+   * @return true if there were changes
+   * @throws IOException if a file could not be read or the sink failed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+    WatchKey key = watcher.poll(timeout, unit);
+    if (key == null) {
+      return false;
+    }
+
+    Set<Path> changed = new LinkedHashSet<>();
+    boolean walk = false;
+    // take every key that is ready, so a burst of writes is handled as one batch
+    for (; key != null; key = watcher.poll()) {
+      Path dir = directories.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+          walk = true;
+          changed.addAll(files.keySet());
+          continue;
+        }
+        Path path = dir.resolve((Path) event.context());
+        // only new entries can add files; changes to files that aren't followed (filtered
+        // out, or the output file itself) are ignored
+        walk |= event.kind() == StandardWatchEventKinds.ENTRY_CREATE;
+        changed.add(path);
+      }
+      if (!key.reset()) {
+        directories.remove(key);
+      }
+    }
+
+    for (Path path : changed) {
+      Followed followed = files.get(path);
+      if (followed != null) {
+        walk |= update(path, followed);
+      }
+    }
+    if (walk) {
+      rescan();
+    }
+    // a rotated file the walk filtered out isn't followed
+    rotated.clear();
+    sink.flush();
+    return true;
+  }
+
+  /**
+   * Walk the root, start following new files and watch their directories
+   */
+  private void rescan() throws IOException {
+    String root = grep.getRootPath();
+    Path rootPath = new File(root).toPath().toAbsolutePath().normalize();
+    if (Files.isDirectory(rootPath)) {
+      watch(rootPath);
+    }
+
+    for (File file : grep.listFiles(root)) {
+      // absolute, to compare with the paths of watch events
+      Path path = file.toPath().toAbsolutePath().normalize();
+      if (files.containsKey(path) || scannedOnce.contains(path)) {
+        continue;
+      }
+      Path parent = path.getParent();
+      if (parent != null) {
+        watch(parent);
+      }
+
+      if (InputFormat.of(file) != InputFormat.PLAIN) {
+        scannedOnce.add(path);
+        grep.scanFile(file, sink);
+        continue;
+      }
+      try {
+        Followed followed = new Followed(path);
+        Followed old = rotated.remove(path);
+        if (old != null && old.key.equals(followed.key)) {
+          logger.info("{} is a rotated file, following it from where it was left", path);
+          followed.offset = old.offset;
+          followed.unterminated = old.unterminated;
+        }
+        files.put(path, followed);
+        drain(path, followed, false);
+      }
+      catch (NoSuchFileException e) {
+        logger.debug("File disappeared before it was followed: {}", path);
+      }
+    }
+  }
+
+  private void watch(Path dir) throws IOException {
+    if (!directories.containsValue(dir)) {
+      directories.put(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+    }
+  }
+
+  /**
+   * Handle a change of a followed path: growth, truncation, rotation or deletion
+   * @return true if the old file was renamed, so a walk should pick it up
+   */
+  private boolean update(Path path, Followed followed) throws IOException {
+    Object key = fileKey(path);
+    if (key != null && key.equals(followed.key)) {
+      drain(path, followed, false);
+      return false;
+    }
+
+    // the path was rotated away or deleted: finish the old file, including an unterminated
+    // last line, then pick up whatever file has the name now
+    drain(path, followed, true);
+    followed.channel.close();
+    files.remove(path);
+    Path renamed = findRenamed(path.getParent(), followed.key);
+    if (renamed != null) {
+      rotated.put(renamed, followed);
+    }
+    if (key != null) {
+      logger.info("{} was rotated, following the new file", path);
+      Followed replacement = new Followed(path);
+      files.put(path, replacement);
+      drain(path, replacement, false);
+    }
+    return renamed != null;
+  }
+
+  /**
+   * Look for a file that was followed under another name. Only its directory is searched,
+   * since a file key can be reused once the file is deleted.
+   * @return new path of the file, or null if it was deleted or moved elsewhere
+   */
+  private Path findRenamed(Path dir, Object key) throws IOException {
+    if (dir == null || key == null) {
+      return null;
+    }
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+      for (Path entry : entries) {
+        Path path = entry.toAbsolutePath().normalize();
+        if (!files.containsKey(path) && key.equals(fileKey(path))) {
+          return path;
+        }
+      }
+    }
+    catch (NoSuchFileException e) {
+      // the directory went away with the file
+    }
+    return null;
+  }
+
+  /**
+   * Scan the bytes appended since the last scan
+   * @param complete true to scan a trailing line without newline too
+   */
+  private void drain(Path path, Followed followed, boolean complete) throws IOException {
+    long size = followed.channel.size();
+    // a file finished with an unterminated last line has no \n before its offset
+    if (size < followed.offset
+        || (!followed.unterminated && !isLineStart(followed.channel, followed.offset))) {
+      logger.info("{} was truncated, reading it from the start", path);
+      followed.offset = 0;
+      followed.unterminated = false;
+    }
+
+    long end = complete ? size : lastLineEnd(followed.channel, followed.offset, size);
+    if (end > followed.offset) {
+      scanner.scan(followed.channel, followed.offset, end, grep.newMatchStage(sink));
+      followed.offset = end;
+      followed.unterminated = complete && !isLineStart(followed.channel, end);
+    }
+  }
+
+  /**
+   * The offset of a followed file always comes right after a \n. If it doesn't any more,
+   * the file was truncated and has since grown past the old offset.
+   */
+  private static boolean isLineStart(FileChannel channel, long offset) throws IOException {
+    if (offset == 0) {
+      return true;
+    }
+    ByteBuffer previous = ByteBuffer.allocate(1);
+    return channel.read(previous, offset - 1) == 1 && previous.get(0) == '\n';
+  }
+
+  /**
+   * @return offset just after the last \n in [start, end), or start if there is none
+   */
+  static long lastLineEnd(FileChannel channel, long start, long end) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(TAIL_BUFFER_SIZE);
+    long blockEnd = end;
+    while (blockEnd > start) {
+      long blockStart = Math.max(start, blockEnd - TAIL_BUFFER_SIZE);
+      buffer.clear();
+      buffer.limit((int) (blockEnd - blockStart));
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, blockStart + buffer.position()) < 0) {
+          break;
+        }
+      }
+      for (int i = buffer.position() - 1; i >= 0; i--) {
+        if (buffer.get(i) == '\n') {
+          return blockStart + i + 1;
+        }
+      }
+      blockEnd = blockStart;
+    }
+    return start;
+  }
+
+  private static Object fileKey(Path path) {
+    try {
+      BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      // file systems without inode style keys fall back to the creation time
+      return attrs.fileKey() != null ? attrs.fileKey() : attrs.creationTime();
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    watcher.close();
+    for (Followed followed : files.values()) {
+      followed.channel.close();
+    }
+    files.clear();
+  }
+
+  /**
+   * A followed file: its open channel, identity and the offset after its last scanned line
+   */
+  private static class Followed {
+    private final FileChannel channel;
+    private final Object key;
+    private long offset;
+    // finished with a last line without \n, which was scanned up to the offset
+    private boolean unterminated;
+
+    Followed(Path path) throws IOException {
+      this.key = fileKey(path);
+      this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+  }
+}
@@ -0,0 +1,390 @@
+package ca.jrvs.apps.grep;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Directory walker built on Files.walkFileTree. Attributes are read once per entry by the
+ * walk itself and the traversal is iterative, so deep trees can't overflow the stack.
+ *
+ * Filters are applied while walking so excluded subtrees are never entered:
+ * - include globs select which files are returned (directories are always walked)
+ * - exclude globs drop files and prune whole directories
+ * - maxDepth limits how far below the root the walk goes
+ * - hidden entries (names starting with '.') can be skipped
+ * - symbolic links are either followed (cycles are detected by the walk) or skipped
+ * - a .gitignore-style ignore file found in any directory applies to that subtree
+ *
+ * A glob containing '/' is matched against the path relative to the root, otherwise it is
+ * matched against the file name. The root itself is never filtered out.
+ */
+public class FileWalker {
+
+  private static final Logger logger = LoggerFactory.getLogger(FileWalker.class);
+
+  private static final int QUEUE_CAPACITY = 1024;
+
+  private final List<String> includes = new ArrayList<>();
+  private final List<String> excludes = new ArrayList<>();
+  private int maxDepth = Integer.MAX_VALUE;
+  private boolean skipHidden;
+  private boolean followLinks = true;
+  private String ignoreFileName;
+
+  /**
+   * Walk a root and collect every file that passes the filters
+   * @param rootDir directory or file to walk
+   * @return files in walk order
+   * @throws UncheckedIOException if the walk failed
+   */
+  public List<File> list(String rootDir) {
+    List<File> files = new ArrayList<>();
+    walk(Paths.get(rootDir), files::add, () -> false);
+    return files;
+  }
+
+  /**
+   * Walk a root on a background thread and hand out files as they are found, so the
+   * consumer can start before the walk finishes. The stream must be closed, which stops
+   * the walk if it is still running.
+   *
+   * @param rootDir directory or file to walk
+   * @return lazy stream of files in walk order
+   */
+  public Stream<File> stream(String rootDir) {
+    Path root = Paths.get(rootDir);
+    BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    Object end = new Object();
+    AtomicBoolean closed = new AtomicBoolean();
+
+    Thread walker = new Thread(() -> {
+      try {
+        Object last = end;
+        try {
+          walk(root, file -> put(queue, file, closed), closed::get);
+        }
+        catch (CancellationSignal e) {
+          return;
+        }
+        catch (RuntimeException e) {
+          last = e;
+        }
+        put(queue, last, closed);
+      }
+      catch (CancellationSignal e) {
+        // consumer closed the stream, nobody is waiting for the end marker
+      }
+    }, "file-walker");
+    walker.setDaemon(true);
+    walker.start();
+
+    Spliterator<File> files = new Spliterators.AbstractSpliterator<File>(Long.MAX_VALUE,
+        Spliterator.ORDERED | Spliterator.NONNULL) {
+      private boolean done;
+
+      @Override
+      public boolean tryAdvance(Consumer<? super File> action) {
+        if (done) {
+          return false;
+        }
+        Object next = take(queue);
+        if (next instanceof File) {
+          action.accept((File) next);
+          return true;
+        }
+        done = true;
+        if (next instanceof RuntimeException) {
+          throw (RuntimeException) next;
+        }
+        return false;
+      }
+    };
+
+    return StreamSupport.stream(files, false).onClose(() -> {
+      closed.set(true);
+      walker.interrupt();
+    });
+  }
+
+  private void walk(Path root, Consumer<File> action, Cancel cancel) {
+    Set<FileVisitOption> options = followLinks
+        ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+        : Collections.<FileVisitOption>emptySet();
+
+    try {
+      Files.walkFileTree(root, options, maxDepth, new Visitor(root, action, cancel));
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("Failed to walk " + root, e);
+    }
+  }
+
+  private static void put(BlockingQueue<Object> queue, Object item, AtomicBoolean closed) {
+    try {
+      // time out now and then so a closed stream can't leave the walker blocked forever
+      while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+        if (closed.get()) {
+          throw new CancellationSignal();
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationSignal();
+    }
+  }
+
+  private static Object take(BlockingQueue<Object> queue) {
+    try {
+      return queue.take();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the file walker", e);
+    }
+  }
+
+  private interface Cancel {
+    boolean isCancelled();
+  }
+
+  /**
+   * Thrown inside the walker thread to unwind the walk once the consumer is gone
+   */
+  private static class CancellationSignal extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private CancellationSignal() {
+      super(null, null, false, false);
+    }
+  }
+
+  private class Visitor extends SimpleFileVisitor<Path> {
+    private final Path root;
+    private final Consumer<File> action;
+    private final Cancel cancel;
+    private final List<PathMatcher> includeMatchers = new ArrayList<>();
+    private final List<PathMatcher> excludeMatchers = new ArrayList<>();
+    // ignore rules of the directories from the root down to the current one
+    private final Deque<IgnoreLevel> ignoreLevels = new ArrayDeque<>();
+
+    private Visitor(Path root, Consumer<File> action, Cancel cancel) {
+      this.root = root;
+      this.action = action;
+      this.cancel = cancel;
+      for (String glob : includes) {
+        includeMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+      }
+      for (String glob : excludes) {
+        excludeMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+      }
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+      if (cancel.isCancelled()) {
+        return FileVisitResult.TERMINATE;
+      }
+      if (!dir.equals(root) && isFiltered(dir, true)) {
+        return FileVisitResult.SKIP_SUBTREE;
+      }
+
+      IgnoreRules rules = null;
+      if (ignoreFileName != null) {
+        Path ignoreFile = dir.resolve(ignoreFileName);
+        if (Files.isRegularFile(ignoreFile)) {
+          try {
+            rules = IgnoreRules.load(ignoreFile);
+          }
+          catch (IOException e) {
+            logger.warn("Unable to read ignore file {}", ignoreFile, e);
+          }
+        }
+      }
+      ignoreLevels.push(new IgnoreLevel(dir, rules));
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+      ignoreLevels.pop();
+      if (e != null) {
+        logger.warn("Error while listing {}", dir, e);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+      if (cancel.isCancelled()) {
+        return FileVisitResult.TERMINATE;
+      }
+
+      // directories at maxDepth, special files and unfollowed links come through here too
+      if (!attrs.isRegularFile()) {
+        return FileVisitResult.CONTINUE;
+      }
+
+      boolean explicitRoot = file.equals(root);
+      if (explicitRoot || (!isFiltered(file, false) && isIncluded(file))) {
+        action.accept(file.toFile());
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException e) {
+      logger.warn("Unable to visit {}", file, e);
+      return FileVisitResult.CONTINUE;
+    }
+
+    private boolean isFiltered(Path path, boolean directory) {
+      Path name = path.getFileName();
+      if (skipHidden && name != null && name.toString().startsWith(".")) {
+        return true;
+      }
+      if (matchesAny(excludeMatchers, path)) {
+        return true;
+      }
+      return isIgnored(path, directory);
+    }
+
+    private boolean isIncluded(Path file) {
+      return includeMatchers.isEmpty() || matchesAny(includeMatchers, file);
+    }
+
+    private boolean matchesAny(List<PathMatcher> matchers, Path path) {
+      if (matchers.isEmpty()) {
+        return false;
+      }
+      Path relative = root.relativize(path);
+      Path name = path.getFileName();
+      for (PathMatcher matcher : matchers) {
+        if (matcher.matches(relative) || (name != null && matcher.matches(name))) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private boolean isIgnored(Path path, boolean directory) {
+      Boolean ignored = null;
+      // deeper ignore files override the ones above them
+      Iterator<IgnoreLevel> it = ignoreLevels.descendingIterator();
+      while (it.hasNext()) {
+        IgnoreLevel level = it.next();
+        if (level.rules == null) {
+          continue;
+        }
+        String relative = level.dir.relativize(path).toString().replace(File.separatorChar, '/');
+        Boolean result = level.rules.isIgnored(relative, directory);
+        if (result != null) {
+          ignored = result;
+        }
+      }
+      return ignored != null && ignored;
+    }
+  }
+
+  private static class IgnoreLevel {
+    private final Path dir;
+    private final IgnoreRules rules;
+
+    private IgnoreLevel(Path dir, IgnoreRules rules) {
+      this.dir = dir;
+      this.rules = rules;
+    }
+  }
+
+  public List<String> getIncludes() {
+    return includes;
+  }
+
+  /**
+   * Only return files matching at least one of the include globs
+   * @param glob glob such as *.log or logs/**
+   */
+  public void addInclude(String glob) {
+    includes.add(glob);
+  }
+
+  public List<String> getExcludes() {
+    return excludes;
+  }
+
+  /**
+   * Skip files and whole directories matching the glob
+   * @param glob glob such as *.gz or build
+   */
+  public void addExclude(String glob) {
+    excludes.add(glob);
+  }
+
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public void setMaxDepth(int maxDepth) {
+    if (maxDepth < 0) {
+      throw new IllegalArgumentException("maxDepth must be >= 0");
+    }
+    this.maxDepth = maxDepth;
+  }
+
+  public boolean isSkipHidden() {
+    return skipHidden;
+  }
+
+  public void setSkipHidden(boolean skipHidden) {
+    this.skipHidden = skipHidden;
+  }
+
+  public boolean isFollowLinks() {
+    return followLinks;
+  }
+
+  public void setFollowLinks(boolean followLinks) {
+    this.followLinks = followLinks;
+  }
+
+  public String getIgnoreFileName() {
+    return ignoreFileName;
+  }
+
+  /**
+   * Name of the .gitignore-style file to honour in every directory, or null for none
+   * @param ignoreFileName file name such as .gitignore
+   */
+  public void setIgnoreFileName(String ignoreFileName) {
+    this.ignoreFileName = ignoreFileName;
+  }
+}
@@ -0,0 +1,271 @@
+package ca.jrvs.apps.grep;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command line parsing shared by the JavaGrep main methods.
+ *
+ * Options come before the positional arguments and use the --name=value form. A bare "--"
+ * ends the options, which allows regexes that start with "--".
+ */
+final class GrepCli {
+
+  static final String USAGE = "USAGE: JavaGrep [--threads=N] [--chunk-size=SIZE]"
+      + " [--pipeline] [--readers=N] [--matchers=N] [--auto-tune]"
+      + " [--mmap-threshold=SIZE] [--include=GLOB] [--exclude=GLOB] [--max-depth=N]"
+      + " [--skip-hidden] [--no-follow-links] [--ignore-file=NAME] [--index=FILE]"
+      + " [--metrics=FILE] [--cache=FILE] [--cache-size=SIZE] [--follow]"
+      + " [--files-with-matches | --count] [--max-count=N] [--engine=java|automaton]"
+      + " [--binary=count|skip|text]"
+      + " [--sort | --uniq | --uniq-count] [--sort-memory=SIZE]"
+      + " [--checkpoint=FILE] [--checkpoint-interval=SECONDS] [--resume] [--workers=N]"
+      + " <regex> <rootPath> <outFile>\n"
+      + "       JavaGrep [options] --pattern-file=FILE <rootPath> <outFile>";
+
+  private GrepCli() {
+  }
+
+  /**
+   * Apply the command line to a grep instance
+   * @param grep instance to configure
+   * @param args command line arguments
+   * @throws IllegalArgumentException if the arguments are not valid
+   */
+  static void configure(JavaGrepImp grep, String[] args) {
+    List<String> positional = new ArrayList<>();
+    boolean options = true;
+
+    for (String arg : args) {
+      if (options && arg.equals("--")) {
+        options = false;
+      }
+      else if (options && arg.startsWith("--")) {
+        applyOption(grep, arg);
+      }
+      else {
+        options = false;
+        positional.add(arg);
+      }
+    }
+
+    // a pattern file takes the place of the regex argument
+    int regexArgs = grep.getPatternFile() == null ? 1 : 0;
+    if (positional.size() != regexArgs + 2) {
+      throw new IllegalArgumentException(USAGE);
+    }
+
+    if (regexArgs == 1) {
+      grep.setRegex(positional.get(0));
+    }
+    grep.setRootPath(positional.get(regexArgs));
+    grep.setOutFile(positional.get(regexArgs + 1));
+  }
+
+  private static void applyOption(JavaGrepImp grep, String arg) {
+    int eq = arg.indexOf('=');
+    String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+    String value = eq < 0 ? null : arg.substring(eq + 1);
+
+    switch (name) {
+      case "threads":
+        grep.setThreads(parseInt(name, value));
+        break;
+      case "workers":
+        grep.setWorkers(parseInt(name, value));
+        break;
+      case "shard":
+        grep.setShardFile(requireValue(name, value));
+        break;
+      case "pipeline":
+        grep.setPipeline(true);
+        break;
+      case "auto-tune":
+        grep.setAutoTune(true);
+        break;
+      case "readers":
+        grep.setReaders(parseInt(name, value));
+        break;
+      case "matchers":
+        grep.setMatchers(parseInt(name, value));
+        break;
+      case "chunk-size":
+        grep.setChunkSize(parseSize(name, value));
+        break;
+      case "mmap-threshold":
+        grep.setMmapThreshold(parseSize(name, value));
+        break;
+      case "include":
+        grep.getWalker().addInclude(requireValue(name, value));
+        break;
+      case "exclude":
+        grep.getWalker().addExclude(requireValue(name, value));
+        break;
+      case "max-depth":
+        grep.getWalker().setMaxDepth(parseInt(name, value));
+        break;
+      case "skip-hidden":
+        grep.getWalker().setSkipHidden(true);
+        break;
+      case "no-follow-links":
+        grep.getWalker().setFollowLinks(false);
+        break;
+      case "ignore-file":
+        grep.getWalker().setIgnoreFileName(requireValue(name, value));
+        break;
+      case "index":
+        grep.setIndexFile(requireValue(name, value));
+        break;
+      case "cache":
+        grep.setCacheFile(requireValue(name, value));
+        break;
+      case "cache-size":
+        grep.setCacheSize(parseSize(name, value));
+        break;
+      case "follow":
+        grep.setFollow(true);
+        break;
+      case "files-with-matches":
+        grep.setOutputMode(OutputMode.FILES_WITH_MATCHES);
+        break;
+      case "count":
+        grep.setOutputMode(OutputMode.COUNT);
+        break;
+      case "max-count":
+        grep.setMaxCount(parseInt(name, value));
+        break;
+      case "sort":
+        grep.setSortMode(SortMode.SORT);
+        break;
+      case "uniq":
+        grep.setSortMode(SortMode.UNIQUE);
+        break;
+      case "uniq-count":
+        grep.setSortMode(SortMode.UNIQUE_COUNT);
+        break;
+      case "sort-memory":
+        grep.setSortMemory(parseSize(name, value));
+        break;
+      case "checkpoint":
+        grep.setCheckpointFile(requireValue(name, value));
+        break;
+      case "checkpoint-interval":
+        grep.setCheckpointInterval(parseInt(name, value) * 1000L);
+        break;
+      case "resume":
+        grep.setResume(true);
+        break;
+      case "engine":
+        grep.setEngine(parseEngine(name, value));
+        break;
+      case "binary":
+        grep.setBinaryPolicy(parseBinaryPolicy(name, value));
+        break;
+      case "metrics":
+        grep.setMetricsFile(requireValue(name, value));
+        break;
+      case "pattern-file":
+        grep.setPatternFile(requireValue(name, value));
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown option: " + arg + "\n" + USAGE);
+    }
+  }
+
+  /**
+   * Options a shard worker needs to scan its files the way this instance would. Walking,
+   * the index, the cache, checkpoints, sorting and metrics stay with the coordinator.
+   * @param grep configured instance
+   * @return options in --name=value form
+   */
+  static List<String> workerArgs(JavaGrepImp grep) {
+    List<String> args = new ArrayList<>();
+    args.add("--threads=" + grep.getThreads());
+    args.add("--chunk-size=" + grep.getChunkSize());
+    if (grep.isPipeline()) {
+      args.add("--pipeline");
+    }
+    if (grep.isAutoTune()) {
+      args.add("--auto-tune");
+    }
+    args.add("--readers=" + grep.getReaders());
+    args.add("--matchers=" + grep.getMatchers());
+    args.add("--mmap-threshold=" + grep.getMmapThreshold());
+    args.add("--engine=" + grep.getEngine().name().toLowerCase(Locale.ROOT));
+    args.add("--binary=" + grep.getBinaryPolicy().name().toLowerCase(Locale.ROOT));
+    if (grep.getOutputMode() == OutputMode.FILES_WITH_MATCHES) {
+      args.add("--files-with-matches");
+    }
+    else if (grep.getOutputMode() == OutputMode.COUNT) {
+      args.add("--count");
+    }
+    if (grep.getMaxCount() > 0) {
+      args.add("--max-count=" + grep.getMaxCount());
+    }
+    if (grep.getPatternFile() != null) {
+      args.add("--pattern-file=" + new File(grep.getPatternFile()).getAbsolutePath());
+    }
+    return args;
+  }
+
+  private static String requireValue(String name, String value) {
+    if (value == null || value.isEmpty()) {
+      throw new IllegalArgumentException("--" + name + " expects a value");
+    }
+    return value;
+  }
+
+  private static RegexEngine parseEngine(String name, String value) {
+    try {
+      return RegexEngine.valueOf(requireValue(name, value).toUpperCase(Locale.ROOT));
+    }
+    catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("--" + name + " expects java or automaton but got "
+          + value);
+    }
+  }
+
+  private static BinaryPolicy parseBinaryPolicy(String name, String value) {
+    try {
+      return BinaryPolicy.valueOf(requireValue(name, value).toUpperCase(Locale.ROOT));
+    }
+    catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("--" + name + " expects count, skip or text but got "
+          + value);
+    }
+  }
+
+  /**
+   * Parse a byte size with an optional k, m or g suffix (powers of 1024)
+   */
+  static long parseSize(String name, String value) {
+    if (value == null || value.isEmpty()) {
+      throw new IllegalArgumentException("--" + name + " expects a size but got " + value);
+    }
+
+    long unit = 1;
+    char suffix = Character.toLowerCase(value.charAt(value.length() - 1));
+    if (suffix == 'k' || suffix == 'm' || suffix == 'g') {
+      unit = suffix == 'k' ? 1L << 10 : suffix == 'm' ? 1L << 20 : 1L << 30;
+      value = value.substring(0, value.length() - 1);
+    }
+
+    try {
+      return Long.parseLong(value) * unit;
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException("--" + name + " expects a size but got " + value);
+    }
+  }
+
+  private static int parseInt(String name, String value) {
+    try {
+      return Integer.parseInt(value);
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException("--" + name + " expects a number but got " + value);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package ca.jrvs.apps.grep;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Custom JFR events of a grep run. They show up under "JavaGrep" in JDK Mission Control when
+ * the JVM runs with e.g. -XX:StartFlightRecording=filename=grep.jfr.
+ *
+ * This class is only loaded by GrepMetrics after checking that jdk.jfr exists, so the app
+ * still runs on JVMs without JFR.
+ */
+final class GrepJfrEvents {
+
+  private GrepJfrEvents() {
+  }
+
+  static void fileScanned(String path, long bytes, long matches, long nanos) {
+    FileScanEvent event = new FileScanEvent();
+    if (event.shouldCommit()) {
+      event.path = path;
+      event.bytes = bytes;
+      event.matches = matches;
+      event.scanTime = nanos;
+      event.commit();
+    }
+  }
+
+  static void runFinished(long files, long bytes, long lines, long matches, long traversalNanos,
+      long readNanos, long matchNanos, long writeNanos) {
+    GrepRunEvent event = new GrepRunEvent();
+    if (event.shouldCommit()) {
+      event.files = files;
+      event.bytes = bytes;
+      event.lines = lines;
+      event.matches = matches;
+      event.traversalTime = traversalNanos;
+      event.readTime = readNanos;
+      event.matchTime = matchNanos;
+      event.writeTime = writeNanos;
+      event.commit();
+    }
+  }
+
+  @Name("ca.jrvs.apps.grep.FileScan")
+  @Label("File Scan")
+  @Category("JavaGrep")
+  @Description("One file scanned by JavaGrep")
+  @StackTrace(false)
+  static class FileScanEvent extends Event {
+    @Label("Path")
+    String path;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Matched Lines")
+    long matches;
+
+    @Label("Scan Time")
+    @Timespan
+    long scanTime;
+  }
+
+  @Name("ca.jrvs.apps.grep.Run")
+  @Label("Grep Run")
+  @Category("JavaGrep")
+  @Description("Totals of one JavaGrep.process() run")
+  @StackTrace(false)
+  static class GrepRunEvent extends Event {
+    @Label("Files")
+    long files;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Matched Lines")
+    long matches;
+
+    @Label("Traversal Time")
+    @Timespan
+    long traversalTime;
+
+    @Label("Read Time")
+    @Timespan
+    long readTime;
+
+    @Label("Match Time")
+    @Timespan
+    long matchTime;
+
+    @Label("Write Time")
+    @Timespan
+    long writeTime;
+  }
+}
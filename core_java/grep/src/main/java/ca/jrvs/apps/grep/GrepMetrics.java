@@ -0,0 +1,364 @@
+package ca.jrvs.apps.grep;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Run-level instrumentation of process(): time spent per stage, volume counters and the
+ * slowest files.
+ *
+ * Stages are measured as thread time summed over all workers:
+ * - traversal: waiting for the next file from the walker
+ * - match: time in the matcher, estimated by timing every SAMPLE_INTERVAL-th line
+ * - write: time in the output sink
+ * - read: the rest of the time spent scanning files, i.e. I/O, decoding and line splitting
+ *
+ * With auto tuning, every change the PoolTuner made to the pipeline pools is kept as well.
+ *
+ * Metrics are only collected when an instance is given to JavaGrepImp, so a run without
+ * them pays nothing but a null check per file. When JFR is available, every file and the
+ * run itself are also committed as JFR events (FileScanEvent and GrepRunEvent), which are
+ * close to free unless a recording is running.
+ */
+public class GrepMetrics {
+
+  /** Match time is measured on one line out of this many */
+  public static final int SAMPLE_INTERVAL = 16;
+  public static final int DEFAULT_SLOW_FILES = 10;
+
+  private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+  private final int slowFileLimit;
+  private final long startNanos = System.nanoTime();
+  private volatile long endNanos;
+
+  private final LongAdder traversalNanos = new LongAdder();
+  private final LongAdder scanNanos = new LongAdder();
+  private final LongAdder sampledMatchNanos = new LongAdder();
+  private final LongAdder sampledLines = new LongAdder();
+  private final LongAdder emitNanos = new LongAdder();
+  private final LongAdder writeNanos = new LongAdder();
+
+  private final LongAdder files = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder lines = new LongAdder();
+  private final LongAdder matches = new LongAdder();
+  private final LongAdder binarySkippedFiles = new LongAdder();
+  private final LongAdder binarySkippedBytes = new LongAdder();
+
+  // min-heap on time, so the fastest of the kept files is the one evicted
+  private final PriorityQueue<FileTiming> slowFiles =
+      new PriorityQueue<>(Comparator.comparingLong(timing -> timing.nanos));
+  private final List<PoolTuner.Decision> tuning = new ArrayList<>();
+
+  public GrepMetrics() {
+    this(DEFAULT_SLOW_FILES);
+  }
+
+  /**
+   * @param slowFileLimit number of slowest files kept for the report
+   */
+  public GrepMetrics(int slowFileLimit) {
+    this.slowFileLimit = slowFileLimit;
+  }
+
+  public void recordTraversal(long nanos) {
+    traversalNanos.add(nanos);
+  }
+
+  public void recordLine() {
+    lines.increment();
+  }
+
+  public void recordMatchSample(long nanos) {
+    sampledMatchNanos.add(nanos);
+    sampledLines.increment();
+  }
+
+  public void recordEmit(long nanos) {
+    emitNanos.add(nanos);
+  }
+
+  public void recordWrite(long nanos) {
+    writeNanos.add(nanos);
+  }
+
+  /**
+   * Record one scanned file
+   * @param file scanned file
+   * @param nanos time spent in scanFile, including matching and emitting
+   * @param matched number of matched lines
+   */
+  public void recordFile(File file, long nanos, long matched) {
+    long length = file.length();
+    files.increment();
+    bytes.add(length);
+    matches.add(matched);
+    scanNanos.add(nanos);
+
+    synchronized (slowFiles) {
+      if (slowFiles.size() < slowFileLimit || slowFiles.peek().nanos < nanos) {
+        slowFiles.add(new FileTiming(file.getPath(), nanos, length, matched));
+        if (slowFiles.size() > slowFileLimit) {
+          slowFiles.remove();
+        }
+      }
+    }
+
+    if (JFR_AVAILABLE) {
+      GrepJfrEvents.fileScanned(file.getPath(), length, matched, nanos);
+    }
+  }
+
+  /**
+   * Record a file or archive entry left unread because it looks binary. Skipped files are
+   * still counted by recordFile.
+   * @param bytes size of the file, or compressed size of the entry
+   */
+  public void recordBinarySkipped(long bytes) {
+    binarySkippedFiles.increment();
+    binarySkippedBytes.add(bytes);
+  }
+
+  /**
+   * Record a change of the pipeline pool sizes made by the auto tuner
+   * @param decision change and the measurements behind it
+   */
+  public void recordTuning(PoolTuner.Decision decision) {
+    synchronized (tuning) {
+      tuning.add(decision);
+    }
+  }
+
+  /**
+   * Mark the end of the run
+   */
+  public void finish() {
+    endNanos = System.nanoTime();
+    if (JFR_AVAILABLE) {
+      GrepJfrEvents.runFinished(getFiles(), getBytes(), getLines(), getMatches(),
+          getTraversalNanos(), getReadNanos(), getMatchNanos(), getWriteNanos());
+    }
+  }
+
+  public long getFiles() {
+    return files.sum();
+  }
+
+  public long getBytes() {
+    return bytes.sum();
+  }
+
+  public long getLines() {
+    return lines.sum();
+  }
+
+  public long getMatches() {
+    return matches.sum();
+  }
+
+  public long getBinarySkippedFiles() {
+    return binarySkippedFiles.sum();
+  }
+
+  public long getBinarySkippedBytes() {
+    return binarySkippedBytes.sum();
+  }
+
+  public long getTraversalNanos() {
+    return traversalNanos.sum();
+  }
+
+  /**
+   * @return estimated time in the matcher, scaled up from the sampled lines
+   */
+  public long getMatchNanos() {
+    long sampled = sampledLines.sum();
+    return sampled == 0 ? 0 : (long) ((double) sampledMatchNanos.sum() * getLines() / sampled);
+  }
+
+  public long getReadNanos() {
+    return Math.max(0, scanNanos.sum() - getMatchNanos() - emitNanos.sum());
+  }
+
+  public long getWriteNanos() {
+    return writeNanos.sum();
+  }
+
+  /**
+   * @return name of the stage with the most time: traversal, read, match or write
+   */
+  public String getLimitingStage() {
+    String[] names = {"traversal", "read", "match", "write"};
+    long[] nanos = {getTraversalNanos(), getReadNanos(), getMatchNanos(), getWriteNanos()};
+    int max = 0;
+    for (int i = 1; i < nanos.length; i++) {
+      if (nanos[i] > nanos[max]) {
+        max = i;
+      }
+    }
+    return names[max];
+  }
+
+  /**
+   * @return slowest files, slowest first
+   */
+  public List<FileTiming> getSlowFiles() {
+    List<FileTiming> sorted;
+    synchronized (slowFiles) {
+      sorted = new ArrayList<>(slowFiles);
+    }
+    sorted.sort(Comparator.comparingLong((FileTiming timing) -> timing.nanos).reversed());
+    return sorted;
+  }
+
+  /**
+   * @return changes made by the auto tuner, oldest first
+   */
+  public List<PoolTuner.Decision> getTuning() {
+    synchronized (tuning) {
+      return new ArrayList<>(tuning);
+    }
+  }
+
+  /**
+   * @return summary of the run as a JSON object
+   */
+  public String toJson() {
+    long end = endNanos == 0 ? System.nanoTime() : endNanos;
+    StringBuilder json = new StringBuilder();
+    json.append("{\n");
+    json.append("  \"elapsedMs\": ").append(millis(end - startNanos)).append(",\n");
+    json.append("  \"limitingStage\": \"").append(getLimitingStage()).append("\",\n");
+    json.append("  \"stagesMs\": {\"traversal\": ").append(millis(getTraversalNanos()))
+        .append(", \"read\": ").append(millis(getReadNanos()))
+        .append(", \"match\": ").append(millis(getMatchNanos()))
+        .append(", \"write\": ").append(millis(getWriteNanos())).append("},\n");
+    json.append("  \"counts\": {\"files\": ").append(getFiles())
+        .append(", \"bytes\": ").append(getBytes())
+        .append(", \"lines\": ").append(getLines())
+        .append(", \"matches\": ").append(getMatches())
+        .append(", \"binarySkippedFiles\": ").append(getBinarySkippedFiles())
+        .append(", \"binarySkippedBytes\": ").append(getBinarySkippedBytes()).append("},\n");
+    List<PoolTuner.Decision> decisions = getTuning();
+    if (!decisions.isEmpty()) {
+      json.append("  \"tuning\": [");
+      for (int i = 0; i < decisions.size(); i++) {
+        PoolTuner.Decision decision = decisions.get(i);
+        json.append(i == 0 ? "\n" : ",\n")
+            .append("    {\"atMs\": ").append(millis(decision.getNanos()))
+            .append(", \"action\": ").append(quote(decision.getAction()))
+            .append(", \"readers\": ").append(decision.getReaders())
+            .append(", \"matchers\": ").append(decision.getMatchers())
+            .append(", \"mbPerSec\": ").append(ratio(decision.getMegabytesPerSecond()))
+            .append(", \"matcherBusy\": ").append(ratio(decision.getMatcherBusy()))
+            .append(", \"matcherOnCpu\": ").append(ratio(decision.getMatcherOnCpu()))
+            .append('}');
+      }
+      json.append("\n  ],\n");
+    }
+    json.append("  \"slowestFiles\": [");
+    List<FileTiming> slowest = getSlowFiles();
+    for (int i = 0; i < slowest.size(); i++) {
+      FileTiming timing = slowest.get(i);
+      json.append(i == 0 ? "\n" : ",\n")
+          .append("    {\"path\": ").append(quote(timing.path))
+          .append(", \"ms\": ").append(millis(timing.nanos))
+          .append(", \"bytes\": ").append(timing.bytes)
+          .append(", \"matches\": ").append(timing.matches).append('}');
+    }
+    json.append(slowest.isEmpty() ? "]\n" : "\n  ]\n");
+    json.append("}\n");
+    return json.toString();
+  }
+
+  /**
+   * Write the JSON summary to a file
+   * @param file destination
+   * @throws IOException if write failed
+   */
+  public void writeJson(Path file) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      writer.write(toJson());
+    }
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
+  private static String ratio(double value) {
+    return String.format(Locale.ROOT, "%.3f", value);
+  }
+
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      }
+      else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      }
+      else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  private static boolean isJfrAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    }
+    catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Time spent scanning one file
+   */
+  public static class FileTiming {
+    private final String path;
+    private final long nanos;
+    private final long bytes;
+    private final long matches;
+
+    FileTiming(String path, long nanos, long bytes, long matches) {
+      this.path = path;
+      this.nanos = nanos;
+      this.bytes = bytes;
+      this.matches = matches;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public long getMatches() {
+      return matches;
+    }
+  }
+}
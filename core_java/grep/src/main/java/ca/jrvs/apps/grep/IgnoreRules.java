@@ -0,0 +1,160 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Rules from one .gitignore-style ignore file. Paths are matched relative to the directory
+ * holding the file.
+ *
+ * Supported syntax: blank lines and # comments, ! to re-include, a trailing / to only match
+ * directories, a leading or inner / to anchor the pattern to the ignore file's directory,
+ * and the *, ?, [...] and ** wildcards.
+ */
+public class IgnoreRules {
+
+  private final List<Rule> rules = new ArrayList<>();
+
+  /**
+   * Load rules from an ignore file
+   * @param ignoreFile file to parse
+   * @return parsed rules
+   * @throws IOException if the file cannot be read
+   */
+  public static IgnoreRules load(Path ignoreFile) throws IOException {
+    return parse(Files.readAllLines(ignoreFile, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Parse ignore file lines
+   * @param lines lines of an ignore file
+   * @return parsed rules
+   */
+  public static IgnoreRules parse(List<String> lines) {
+    IgnoreRules ignoreRules = new IgnoreRules();
+    for (String line : lines) {
+      Rule rule = Rule.parse(line);
+      if (rule != null) {
+        ignoreRules.rules.add(rule);
+      }
+    }
+    return ignoreRules;
+  }
+
+  /**
+   * Check the rules against a path
+   * @param relativePath path relative to the ignore file's directory, using / separators
+   * @param directory true if the path is a directory
+   * @return TRUE if ignored, FALSE if explicitly re-included, null if no rule matched
+   */
+  public Boolean isIgnored(String relativePath, boolean directory) {
+    Boolean result = null;
+    // the last matching rule wins
+    for (Rule rule : rules) {
+      if ((directory || !rule.directoryOnly) && rule.pattern.matcher(relativePath).matches()) {
+        result = !rule.negated;
+      }
+    }
+    return result;
+  }
+
+  public boolean isEmpty() {
+    return rules.isEmpty();
+  }
+
+  private static class Rule {
+    private final Pattern pattern;
+    private final boolean negated;
+    private final boolean directoryOnly;
+
+    private Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+      this.pattern = pattern;
+      this.negated = negated;
+      this.directoryOnly = directoryOnly;
+    }
+
+    private static Rule parse(String line) {
+      String glob = trimTrailingSpaces(line);
+      if (glob.isEmpty() || glob.startsWith("#")) {
+        return null;
+      }
+
+      boolean negated = glob.startsWith("!");
+      if (negated || glob.startsWith("\\!") || glob.startsWith("\\#")) {
+        glob = glob.substring(1);
+      }
+
+      boolean directoryOnly = glob.endsWith("/");
+      if (directoryOnly) {
+        glob = glob.substring(0, glob.length() - 1);
+      }
+
+      // a slash anywhere but the end anchors the pattern, otherwise it matches at any depth
+      boolean anchored = glob.contains("/");
+      if (glob.startsWith("/")) {
+        glob = glob.substring(1);
+      }
+      if (glob.isEmpty()) {
+        return null;
+      }
+
+      String regex = (anchored ? "" : "(?:.*/)?") + globToRegex(glob);
+      return new Rule(Pattern.compile(regex), negated, directoryOnly);
+    }
+
+    private static String trimTrailingSpaces(String line) {
+      int end = line.length();
+      while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+        end--;
+      }
+      return line.substring(0, end);
+    }
+
+    private static String globToRegex(String glob) {
+      StringBuilder regex = new StringBuilder();
+      for (int i = 0; i < glob.length(); i++) {
+        char c = glob.charAt(i);
+        if (c == '*' && glob.startsWith("**", i)) {
+          boolean leading = i == 0 || glob.charAt(i - 1) == '/';
+          boolean trailing = i + 2 == glob.length() || glob.charAt(i + 2) == '/';
+          if (leading && i + 2 < glob.length() && trailing) {
+            // "**/" matches zero or more directories
+            regex.append("(?:.*/)?");
+            i += 2;
+          }
+          else {
+            regex.append(".*");
+            i++;
+          }
+        }
+        else if (c == '*') {
+          regex.append("[^/]*");
+        }
+        else if (c == '?') {
+          regex.append("[^/]");
+        }
+        else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+          int end = glob.indexOf(']', i + 1);
+          String set = glob.substring(i + 1, end);
+          if (set.startsWith("!")) {
+            set = "^" + set.substring(1);
+          }
+          regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+          i = end;
+        }
+        else if (c == '\\' && i + 1 < glob.length()) {
+          regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+        }
+        else {
+          regex.append(Pattern.quote(String.valueOf(c)));
+        }
+      }
+      return regex.toString();
+    }
+  }
+}
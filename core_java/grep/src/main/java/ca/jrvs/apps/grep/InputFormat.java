@@ -0,0 +1,31 @@
+package ca.jrvs.apps.grep;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * How the bytes of an input file are turned into lines, chosen by file name
+ *
+ * - PLAIN files are read directly, or memory mapped when they are large
+ * - GZIP files are decompressed as a stream through GZIPInputStream
+ * - ZIP archives (.zip and .jar) are opened with ZipFile so their entries can be read
+ *   independently and in parallel
+ */
+public enum InputFormat {
+  PLAIN, GZIP, ZIP;
+
+  /**
+   * @param file input file
+   * @return format of the file, based on its extension
+   */
+  public static InputFormat of(File file) {
+    String name = file.getName().toLowerCase(Locale.ROOT);
+    if (name.endsWith(".gz")) {
+      return GZIP;
+    }
+    if (name.endsWith(".zip") || name.endsWith(".jar")) {
+      return ZIP;
+    }
+    return PLAIN;
+  }
+}
@@ -21,9 +21,10 @@ public interface JavaGrep {
 
   /**
    * Read a file and return all the lines.
-   * This is implemented via FileReader which a class that reads characters from a file.
-   * It wraps a byte stream and automatically decodes bytes into characters using the
-   * system's default character encoding (UTF-8 on many systems, but not guaranteed).
+   * This is implemented via InputStreamReader over a FileInputStream, which decodes bytes
+   * into characters. UTF-8 is passed explicitly rather than relying on the system's default
+   * character encoding (UTF-8 on many systems, but not guaranteed), so the reader agrees
+   * with the byte-level scanners that decode lines as UTF-8 themselves.
    * BufferedReader adds buffering on top of a Reader to reduce I/O calls and provides
    * methods like readLine() for convenient line-by-line reading.
    *
@@ -46,12 +47,11 @@ public interface JavaGrep {
 
   /**
    * Write lines ot a file
-   * For implementation I used FileWriter rather than FileOutputStream and
-   * OutputStreamWriter for both maintaining similarity in implementation with
-   * readLines and that the class is just a convenience wrapper that internally uses
-   * FileOutputStream and OutputStreamWriter. FileOutputStream writes raw bytes to a
+   * For implementation I used FileOutputStream and OutputStreamWriter directly rather
+   * than FileWriter, since FileWriter is just a convenience wrapper around them that
+   * can't be given a charset on Java 8. FileOutputStream writes raw bytes to a
    * file on disk and OutputStreamWriter does the character encoding by converting Java
-   * chars into bytes using a charset (e.g. UTF-8). BufferedWriter is used to add a
+   * chars into bytes using a charset (UTF-8 here). BufferedWriter is used to add a
    * buffer on top of a Writer (like OutputStreamWriter) to reduce the number of OS
    * writes and give nice methods like newLine. So in practice I'm actually doing
    * FileOutputStream -> OutputStreamWriter -> BufferedWriter.
@@ -72,4 +72,31 @@ public interface JavaGrep {
   String getOutFile();
 
   void setOutFile(String outFile);
+
+  OutputMode getOutputMode();
+
+  /**
+   * Choose between writing matched lines, the files that have a match, or a count of
+   * matched lines per file. The last two stop reading a file as soon as the answer is known
+   * and never build a String for a matched line.
+   * @param outputMode what to write, LINES by default
+   */
+  void setOutputMode(OutputMode outputMode);
+
+  SortMode getSortMode();
+
+  /**
+   * Sort the output, optionally dropping or counting repeated lines. Sorting takes bounded
+   * memory, spilling sorted runs to disk and merging them when the scan is done.
+   * @param sortMode how to sort the output, NONE by default
+   */
+  void setSortMode(SortMode sortMode);
+
+  long getMaxCount();
+
+  /**
+   * Stop reading a file once this many of its lines have matched, like grep -m
+   * @param maxCount matched lines per file, or 0 for no limit
+   */
+  void setMaxCount(long maxCount);
 }
@@ -1,39 +1,81 @@
 package ca.jrvs.apps.grep;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import org.apache.log4j.BasicConfigurator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class JavaGrepImp implements JavaGrep {
+public class JavaGrepImp implements StreamingJavaGrep {
+
+  public static final long DEFAULT_MMAP_THRESHOLD = 32L * 1024 * 1024;
+  public static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+  public static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
 
   protected final Logger logger = LoggerFactory.getLogger(getClass());
 
   private String regex;
   private String rootPath;
   private String outFile;
+  private int threads = 1;
+  private int workers = 1;
+  private String shardFile;
+  private boolean pipeline;
+  private boolean autoTune;
+  private int readers = PipelineScanner.DEFAULT_READERS;
+  private int matchers = Runtime.getRuntime().availableProcessors();
+  private long mmapThreshold = DEFAULT_MMAP_THRESHOLD;
+  private long chunkSize = DEFAULT_CHUNK_SIZE;
+  private FileWalker walker = new FileWalker();
+  private String indexFile;
+  private String patternFile;
+  private String metricsFile;
+  private String cacheFile;
+  private String checkpointFile;
+  private boolean resume;
+  private long checkpointInterval = CheckpointJournal.DEFAULT_INTERVAL_MILLIS;
+  private boolean follow;
+  private OutputMode outputMode = OutputMode.LINES;
+  private long maxCount;
+  private SortMode sortMode = SortMode.NONE;
+  private BinaryPolicy binaryPolicy = BinaryPolicy.COUNT;
+  private long sortMemory = SortingLineSink.DEFAULT_MEMORY;
+  private RegexEngine engine = RegexEngine.JAVA;
+  private long cacheSize = DEFAULT_CACHE_SIZE;
+  private volatile ResultCache resultCache;
+  private volatile GrepMetrics metrics;
+  private volatile LineMatcher matcher;
+  private final ThreadLocal<CharBufferLineScanner> lineScanners =
+      ThreadLocal.withInitial(CharBufferLineScanner::new);
 
   public static void main(String[] args) {
-    if (args.length != 3) {
-      throw new IllegalArgumentException("USAGE: JavaGrep <regex> <rootPath> <outFile>");
-    }
+    JavaGrepImp javaGrepImp = new JavaGrepImp();
+    GrepCli.configure(javaGrepImp, args);
 
     // Default logger config
     BasicConfigurator.configure();
 
-    JavaGrepImp javaGrepImp = new JavaGrepImp();
-    javaGrepImp.setRegex(args[0]);
-    javaGrepImp.setRootPath(args[1]);
-    javaGrepImp.setOutFile(args[2]);
-
     try {
       javaGrepImp.process();
     }
@@ -45,66 +87,312 @@ public class JavaGrepImp implements JavaGrep {
   @Override
   public void process() throws IOException {
     // Defensive check
-    if (rootPath == null || regex == null || outFile == null) {
+    if (rootPath == null || (regex == null && patternFile == null) || outFile == null) {
       throw new IllegalStateException("regex, rootPath, and outFile must be set before process()");
     }
 
-    List<String> matchedLines = new ArrayList<>();
+    // Files are scanned while the walk is still running and matched lines go straight to
+    // the sink, so only one line per file is held at a time
+    AtomicLong fileCount = new AtomicLong();
+    long matched = 0;
+    try {
+      // compile up front so a bad pattern fails before the output file is touched
+      getMatcher();
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
 
-    List<File> files = listFiles(rootPath);
-    logger.info("Found {} files under {}", files.size(), rootPath);
+    if (workers > 1 && (follow || cacheFile != null || checkpointFile != null)) {
+      throw new IllegalArgumentException(
+          "Workers don't share follow state, a result cache or a checkpoint journal");
+    }
+    if (cacheFile != null && usesPipeline()) {
+      throw new IllegalArgumentException("The pipeline doesn't use a result cache");
+    }
+    if (checkpointFile != null && (follow || sortMode != SortMode.NONE)) {
+      throw new IllegalArgumentException(
+          "Checkpoints need output written file by file, without following or sorting");
+    }
+    if (follow) {
+      follow();
+      return;
+    }
+    if (workers > 1) {
+      coordinate();
+      return;
+    }
+
+    metrics = metricsFile == null ? null : new GrepMetrics();
+    resultCache = cacheFile == null ? null
+        : ResultCache.open(Paths.get(cacheFile), cacheSize, getPatternKey());
 
-    for (File file : files) {
-      for (String line : readLines(file)) {
-        if (containsPattern(line)) {
-          matchedLines.add(line);
+    AtomicLong skipped = new AtomicLong();
+    ShardProgress progress = shardFile == null ? null : new ShardProgress(System.out);
+    try (CheckpointJournal journal = openJournal(); Stream<File> fileStream = candidateFiles();
+        LineSink sink = meter(openSink(journal != null && journal.isResumed()))) {
+      Stream<File> todo = journal == null ? fileStream : fileStream.filter(file -> {
+        boolean done = journal.isDone(file);
+        if (done) {
+          skipped.incrementAndGet();
+        }
+        return !done;
+      });
+      Iterator<File> metered = meter(todo.peek(file -> fileCount.incrementAndGet()).iterator());
+      Iterator<File> files = progress == null ? metered : progress.count(metered);
+      if (progress != null) {
+        progress.start(sink::count, ShardProgress.DEFAULT_INTERVAL_MILLIS);
+      }
+      if (usesPipeline()) {
+        matched = scanPipeline(files, sink, journal);
+      }
+      else if (threads > 1) {
+        ParallelFileScanner scanner = new ParallelFileScanner(this, threads);
+        scanner.setJournal(journal);
+        matched = scanner.scan(() -> files, sink);
+      }
+      else {
+        while (files.hasNext()) {
+          File file = files.next();
+          long fileMatched = scanFile(file, sink);
+          matched += fileMatched;
+          if (journal != null) {
+            journal.completed(file, fileMatched, sink);
+          }
+        }
+      }
+      if (journal != null) {
+        journal.checkpoint(sink);
+        matched += journal.getResumedMatched();
+        if (journal.isResumed()) {
+          logger.info("Skipped {} files finished before the checkpoint", skipped);
         }
       }
     }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    logger.info("Scanned {} files under {}", fileCount, rootPath);
+    logger.info("Wrote {} matched lines to {}", matched, outFile);
 
-    writeToFile(matchedLines);
-    logger.info("Wrote {} matched lines to {}", matchedLines.size(), outFile);
+    if (progress != null) {
+      progress.finish(matched);
+    }
+
+    if (resultCache != null) {
+      resultCache.save();
+    }
+
+    if (metrics != null) {
+      metrics.finish();
+      metrics.writeJson(Paths.get(metricsFile));
+      logger.info("Most time was spent in {}, metrics written to {}", metrics.getLimitingStage(),
+          metricsFile);
+    }
   }
 
   /**
-   * Helper recursive function used for transversing a directory in a DFS style
-   * Adds files found in the directory while transversing
-   * @param file current file
-   * @param files collection of files found thus far
+   * Split the files into shards by size and scan them on worker JVMs. The trigram index
+   * narrows the files first; metrics are written by the workers and collected under theirs.
    */
-  private void fileSearchHelper(File file, List<File> files) {
-    if (file.isFile()) {
-      files.add(file);
-      return;
+  private void coordinate() throws IOException {
+    List<File> files;
+    try (Stream<File> fileStream = candidateFiles()) {
+      files = fileStream.collect(Collectors.toList());
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
     }
+    long matched = new ShardCoordinator(this, workers)
+        .scan(files, new File(outFile).getAbsoluteFile());
+    logger.info("Scanned {} files under {} on {} workers", files.size(), rootPath, workers);
+    logger.info("Wrote {} matched lines to {}", matched, outFile);
+  }
 
-    File[] children = file.listFiles();
+  private long scanPipeline(Iterator<File> files, LineSink sink, CheckpointJournal journal)
+      throws IOException {
+    PipelineScanner scanner = new PipelineScanner(this, readers, matchers);
+    scanner.setJournal(journal);
+    if (!autoTune) {
+      return scanner.scan(files, sink);
+    }
+
+    scanner.setTuneInterval(PoolTuner.DEFAULT_INTERVAL_MILLIS);
+    long matched = scanner.scan(files, sink);
+    logger.info("Auto tuning made {} changes and ended with {} readers and {} matchers",
+        scanner.getTuner().getDecisions().size(), scanner.getReaders(), scanner.getMatchers());
+    return matched;
+  }
 
-    // Check to handle case when the file is an empty directory
-    if (children != null) {
-      for (File child : children) {
-        fileSearchHelper(child, files);
+  /**
+   * Scan every file, then keep scanning what is appended to them until interrupted. The
+   * result cache, trigram index and metrics only apply to one-off runs.
+   */
+  private void follow() throws IOException {
+    if (outputMode != OutputMode.LINES || maxCount > 0 || sortMode != SortMode.NONE) {
+      throw new IllegalArgumentException(
+          "Following only writes matched lines, without a max count or sorting");
+    }
+    metrics = null;
+    resultCache = null;
+    try (LineSink sink = openSink(); FileFollower follower = new FileFollower(this, sink)) {
+      follower.start();
+      logger.info("Following {}", rootPath);
+      follower.run();
+    }
+  }
+
+  /**
+   * Journal of this run when a checkpoint file is set. Resuming checks that the journal is
+   * of the same root and patterns and cuts outFile back to its last checkpoint.
+   * @return journal, or null without checkpoints
+   */
+  private CheckpointJournal openJournal() throws IOException {
+    if (checkpointFile == null) {
+      return null;
+    }
+    String runKey = new File(rootPath).getAbsolutePath() + "\n" + getPatternKey();
+    File out = new File(outFile).getAbsoluteFile();
+    return resume
+        ? CheckpointJournal.resume(Paths.get(checkpointFile), out, runKey, checkpointInterval)
+        : CheckpointJournal.create(Paths.get(checkpointFile), out, runKey, checkpointInterval);
+  }
+
+  private LineSink meter(LineSink sink) {
+    return metrics == null ? sink : new TimedLineSink(sink, metrics);
+  }
+
+  /**
+   * Record the time spent waiting for the walker in the metrics
+   */
+  private Iterator<File> meter(Iterator<File> files) {
+    GrepMetrics runMetrics = metrics;
+    if (runMetrics == null) {
+      return files;
+    }
+
+    return new Iterator<File>() {
+      @Override
+      public boolean hasNext() {
+        long start = System.nanoTime();
+        boolean hasNext = files.hasNext();
+        runMetrics.recordTraversal(System.nanoTime() - start);
+        return hasNext;
+      }
+
+      @Override
+      public File next() {
+        long start = System.nanoTime();
+        File file = files.next();
+        runMetrics.recordTraversal(System.nanoTime() - start);
+        return file;
       }
+    };
+  }
+
+  /**
+   * Files to scan: every file under rootPath, or only the candidates of the trigram index
+   * when an index file is set. The index is refreshed first so it always reflects the
+   * current tree, and candidates come back in walk order. A shard worker scans the files of
+   * its shard file.
+   * @return stream of files that must be closed
+   * @throws IOException if the index cannot be updated
+   */
+  protected Stream<File> candidateFiles() throws IOException {
+    if (shardFile != null) {
+      String list =
+          new String(Files.readAllBytes(Paths.get(shardFile)), StandardCharsets.UTF_8);
+      return Arrays.stream(list.split("\0")).filter(path -> !path.isEmpty()).map(File::new);
+    }
+    if (indexFile == null) {
+      return streamFiles(rootPath);
+    }
+
+    // compressed bytes say nothing about the text inside, so only plain files are indexed
+    // and archives are always searched
+    List<File> files = listFiles(rootPath);
+    List<File> plainFiles = files.stream()
+        .filter(file -> InputFormat.of(file) == InputFormat.PLAIN)
+        .collect(Collectors.toList());
+    TrigramIndex index = TrigramIndex.update(Paths.get(indexFile), plainFiles);
+    Set<String> candidates = new HashSet<>();
+    for (File file : index.candidates(getLiteralQuery())) {
+      candidates.add(file.getAbsolutePath());
     }
+    logger.info("Trigram index narrowed {} files to {} candidates", plainFiles.size(),
+        candidates.size());
+    return files.stream().filter(file -> InputFormat.of(file) != InputFormat.PLAIN
+        || candidates.contains(file.getAbsolutePath()));
   }
 
   @Override
   public List<File> listFiles(String rootDir) {
-    List<File> res = new ArrayList<>();
-    File root = new File(rootDir);
+    if (!new File(rootDir).exists()) {
+      logger.warn("Root path does not exist: {}", rootDir);
+      return new ArrayList<>();
+    }
+
+    return walker.list(rootDir);
+  }
 
-    if (!root.exists()) {
+  @Override
+  public Stream<File> streamFiles(String rootDir) {
+    if (!new File(rootDir).exists()) {
       logger.warn("Root path does not exist: {}", rootDir);
-      return res;
+      return Stream.empty();
     }
 
-    fileSearchHelper(root, res);
+    return walker.stream(rootDir);
+  }
 
-    return res;
+  /**
+   * Validate the input file and open a buffered reader on it. .gz files are decompressed
+   * on the fly.
+   * @param inputFile file to be read
+   * @return reader that the caller must close
+   * @throws IllegalArgumentException if given inputFile is not a file, or is a zip archive
+   *                                  which has no single stream of lines
+   * @throws IOException if the file cannot be opened
+   */
+  protected BufferedReader openReader(File inputFile) throws IOException {
+    return new BufferedReader(new InputStreamReader(openStream(inputFile),
+        StandardCharsets.UTF_8), WriterLineSink.DEFAULT_BUFFER_SIZE);
   }
 
-  @Override
-  public List<String> readLines(File inputFile) {
+  /**
+   * Validate the input file and open a stream of its bytes, decompressed for .gz files
+   * @param inputFile file to be read
+   * @return stream that the caller must close
+   * @throws IllegalArgumentException if given inputFile is not a file, or is a zip archive
+   * @throws IOException if the file cannot be opened
+   */
+  protected InputStream openStream(File inputFile) throws IOException {
+    InputFormat format = checkFile(inputFile);
+    if (format == InputFormat.ZIP) {
+      throw new IllegalArgumentException("Archive must be read by entry: "
+          + inputFile.getAbsolutePath());
+    }
+
+    InputStream in = new FileInputStream(inputFile);
+    if (format == InputFormat.GZIP) {
+      try {
+        in = new GZIPInputStream(in, WriterLineSink.DEFAULT_BUFFER_SIZE);
+      }
+      catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+    return in;
+  }
+
+  /**
+   * @param inputFile file to be read
+   * @return format of the file
+   * @throws IllegalArgumentException if given inputFile is not a file
+   */
+  private static InputFormat checkFile(File inputFile) {
     if (inputFile == null) {
       throw new IllegalArgumentException("inputFile must not be null");
     }
@@ -113,10 +401,27 @@ public class JavaGrepImp implements JavaGrep {
       throw new IllegalArgumentException("Not a file: " + inputFile.getAbsolutePath());
     }
 
+    return InputFormat.of(inputFile);
+  }
+
+  /**
+   * Lines of a plain or .gz file. For zip and jar archives, the lines of every entry
+   * labelled with "archive!entry:".
+   */
+  @Override
+  public List<String> readLines(File inputFile) {
+    if (checkFile(inputFile) == InputFormat.ZIP) {
+      try (Stream<String> entryLines = lines(inputFile)) {
+        return entryLines.collect(Collectors.toList());
+      }
+    }
+
     List<String> lines = new ArrayList<>();
 
-    try {
-      BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+    try (BufferedReader reader = openTextReader(inputFile)) {
+      if (reader == null) {
+        return lines;
+      }
       String line = reader.readLine();
       while (line != null) {
         lines.add(line);
@@ -131,23 +436,756 @@ public class JavaGrepImp implements JavaGrep {
     return lines;
   }
 
+  @Override
+  public Stream<String> lines(File inputFile) {
+    BufferedReader reader;
+    try {
+      if (checkFile(inputFile) == InputFormat.ZIP) {
+        return ZipEntryScanner.lines(inputFile);
+      }
+      reader = openReader(inputFile);
+    }
+    catch (IOException e) {
+      logger.error("Failed to open file: {}", inputFile.getAbsolutePath(), e);
+      throw new UncheckedIOException("Failed to open file " + inputFile.getAbsolutePath(), e);
+    }
+
+    return reader.lines().onClose(() -> {
+      try {
+        reader.close();
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Open a reader on a file for readLines(), unless the file's lines are left out
+   * @return reader, or null for a binary file
+   */
+  private BufferedReader openTextReader(File inputFile) throws IOException {
+    return leavesOutLines(inputFile) ? null : openReader(inputFile);
+  }
+
+  /**
+   * Whether readLines() leaves out the lines of a file: a binary file, unless the binary
+   * policy is TEXT. Lines can't carry a count, so COUNT leaves them out like SKIP. lines()
+   * keeps them, and scans apply the policy themselves.
+   * @return true for a binary file under SKIP or COUNT
+   */
+  protected boolean leavesOutLines(File inputFile) throws IOException {
+    if (binaryPolicy != BinaryPolicy.TEXT && isBinary(inputFile)) {
+      logger.debug("Leaving out the lines of binary file {}", inputFile);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param inputFile plain or .gz file
+   * @return true if the leading block of the file, decompressed for .gz, looks binary
+   * @throws IOException if the file cannot be read
+   */
+  boolean isBinary(File inputFile) throws IOException {
+    try (InputStream in = openStream(inputFile)) {
+      return BinaryDetector.isBinary(in);
+    }
+  }
+
+  /**
+   * Files of at least mmapThreshold bytes are scanned over memory mapped bytes, smaller
+   * files go through a plain buffered reader. With more than one thread, files bigger than
+   * chunkSize are split into line-aligned chunks that are scanned concurrently.
+   * .gz files are decompressed through the buffered reader and the entries of zip and jar
+   * archives are scanned with a ZipEntryScanner.
+   */
+  @Override
+  public long scanFile(File inputFile, LineSink sink) throws IOException {
+    GrepMetrics runMetrics = metrics;
+    if (runMetrics == null) {
+      return scanCached(inputFile, sink);
+    }
+
+    long start = System.nanoTime();
+    long matched = scanCached(inputFile, sink);
+    runMetrics.recordFile(inputFile, System.nanoTime() - start, matched);
+    return matched;
+  }
+
+  /**
+   * Answer the file from the result cache if it is unchanged, otherwise scan it and record
+   * the result in the cache
+   */
+  private long scanCached(File inputFile, LineSink sink) throws IOException {
+    ResultCache cache = resultCache;
+    if (cache == null) {
+      return scanInput(inputFile, sink);
+    }
+
+    checkFile(inputFile);
+    // taken before the scan, so a file changing during the scan is rescanned next run
+    long size = inputFile.length();
+    long mtime = inputFile.lastModified();
+    ResultCache.Result cached = cache.lookup(inputFile, size, mtime);
+    if (cached != null) {
+      for (String line : cached.getLines()) {
+        sink.write(line);
+      }
+      return cached.getMatched();
+    }
+
+    ResultCache.Recorder recorder = cache.record(sink);
+    long matched = scanInput(inputFile, recorder);
+    ResultCache.Result result = recorder.toResult(matched);
+    if (result != null) {
+      cache.put(inputFile, size, mtime, result);
+    }
+    return matched;
+  }
+
+  /**
+   * Scan a file and write what the output mode asks for: its matched lines, its path if it
+   * has a match, or its path and number of matched lines. Whether the file is binary is
+   * checked on the stream or channel the scan reads, so the file is opened once.
+   */
+  private long scanInput(File inputFile, LineSink sink) throws IOException {
+    InputFormat format = checkFile(inputFile);
+    boolean countOnly = outputMode != OutputMode.LINES;
+    boolean binary = false;
+    long matched = 0;
+    if (format == InputFormat.ZIP) {
+      // archives are checked entry by entry
+      matched = scanArchive(inputFile, sink, countOnly);
+    }
+    else if (format == InputFormat.GZIP || !isMapped(inputFile)) {
+      try (InputStream in = openScanStream(inputFile)) {
+        binary = binaryPolicy != BinaryPolicy.TEXT && BinaryDetector.isBinary(in);
+        if (!skips(inputFile, binary)) {
+          MatchStage stage = newMatchStage(sink, countOnly || binary);
+          scanBuffered(in, stage);
+          matched = stage.getMatched();
+        }
+      }
+    }
+    else {
+      try (FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)) {
+        binary = binaryPolicy != BinaryPolicy.TEXT && BinaryDetector.isBinary(channel);
+        if (!skips(inputFile, binary)) {
+          matched = scanMapped(channel, sink, countOnly || binary);
+        }
+      }
+    }
+
+    if (outputMode == OutputMode.COUNT) {
+      sink.write(inputFile.getPath() + ":" + matched);
+    }
+    else if (outputMode == OutputMode.FILES_WITH_MATCHES && matched > 0) {
+      sink.write(inputFile.getPath());
+    }
+    else if (binary && matched > 0) {
+      sink.write(BinaryDetector.matchLine(inputFile.getPath(), matched));
+    }
+    return matched;
+  }
+
+  /**
+   * Open the stream a plain or .gz file is scanned from. Unless every file is text, it is
+   * buffered so its leading block can be checked and read again.
+   */
+  private InputStream openScanStream(File inputFile) throws IOException {
+    InputStream in = openStream(inputFile);
+    return binaryPolicy == BinaryPolicy.TEXT ? in
+        : new BufferedInputStream(in, BinaryDetector.BLOCK_SIZE);
+  }
+
+  /**
+   * @return true if the file is binary and the policy skips it, which the metrics count
+   */
+  private boolean skips(File inputFile, boolean binary) {
+    if (!binary || binaryPolicy != BinaryPolicy.SKIP) {
+      return false;
+    }
+    GrepMetrics runMetrics = metrics;
+    if (runMetrics != null) {
+      runMetrics.recordBinarySkipped(inputFile.length());
+    }
+    return true;
+  }
+
+  /**
+   * @return true if chunks and entries are scanned one at a time: they can write matched
+   * lines past a max count in parallel, so lines are only written in parallel when every
+   * match is wanted
+   */
+  private boolean isOrdered() {
+    return outputMode == OutputMode.LINES && getLineLimit() < Long.MAX_VALUE;
+  }
+
+  /**
+   * @return true if the plain file is scanned over mapped bytes, whole or in chunks
+   */
+  private boolean isMapped(File inputFile) {
+    long size = inputFile.length();
+    return size >= mmapThreshold || (threads > 1 && size > chunkSize && !isOrdered());
+  }
+
+  /**
+   * @param countOnly true to count matched lines without writing them
+   */
+  private long scanArchive(File inputFile, LineSink sink, boolean countOnly)
+      throws IOException {
+    ZipEntryScanner scanner = new ZipEntryScanner(isOrdered() ? 1 : threads);
+    scanner.setBinaryPolicy(binaryPolicy, metrics);
+    return scanner.scan(inputFile, target -> newMatchStage(target, countOnly), getLineLimit(),
+        sink);
+  }
+
+  /**
+   * Scan a plain file over mapped bytes, in chunks on several threads if it is big enough.
+   * The stage is flushed before the channel is closed, so a sink holding ranges of the file
+   * can still copy them.
+   * @param countOnly true to count matched lines without writing them
+   */
+  private long scanMapped(FileChannel channel, LineSink sink, boolean countOnly)
+      throws IOException {
+    long size = channel.size();
+    if (threads > 1 && size > chunkSize && !isOrdered()) {
+      MappedFileScanner scanner =
+          newMappedScanner(Math.min(chunkSize, MappedFileScanner.DEFAULT_WINDOW_SIZE));
+      return new ChunkedFileScanner(chunkSize, threads, scanner)
+          .scan(channel, target -> newMatchStage(target, countOnly), getLineLimit(), sink);
+    }
+
+    MatchStage stage = newMatchStage(sink, countOnly);
+    newMappedScanner(MappedFileScanner.DEFAULT_WINDOW_SIZE).scan(channel, 0, size, stage);
+    stage.flush();
+    return stage.getMatched();
+  }
+
+  /**
+   * Memory mapped scanner that skips the lines without a literal the patterns require. With
+   * metrics on every line is scanned, since metrics count lines.
+   */
+  private MappedFileScanner newMappedScanner(long windowSize) {
+    MappedFileScanner scanner = new MappedFileScanner(windowSize);
+    if (metrics == null) {
+      scanner.setRequiredBytes(MappedFileScanner.requiredBytes(getLiteralQuery()));
+    }
+    return scanner;
+  }
+
+  /**
+   * Create the match stage that lines of one file are handed to. Outside of LINES mode the
+   * stage only counts matched lines.
+   * @param sink destination of matched lines
+   * @return new stage, limited to the matches the output mode needs
+   */
+  protected MatchStage newMatchStage(LineSink sink) {
+    return newMatchStage(sink, outputMode != OutputMode.LINES);
+  }
+
+  /**
+   * @param countOnly true for a stage that only counts, e.g. for a binary file
+   * @see #newMatchStage(LineSink)
+   */
+  MatchStage newMatchStage(LineSink sink, boolean countOnly) {
+    LineMatcher lineMatcher = getMatcher();
+    MatchStage stage;
+    if (countOnly) {
+      stage = new CountStage(lineMatcher);
+    }
+    else if (lineMatcher instanceof MultiPatternMatcher) {
+      stage = new MultiPatternStage((MultiPatternMatcher) lineMatcher, sink);
+    }
+    else {
+      stage = new MatchStage(lineMatcher, sink);
+    }
+    stage.setLimit(getLineLimit());
+    GrepMetrics runMetrics = metrics;
+    return runMetrics == null ? stage : new MeteredMatchStage(stage, runMetrics);
+  }
+
+  /**
+   * @return number of matched lines after which the rest of a file is skipped
+   */
+  long getLineLimit() {
+    if (outputMode == OutputMode.FILES_WITH_MATCHES) {
+      return 1;
+    }
+    return maxCount > 0 ? maxCount : Long.MAX_VALUE;
+  }
+
+  /**
+   * Scan a file line by line. Lines are decoded into a CharBuffer that each thread reuses
+   * and matched in place, so only matched lines become Strings.
+   * @param in stream of the file's bytes, decompressed for .gz, closed by the caller
+   * @param stage match stage every line is handed to
+   * @throws IOException if reading the file or writing to the sink failed
+   */
+  protected void scanBuffered(InputStream in, MatchStage stage) throws IOException {
+    lineScanners.get().scan(in, stage);
+  }
+
   @Override
   public boolean containsPattern(String line) {
-    return Pattern.compile(regex).matcher(line).find();
+    return getMatcher().find(line);
+  }
+
+  /**
+   * Compiled form of regex, or of every pattern in patternFile when one is set. It is built
+   * on first use and reused for every line until the patterns change, so pattern
+   * compilation happens once per run rather than once per line.
+   * @return matcher for the current patterns
+   * @throws UncheckedIOException if patternFile cannot be read
+   */
+  protected LineMatcher getMatcher() {
+    LineMatcher compiled = matcher;
+    if (compiled == null) {
+      if (patternFile != null) {
+        try {
+          compiled = MultiPatternMatcher.load(Paths.get(patternFile), engine);
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException("Failed to read pattern file " + patternFile, e);
+        }
+      }
+      else {
+        compiled = LineMatchers.compile(regex, engine);
+      }
+      logger.debug("Compiled {} into {}", patternFile != null ? patternFile : regex, compiled);
+      matcher = compiled;
+    }
+    return compiled;
+  }
+
+  /**
+   * Everything that decides which lines are written for a file, which result cache entries
+   * are keyed by
+   * @return key of the current patterns
+   * @throws IOException if the pattern file cannot be read
+   */
+  protected String getPatternKey() throws IOException {
+    String output = outputMode + "\n" + maxCount + "\n" + binaryPolicy + "\n";
+    if (patternFile == null) {
+      return output + "regex\n" + regex;
+    }
+    return output + "patterns\n" + new String(Files.readAllBytes(Paths.get(patternFile)),
+        StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Literals that every matching line contains, used to narrow down files
+   * @return literal query of regex, or the OR of every pattern in patternFile
+   */
+  protected LiteralQuery getLiteralQuery() {
+    LineMatcher lineMatcher = getMatcher();
+    if (lineMatcher instanceof MultiPatternMatcher) {
+      List<LiteralQuery> queries = new ArrayList<>();
+      for (String pattern : ((MultiPatternMatcher) lineMatcher).getPatterns()) {
+        queries.add(RegexLiterals.analyze(pattern));
+      }
+      return LiteralQuery.or(queries);
+    }
+    return RegexLiterals.analyze(regex);
   }
 
   @Override
   public void writeToFile(List<String> lines) throws IOException {
-    File out = new File(outFile);
-
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(out))) {
+    try (LineSink sink = openSink()) {
       for (String line : lines) {
-        writer.write(line);
-        writer.newLine();
+        sink.write(line);
       }
     }
   }
 
+  @Override
+  public LineSink openSink() throws IOException {
+    return openSink(false);
+  }
+
+  /**
+   * @param append true to write after what outFile already has, when resuming
+   * @see #openSink()
+   */
+  private LineSink openSink(boolean append) throws IOException {
+    File out = new File(outFile).getAbsoluteFile();
+    // the pipeline's writer has a thread to itself, so it batches writes in a bigger buffer;
+    // otherwise matched lines of mapped files are written from the file's bytes
+    LineSink sink = usesPipeline()
+        ? WriterLineSink.open(out, PipelineScanner.WRITE_BUFFER_SIZE, append)
+        : ChannelLineSink.open(out, append);
+    if (sortMode == SortMode.NONE) {
+      return sink;
+    }
+    // runs are spilled next to the output, which has room for them once merged anyway
+    return new SortingLineSink(sink, sortMode, sortMemory, out.getParentFile().toPath());
+  }
+
+  private boolean usesPipeline() {
+    return pipeline || autoTune;
+  }
+
+  public int getWorkers() {
+    return workers;
+  }
+
+  /**
+   * Number of worker JVMs the files are split across, by size. Each worker scans its shard
+   * with the other settings; 1 (the default) scans in this JVM.
+   * @param workers worker count
+   */
+  public void setWorkers(int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("workers must be >= 1");
+    }
+    this.workers = workers;
+  }
+
+  public String getShardFile() {
+    return shardFile;
+  }
+
+  /**
+   * Scan the files listed in this file, NUL separated, instead of walking rootPath, and
+   * report progress on standard output. This is how a ShardCoordinator runs its workers.
+   * @param shardFile shard list file
+   */
+  public void setShardFile(String shardFile) {
+    this.shardFile = shardFile;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Number of worker threads used to scan files. 1 (the default) scans sequentially.
+   * @param threads worker count
+   */
+  public void setThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be >= 1");
+    }
+    this.threads = threads;
+  }
+
+  public boolean isPipeline() {
+    return pipeline;
+  }
+
+  /**
+   * Scan with a PipelineScanner: readers, matchers and a writer run concurrently and hand
+   * blocks of lines to each other through bounded queues. Takes the place of threads, and
+   * the result cache is not used.
+   * @param pipeline true to scan with a pipeline
+   */
+  public void setPipeline(boolean pipeline) {
+    this.pipeline = pipeline;
+  }
+
+  public boolean isAutoTune() {
+    return autoTune;
+  }
+
+  /**
+   * Scan in pipeline mode and let a PoolTuner resize the reader and matcher pools while
+   * the scan runs. The configured readers and matchers are where it starts.
+   * @param autoTune true to tune the pool sizes
+   */
+  public void setAutoTune(boolean autoTune) {
+    this.autoTune = autoTune;
+  }
+
+  public int getReaders() {
+    return readers;
+  }
+
+  /**
+   * @param readers number of threads reading files in pipeline mode
+   */
+  public void setReaders(int readers) {
+    if (readers < 1) {
+      throw new IllegalArgumentException("readers must be >= 1");
+    }
+    this.readers = readers;
+  }
+
+  public int getMatchers() {
+    return matchers;
+  }
+
+  /**
+   * @param matchers number of threads matching lines in pipeline mode. Defaults to the
+   *     number of processors.
+   */
+  public void setMatchers(int matchers) {
+    if (matchers < 1) {
+      throw new IllegalArgumentException("matchers must be >= 1");
+    }
+    this.matchers = matchers;
+  }
+
+  public long getMmapThreshold() {
+    return mmapThreshold;
+  }
+
+  /**
+   * Files of at least this many bytes are memory mapped instead of read through a Reader
+   * @param mmapThreshold size in bytes
+   */
+  public void setMmapThreshold(long mmapThreshold) {
+    if (mmapThreshold < 0) {
+      throw new IllegalArgumentException("mmapThreshold must be >= 0");
+    }
+    this.mmapThreshold = mmapThreshold;
+  }
+
+  public long getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * With more than one thread, files bigger than this many bytes are split into chunks of
+   * about this size and scanned in parallel
+   * @param chunkSize size in bytes
+   */
+  public void setChunkSize(long chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("chunkSize must be >= 1");
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  public RegexEngine getEngine() {
+    return engine;
+  }
+
+  /**
+   * Engine used for regexes that aren't plain literals. AUTOMATON guarantees matching time
+   * linear in the line length, for patterns from untrusted sources.
+   * @param engine regex engine, JAVA by default
+   */
+  public void setEngine(RegexEngine engine) {
+    if (engine == null) {
+      throw new IllegalArgumentException("engine must not be null");
+    }
+    this.engine = engine;
+    this.matcher = null;
+  }
+
+  public FileWalker getWalker() {
+    return walker;
+  }
+
+  /**
+   * Walker used by listFiles and streamFiles, which holds the traversal filters
+   * @param walker configured walker
+   */
+  public void setWalker(FileWalker walker) {
+    this.walker = walker;
+  }
+
+  public String getIndexFile() {
+    return indexFile;
+  }
+
+  /**
+   * Trigram index used to skip files that can't match, or null to scan every file
+   * @param indexFile index path, created on first use and updated incrementally
+   */
+  public void setIndexFile(String indexFile) {
+    this.indexFile = indexFile;
+  }
+
+  public String getPatternFile() {
+    return patternFile;
+  }
+
+  /**
+   * File with one pattern per line to search for in a single pass instead of regex. Each
+   * output record is prefixed with the line number of the pattern that matched.
+   * @param patternFile pattern file, or null to use regex
+   */
+  public void setPatternFile(String patternFile) {
+    this.patternFile = patternFile;
+    this.matcher = null;
+  }
+
+  public String getMetricsFile() {
+    return metricsFile;
+  }
+
+  /**
+   * Collect run metrics during process() and write them as JSON to this file. null (the
+   * default) disables metrics.
+   * @param metricsFile destination of the JSON summary
+   */
+  public void setMetricsFile(String metricsFile) {
+    this.metricsFile = metricsFile;
+  }
+
+  /**
+   * @return metrics of the last process() run, or null if metrics were disabled
+   */
+  public GrepMetrics getMetrics() {
+    return metrics;
+  }
+
+  public boolean isFollow() {
+    return follow;
+  }
+
+  /**
+   * Keep following the files after the first scan and write matches in appended lines as
+   * they show up, until the process is interrupted
+   * @param follow true to follow
+   */
+  public void setFollow(boolean follow) {
+    this.follow = follow;
+  }
+
+  public String getCacheFile() {
+    return cacheFile;
+  }
+
+  /**
+   * Keep per-file results in this cache file, so unchanged files are not scanned again by
+   * later runs with the same pattern. null (the default) disables the cache.
+   * @param cacheFile result cache file
+   */
+  public void setCacheFile(String cacheFile) {
+    this.cacheFile = cacheFile;
+  }
+
+  public String getCheckpointFile() {
+    return checkpointFile;
+  }
+
+  /**
+   * Journal the files finished and the output they account for in this file, so a run that
+   * dies can be resumed. null (the default) disables checkpoints.
+   * @param checkpointFile checkpoint journal file
+   */
+  public void setCheckpointFile(String checkpointFile) {
+    this.checkpointFile = checkpointFile;
+  }
+
+  public boolean isResume() {
+    return resume;
+  }
+
+  /**
+   * Continue the run journaled in checkpointFile: files it finished are skipped and outFile
+   * is appended to after its last checkpoint. Without a journal the run starts over.
+   * @param resume true to resume
+   */
+  public void setResume(boolean resume) {
+    this.resume = resume;
+  }
+
+  public long getCheckpointInterval() {
+    return checkpointInterval;
+  }
+
+  /**
+   * Time between checkpoints. Each one flushes the output, so shorter intervals lose less
+   * work but write in smaller pieces.
+   * @param checkpointInterval milliseconds, CheckpointJournal.DEFAULT_INTERVAL_MILLIS by default
+   */
+  public void setCheckpointInterval(long checkpointInterval) {
+    if (checkpointInterval < 0) {
+      throw new IllegalArgumentException("checkpointInterval must be >= 0");
+    }
+    this.checkpointInterval = checkpointInterval;
+  }
+
+  public long getCacheSize() {
+    return cacheSize;
+  }
+
+  /**
+   * Size cap of the result cache file. Least recently used entries are evicted beyond it.
+   * @param cacheSize size in bytes
+   */
+  public void setCacheSize(long cacheSize) {
+    if (cacheSize < 1 || cacheSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("cacheSize must be between 1 and " + Integer.MAX_VALUE);
+    }
+    this.cacheSize = cacheSize;
+  }
+
+  @Override
+  public OutputMode getOutputMode() {
+    return outputMode;
+  }
+
+  @Override
+  public void setOutputMode(OutputMode outputMode) {
+    if (outputMode == null) {
+      throw new IllegalArgumentException("outputMode must not be null");
+    }
+    this.outputMode = outputMode;
+  }
+
+  @Override
+  public SortMode getSortMode() {
+    return sortMode;
+  }
+
+  @Override
+  public void setSortMode(SortMode sortMode) {
+    if (sortMode == null) {
+      throw new IllegalArgumentException("sortMode must not be null");
+    }
+    this.sortMode = sortMode;
+  }
+
+  public BinaryPolicy getBinaryPolicy() {
+    return binaryPolicy;
+  }
+
+  /**
+   * What to do with files whose leading block has a NUL byte or invalid UTF-8. COUNT (the
+   * default) writes how many lines of such a file matched instead of the lines.
+   * @param binaryPolicy binary file policy
+   */
+  public void setBinaryPolicy(BinaryPolicy binaryPolicy) {
+    if (binaryPolicy == null) {
+      throw new IllegalArgumentException("binaryPolicy must not be null");
+    }
+    this.binaryPolicy = binaryPolicy;
+  }
+
+  public long getSortMemory() {
+    return sortMemory;
+  }
+
+  /**
+   * Estimated bytes of matched lines held in memory while sorting, beyond which sorted runs
+   * are spilled to temp files next to outFile
+   * @param sortMemory bytes, SortingLineSink.DEFAULT_MEMORY by default
+   */
+  public void setSortMemory(long sortMemory) {
+    if (sortMemory < 1) {
+      throw new IllegalArgumentException("sortMemory must be >= 1");
+    }
+    this.sortMemory = sortMemory;
+  }
+
+  @Override
+  public long getMaxCount() {
+    return maxCount;
+  }
+
+  @Override
+  public void setMaxCount(long maxCount) {
+    if (maxCount < 0) {
+      throw new IllegalArgumentException("maxCount must be >= 0");
+    }
+    this.maxCount = maxCount;
+  }
+
   @Override
   public String getRootPath() {
     return rootPath;
@@ -166,6 +1204,7 @@ public class JavaGrepImp implements JavaGrep {
   @Override
   public void setRegex(String regex) {
     this.regex = regex;
+    this.matcher = null;
   }
 
   @Override
@@ -2,10 +2,11 @@ package ca.jrvs.apps.grep;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -17,18 +18,12 @@ public class JavaGrepLambdaImp extends JavaGrepImp {
 //  private final Logger logger = LoggerFactory.getLogger(getClass());
 
   public static void main(String[] args) {
-    if (args.length != 3) {
-      throw new IllegalArgumentException("USAGE: JavaGrep <regex> <rootPath> <outFile>");
-    }
+    JavaGrepLambdaImp javaGrepLambdaImp = new JavaGrepLambdaImp();
+    GrepCli.configure(javaGrepLambdaImp, args);
 
     // Default logger config
     BasicConfigurator.configure();
 
-    JavaGrepLambdaImp javaGrepLambdaImp = new JavaGrepLambdaImp();
-    javaGrepLambdaImp.setRegex(args[0]);
-    javaGrepLambdaImp.setRootPath(args[1]);
-    javaGrepLambdaImp.setOutFile(args[2]);
-
     try {
       javaGrepLambdaImp.process();
     }
@@ -39,62 +34,59 @@ public class JavaGrepLambdaImp extends JavaGrepImp {
 
   /**
    * Implemented using lambda and stream APIs
+   * The stream is closed once collected so the underlying reader is released
    */
   @Override
   public List<String> readLines(File inputFile) {
-    if (inputFile == null) {
-      throw new IllegalArgumentException("inputFile must not be null");
-    }
-
-    if (!inputFile.isFile()) {
-      throw new IllegalArgumentException("Not a file: " + inputFile.getAbsolutePath());
-    }
-
-    try {
-      BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-      Stream<String> lineStream = reader.lines();
+    try (Stream<String> lineStream = leavesOutLines(inputFile)
+        ? Stream.<String>empty() : lines(inputFile)) {
       return lineStream.collect(Collectors.toList());
     }
-    catch (IOException e) {
+    catch (IOException | UncheckedIOException e) {
       logger.error("Failed to read file: {}", inputFile.getAbsolutePath(), e);
       throw new RuntimeException("Failed to read file " + inputFile.getAbsolutePath(), e);
     }
   }
 
   /**
-   * Helper recursive function used for transversing a directory in a DFS style
-   * Adds files found in the directory while transversing
-   * @param file current file
-   * @return Stream<File> stream of the files in the directory
+   * Implemented using lambda and stream APIs
+   * Lines are filtered and written one-by-one as the stream is pulled. anyMatch stops pulling
+   * lines as soon as the stage reaches its limit.
    */
-  private Stream<File> fileSearchHelper(File file) {
-    if (file.isFile()) {
-      return Stream.of(file);
+  @Override
+  protected void scanBuffered(InputStream in, MatchStage stage) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8),
+        WriterLineSink.DEFAULT_BUFFER_SIZE);
+    try (Stream<String> lineStream = reader.lines()) {
+      lineStream.filter(stage::matches).anyMatch(line -> emit(stage, line));
     }
-
-    File[] children = file.listFiles();
-
-    if (children == null || children.length == 0) {
-      // not a directory, or IO error / no permission / empty dir
-      return Stream.empty();
+    catch (UncheckedIOException e) {
+      throw e.getCause();
     }
+  }
 
-    // for each child, recursively get its files, and flatten them
-    return Arrays.stream(children).flatMap(child -> fileSearchHelper(child));
+  /**
+   * Bridge for writing from inside a lambda, which can't throw checked exceptions
+   * @return true if the stage is done
+   */
+  private static boolean emit(MatchStage stage, String line) {
+    try {
+      stage.emit(line);
+      return stage.isDone();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   /**
    * Implemented using lambda and stream APIs
+   * The walk runs in the background and the stream is closed once collected
    */
   @Override
   public List<File> listFiles(String rootDir) {
-    File root = new File(rootDir);
-
-    if (!root.exists()) {
-      logger.warn("Root path does not exist: {}", rootDir);
-      return Collections.emptyList();
+    try (Stream<File> files = streamFiles(rootDir)) {
+      return files.collect(Collectors.toList());
     }
-
-    return fileSearchHelper(root).collect(Collectors.toList());
   }
 }
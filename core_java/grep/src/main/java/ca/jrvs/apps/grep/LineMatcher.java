@@ -0,0 +1,15 @@
+package ca.jrvs.apps.grep;
+
+/**
+ * A compiled pattern that can be tested against many lines. Implementations are
+ * compiled once per run and are safe to share between threads.
+ */
+public interface LineMatcher {
+
+  /**
+   * Check if a line contains the pattern
+   * @param line input characters, e.g. a String or a window over a buffer
+   * @return true if there is a match anywhere in the line
+   */
+  boolean find(CharSequence line);
+}
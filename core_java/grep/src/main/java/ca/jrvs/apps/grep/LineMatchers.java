@@ -0,0 +1,136 @@
+package ca.jrvs.apps.grep;
+
+import java.util.regex.Pattern;
+
+/**
+ * Compiles a user regex into the cheapest LineMatcher that gives the same results as
+ * Pattern.compile(regex).matcher(line).find()
+ *
+ * - pure literals (no metacharacters, escaped punctuation or \Q...\E) use Boyer-Moore-Horspool
+ * - (?i) followed by a literal uses the case-insensitive Boyer-Moore-Horspool variant
+ * - everything else is compiled once into a RegexLineMatcher, or an AutomatonMatcher when
+ *   that engine is chosen, behind a prefilter for the literals RegexLiterals finds every
+ *   match requires
+ */
+public final class LineMatchers {
+
+  private static final String META_CHARS = "\\^$.|?*+()[]{}";
+  private static final String CASE_INSENSITIVE_FLAG = "(?i)";
+
+  private LineMatchers() {
+  }
+
+  /**
+   * Compile a regex into a LineMatcher
+   * @param regex user supplied regex
+   * @return matcher using the fastest engine that supports the regex
+   * @throws IllegalArgumentException if regex is null
+   * @throws java.util.regex.PatternSyntaxException if regex is not valid
+   */
+  public static LineMatcher compile(String regex) {
+    return compile(regex, RegexEngine.JAVA);
+  }
+
+  /**
+   * Compile a regex into a LineMatcher
+   * @param regex user supplied regex
+   * @param engine engine for regexes that aren't literals
+   * @return matcher using the fastest engine that supports the regex
+   * @throws IllegalArgumentException if regex is null
+   * @throws java.util.regex.PatternSyntaxException if regex is not valid
+   */
+  public static LineMatcher compile(String regex, RegexEngine engine) {
+    if (regex == null) {
+      throw new IllegalArgumentException("regex must not be null");
+    }
+
+    boolean ignoreCase = regex.startsWith(CASE_INSENSITIVE_FLAG);
+    String body = simplify(ignoreCase ? regex.substring(CASE_INSENSITIVE_FLAG.length()) : regex);
+
+    String literal = toLiteral(body);
+    if (literal != null) {
+      return new LiteralMatcher(literal, ignoreCase);
+    }
+
+    String simplified = ignoreCase ? CASE_INSENSITIVE_FLAG + body : body;
+    if (engine == RegexEngine.AUTOMATON) {
+      try {
+        return AutomatonMatcher.compile(simplified);
+      }
+      catch (UnsupportedRegexException e) {
+        // keep java.util.regex for constructs the automaton doesn't model
+      }
+    }
+    return new RegexLineMatcher(Pattern.compile(simplified),
+        LiteralPrefilter.of(RegexLiterals.analyze(simplified)));
+  }
+
+  /**
+   * Drop a leading and trailing .* since they never change whether find() succeeds, but a
+   * leading .* makes find() quadratic in the line length
+   * @param regex input regex
+   * @return equivalent regex for find() purposes
+   */
+  static String simplify(String regex) {
+    if (regex.contains("\\Q")) {
+      return regex;
+    }
+
+    if (regex.startsWith(".*") && (regex.length() == 2 || "?+*{".indexOf(regex.charAt(2)) < 0)) {
+      regex = regex.substring(2);
+    }
+
+    if (regex.endsWith(".*") && !isEscaped(regex, regex.length() - 2)) {
+      regex = regex.substring(0, regex.length() - 2);
+    }
+
+    return regex;
+  }
+
+  /**
+   * Return the text matched by a regex that has no regex features, or null otherwise
+   * @param regex input regex
+   * @return literal text or null
+   */
+  static String toLiteral(String regex) {
+    if (regex.startsWith("\\Q")) {
+      int end = regex.indexOf("\\E");
+      if (end < 0) {
+        // \Q without \E quotes the rest of the pattern
+        return regex.substring(2);
+      }
+      return end == regex.length() - 2 ? regex.substring(2, end) : null;
+    }
+
+    StringBuilder literal = new StringBuilder(regex.length());
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        // escaped punctuation is literal, escaped letters/digits are classes or backrefs
+        if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+          return null;
+        }
+        literal.append(regex.charAt(++i));
+      }
+      else if (META_CHARS.indexOf(c) >= 0) {
+        return null;
+      }
+      else {
+        literal.append(c);
+      }
+    }
+
+    return literal.toString();
+  }
+
+  /**
+   * @return true if the char at index is preceded by an odd number of backslashes
+   */
+  private static boolean isEscaped(String regex, int index) {
+    int slashes = 0;
+    for (int i = index - 1; i >= 0 && regex.charAt(i) == '\\'; i--) {
+      slashes++;
+    }
+    return slashes % 2 == 1;
+  }
+}
@@ -0,0 +1,30 @@
+package ca.jrvs.apps.grep;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Incremental destination for matched lines. Lines are pushed one at a time as they are
+ * found so nothing has to be collected in memory before writing.
+ */
+public interface LineSink extends Closeable {
+
+  /**
+   * Write one matched line followed by a line separator
+   * @param line matched line
+   * @throws IOException if write failed
+   */
+  void write(String line) throws IOException;
+
+  /**
+   * @return number of lines written so far
+   */
+  long count();
+
+  /**
+   * Push buffered lines to their destination. Sinks without a buffer do nothing.
+   * @throws IOException if write failed
+   */
+  default void flush() throws IOException {
+  }
+}
@@ -0,0 +1,45 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory LineSink used as a per-file result slot when files are scanned out of order.
+ * It only ever holds the matches of one file, which are drained into the real sink once all
+ * earlier files have been written.
+ */
+public class ListLineSink implements LineSink {
+
+  private final List<String> lines = new ArrayList<>();
+
+  @Override
+  public void write(String line) {
+    lines.add(line);
+  }
+
+  @Override
+  public long count() {
+    return lines.size();
+  }
+
+  public List<String> getLines() {
+    return lines;
+  }
+
+  /**
+   * Write every buffered line to the given sink in order and release them
+   * @param sink destination
+   * @throws IOException if write failed
+   */
+  public void drainTo(LineSink sink) throws IOException {
+    for (String line : lines) {
+      sink.write(line);
+    }
+    lines.clear();
+  }
+
+  @Override
+  public void close() {
+  }
+}
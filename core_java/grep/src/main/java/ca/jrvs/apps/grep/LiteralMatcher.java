@@ -0,0 +1,89 @@
+package ca.jrvs.apps.grep;
+
+/**
+ * Substring search for patterns without regex metacharacters using Boyer-Moore-Horspool.
+ * The bad character table is indexed by the low byte of each char; collisions only make a
+ * shift smaller, never wrong.
+ *
+ * Case-insensitive literals fold US-ASCII letters only, which mirrors (?i) in
+ * java.util.regex when UNICODE_CASE is not set.
+ */
+public class LiteralMatcher implements LineMatcher {
+
+  private final char[] needle;
+  private final boolean ignoreCase;
+  private final int[] shift = new int[256];
+
+  public LiteralMatcher(String literal, boolean ignoreCase) {
+    this.ignoreCase = ignoreCase;
+    this.needle = new char[literal.length()];
+    for (int i = 0; i < needle.length; i++) {
+      needle[i] = ignoreCase ? toLowerAscii(literal.charAt(i)) : literal.charAt(i);
+    }
+
+    int m = needle.length;
+    for (int i = 0; i < shift.length; i++) {
+      shift[i] = m;
+    }
+    for (int i = 0; i < m - 1; i++) {
+      shift[needle[i] & 0xFF] = m - 1 - i;
+    }
+  }
+
+  public String getLiteral() {
+    return new String(needle);
+  }
+
+  public boolean isIgnoreCase() {
+    return ignoreCase;
+  }
+
+  @Override
+  public boolean find(CharSequence line) {
+    return indexOf(line, 0, line.length()) >= 0;
+  }
+
+  /**
+   * Find the first occurrence of the literal in line[from, to)
+   * @return index of the first occurrence, or -1 if there is none
+   */
+  public int indexOf(CharSequence line, int from, int to) {
+    int m = needle.length;
+    if (m == 0) {
+      return from;
+    }
+
+    int last = m - 1;
+    char tail = needle[last];
+    int pos = from;
+    while (pos + last < to) {
+      char c = charAt(line, pos + last);
+      if (c == tail) {
+        int i = last - 1;
+        while (i >= 0 && charAt(line, pos + i) == needle[i]) {
+          i--;
+        }
+        if (i < 0) {
+          return pos;
+        }
+      }
+      pos += shift[c & 0xFF];
+    }
+
+    return -1;
+  }
+
+  private char charAt(CharSequence line, int index) {
+    char c = line.charAt(index);
+    return ignoreCase ? toLowerAscii(c) : c;
+  }
+
+  static char toLowerAscii(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
+  @Override
+  public String toString() {
+    return (ignoreCase ? "literal-ci(" : "literal(") + getLiteral() + ")";
+  }
+}
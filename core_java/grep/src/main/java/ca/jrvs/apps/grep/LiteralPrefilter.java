@@ -0,0 +1,93 @@
+package ca.jrvs.apps.grep;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Substring search for the literals a LiteralQuery requires, used to skip lines before a
+ * regex runs on them. A line it rejects can't match the regex; a line it accepts still has
+ * to be confirmed by the regex.
+ *
+ * - a literal uses Boyer-Moore-Horspool (LiteralMatcher)
+ * - an OR of case-sensitive literals runs one Aho-Corasick pass over the line
+ * - an AND tests its longest literals first, since they are the least likely to occur
+ */
+public final class LiteralPrefilter implements LineMatcher {
+
+  private final boolean and;
+  private final LineMatcher[] operands;
+  private final LiteralQuery query;
+
+  private LiteralPrefilter(boolean and, LineMatcher[] operands, LiteralQuery query) {
+    this.and = and;
+    this.operands = operands;
+    this.query = query;
+  }
+
+  /**
+   * @param query literals every matching line contains
+   * @return matcher for the query, or null if the query is satisfied by every line
+   */
+  public static LineMatcher of(LiteralQuery query) {
+    switch (query.getOp()) {
+      case ALL:
+        return null;
+      case LITERAL:
+        return new LiteralMatcher(query.getLiteral(), query.isIgnoreCase());
+      case OR:
+        if (isCaseSensitiveLiterals(query.getOperands())) {
+          List<String> literals = new ArrayList<>();
+          for (LiteralQuery operand : query.getOperands()) {
+            literals.add(operand.getLiteral());
+          }
+          return new LiteralPrefilter(false,
+              new LineMatcher[] {new AhoCorasick(literals)::find}, query);
+        }
+        return new LiteralPrefilter(false, compile(query.getOperands()), query);
+      default:
+        List<LiteralQuery> operands = new ArrayList<>(query.getOperands());
+        operands.sort(Comparator.comparingInt(LiteralPrefilter::weight).reversed());
+        return new LiteralPrefilter(true, compile(operands), query);
+    }
+  }
+
+  @Override
+  public boolean find(CharSequence line) {
+    for (LineMatcher operand : operands) {
+      if (operand.find(line) != and) {
+        return !and;
+      }
+    }
+    return and;
+  }
+
+  private static LineMatcher[] compile(List<LiteralQuery> queries) {
+    LineMatcher[] matchers = new LineMatcher[queries.size()];
+    for (int i = 0; i < matchers.length; i++) {
+      matchers[i] = of(queries.get(i));
+    }
+    return matchers;
+  }
+
+  private static boolean isCaseSensitiveLiterals(List<LiteralQuery> queries) {
+    for (LiteralQuery query : queries) {
+      if (query.getOp() != LiteralQuery.Op.LITERAL || query.isIgnoreCase()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return how selective a query is likely to be: the literal length, 0 for compound ones
+   */
+  private static int weight(LiteralQuery query) {
+    return query.getOp() == LiteralQuery.Op.LITERAL ? query.getLiteral().length() : 0;
+  }
+
+  @Override
+  public String toString() {
+    return "prefilter" + query;
+  }
+}
@@ -0,0 +1,141 @@
+package ca.jrvs.apps.grep;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Boolean query over literal substrings that every line matching a regex satisfies, e.g.
+ * ERROR.*(timeout|refused) gives ERROR AND (timeout OR refused). It is a necessary
+ * condition only: lines satisfying it still have to be confirmed with the real matcher.
+ *
+ * Literals of a case-insensitive regex are stored lower-cased with ignoreCase set.
+ */
+public final class LiteralQuery {
+
+  public enum Op {
+    ALL, LITERAL, AND, OR
+  }
+
+  private static final LiteralQuery ALL = new LiteralQuery(Op.ALL, null, false,
+      Collections.<LiteralQuery>emptyList());
+
+  private final Op op;
+  private final String literal;
+  private final boolean ignoreCase;
+  private final List<LiteralQuery> operands;
+
+  private LiteralQuery(Op op, String literal, boolean ignoreCase, List<LiteralQuery> operands) {
+    this.op = op;
+    this.literal = literal;
+    this.ignoreCase = ignoreCase;
+    this.operands = operands;
+  }
+
+  /**
+   * @return query every line satisfies
+   */
+  public static LiteralQuery all() {
+    return ALL;
+  }
+
+  public static LiteralQuery literal(String literal, boolean ignoreCase) {
+    if (literal.isEmpty()) {
+      return ALL;
+    }
+    return new LiteralQuery(Op.LITERAL, literal, ignoreCase, Collections.<LiteralQuery>emptyList());
+  }
+
+  public static LiteralQuery and(List<LiteralQuery> queries) {
+    List<LiteralQuery> operands = new ArrayList<>();
+    for (LiteralQuery query : queries) {
+      if (query.op == Op.AND) {
+        operands.addAll(query.operands);
+      }
+      else if (query.op != Op.ALL && !operands.contains(query)) {
+        operands.add(query);
+      }
+    }
+    // a literal implied by a longer one adds nothing, e.g. "ab" AND "abc"
+    operands.removeIf(query -> query.op == Op.LITERAL && operands.stream().anyMatch(
+        other -> other != query && other.op == Op.LITERAL && other.ignoreCase == query.ignoreCase
+            && other.literal.length() > query.literal.length()
+            && other.literal.contains(query.literal)));
+    if (operands.isEmpty()) {
+      return ALL;
+    }
+    return operands.size() == 1 ? operands.get(0) : new LiteralQuery(Op.AND, null, false, operands);
+  }
+
+  public static LiteralQuery or(List<LiteralQuery> queries) {
+    List<LiteralQuery> operands = new ArrayList<>();
+    for (LiteralQuery query : queries) {
+      if (query.op == Op.ALL) {
+        // one side needs nothing, so neither does the whole OR
+        return ALL;
+      }
+      if (query.op == Op.OR) {
+        operands.addAll(query.operands);
+      }
+      else if (!operands.contains(query)) {
+        operands.add(query);
+      }
+    }
+    // a literal containing a shorter one is implied by it, e.g. "foo" OR "fo" is just "fo"
+    operands.removeIf(query -> query.op == Op.LITERAL && operands.stream().anyMatch(
+        other -> other != query && other.op == Op.LITERAL && other.ignoreCase == query.ignoreCase
+            && other.literal.length() < query.literal.length()
+            && query.literal.contains(other.literal)));
+    if (operands.isEmpty()) {
+      return ALL;
+    }
+    return operands.size() == 1 ? operands.get(0) : new LiteralQuery(Op.OR, null, false, operands);
+  }
+
+  public Op getOp() {
+    return op;
+  }
+
+  public String getLiteral() {
+    return literal;
+  }
+
+  public boolean isIgnoreCase() {
+    return ignoreCase;
+  }
+
+  public List<LiteralQuery> getOperands() {
+    return operands;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof LiteralQuery)) {
+      return false;
+    }
+    LiteralQuery other = (LiteralQuery) o;
+    return op == other.op && ignoreCase == other.ignoreCase && operands.equals(other.operands)
+        && (literal == null ? other.literal == null : literal.equals(other.literal));
+  }
+
+  @Override
+  public int hashCode() {
+    return op.hashCode() * 31 + (literal == null ? operands.hashCode() : literal.hashCode());
+  }
+
+  @Override
+  public String toString() {
+    switch (op) {
+      case ALL:
+        return "ALL";
+      case LITERAL:
+        return (ignoreCase ? "i\"" : "\"") + literal + "\"";
+      default:
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < operands.size(); i++) {
+          sb.append(i == 0 ? "" : " " + op + " ").append(operands.get(i));
+        }
+        return sb.append(')').toString();
+    }
+  }
+}
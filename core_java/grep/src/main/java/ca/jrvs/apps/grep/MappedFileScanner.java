@@ -0,0 +1,301 @@
+package ca.jrvs.apps.grep;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Byte-level scanner for large files. The file is memory mapped with FileChannel.map and
+ * line boundaries are found over the raw bytes, so nothing is decoded for lines that don't
+ * match.
+ *
+ * - US-ASCII lines are matched through a ByteCharSequence view of the mapped bytes and only
+ *   turned into a String when they match
+ * - lines with non-ASCII bytes are decoded as UTF-8 into a reused CharBuffer before
+ *   matching, so results are the same as reading the file through a UTF-8 Reader
+ * - lines end at \n, \r or \r\n, the same as BufferedReader.readLine()
+ *
+ * Files bigger than the window size are mapped one window at a time. Each window ends after
+ * its last complete line and the next window starts at the following line, so no line is
+ * ever split between two mappings.
+ *
+ * Line breaks and non-ASCII bytes are found with a ByteScanner, eight bytes at a time where
+ * the platform allows it. When every matching line must contain some bytes (e.g. a literal
+ * the regex requires), the scanner jumps from one occurrence of their first byte to the
+ * next, checks the rest in place, and only lines with every byte reach the stage. The
+ * others are skipped without being split into lines at all.
+ *
+ * Files that may shrink while they are scanned (e.g. logs rotated with copytruncate) should
+ * not be mapped, since touching a mapped page past the new end of file crashes the JVM. For
+ * those the scanner can read each window into a heap buffer instead.
+ */
+public class MappedFileScanner {
+
+  public static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024;
+
+  private final long windowSize;
+  private final boolean mapped;
+  private final ByteScanner bytes;
+  private byte[] required;
+
+  public MappedFileScanner() {
+    this(DEFAULT_WINDOW_SIZE);
+  }
+
+  public MappedFileScanner(long windowSize) {
+    this(windowSize, true);
+  }
+
+  /**
+   * @param windowSize bytes mapped or read at a time
+   * @param mapped true to memory map windows, false to read them into heap buffers
+   */
+  public MappedFileScanner(long windowSize, boolean mapped) {
+    this(windowSize, mapped, ByteScanner.DEFAULT);
+  }
+
+  /**
+   * @param windowSize bytes mapped or read at a time
+   * @param mapped true to memory map windows, false to read them into heap buffers
+   * @param bytes kernel that finds line breaks and bytes
+   */
+  public MappedFileScanner(long windowSize, boolean mapped, ByteScanner bytes) {
+    if (windowSize < 1 || windowSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("windowSize must be between 1 and " + Integer.MAX_VALUE);
+    }
+    this.windowSize = windowSize;
+    this.mapped = mapped;
+    this.bytes = bytes;
+  }
+
+  public byte[] getRequiredBytes() {
+    return required == null ? null : required.clone();
+  }
+
+  /**
+   * Skip every line that doesn't contain these bytes. Lines are only skipped when the stage
+   * could not match them anyway, so the bytes must occur in every line the stage's matcher
+   * finds. Skipped lines never reach the stage, so stages that count lines only see the rest.
+   * @param required US-ASCII bytes every matching line contains, or null to scan every line
+   */
+  public void setRequiredBytes(byte[] required) {
+    if (required != null) {
+      if (required.length == 0) {
+        throw new IllegalArgumentException("required bytes must not be empty");
+      }
+      for (byte b : required) {
+        if (b < 0 || b == '\n' || b == '\r') {
+          throw new IllegalArgumentException("required bytes must be US-ASCII without line breaks");
+        }
+      }
+    }
+    this.required = required == null ? null : required.clone();
+  }
+
+  /**
+   * Bytes that every line matching a query contains, for setRequiredBytes: the longest run
+   * of US-ASCII chars in the longest literal the query requires. Case-insensitive literals
+   * only offer chars that aren't letters.
+   * @param query literals required by the pattern
+   * @return required bytes, or null if the query has none
+   */
+  public static byte[] requiredBytes(LiteralQuery query) {
+    if (query.getOp() == LiteralQuery.Op.LITERAL) {
+      return requiredBytes(query.getLiteral(), query.isIgnoreCase());
+    }
+    if (query.getOp() != LiteralQuery.Op.AND) {
+      return null;
+    }
+    byte[] best = null;
+    int bestLength = 0;
+    for (LiteralQuery operand : query.getOperands()) {
+      if (operand.getOp() != LiteralQuery.Op.LITERAL
+          || operand.getLiteral().length() <= bestLength) {
+        continue;
+      }
+      byte[] bytes = requiredBytes(operand.getLiteral(), operand.isIgnoreCase());
+      if (bytes != null) {
+        best = bytes;
+        bestLength = operand.getLiteral().length();
+      }
+    }
+    return best;
+  }
+
+  private static byte[] requiredBytes(String literal, boolean ignoreCase) {
+    int bestStart = 0;
+    int bestEnd = 0;
+    int start = 0;
+    for (int i = 0; i <= literal.length(); i++) {
+      char c = i < literal.length() ? literal.charAt(i) : '\n';
+      // a non-ASCII char may have been decoded from invalid bytes, an ASCII char can't
+      if (c >= 0x80 || c == '\n' || c == '\r' || (ignoreCase && Character.isLetter(c))) {
+        if (i - start > bestEnd - bestStart) {
+          bestStart = start;
+          bestEnd = i;
+        }
+        start = i + 1;
+      }
+    }
+    return bestEnd == bestStart ? null
+        : literal.substring(bestStart, bestEnd).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Scan a whole file. The stage is flushed before the file is closed, so a sink holding
+   * ranges of the file writes them while it can still copy them from the file.
+   * @param file file to be scanned
+   * @param stage match stage every line is handed to
+   * @throws IOException if the file cannot be mapped or the sink failed
+   */
+  public void scan(File file, MatchStage stage) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      scan(channel, 0, channel.size(), stage);
+      stage.flush();
+    }
+  }
+
+  /**
+   * Scan the bytes in [start, end) of a channel. start must be the beginning of a line.
+   * @param channel open file channel
+   * @param start first byte to scan
+   * @param end byte after the last one to scan
+   * @param stage match stage every line is handed to
+   * @throws IOException if the range cannot be mapped or the sink failed
+   */
+  public void scan(FileChannel channel, long start, long end, MatchStage stage)
+      throws IOException {
+    long pos = start;
+    long size = windowSize;
+
+    while (pos < end) {
+      long length = Math.min(size, end - pos);
+      ByteBuffer window = mapped ? channel.map(FileChannel.MapMode.READ_ONLY, pos, length)
+          : read(channel, pos, (int) length);
+      // a short read means the file shrank, so what was read is all there is
+      boolean last = pos + length >= end || window.limit() < length;
+
+      int consumed = scanWindow(window, mapped ? channel : null, pos, last, stage);
+      if (last || consumed < 0) {
+        break;
+      }
+
+      if (consumed == 0) {
+        // a single line is longer than the window, so map a bigger one
+        if (size == Integer.MAX_VALUE) {
+          throw new IOException("Line longer than " + Integer.MAX_VALUE + " bytes at offset " + pos);
+        }
+        size = Math.min(size * 2, Integer.MAX_VALUE);
+      }
+      pos += consumed;
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long pos, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining() && channel.read(buffer, pos + buffer.position()) >= 0) {
+      // keep reading until the window is full or the file ends
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Match every complete line in a window
+   * @param source channel the window is mapped from, or null if it was read
+   * @param position file position of the window
+   * @param last true if the window reaches the end of the range, so a trailing line without
+   *             terminator is complete
+   * @return number of bytes consumed, which ends after the last complete line, or -1 if the
+   * stage is done and the rest of the range should be skipped
+   */
+  private int scanWindow(ByteBuffer buffer, FileChannel source, long position, boolean last,
+      MatchStage stage) throws IOException {
+    ByteCharSequence view = new ByteCharSequence().setSource(source, position);
+    Utf8LineDecoder decoder = new Utf8LineDecoder();
+    int limit = buffer.limit();
+    int lineStart = 0;
+
+    while (lineStart < limit) {
+      int from = lineStart;
+      if (required != null) {
+        from = indexOfRequired(buffer, lineStart, limit);
+        if (from == limit) {
+          // no line left in the window can match
+          return last ? limit : lastLineStart(buffer, lineStart, limit);
+        }
+        lineStart = lineStart(buffer, lineStart, from);
+      }
+
+      int end = bytes.indexOfLineBreak(buffer, from, limit);
+      if (end == limit) {
+        if (!last) {
+          return lineStart;
+        }
+        matchLine(buffer, lineStart, limit, view, decoder, stage);
+        return limit;
+      }
+      boolean cr = buffer.get(end) == '\r';
+      if (cr && end + 1 == limit && !last) {
+        // can't tell if this is \r or \r\n until the next window
+        return lineStart;
+      }
+
+      matchLine(buffer, lineStart, end, view, decoder, stage);
+      if (stage.isDone()) {
+        return -1;
+      }
+      lineStart = cr && end + 1 < limit && buffer.get(end + 1) == '\n' ? end + 2 : end + 1;
+    }
+    return limit;
+  }
+
+  /**
+   * @return index of the first occurrence of the required bytes in [from, limit), or limit
+   */
+  private int indexOfRequired(ByteBuffer buffer, int from, int limit) {
+    // occurrences can start no later than this
+    int end = limit - required.length + 1;
+    for (int i = bytes.indexOf(buffer, required[0], from, end); i < end;
+        i = bytes.indexOf(buffer, required[0], i + 1, end)) {
+      int k = 1;
+      while (k < required.length && buffer.get(i + k) == required[k]) {
+        k++;
+      }
+      if (k == required.length) {
+        return i;
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * @return start of the line that contains the byte at index, looking back no further than
+   * from
+   */
+  private static int lineStart(ByteBuffer buffer, int from, int index) {
+    int i = index - 1;
+    while (i >= from && buffer.get(i) != '\n' && buffer.get(i) != '\r') {
+      i--;
+    }
+    return i + 1;
+  }
+
+  /**
+   * @return start of the line at the end of the window, which may continue in the next one
+   */
+  private static int lastLineStart(ByteBuffer buffer, int from, int limit) {
+    // a \r at the end may be the first half of \r\n, so its line isn't over yet
+    return lineStart(buffer, from, buffer.get(limit - 1) == '\r' ? limit - 1 : limit);
+  }
+
+  private void matchLine(ByteBuffer buffer, int start, int end, ByteCharSequence view,
+      Utf8LineDecoder decoder, MatchStage stage) throws IOException {
+    // either view is only turned into a String by the stage if the line matches
+    stage.accept(bytes.isAscii(buffer, start, end) ? view.reset(buffer, start, end - start)
+        : decoder.decode(buffer, start, end));
+  }
+}
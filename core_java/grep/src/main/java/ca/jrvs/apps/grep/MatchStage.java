@@ -0,0 +1,96 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+
+/**
+ * Match stage between a line source and a sink. Scanners hand every line of a file to
+ * accept(), which tests it against the matcher and writes matched lines to the sink.
+ * Subclasses change what gets written for a matched line.
+ *
+ * A stage can have a limit on matched lines. Scanners check isDone() after every line and
+ * stop reading the file once it is reached.
+ */
+public class MatchStage {
+
+  protected final LineMatcher matcher;
+  protected final LineSink sink;
+  protected long matched;
+  protected long limit = Long.MAX_VALUE;
+
+  public MatchStage(LineMatcher matcher, LineSink sink) {
+    this.matcher = matcher;
+    this.sink = sink;
+  }
+
+  /**
+   * Match one line and write it out if it matches
+   * @param line line without its terminator
+   * @return true if the line matched
+   * @throws IOException if the sink failed
+   */
+  public boolean accept(CharSequence line) throws IOException {
+    if (!matches(line)) {
+      return false;
+    }
+    emit(line);
+    return true;
+  }
+
+  /**
+   * @param line line without its terminator
+   * @return true if the line matches
+   */
+  public boolean matches(CharSequence line) {
+    return matcher.find(line);
+  }
+
+  /**
+   * Write a matched line to the sink. Lines still in the bytes of the file go to a
+   * ByteLineSink as they are, without becoming a String.
+   * @param line matched line
+   * @throws IOException if the sink failed
+   */
+  public void emit(CharSequence line) throws IOException {
+    if (line instanceof ByteCharSequence && sink instanceof ByteLineSink) {
+      ((ByteLineSink) sink).write((ByteCharSequence) line);
+    }
+    else {
+      sink.write(line.toString());
+    }
+    matched++;
+  }
+
+  /**
+   * Flush the sink, e.g. before the scanned file is closed
+   * @throws IOException if the sink failed
+   */
+  public void flush() throws IOException {
+    if (sink != null) {
+      sink.flush();
+    }
+  }
+
+  /**
+   * @return number of matched lines so far
+   */
+  public long getMatched() {
+    return matched;
+  }
+
+  /**
+   * @param limit number of matched lines after which the rest of the input is skipped
+   */
+  public void setLimit(long limit) {
+    if (limit < 1) {
+      throw new IllegalArgumentException("limit must be >= 1");
+    }
+    this.limit = limit;
+  }
+
+  /**
+   * @return true once the limit of matched lines is reached
+   */
+  public boolean isDone() {
+    return matched >= limit;
+  }
+}
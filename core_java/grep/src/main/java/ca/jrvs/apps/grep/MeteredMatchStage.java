@@ -0,0 +1,72 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+
+/**
+ * Match stage that records line counts, sampled match time and emit time in GrepMetrics
+ * before handing each line to the real stage. Only used when metrics are enabled.
+ */
+public class MeteredMatchStage extends MatchStage {
+
+  private final MatchStage stage;
+  private final GrepMetrics metrics;
+  private long lines;
+
+  public MeteredMatchStage(MatchStage stage, GrepMetrics metrics) {
+    super(stage.matcher, stage.sink);
+    this.stage = stage;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public boolean accept(CharSequence line) throws IOException {
+    boolean matches = matches(line);
+    if (matches) {
+      emit(line);
+    }
+    return matches;
+  }
+
+  /**
+   * Count the line and test it, timing one test in GrepMetrics.SAMPLE_INTERVAL. Callers
+   * that test and emit lines themselves, like the stream based scan, are metered too.
+   */
+  @Override
+  public boolean matches(CharSequence line) {
+    metrics.recordLine();
+    if (++lines % GrepMetrics.SAMPLE_INTERVAL != 0) {
+      return stage.matches(line);
+    }
+    long start = System.nanoTime();
+    boolean matches = stage.matches(line);
+    metrics.recordMatchSample(System.nanoTime() - start);
+    return matches;
+  }
+
+  @Override
+  public void emit(CharSequence line) throws IOException {
+    long start = System.nanoTime();
+    stage.emit(line);
+    metrics.recordEmit(System.nanoTime() - start);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    stage.flush();
+  }
+
+  @Override
+  public long getMatched() {
+    return stage.getMatched();
+  }
+
+  @Override
+  public void setLimit(long limit) {
+    stage.setLimit(limit);
+  }
+
+  @Override
+  public boolean isDone() {
+    return stage.isDone();
+  }
+}
@@ -0,0 +1,231 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches many patterns in a single pass over each line.
+ *
+ * - patterns that are plain literals go into one Aho-Corasick automaton
+ * - the other regexes are joined into one alternation, so a line is tested once no matter
+ *   how many there are
+ *
+ * Only lines that match are tested pattern by pattern to find out which ones hit. Each
+ * pattern is identified by its line number in the pattern file.
+ *
+ * With the AUTOMATON engine, the alternation is one AutomatonMatcher over every regex when
+ * they are all in the supported subset.
+ */
+public class MultiPatternMatcher implements LineMatcher {
+
+  private static final Pattern BACKREFERENCE = Pattern.compile("\\\\(?:[1-9]|k<)");
+
+  private final List<String> patterns;
+  private final int[] ids;
+  private final int[] literalPatterns;
+  private final AhoCorasick literals;
+  private final int[] regexPatterns;
+  private final LineMatcher[] regexes;
+  private final LineMatcher combined;
+
+  /**
+   * @param patterns patterns in java.util.regex syntax
+   * @param ids identifier of each pattern, e.g. its line number
+   */
+  public MultiPatternMatcher(List<String> patterns, int[] ids) {
+    this(patterns, ids, RegexEngine.JAVA);
+  }
+
+  /**
+   * @param patterns patterns in java.util.regex syntax
+   * @param ids identifier of each pattern, e.g. its line number
+   * @param engine engine for the patterns that aren't literals
+   */
+  public MultiPatternMatcher(List<String> patterns, int[] ids, RegexEngine engine) {
+    if (patterns.isEmpty()) {
+      throw new IllegalArgumentException("At least one pattern is required");
+    }
+    this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+    this.ids = ids.clone();
+
+    List<String> literalList = new ArrayList<>();
+    List<Integer> literalIndexes = new ArrayList<>();
+    List<Integer> regexIndexes = new ArrayList<>();
+    for (int i = 0; i < patterns.size(); i++) {
+      String literal = LineMatchers.toLiteral(LineMatchers.simplify(patterns.get(i)));
+      if (literal != null && !literal.isEmpty()) {
+        literalList.add(literal);
+        literalIndexes.add(i);
+      }
+      else {
+        regexIndexes.add(i);
+      }
+    }
+
+    this.literalPatterns = toArray(literalIndexes);
+    this.literals = literalList.isEmpty() ? null : new AhoCorasick(literalList);
+    this.regexPatterns = toArray(regexIndexes);
+    this.regexes = new LineMatcher[regexPatterns.length];
+    StringBuilder alternation = new StringBuilder();
+    List<LiteralQuery> queries = new ArrayList<>();
+    boolean combinable = true;
+    for (int i = 0; i < regexPatterns.length; i++) {
+      String regex = patterns.get(regexPatterns[i]);
+      regexes[i] = LineMatchers.compile(regex, engine);
+      queries.add(RegexLiterals.analyze(regex));
+      alternation.append(i == 0 ? "" : "|").append("(?:").append(regex)
+          .append(hasOpenQuote(regex) ? "\\E)" : ")");
+      // group numbers shift inside the alternation, so backreferences can't be combined
+      combinable &= !BACKREFERENCE.matcher(regex).find();
+    }
+    LineMatcher prefilter = LiteralPrefilter.of(LiteralQuery.or(queries));
+    LineMatcher automaton = regexPatterns.length > 1 && engine == RegexEngine.AUTOMATON
+        ? combineAutomaton(patterns, regexPatterns, prefilter) : null;
+    if (automaton != null) {
+      this.combined = automaton;
+    }
+    else {
+      this.combined = regexPatterns.length > 1 && combinable
+          ? new RegexLineMatcher(Pattern.compile(alternation.toString()), prefilter) : null;
+    }
+  }
+
+  /**
+   * @return true if the regex ends inside a \Q quote, which would quote the parenthesis
+   * closing it in the alternation
+   */
+  private static boolean hasOpenQuote(String regex) {
+    int i = 0;
+    while (i + 1 < regex.length()) {
+      if (regex.charAt(i) != '\\') {
+        i++;
+      }
+      else if (regex.charAt(i + 1) == 'Q') {
+        // backslashes are literal inside a quote, only \E ends it
+        int end = regex.indexOf("\\E", i + 2);
+        if (end < 0) {
+          return true;
+        }
+        i = end + 2;
+      }
+      else {
+        i += 2;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return one automaton for the alternation of the regexes, or null if one of them is
+   * outside the supported subset
+   */
+  private static LineMatcher combineAutomaton(List<String> patterns, int[] regexPatterns,
+      LineMatcher prefilter) {
+    List<RegexNode> nodes = new ArrayList<>();
+    try {
+      for (int index : regexPatterns) {
+        nodes.add(RegexParser.parse(patterns.get(index)));
+      }
+      return new AutomatonMatcher(new RegexNode.Alternate(nodes), prefilter,
+          AutomatonMatcher.DEFAULT_CACHE_STATES);
+    }
+    catch (UnsupportedRegexException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Load a pattern file with one pattern per line. Blank lines are skipped; patterns are
+   * identified by their 1-based line number.
+   * @param patternFile file to read
+   * @return matcher over every pattern in the file
+   * @throws IOException if the file cannot be read
+   */
+  public static MultiPatternMatcher load(Path patternFile) throws IOException {
+    return load(patternFile, RegexEngine.JAVA);
+  }
+
+  /**
+   * @param engine engine for the patterns that aren't literals
+   * @see #load(Path)
+   */
+  public static MultiPatternMatcher load(Path patternFile, RegexEngine engine)
+      throws IOException {
+    List<String> lines = Files.readAllLines(patternFile, StandardCharsets.UTF_8);
+    List<String> patterns = new ArrayList<>();
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < lines.size(); i++) {
+      if (!lines.get(i).isEmpty()) {
+        patterns.add(lines.get(i));
+        ids.add(i + 1);
+      }
+    }
+    return new MultiPatternMatcher(patterns, toArray(ids), engine);
+  }
+
+  public List<String> getPatterns() {
+    return patterns;
+  }
+
+  @Override
+  public boolean find(CharSequence line) {
+    if (literals != null && literals.find(line)) {
+      return true;
+    }
+    if (combined != null) {
+      return combined.find(line);
+    }
+    for (LineMatcher regex : regexes) {
+      if (regex.find(line)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Find out which patterns a line matches
+   * @param line input line
+   * @return ids of the matching patterns in pattern file order
+   */
+  public List<Integer> matchingIds(CharSequence line) {
+    boolean[] found = new boolean[patterns.size()];
+    if (literals != null) {
+      boolean[] literalFound = new boolean[literalPatterns.length];
+      literals.findAll(line, literalFound);
+      for (int i = 0; i < literalFound.length; i++) {
+        found[literalPatterns[i]] = literalFound[i];
+      }
+    }
+    for (int i = 0; i < regexes.length; i++) {
+      found[regexPatterns[i]] = regexes[i].find(line);
+    }
+
+    List<Integer> matching = new ArrayList<>();
+    for (int i = 0; i < found.length; i++) {
+      if (found[i]) {
+        matching.add(ids[i]);
+      }
+    }
+    return matching;
+  }
+
+  private static int[] toArray(List<Integer> values) {
+    int[] array = new int[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+
+  @Override
+  public String toString() {
+    return "multi(" + literalPatterns.length + " literals, " + regexPatterns.length + " regexes)";
+  }
+}
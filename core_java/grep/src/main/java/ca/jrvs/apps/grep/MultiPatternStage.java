@@ -0,0 +1,26 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+
+/**
+ * Match stage for a pattern file. A line matching several patterns is written once per
+ * pattern as "patternId:line", in pattern file order.
+ */
+public class MultiPatternStage extends MatchStage {
+
+  private final MultiPatternMatcher patterns;
+
+  public MultiPatternStage(MultiPatternMatcher patterns, LineSink sink) {
+    super(patterns, sink);
+    this.patterns = patterns;
+  }
+
+  @Override
+  public void emit(CharSequence line) throws IOException {
+    String text = line.toString();
+    for (int id : patterns.matchingIds(text)) {
+      sink.write(id + ":" + text);
+    }
+    matched++;
+  }
+}
@@ -0,0 +1,109 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs independent pieces of one input (chunks of a file, entries of an archive) in
+ * parallel and writes their output in order.
+ *
+ * Each piece writes into its own in-memory slot. Slots are drained into the sink strictly in
+ * order and at most a fixed window of pieces is in flight, which bounds the memory held by
+ * the slots. When called from a ForkJoinPool worker (e.g. by ParallelFileScanner) pieces are
+ * forked into that pool rather than a new one, so every level shares the same threads.
+ *
+ * With a limit on matched lines, no further slot is drained once the limit is reached and
+ * pieces still in flight are cancelled.
+ */
+final class OrderedSlots {
+
+  /**
+   * One piece of work that writes its matches to a slot
+   */
+  interface Piece {
+    /**
+     * @param slot destination of this piece's matches
+     * @return number of matched lines
+     * @throws IOException if the piece could not be read or the slot failed
+     */
+    long scan(LineSink slot) throws IOException;
+  }
+
+  private OrderedSlots() {
+  }
+
+  /**
+   * Scan every piece and write the slots to the sink in order
+   * @param pieces pieces in output order
+   * @param threads worker count when a new pool is needed
+   * @param window maximum number of pieces in flight
+   * @param limit number of matched lines after which the remaining pieces are skipped
+   * @param sink destination of matched lines
+   * @return number of matched lines, at most limit
+   * @throws IOException if a piece failed
+   */
+  static long run(Iterator<Piece> pieces, int threads, int window, long limit, LineSink sink)
+      throws IOException {
+    boolean nested = ForkJoinTask.inForkJoinPool();
+    ForkJoinPool pool = nested ? null : new ForkJoinPool(threads);
+    Deque<ForkJoinTask<Result>> inFlight = new ArrayDeque<>();
+    long matched = 0;
+
+    try {
+      while (pieces.hasNext() || !inFlight.isEmpty()) {
+        while (pieces.hasNext() && inFlight.size() < window) {
+          Callable<Result> task = toTask(pieces.next());
+          inFlight.addLast(nested ? ForkJoinTask.adapt(task).fork() : pool.submit(task));
+        }
+
+        Result result = inFlight.removeFirst().join();
+        if (result.error != null) {
+          throw result.error;
+        }
+        matched += result.matched;
+        result.slot.drainTo(sink);
+        if (matched >= limit) {
+          return limit;
+        }
+      }
+    }
+    finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+      // don't leave forked pieces reading an input the caller is about to close
+      for (ForkJoinTask<Result> task : inFlight) {
+        task.cancel(true);
+      }
+    }
+
+    return matched;
+  }
+
+  private static Callable<Result> toTask(Piece piece) {
+    return () -> {
+      Result result = new Result();
+      try {
+        result.matched = piece.scan(result.slot);
+      }
+      catch (IOException e) {
+        result.error = e;
+      }
+      return result;
+    };
+  }
+
+  /**
+   * Matches of one piece, or the error that stopped it
+   */
+  private static class Result {
+    private final ListLineSink slot = new ListLineSink();
+    private long matched;
+    private IOException error;
+  }
+}
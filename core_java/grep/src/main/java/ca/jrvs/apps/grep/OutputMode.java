@@ -0,0 +1,14 @@
+package ca.jrvs.apps.grep;
+
+/**
+ * What process() writes for the files it scans
+ *
+ * - LINES: every matched line (the default)
+ * - FILES_WITH_MATCHES: the path of each file with at least one match. A file is only read
+ *   up to its first match.
+ * - COUNT: "path:count" for every file, with the number of matched lines. Matched lines are
+ *   counted without ever being turned into Strings.
+ */
+public enum OutputMode {
+  LINES, FILES_WITH_MATCHES, COUNT
+}
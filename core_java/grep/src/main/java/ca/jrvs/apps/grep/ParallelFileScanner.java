@@ -0,0 +1,107 @@
+package ca.jrvs.apps.grep;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Scans files on a work-stealing ForkJoinPool while keeping the output identical to the
+ * sequential implementation.
+ *
+ * Each file is matched independently into its own result slot. Slots are drained into the
+ * sink strictly in file order, so a fast worker finishing file 10 waits in its slot until
+ * files 1-9 are written. At most a fixed window of files is in flight, which keeps the
+ * number of buffered slots bounded regardless of how many files there are.
+ */
+public class ParallelFileScanner {
+
+  private final StreamingJavaGrep grep;
+  private final int threads;
+  private final int window;
+  private CheckpointJournal journal;
+
+  public ParallelFileScanner(StreamingJavaGrep grep, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be >= 1");
+    }
+    this.grep = grep;
+    this.threads = threads;
+    this.window = threads * 4;
+  }
+
+  /**
+   * Scan every file and write matched lines to the sink in file order
+   * @param files files to be scanned
+   * @param sink destination of matched lines
+   * @return number of matched lines
+   * @throws IOException if a file could not be read or the sink failed
+   */
+  public long scan(Iterable<File> files, LineSink sink) throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    Deque<ForkJoinTask<FileResult>> inFlight = new ArrayDeque<>();
+    Iterator<File> it = files.iterator();
+    long matched = 0;
+
+    try {
+      while (it.hasNext() || !inFlight.isEmpty()) {
+        while (it.hasNext() && inFlight.size() < window) {
+          File file = it.next();
+          inFlight.addLast(pool.submit(() -> scanIntoSlot(file)));
+        }
+
+        FileResult result = inFlight.removeFirst().join();
+        if (result.error != null) {
+          throw result.error;
+        }
+        // written lines differ from matched ones when counting or listing files
+        matched += result.matched;
+        result.slot.drainTo(sink);
+        if (journal != null) {
+          journal.completed(result.file, result.matched, sink);
+        }
+      }
+    }
+    finally {
+      pool.shutdownNow();
+    }
+
+    return matched;
+  }
+
+  /**
+   * Report every file to a journal once its lines are written to the sink
+   * @param journal checkpoint journal, or null for none
+   */
+  public void setJournal(CheckpointJournal journal) {
+    this.journal = journal;
+  }
+
+  private FileResult scanIntoSlot(File file) {
+    FileResult result = new FileResult(file);
+    try {
+      result.matched = grep.scanFile(file, result.slot);
+    }
+    catch (IOException e) {
+      result.error = e;
+    }
+    return result;
+  }
+
+  /**
+   * Matches of one file, or the error that stopped it
+   */
+  private static class FileResult {
+    private final File file;
+    private final ListLineSink slot = new ListLineSink();
+    private long matched;
+    private IOException error;
+
+    private FileResult(File file) {
+      this.file = file;
+    }
+  }
+}
@@ -0,0 +1,698 @@
+package ca.jrvs.apps.grep;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Scans files in three stages connected by bounded queues, so the disk keeps reading while
+ * lines are matched and matches are written:
+ * - readers read files in blocks of whole lines, each reader one file at a time
+ * - matchers decode and match blocks into in-memory slots, in any order
+ * - the writer, i.e. the calling thread, writes slots to the sink in file and block order
+ *
+ * Readers and matchers have their own thread counts. A reader waits before reading another
+ * block once capacity blocks are between the readers and the writer, so fast readers can't
+ * fill the heap. The reader of the file the writer is waiting for never waits: that file is
+ * the only one the writer can make progress on, so holding it back behind later files could
+ * deadlock.
+ *
+ * Output is the same as the sequential scan, including the output modes and max count,
+ * which the writer applies per file as the blocks come in.
+ *
+ * Both pools can be resized while the scan runs, which is what a PoolTuner does when auto
+ * tuning is on. New threads start right away; threads above a smaller size finish what they
+ * are working on and stop.
+ */
+public class PipelineScanner {
+
+  public static final int DEFAULT_READERS = 2;
+  public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+  public static final int DEFAULT_CAPACITY = 64;
+  /** Buffer size of the sink the writer writes through */
+  public static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+  private static final Result END_OF_RESULTS =
+      new Result(new Block(null, -1, null, 0, null, true, null));
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final JavaGrepImp grep;
+  private final int blockSize;
+  private final int capacity;
+  private volatile int readers;
+  private volatile int matchers;
+  private long tuneInterval;
+  private volatile PoolTuner tuner;
+  private CheckpointJournal journal;
+
+  private final BlockingQueue<Block> blocks;
+  private final BlockingQueue<Result> results;
+  private final List<Thread> workers = new CopyOnWriteArrayList<>();
+  private final AtomicInteger runningReaders = new AtomicInteger();
+  private final AtomicInteger runningMatchers = new AtomicInteger();
+  private final AtomicInteger workerIds = new AtomicInteger();
+  private final LongAdder readBytes = new LongAdder();
+  private final LongAdder matchNanos = new LongAdder();
+  private final LongAdder matchCpuNanos = new LongAdder();
+
+  private final Object lock = new Object();
+  // guarded by lock
+  private int inFlight;
+  private int headFile;
+
+  // guarded by this
+  private Iterator<File> files;
+  private int nextFile;
+  private boolean exhausted;
+  private volatile RuntimeException failure;
+
+  public PipelineScanner(JavaGrepImp grep, int readers, int matchers) {
+    this(grep, readers, matchers, DEFAULT_BLOCK_SIZE, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param grep supplies file streams and match stages
+   * @param readers number of reader threads
+   * @param matchers number of matcher threads
+   * @param blockSize bytes read at a time; blocks are longer when a line is
+   * @param capacity number of blocks between the readers and the writer
+   */
+  public PipelineScanner(JavaGrepImp grep, int readers, int matchers, int blockSize,
+      int capacity) {
+    if (readers < 1 || matchers < 1) {
+      throw new IllegalArgumentException("readers and matchers must be >= 1");
+    }
+    if (blockSize < 1 || capacity < 1) {
+      throw new IllegalArgumentException("blockSize and capacity must be >= 1");
+    }
+    this.grep = grep;
+    this.readers = readers;
+    this.matchers = matchers;
+    this.blockSize = blockSize;
+    this.capacity = capacity;
+    this.blocks = new ArrayBlockingQueue<>(capacity);
+    this.results = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /**
+   * Scan every file and write what the output mode asks for to the sink, in file order.
+   * An instance runs one scan.
+   * @param files files to be scanned, only ever read by one reader at a time
+   * @param sink destination of matched lines
+   * @return number of matched lines
+   * @throws IOException if a file could not be read or the sink failed
+   */
+  public long scan(Iterator<File> files, LineSink sink) throws IOException {
+    synchronized (this) {
+      if (this.files != null) {
+        throw new IllegalStateException("A pipeline only runs once");
+      }
+      this.files = files;
+      startWorkers();
+    }
+    if (tuneInterval > 0) {
+      tuner = new PoolTuner(this, grep.getMetrics());
+      start("grep-tuner", this::tune);
+    }
+
+    try {
+      return write(sink);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing matches");
+    }
+    finally {
+      // only left running after a failure, and then blocked on a queue or the lock
+      for (Thread worker : workers) {
+        worker.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Start threads until both pools have their size. Readers are only started while there
+   * are files left, since a reader started later would find none.
+   */
+  private synchronized void startWorkers() {
+    if (files == null) {
+      return;
+    }
+    while (!exhausted && runningReaders.get() < readers) {
+      runningReaders.incrementAndGet();
+      start("grep-reader-" + workerIds.getAndIncrement(), this::read);
+    }
+    while (runningMatchers.get() < matchers) {
+      runningMatchers.incrementAndGet();
+      start("grep-matcher-" + workerIds.getAndIncrement(), this::match);
+    }
+  }
+
+  /**
+   * Stop the calling worker if its pool has more threads than its size
+   * @return true if the worker must stop
+   */
+  private static boolean retire(AtomicInteger running, int size) {
+    int count = running.get();
+    while (count > size) {
+      if (running.compareAndSet(count, count - 1)) {
+        return true;
+      }
+      count = running.get();
+    }
+    return false;
+  }
+
+  private void start(String name, Runnable task) {
+    Thread thread = new Thread(() -> {
+      try {
+        task.run();
+      }
+      finally {
+        workers.remove(Thread.currentThread());
+      }
+    }, name);
+    thread.setDaemon(true);
+    workers.add(thread);
+    thread.start();
+  }
+
+  /**
+   * Reader loop: take the next file and read it block by block until there are no more
+   */
+  private void read() {
+    try {
+      try {
+        while (true) {
+          if (retire(runningReaders, readers)) {
+            return;
+          }
+          Job job = nextJob();
+          if (job == null) {
+            break;
+          }
+          readFile(job);
+        }
+      }
+      catch (RuntimeException e) {
+        // the file iterator failed, so no more files can be read
+        failure = e;
+      }
+      // the last reader tells the writer that every block has been read
+      if (runningReaders.decrementAndGet() == 0) {
+        results.put(END_OF_RESULTS);
+      }
+    }
+    catch (InterruptedException e) {
+      // the writer stopped the pipeline
+    }
+  }
+
+  private synchronized Job nextJob() {
+    if (exhausted || !files.hasNext()) {
+      exhausted = true;
+      return null;
+    }
+    return new Job(nextFile++, files.next());
+  }
+
+  private void readFile(Job job) throws InterruptedException {
+    try {
+      if (InputFormat.of(job.file) != InputFormat.ZIP) {
+        long size = InputFormat.of(job.file) == InputFormat.PLAIN ? job.file.length() : -1;
+        try (InputStream in = openPart(grep.openStream(job.file))) {
+          readPart(job, in, size, null, job.file.length(), job.file.getPath(), true);
+        }
+        return;
+      }
+
+      try (ZipFile zip = new ZipFile(job.file, StandardCharsets.UTF_8)) {
+        List<ZipEntry> entries = ZipEntryScanner.fileEntries(zip);
+        if (entries.isEmpty()) {
+          put(new Block(job, job.blocks++, new byte[0], 0, null, true, null));
+        }
+        for (int i = 0; i < entries.size(); i++) {
+          ZipEntry entry = entries.get(i);
+          try (InputStream in = openPart(zip.getInputStream(entry))) {
+            readPart(job, in, entry.getSize(), ZipEntryScanner.prefix(job.file, entry),
+                Math.max(0, entry.getCompressedSize()), job.file.getPath() + "!" + entry.getName(),
+                i == entries.size() - 1);
+          }
+        }
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      if (job.read) {
+        // every line was read, only closing failed
+        return;
+      }
+      // ends the file, and the writer fails the scan once it gets there
+      put(new Block(job, job.blocks++, null, 0, null, true, e));
+    }
+  }
+
+  /**
+   * Buffer a file or entry so its leading block can be checked, if the binary policy needs
+   * it
+   */
+  private InputStream openPart(InputStream in) {
+    return grep.getBinaryPolicy() == BinaryPolicy.TEXT ? in
+        : new BufferedInputStream(in, BinaryDetector.BLOCK_SIZE);
+  }
+
+  /**
+   * Read a file or archive entry in blocks, after applying the binary policy: a binary part
+   * is left unread when skipped, and its blocks are marked to be counted otherwise
+   * @param storedSize bytes the part takes on disk, counted when it is skipped
+   * @param label path of the part in the line written for a counted binary part
+   */
+  private void readPart(Job job, InputStream in, long size, String prefix, long storedSize,
+      String label, boolean lastPart) throws IOException, InterruptedException {
+    BinaryPolicy policy = grep.getBinaryPolicy();
+    if (policy == BinaryPolicy.TEXT || !BinaryDetector.isBinary(in)) {
+      readBlocks(job, in, size, prefix, null, lastPart);
+      return;
+    }
+    if (policy == BinaryPolicy.COUNT) {
+      readBlocks(job, in, size, prefix, label, lastPart);
+      return;
+    }
+
+    GrepMetrics metrics = grep.getMetrics();
+    if (metrics != null) {
+      metrics.recordBinarySkipped(storedSize);
+    }
+    if (lastPart) {
+      // the writer still needs the end of the file
+      put(new Block(job, job.blocks++, new byte[0], 0, prefix, true, null));
+    }
+  }
+
+  /**
+   * Read a stream in blocks that end after a line terminator, so no line or character is
+   * split between two blocks
+   * @param size number of bytes in the stream if known, or -1
+   * @param binary label of a binary part whose matches are only counted, or null
+   */
+  private void readBlocks(Job job, InputStream in, long size, String prefix, String binary,
+      boolean lastPart) throws IOException, InterruptedException {
+    // small files don't get a whole block; one byte more than the size lets EOF be seen
+    byte[] buffer = new byte[size < 0 ? blockSize : (int) Math.min(blockSize, size + 1)];
+    int length = 0;
+    while (true) {
+      int read = in.read(buffer, length, buffer.length - length);
+      if (read < 0) {
+        break;
+      }
+      length += read;
+      if (length < buffer.length) {
+        continue;
+      }
+
+      int end = lastLineEnd(buffer, length);
+      byte[] next;
+      if (end == 0) {
+        // a line longer than the buffer
+        next = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, next, 0, length);
+        buffer = next;
+        continue;
+      }
+      next = new byte[blockSize + length - end];
+      System.arraycopy(buffer, end, next, 0, length - end);
+      put(new Block(job, job.blocks++, buffer, end, prefix, false, null).binary(binary, false));
+      buffer = next;
+      length -= end;
+    }
+    put(new Block(job, job.blocks++, buffer, length, prefix, lastPart, null).binary(binary, true));
+  }
+
+  /**
+   * @return offset after the last complete line terminator, or 0 if there is none. A \r
+   *     at the very end could be the first half of \r\n, so it doesn't count.
+   */
+  static int lastLineEnd(byte[] buffer, int length) {
+    for (int i = length - 1; i >= 0; i--) {
+      if (buffer[i] == '\n' || (buffer[i] == '\r' && i < length - 1)) {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  private void put(Block block) throws InterruptedException {
+    synchronized (lock) {
+      while (inFlight >= capacity && block.job.seq != headFile) {
+        lock.wait();
+      }
+      inFlight++;
+    }
+    block.job.read = block.last;
+    readBytes.add(block.length);
+    blocks.put(block);
+  }
+
+  /**
+   * Matcher loop: match blocks until the writer stops the pipeline
+   */
+  private void match() {
+    CharBufferLineScanner scanner = new CharBufferLineScanner();
+    try {
+      while (!retire(runningMatchers, matchers)) {
+        Block block = blocks.take();
+        if (tuner == null) {
+          results.put(match(block, scanner));
+          continue;
+        }
+
+        long start = System.nanoTime();
+        long cpuStart = cpuTime();
+        Result result = match(block, scanner);
+        matchCpuNanos.add(cpuTime() - cpuStart);
+        matchNanos.add(System.nanoTime() - start);
+        results.put(result);
+      }
+    }
+    catch (InterruptedException e) {
+      // the writer stopped the pipeline
+    }
+  }
+
+  /**
+   * @return CPU time of the current thread, or its wall time if the JVM can't tell
+   */
+  private static long cpuTime() {
+    return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime()
+        : System.nanoTime();
+  }
+
+  /**
+   * Tuner loop: sample the pipeline every interval until the writer stops it
+   */
+  private void tune() {
+    try {
+      while (true) {
+        TimeUnit.MILLISECONDS.sleep(tuneInterval);
+        tuner.sample();
+      }
+    }
+    catch (InterruptedException e) {
+      // the scan is over
+    }
+  }
+
+  private Result match(Block block, CharBufferLineScanner scanner) {
+    Result result = new Result(block);
+    if (block.error != null) {
+      result.error = block.error;
+      return result;
+    }
+
+    LineSink target = block.prefix == null ? result.slot
+        : new PrefixLineSink(block.prefix, result.slot);
+    MatchStage stage = block.binary == null ? grep.newMatchStage(target)
+        : grep.newMatchStage(target, true);
+    try {
+      scanner.scan(new ByteArrayInputStream(block.bytes, 0, block.length), stage);
+      result.matched = stage.getMatched();
+    }
+    catch (IOException | RuntimeException e) {
+      result.error = e;
+    }
+    return result;
+  }
+
+  /**
+   * Writer loop: write results in order as they come in, holding back the ones that are
+   * ahead of the file and block being waited for
+   */
+  private long write(LineSink sink) throws IOException, InterruptedException {
+    OutputMode outputMode = grep.getOutputMode();
+    long limit = grep.getLineLimit();
+    GrepMetrics metrics = grep.getMetrics();
+    Map<Long, Result> pending = new HashMap<>();
+    int nextBlock = 0;
+    long fileMatched = 0;
+    long binaryMatched = 0;
+    long matched = 0;
+    boolean allRead = false;
+
+    while (true) {
+      synchronized (lock) {
+        if (allRead && inFlight == 0) {
+          break;
+        }
+      }
+      Result result = results.take();
+      if (result == END_OF_RESULTS) {
+        allRead = true;
+        continue;
+      }
+      pending.put(key(result.job.seq, result.index), result);
+
+      result = pending.remove(key(headFile, nextBlock));
+      while (result != null) {
+        if (result.error instanceof IOException) {
+          throw (IOException) result.error;
+        }
+        if (result.error != null) {
+          throw (RuntimeException) result.error;
+        }
+
+        if (outputMode == OutputMode.LINES && result.binary == null) {
+          for (String line : result.slot.getLines()) {
+            if (fileMatched == limit) {
+              break;
+            }
+            sink.write(line);
+            fileMatched++;
+          }
+        }
+        else {
+          long before = fileMatched;
+          fileMatched = Math.min(limit, fileMatched + result.matched);
+          if (result.binary != null) {
+            binaryMatched += fileMatched - before;
+          }
+        }
+        if (result.binaryEnd) {
+          if (outputMode == OutputMode.LINES && binaryMatched > 0) {
+            sink.write(BinaryDetector.matchLine(result.binary, binaryMatched));
+          }
+          binaryMatched = 0;
+        }
+
+        boolean lastBlock = result.last;
+        if (lastBlock) {
+          File file = result.job.file;
+          if (outputMode == OutputMode.COUNT) {
+            sink.write(file.getPath() + ":" + fileMatched);
+          }
+          else if (outputMode == OutputMode.FILES_WITH_MATCHES && fileMatched > 0) {
+            sink.write(file.getPath());
+          }
+          if (metrics != null) {
+            metrics.recordFile(file, System.nanoTime() - result.job.startNanos, fileMatched);
+          }
+          if (journal != null) {
+            journal.completed(file, fileMatched, sink);
+          }
+          matched += fileMatched;
+          fileMatched = 0;
+          nextBlock = 0;
+        }
+        else {
+          nextBlock++;
+        }
+
+        synchronized (lock) {
+          inFlight--;
+          if (lastBlock) {
+            headFile++;
+          }
+          lock.notifyAll();
+        }
+        result = pending.remove(key(headFile, nextBlock));
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+    return matched;
+  }
+
+  public int getReaders() {
+    return readers;
+  }
+
+  /**
+   * Resize the reader pool, also while scanning
+   * @param readers number of reader threads
+   */
+  public void setReaders(int readers) {
+    if (readers < 1) {
+      throw new IllegalArgumentException("readers must be >= 1");
+    }
+    this.readers = readers;
+    startWorkers();
+  }
+
+  public int getMatchers() {
+    return matchers;
+  }
+
+  /**
+   * Resize the matcher pool, also while scanning
+   * @param matchers number of matcher threads
+   */
+  public void setMatchers(int matchers) {
+    if (matchers < 1) {
+      throw new IllegalArgumentException("matchers must be >= 1");
+    }
+    this.matchers = matchers;
+    startWorkers();
+  }
+
+  /**
+   * Let a PoolTuner resize the pools while scanning
+   * @param tuneInterval milliseconds between two samples, or 0 (the default) to keep the
+   *     pool sizes fixed
+   */
+  public void setTuneInterval(long tuneInterval) {
+    if (tuneInterval < 0) {
+      throw new IllegalArgumentException("tuneInterval must be >= 0");
+    }
+    this.tuneInterval = tuneInterval;
+  }
+
+  /**
+   * Report every file to a journal once the writer has written its last block
+   * @param journal checkpoint journal, or null for none
+   */
+  public void setJournal(CheckpointJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * @return tuner of the scan, or null if the pool sizes are fixed
+   */
+  public PoolTuner getTuner() {
+    return tuner;
+  }
+
+  /**
+   * @return bytes read so far
+   */
+  public long getReadBytes() {
+    return readBytes.sum();
+  }
+
+  /**
+   * @return wall time matcher threads spent matching blocks, only measured while tuning
+   */
+  public long getMatchNanos() {
+    return matchNanos.sum();
+  }
+
+  /**
+   * @return CPU time matcher threads spent matching blocks, only measured while tuning
+   */
+  public long getMatchCpuNanos() {
+    return matchCpuNanos.sum();
+  }
+
+  private static long key(int file, int block) {
+    return ((long) file << 32) | block;
+  }
+
+  /**
+   * One file, numbered in scan order
+   */
+  private static class Job {
+    private final int seq;
+    private final File file;
+    private final long startNanos = System.nanoTime();
+    // only used by the reader of the file
+    private int blocks;
+    private boolean read;
+
+    private Job(int seq, File file) {
+      this.seq = seq;
+      this.file = file;
+    }
+  }
+
+  /**
+   * Whole lines of a file, or the error that stopped reading it
+   */
+  private static class Block {
+    private final Job job;
+    private final int index;
+    private final byte[] bytes;
+    private final int length;
+    private final String prefix;
+    private final boolean last;
+    private final Exception error;
+    // label of a binary part, whose lines are counted, and whether this is its last block
+    private String binary;
+    private boolean binaryEnd;
+
+    private Block(Job job, int index, byte[] bytes, int length, String prefix, boolean last,
+        Exception error) {
+      this.job = job;
+      this.index = index;
+      this.bytes = bytes;
+      this.length = length;
+      this.prefix = prefix;
+      this.last = last;
+      this.error = error;
+    }
+
+    private Block binary(String label, boolean end) {
+      this.binary = label;
+      this.binaryEnd = label != null && end;
+      return this;
+    }
+  }
+
+  /**
+   * Matches of one block
+   */
+  private static class Result {
+    private final Job job;
+    private final int index;
+    private final boolean last;
+    private final String binary;
+    private final boolean binaryEnd;
+    private final ListLineSink slot = new ListLineSink();
+    private long matched;
+    private Exception error;
+
+    private Result(Block block) {
+      this.job = block.job;
+      this.index = block.index;
+      this.last = block.last;
+      this.binary = block.binary;
+      this.binaryEnd = block.binaryEnd;
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package ca.jrvs.apps.grep;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resizes the reader and matcher pools of a running PipelineScanner toward peak
+ * throughput. The right sizes depend on the storage: page-cache-hot data wants few readers
+ * and a matcher per core, network storage wants many readers in flight.
+ *
+ * Every sample compares the bytes read and the time matchers spent matching since the last
+ * one:
+ * - matchers idle more than half the time are starved, so reading is the limit and a
+ *   reader is added
+ * - matchers busy and on the CPU are the limit, so a matcher is added, up to one per core
+ * - matchers busy but mostly off the CPU are more than the cores can run, so one is removed
+ *
+ * A reader or matcher that is added has to raise throughput by TOLERANCE by the next
+ * sample, otherwise it is removed again and that pool is left alone for HOLD_SAMPLES
+ * samples. Every change is recorded as a Decision, in GrepMetrics as well when metrics are
+ * on.
+ */
+public class PoolTuner {
+
+  private static final Logger logger = LoggerFactory.getLogger(PoolTuner.class);
+
+  public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+  public static final int MAX_READERS = 16;
+  /** Share of the time above which matchers count as busy, and below half which as idle */
+  static final double BUSY = 0.8;
+  static final double TOLERANCE = 0.05;
+  static final int HOLD_SAMPLES = 5;
+
+  private final PipelineScanner pipeline;
+  private final GrepMetrics metrics;
+  private final int maxMatchers;
+  private final long startNanos = System.nanoTime();
+  private final List<Decision> decisions = new ArrayList<>();
+
+  private long lastNanos = startNanos;
+  private long lastBytes;
+  private long lastMatchNanos;
+  private long lastMatchCpuNanos;
+  private double lastRate;
+  // pool grown by the last sample, until the next sample keeps or undoes it
+  private Pool grown;
+  private int readerHold;
+  private int matcherHold;
+
+  public PoolTuner(PipelineScanner pipeline, GrepMetrics metrics) {
+    this(pipeline, metrics, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param pipeline pipeline whose pools are resized
+   * @param metrics where decisions are recorded as well, or null
+   * @param maxMatchers largest matcher pool
+   */
+  public PoolTuner(PipelineScanner pipeline, GrepMetrics metrics, int maxMatchers) {
+    this.pipeline = pipeline;
+    this.metrics = metrics;
+    this.maxMatchers = maxMatchers;
+  }
+
+  /**
+   * Sample the pipeline counters and resize a pool if needed
+   */
+  public void sample() {
+    long now = System.nanoTime();
+    long bytes = pipeline.getReadBytes();
+    long matchNanos = pipeline.getMatchNanos();
+    long matchCpuNanos = pipeline.getMatchCpuNanos();
+    step(now - lastNanos, bytes - lastBytes, matchNanos - lastMatchNanos,
+        matchCpuNanos - lastMatchCpuNanos);
+    lastNanos = now;
+    lastBytes = bytes;
+    lastMatchNanos = matchNanos;
+    lastMatchCpuNanos = matchCpuNanos;
+  }
+
+  /**
+   * Decide on one interval
+   * @param nanos length of the interval
+   * @param bytes bytes read in the interval
+   * @param matchNanos wall time matchers spent matching in the interval
+   * @param matchCpuNanos CPU time matchers spent matching in the interval
+   * @return the change made, or null if the pools were left as they are
+   */
+  synchronized Decision step(long nanos, long bytes, long matchNanos, long matchCpuNanos) {
+    if (nanos <= 0) {
+      return null;
+    }
+    int readers = pipeline.getReaders();
+    int matchers = pipeline.getMatchers();
+    double rate = bytes / (nanos / 1e9) / (1024 * 1024);
+    // share of the interval matchers were matching, and share of that they were on a CPU
+    double busy = matchNanos / ((double) nanos * matchers);
+    double onCpu = matchNanos == 0 ? 0 : matchCpuNanos / (double) matchNanos;
+    readerHold = Math.max(0, readerHold - 1);
+    matcherHold = Math.max(0, matcherHold - 1);
+
+    String action = null;
+    Pool grownBefore = grown;
+    grown = null;
+    if (grownBefore != null && rate < lastRate * (1 + TOLERANCE)) {
+      // the thread added last time didn't pay for itself
+      if (grownBefore == Pool.READERS && readers > 1) {
+        pipeline.setReaders(--readers);
+        readerHold = HOLD_SAMPLES;
+        action = "undo reader";
+      }
+      else if (grownBefore == Pool.MATCHERS && matchers > 1) {
+        pipeline.setMatchers(--matchers);
+        matcherHold = HOLD_SAMPLES;
+        action = "undo matcher";
+      }
+    }
+    else if (busy < BUSY / 2 && readers < MAX_READERS && readerHold == 0) {
+      pipeline.setReaders(++readers);
+      grown = Pool.READERS;
+      action = "add reader";
+    }
+    else if (busy >= BUSY && onCpu >= BUSY && matchers < maxMatchers && matcherHold == 0) {
+      pipeline.setMatchers(++matchers);
+      grown = Pool.MATCHERS;
+      action = "add matcher";
+    }
+    else if (busy >= BUSY && onCpu < BUSY / 2 && matchers > 1) {
+      pipeline.setMatchers(--matchers);
+      action = "remove matcher";
+    }
+    lastRate = rate;
+    if (logger.isDebugEnabled()) {
+      logger.debug(String.format(Locale.ROOT,
+          "%.1f MB/s, matchers busy %.2f and on CPU %.2f: %s, %d readers, %d matchers", rate,
+          busy, onCpu, action == null ? "no change" : action, readers, matchers));
+    }
+
+    if (action == null) {
+      return null;
+    }
+    Decision decision = new Decision(System.nanoTime() - startNanos, action, readers, matchers,
+        rate, busy, onCpu);
+    decisions.add(decision);
+    if (metrics != null) {
+      metrics.recordTuning(decision);
+    }
+    return decision;
+  }
+
+  /**
+   * @return every change made so far, oldest first
+   */
+  public synchronized List<Decision> getDecisions() {
+    return new ArrayList<>(decisions);
+  }
+
+  private enum Pool {
+    READERS, MATCHERS
+  }
+
+  /**
+   * One change of the pool sizes and the measurements behind it
+   */
+  public static class Decision {
+    private final long nanos;
+    private final String action;
+    private final int readers;
+    private final int matchers;
+    private final double megabytesPerSecond;
+    private final double matcherBusy;
+    private final double matcherOnCpu;
+
+    Decision(long nanos, String action, int readers, int matchers, double megabytesPerSecond,
+        double matcherBusy, double matcherOnCpu) {
+      this.nanos = nanos;
+      this.action = action;
+      this.readers = readers;
+      this.matchers = matchers;
+      this.megabytesPerSecond = megabytesPerSecond;
+      this.matcherBusy = matcherBusy;
+      this.matcherOnCpu = matcherOnCpu;
+    }
+
+    /**
+     * @return time since the tuner started
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+    public String getAction() {
+      return action;
+    }
+
+    /**
+     * @return reader pool size after the change
+     */
+    public int getReaders() {
+      return readers;
+    }
+
+    /**
+     * @return matcher pool size after the change
+     */
+    public int getMatchers() {
+      return matchers;
+    }
+
+    public double getMegabytesPerSecond() {
+      return megabytesPerSecond;
+    }
+
+    public double getMatcherBusy() {
+      return matcherBusy;
+    }
+
+    public double getMatcherOnCpu() {
+      return matcherOnCpu;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+
+/**
+ * LineSink that labels every line with a fixed prefix, e.g. the archive entry it came from
+ */
+public class PrefixLineSink implements LineSink {
+
+  private final String prefix;
+  private final LineSink sink;
+
+  public PrefixLineSink(String prefix, LineSink sink) {
+    this.prefix = prefix;
+    this.sink = sink;
+  }
+
+  @Override
+  public void write(String line) throws IOException {
+    sink.write(prefix + line);
+  }
+
+  @Override
+  public long count() {
+    return sink.count();
+  }
+
+  /**
+   * The underlying sink is owned by the caller, so it is left open
+   */
+  @Override
+  public void close() {
+  }
+}
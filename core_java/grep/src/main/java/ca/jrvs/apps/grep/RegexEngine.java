@@ -0,0 +1,13 @@
+package ca.jrvs.apps.grep;
+
+/**
+ * Engine that runs regexes which aren't plain literals
+ *
+ * - JAVA: java.util.regex, which supports every construct but backtracks, so some patterns
+ *   take exponential time on some lines
+ * - AUTOMATON: AutomatonMatcher, linear in the line length for any pattern. Patterns outside
+ *   the RegexParser subset (backreferences, lookaround, ...) still use java.util.regex.
+ */
+public enum RegexEngine {
+  JAVA, AUTOMATON
+}
@@ -0,0 +1,55 @@
+package ca.jrvs.apps.grep;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * General purpose engine backed by java.util.regex. The Pattern is compiled once and each
+ * thread keeps one Matcher which is reset() onto every new line instead of allocating a
+ * new one per line.
+ *
+ * An optional prefilter searches for the literals every match requires, so the regex only
+ * runs on lines that contain them.
+ */
+public class RegexLineMatcher implements LineMatcher {
+
+  private final Pattern pattern;
+  private final LineMatcher prefilter;
+  private final ThreadLocal<Matcher> matchers;
+
+  public RegexLineMatcher(Pattern pattern) {
+    this(pattern, null);
+  }
+
+  /**
+   * @param pattern compiled regex
+   * @param prefilter necessary condition tested before the regex, or null
+   */
+  public RegexLineMatcher(Pattern pattern, LineMatcher prefilter) {
+    this.pattern = pattern;
+    this.prefilter = prefilter;
+    this.matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+  }
+
+  public Pattern getPattern() {
+    return pattern;
+  }
+
+  public LineMatcher getPrefilter() {
+    return prefilter;
+  }
+
+  @Override
+  public boolean find(CharSequence line) {
+    if (prefilter != null && !prefilter.find(line)) {
+      return false;
+    }
+    return matchers.get().reset(line).find();
+  }
+
+  @Override
+  public String toString() {
+    String regex = "regex(" + pattern.pattern() + ")";
+    return prefilter == null ? regex : regex + " after " + prefilter;
+  }
+}
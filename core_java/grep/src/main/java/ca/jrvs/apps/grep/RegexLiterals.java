@@ -0,0 +1,228 @@
+package ca.jrvs.apps.grep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Derives a LiteralQuery from a regex: the literal substrings that any matching line must
+ * contain. For every sub-expression we track either the exact set of strings it can match
+ * (when small) or the sets of possible prefixes and suffixes plus a query that must hold.
+ * Concatenation then also yields the strings formed across the boundary, so ab.*cd gives
+ * "ab" AND "cd" and a(b|c)d gives "abd" OR "acd".
+ *
+ * Regexes outside the RegexParser subset give LiteralQuery.all(), which is always safe.
+ */
+public final class RegexLiterals {
+
+  private static final int MAX_SET = 16;
+  private static final Set<String> EMPTY = Collections.singleton("");
+
+  private final boolean ignoreCase;
+
+  private RegexLiterals(boolean ignoreCase) {
+    this.ignoreCase = ignoreCase;
+  }
+
+  /**
+   * @param regex regex in java.util.regex syntax
+   * @return literal query every matching line satisfies
+   * @throws java.util.regex.PatternSyntaxException if regex is not valid
+   */
+  public static LiteralQuery analyze(String regex) {
+    RegexNode root;
+    try {
+      root = RegexParser.parse(regex);
+    }
+    catch (UnsupportedRegexException e) {
+      return LiteralQuery.all();
+    }
+
+    RegexLiterals analysis = new RegexLiterals(regex.startsWith("(?i)"));
+    return analysis.toQuery(analysis.info(root));
+  }
+
+  /**
+   * What is known about the strings a sub-expression matches
+   */
+  private static class Info {
+    // every string the expression can match, or null if unknown or too many
+    private Set<String> exact;
+    // when exact is null: possible prefixes and suffixes, plus a query every match satisfies
+    private Set<String> prefix = EMPTY;
+    private Set<String> suffix = EMPTY;
+    private LiteralQuery match = LiteralQuery.all();
+
+    private static Info exact(Set<String> exact) {
+      Info info = new Info();
+      info.exact = exact;
+      return info;
+    }
+
+    private Set<String> prefixes() {
+      return exact != null ? exact : prefix;
+    }
+
+    private Set<String> suffixes() {
+      return exact != null ? exact : suffix;
+    }
+  }
+
+  private Info info(RegexNode node) {
+    if (node instanceof RegexNode.Literal) {
+      return Info.exact(Collections.singleton(String.valueOf(fold(((RegexNode.Literal) node).c))));
+    }
+    if (node instanceof RegexNode.CharClass) {
+      return classInfo((RegexNode.CharClass) node);
+    }
+    if (node instanceof RegexNode.Concat) {
+      Info result = Info.exact(EMPTY);
+      for (RegexNode child : ((RegexNode.Concat) node).nodes) {
+        result = concat(result, info(child));
+      }
+      return result;
+    }
+    if (node instanceof RegexNode.Alternate) {
+      Info result = null;
+      for (RegexNode child : ((RegexNode.Alternate) node).nodes) {
+        result = result == null ? info(child) : alternate(result, info(child));
+      }
+      return result;
+    }
+    if (node instanceof RegexNode.Repeat) {
+      return repeatInfo((RegexNode.Repeat) node);
+    }
+    // Empty, Begin and End match the empty string
+    return Info.exact(EMPTY);
+  }
+
+  private Info classInfo(RegexNode.CharClass node) {
+    if (node.negated || node.size() > 4) {
+      return new Info();
+    }
+    Set<String> chars = new LinkedHashSet<>();
+    for (int i = 0; i < node.ranges.length; i += 2) {
+      for (char c = node.ranges[i]; c <= node.ranges[i + 1]; c++) {
+        chars.add(String.valueOf(fold(c)));
+      }
+    }
+    return Info.exact(chars);
+  }
+
+  private Info repeatInfo(RegexNode.Repeat node) {
+    Info inner = info(node.node);
+    if (node.max == 0) {
+      return Info.exact(EMPTY);
+    }
+    if (node.min == 0 && node.max == 1) {
+      return alternate(inner, Info.exact(EMPTY));
+    }
+    if (node.min == 0) {
+      return new Info();
+    }
+    if (node.min == node.max && node.min <= 4 && inner.exact != null) {
+      Info result = inner;
+      for (int i = 1; i < node.min; i++) {
+        result = concat(result, inner);
+      }
+      return result;
+    }
+
+    // at least one copy: every match starts and ends with a match of the inner expression
+    Info result = new Info();
+    result.prefix = inner.prefixes();
+    result.suffix = inner.suffixes();
+    result.match = query(inner);
+    return result;
+  }
+
+  private Info concat(Info x, Info y) {
+    if (x.exact != null && y.exact != null && fits(x.exact, y.exact)) {
+      return Info.exact(cross(x.exact, y.exact));
+    }
+
+    Info result = new Info();
+    List<LiteralQuery> and = new ArrayList<>(Arrays.asList(query(x), query(y)));
+    if (fits(x.suffixes(), y.prefixes())) {
+      and.add(or(cross(x.suffixes(), y.prefixes())));
+    }
+    result.match = LiteralQuery.and(and);
+
+    if (x.exact != null) {
+      result.prefix = fits(x.exact, y.prefixes()) ? cross(x.exact, y.prefixes()) : x.exact;
+    }
+    else {
+      result.prefix = x.prefix;
+    }
+    if (y.exact != null) {
+      result.suffix = fits(x.suffixes(), y.exact) ? cross(x.suffixes(), y.exact) : y.exact;
+    }
+    else {
+      result.suffix = y.suffix;
+    }
+    return result;
+  }
+
+  private Info alternate(Info x, Info y) {
+    if (x.exact != null && y.exact != null) {
+      Set<String> union = union(x.exact, y.exact);
+      if (union.size() <= MAX_SET) {
+        return Info.exact(union);
+      }
+    }
+
+    Info result = new Info();
+    Set<String> prefix = union(x.prefixes(), y.prefixes());
+    Set<String> suffix = union(x.suffixes(), y.suffixes());
+    result.prefix = prefix.size() <= MAX_SET ? prefix : EMPTY;
+    result.suffix = suffix.size() <= MAX_SET ? suffix : EMPTY;
+    result.match = LiteralQuery.or(Arrays.asList(query(x), query(y)));
+    return result;
+  }
+
+  private LiteralQuery toQuery(Info info) {
+    if (info.exact != null) {
+      return or(info.exact);
+    }
+    return LiteralQuery.and(Arrays.asList(info.match, or(info.prefix), or(info.suffix)));
+  }
+
+  private LiteralQuery query(Info info) {
+    return info.exact != null ? or(info.exact) : info.match;
+  }
+
+  private LiteralQuery or(Set<String> literals) {
+    List<LiteralQuery> queries = new ArrayList<>();
+    for (String literal : literals) {
+      queries.add(LiteralQuery.literal(literal, ignoreCase));
+    }
+    return LiteralQuery.or(queries);
+  }
+
+  private char fold(char c) {
+    return ignoreCase ? LiteralMatcher.toLowerAscii(c) : c;
+  }
+
+  private static boolean fits(Set<String> x, Set<String> y) {
+    return (long) x.size() * y.size() <= MAX_SET;
+  }
+
+  private static Set<String> cross(Set<String> x, Set<String> y) {
+    Set<String> result = new LinkedHashSet<>();
+    for (String a : x) {
+      for (String b : y) {
+        result.add(a + b);
+      }
+    }
+    return result;
+  }
+
+  private static Set<String> union(Set<String> x, Set<String> y) {
+    Set<String> result = new LinkedHashSet<>(x);
+    result.addAll(y);
+    return result;
+  }
+}
@@ -0,0 +1,134 @@
+package ca.jrvs.apps.grep;
+
+import java.util.List;
+
+/**
+ * Syntax tree of a regex as produced by RegexParser. Only the constructs that decide
+ * whether a line matches are kept; capture group numbers and lazy quantifiers don't change
+ * the result of find() and are dropped.
+ */
+public abstract class RegexNode {
+
+  /**
+   * A single character. foldCase is set under (?i), which folds US-ASCII letters only.
+   */
+  public static class Literal extends RegexNode {
+    public final char c;
+    public final boolean foldCase;
+
+    public Literal(char c, boolean foldCase) {
+      this.c = c;
+      this.foldCase = foldCase;
+    }
+  }
+
+  /**
+   * A [...] class, a predefined class like \d, or . (which is any char but a line terminator)
+   */
+  public static class CharClass extends RegexNode {
+    // sorted, non-overlapping inclusive ranges stored as [lo0, hi0, lo1, hi1, ...]
+    public final char[] ranges;
+    public final boolean negated;
+    public final boolean foldCase;
+
+    public CharClass(char[] ranges, boolean negated, boolean foldCase) {
+      this.ranges = ranges;
+      this.negated = negated;
+      this.foldCase = foldCase;
+    }
+
+    public boolean matches(char c) {
+      boolean in = inRanges(c);
+      if (!in && foldCase) {
+        char other = otherCase(c);
+        in = other != c && inRanges(other);
+      }
+      return in != negated;
+    }
+
+    /**
+     * @return number of chars in the ranges, ignoring negation and case folding
+     */
+    public int size() {
+      int size = 0;
+      for (int i = 0; i < ranges.length; i += 2) {
+        size += ranges[i + 1] - ranges[i] + 1;
+      }
+      return size;
+    }
+
+    private boolean inRanges(char c) {
+      for (int i = 0; i < ranges.length; i += 2) {
+        if (c < ranges[i]) {
+          return false;
+        }
+        if (c <= ranges[i + 1]) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Matches the empty string, e.g. an empty alternative or ()
+   */
+  public static class Empty extends RegexNode {
+  }
+
+  /**
+   * ^ without MULTILINE: start of the line
+   */
+  public static class Begin extends RegexNode {
+  }
+
+  /**
+   * $ without MULTILINE: end of the line, or before a final line terminator
+   */
+  public static class End extends RegexNode {
+  }
+
+  public static class Concat extends RegexNode {
+    public final List<RegexNode> nodes;
+
+    public Concat(List<RegexNode> nodes) {
+      this.nodes = nodes;
+    }
+  }
+
+  public static class Alternate extends RegexNode {
+    public final List<RegexNode> nodes;
+
+    public Alternate(List<RegexNode> nodes) {
+      this.nodes = nodes;
+    }
+  }
+
+  /**
+   * node{min,max}, where max is -1 when unbounded
+   */
+  public static class Repeat extends RegexNode {
+    public final RegexNode node;
+    public final int min;
+    public final int max;
+
+    public Repeat(RegexNode node, int min, int max) {
+      this.node = node;
+      this.min = min;
+      this.max = max;
+    }
+  }
+
+  /**
+   * Other case of a US-ASCII letter, or the char itself
+   */
+  public static char otherCase(char c) {
+    if (c >= 'a' && c <= 'z') {
+      return (char) (c - ('a' - 'A'));
+    }
+    if (c >= 'A' && c <= 'Z') {
+      return (char) (c + ('a' - 'A'));
+    }
+    return c;
+  }
+}
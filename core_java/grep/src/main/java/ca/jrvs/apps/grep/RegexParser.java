@@ -0,0 +1,358 @@
+package ca.jrvs.apps.grep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Parser for the subset of java.util.regex syntax that the literal analysis and the
+ * automaton engine understand:
+ *
+ * - literals, escaped punctuation, \t \n \r \f \a \e, octal, hex and unicode escapes, \Q...\E
+ * - . and [...] classes with ranges and negation, \d \D \w \W \s \S
+ * - ^ and $ (without MULTILINE), groups (capturing, non-capturing and named) and |
+ * - * + ? {n} {n,} {n,m} and their lazy forms
+ * - a leading (?i) flag
+ *
+ * Anything else is valid Java syntax we don't model, so UnsupportedRegexException is thrown
+ * and callers keep using java.util.regex.
+ */
+public final class RegexParser {
+
+  private static final char[] DIGIT = {'0', '9'};
+  private static final char[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+  private static final char[] SPACE = {'\t', '\r', ' ', ' '};
+  // chars . refuses to match: \n \r \u0085 \u2028 \u2029
+  private static final char[] LINE_TERMINATORS =
+      {'\n', '\n', '\r', '\r', '\u0085', '\u0085', '\u2028', '\u2029'};
+
+  private final String regex;
+  private final boolean foldCase;
+  private int pos;
+
+  private RegexParser(String regex) {
+    this.foldCase = regex.startsWith("(?i)");
+    this.regex = regex;
+    this.pos = foldCase ? 4 : 0;
+  }
+
+  /**
+   * Parse a regex into a syntax tree
+   * @param regex regex in java.util.regex syntax
+   * @return root of the tree
+   * @throws java.util.regex.PatternSyntaxException if regex is not valid
+   * @throws UnsupportedRegexException if regex uses a construct outside the subset
+   */
+  public static RegexNode parse(String regex) {
+    // let java.util.regex reject invalid syntax so we only have to model valid regexes
+    Pattern.compile(regex);
+
+    RegexParser parser = new RegexParser(regex);
+    RegexNode node = parser.parseAlternate();
+    if (parser.pos < regex.length()) {
+      throw parser.unsupported("unbalanced )");
+    }
+    return node;
+  }
+
+  private RegexNode parseAlternate() {
+    List<RegexNode> alternatives = new ArrayList<>();
+    alternatives.add(parseConcat());
+    while (peek('|')) {
+      pos++;
+      alternatives.add(parseConcat());
+    }
+    return alternatives.size() == 1 ? alternatives.get(0) : new RegexNode.Alternate(alternatives);
+  }
+
+  private RegexNode parseConcat() {
+    List<RegexNode> nodes = new ArrayList<>();
+    while (pos < regex.length() && !peek('|') && !peek(')')) {
+      if (regex.startsWith("\\Q", pos)) {
+        parseQuoted(nodes);
+        continue;
+      }
+      nodes.add(parseRepeat(parseAtom()));
+    }
+    if (nodes.isEmpty()) {
+      return new RegexNode.Empty();
+    }
+    return nodes.size() == 1 ? nodes.get(0) : new RegexNode.Concat(nodes);
+  }
+
+  private void parseQuoted(List<RegexNode> nodes) {
+    int end = regex.indexOf("\\E", pos + 2);
+    String quoted = regex.substring(pos + 2, end < 0 ? regex.length() : end);
+    pos = end < 0 ? regex.length() : end + 2;
+
+    for (int i = 0; i < quoted.length(); i++) {
+      RegexNode literal = new RegexNode.Literal(quoted.charAt(i), foldCase);
+      // a quantifier after \E applies to the last quoted char
+      nodes.add(i == quoted.length() - 1 ? parseRepeat(literal) : literal);
+    }
+  }
+
+  private RegexNode parseRepeat(RegexNode atom) {
+    RegexNode node = atom;
+    if (pos >= regex.length()) {
+      return node;
+    }
+
+    int min;
+    int max;
+    char c = regex.charAt(pos);
+    if (c == '*') {
+      min = 0;
+      max = -1;
+      pos++;
+    }
+    else if (c == '+') {
+      min = 1;
+      max = -1;
+      pos++;
+    }
+    else if (c == '?') {
+      min = 0;
+      max = 1;
+      pos++;
+    }
+    else if (c == '{') {
+      int close = regex.indexOf('}', pos);
+      String[] bounds = regex.substring(pos + 1, close).split(",", -1);
+      min = Integer.parseInt(bounds[0].trim());
+      max = bounds.length == 1 ? min : bounds[1].trim().isEmpty() ? -1 : Integer.parseInt(bounds[1].trim());
+      pos = close + 1;
+    }
+    else {
+      return node;
+    }
+
+    if (peek('+')) {
+      throw unsupported("possessive quantifier");
+    }
+    if (peek('?')) {
+      // lazy quantifiers match the same lines
+      pos++;
+    }
+    if (pos < regex.length() && "*+?{".indexOf(regex.charAt(pos)) >= 0) {
+      throw unsupported("nested quantifier");
+    }
+    return new RegexNode.Repeat(node, min, max);
+  }
+
+  private RegexNode parseAtom() {
+    char c = regex.charAt(pos);
+    switch (c) {
+      case '(':
+        return parseGroup();
+      case '[':
+        return parseClass();
+      case '.':
+        pos++;
+        return new RegexNode.CharClass(LINE_TERMINATORS, true, false);
+      case '^':
+        pos++;
+        return new RegexNode.Begin();
+      case '$':
+        pos++;
+        return new RegexNode.End();
+      case '\\':
+        return parseEscape(false);
+      default:
+        pos++;
+        return new RegexNode.Literal(c, foldCase);
+    }
+  }
+
+  private RegexNode parseGroup() {
+    pos++;
+    if (peek('?')) {
+      if (regex.startsWith("?:", pos)) {
+        pos += 2;
+      }
+      else if (regex.startsWith("?<", pos) && pos + 2 < regex.length()
+          && Character.isLetter(regex.charAt(pos + 2))) {
+        pos = regex.indexOf('>', pos) + 1;
+      }
+      else {
+        throw unsupported("group construct");
+      }
+    }
+
+    RegexNode node = parseAlternate();
+    if (!peek(')')) {
+      throw unsupported("unclosed group");
+    }
+    pos++;
+    return node;
+  }
+
+  private RegexNode parseClass() {
+    int start = pos;
+    pos++;
+    boolean negated = peek('^');
+    if (negated) {
+      pos++;
+    }
+    if (peek(']')) {
+      throw unsupported("leading ] in class");
+    }
+
+    List<char[]> parts = new ArrayList<>();
+    while (!peek(']')) {
+      if (peek('[') || regex.startsWith("&&", pos)) {
+        throw unsupported("class union or intersection");
+      }
+
+      char lo;
+      if (peek('\\')) {
+        RegexNode escaped = parseEscape(true);
+        if (escaped instanceof RegexNode.CharClass) {
+          RegexNode.CharClass predefined = (RegexNode.CharClass) escaped;
+          if (predefined.negated) {
+            throw unsupported("negated class inside class");
+          }
+          parts.add(predefined.ranges);
+          continue;
+        }
+        lo = ((RegexNode.Literal) escaped).c;
+      }
+      else {
+        lo = regex.charAt(pos++);
+      }
+
+      char hi = lo;
+      if (peek('-') && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+        pos++;
+        if (peek('[')) {
+          throw unsupported("class union");
+        }
+        if (peek('\\')) {
+          RegexNode escaped = parseEscape(true);
+          if (!(escaped instanceof RegexNode.Literal)) {
+            throw unsupported("class as range bound");
+          }
+          hi = ((RegexNode.Literal) escaped).c;
+        }
+        else {
+          hi = regex.charAt(pos++);
+        }
+      }
+      parts.add(new char[] {lo, hi});
+    }
+    pos++;
+
+    if (pos - start <= 2) {
+      throw unsupported("empty class");
+    }
+    return new RegexNode.CharClass(normalize(parts), negated, foldCase);
+  }
+
+  /**
+   * @param inClass true inside [...], where the escape must be a single char or a class
+   */
+  private RegexNode parseEscape(boolean inClass) {
+    int start = pos;
+    pos++;
+    char c = regex.charAt(pos++);
+    switch (c) {
+      case 'd':
+      case 'D':
+        return new RegexNode.CharClass(DIGIT, c == 'D', false);
+      case 'w':
+      case 'W':
+        return new RegexNode.CharClass(WORD, c == 'W', false);
+      case 's':
+      case 'S':
+        return new RegexNode.CharClass(SPACE, c == 'S', false);
+      case 't':
+        return literal('\t');
+      case 'n':
+        return literal('\n');
+      case 'r':
+        return literal('\r');
+      case 'f':
+        return literal('\f');
+      case 'a':
+        return literal('\u0007');
+      case 'e':
+        return literal('\u001B');
+      case '0':
+        return literal((char) parseNumber(8, 1, octalLength()));
+      case 'x':
+        if (peek('{')) {
+          throw unsupported("\\x{...}");
+        }
+        return literal((char) parseNumber(16, 2, 2));
+      case 'u':
+        return literal((char) parseNumber(16, 4, 4));
+      default:
+        if (Character.isLetterOrDigit(c)) {
+          pos = start;
+          throw unsupported("escape \\" + c);
+        }
+        return literal(c);
+    }
+  }
+
+  private RegexNode literal(char c) {
+    return new RegexNode.Literal(c, foldCase);
+  }
+
+  private int octalLength() {
+    // \0n, \0nn, or \0mnn where m <= 3
+    int length = 0;
+    while (length < 3 && pos + length < regex.length()
+        && regex.charAt(pos + length) >= '0' && regex.charAt(pos + length) <= '7') {
+      length++;
+    }
+    if (length == 3 && regex.charAt(pos) > '3') {
+      length = 2;
+    }
+    return length;
+  }
+
+  private int parseNumber(int radix, int minLength, int length) {
+    if (length < minLength) {
+      throw unsupported("numeric escape");
+    }
+    int value = Integer.parseInt(regex.substring(pos, pos + length), radix);
+    pos += length;
+    return value;
+  }
+
+  private boolean peek(char c) {
+    return pos < regex.length() && regex.charAt(pos) == c;
+  }
+
+  private UnsupportedRegexException unsupported(String construct) {
+    return new UnsupportedRegexException(regex, pos, construct);
+  }
+
+  /**
+   * Sort and merge ranges so CharClass can stop at the first range above a char
+   */
+  private static char[] normalize(List<char[]> parts) {
+    List<char[]> ranges = new ArrayList<>();
+    for (char[] part : parts) {
+      for (int i = 0; i < part.length; i += 2) {
+        ranges.add(new char[] {part[i], part[i + 1]});
+      }
+    }
+    ranges.sort((a, b) -> Character.compare(a[0], b[0]));
+
+    char[] merged = new char[ranges.size() * 2];
+    int n = 0;
+    for (char[] range : ranges) {
+      if (n > 0 && range[0] <= merged[n - 1] + 1) {
+        merged[n - 1] = (char) Math.max(merged[n - 1], range[1]);
+      }
+      else {
+        merged[n++] = range[0];
+        merged[n++] = range[1];
+      }
+    }
+    return Arrays.copyOf(merged, n);
+  }
+}
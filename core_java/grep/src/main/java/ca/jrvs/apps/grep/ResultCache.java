@@ -0,0 +1,433 @@
+package ca.jrvs.apps.grep;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of per-file match results, so files that haven't changed since the last run
+ * with the same pattern are answered without being opened.
+ *
+ * Entries are keyed by a hash of the absolute path and a hash of the pattern, and are only
+ * valid while the file's size and mtime are the ones stored. The file is memory mapped and
+ * the fixed-size entry table is binary searched in place, so a lookup touches a few pages
+ * instead of the file being scanned.
+ *
+ * New results are collected during the run and written out by save(), which rewrites the
+ * cache atomically. Every run bumps a generation counter and entries remember the
+ * generation that last used them; when the cache would exceed its size cap the least
+ * recently used entries are dropped first.
+ *
+ * File layout (big-endian):
+ * magic, version, generation, entryCount,
+ * entryCount x (pathHash, patternHash, size, mtime, generation, dataOffset, dataLength),
+ * data: per entry (pathLength, UTF-8 path, matched, lineCount, lineCount x (length, UTF-8))
+ */
+public class ResultCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+
+  private static final int MAGIC = 0x4A475243;
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 20;
+  private static final int ENTRY_BYTES = 48;
+  // files modified this recently may still change within the same mtime tick
+  static final long RACY_MILLIS = 2000;
+
+  private final Path cacheFile;
+  private final long maxBytes;
+  private final long patternHash;
+  private final long generation;
+  private final ByteBuffer buffer;
+  private final int entryCount;
+  private final int dataStart;
+
+  // table indexes of old entries used this run, and results to add on save
+  private final Set<Integer> used = ConcurrentHashMap.newKeySet();
+  private final Map<String, NewEntry> added = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private ResultCache(Path cacheFile, long maxBytes, long patternHash, long generation,
+      ByteBuffer buffer, int entryCount) {
+    this.cacheFile = cacheFile;
+    this.maxBytes = maxBytes;
+    this.patternHash = patternHash;
+    this.generation = generation;
+    this.buffer = buffer;
+    this.entryCount = entryCount;
+    this.dataStart = HEADER_BYTES + entryCount * ENTRY_BYTES;
+  }
+
+  /**
+   * Memory map the cache for one run
+   * @param cacheFile cache file, created by save() if missing
+   * @param maxBytes size cap of the cache file
+   * @param patternKey everything that decides which lines are written for a file, e.g. the
+   *                   regex; entries of other patterns are kept but never returned
+   * @return the cache
+   * @throws IOException if the file cannot be read
+   */
+  public static ResultCache open(Path cacheFile, long maxBytes, String patternKey)
+      throws IOException {
+    if (maxBytes < HEADER_BYTES || maxBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("cache size must be between " + HEADER_BYTES + " and "
+          + Integer.MAX_VALUE + " bytes");
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(0);
+    long generation = 0;
+    int entryCount = 0;
+    if (Files.isRegularFile(cacheFile)) {
+      try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      if (buffer.remaining() >= HEADER_BYTES && buffer.getInt(0) == MAGIC
+          && buffer.getInt(4) == VERSION) {
+        generation = buffer.getLong(8);
+        entryCount = buffer.getInt(16);
+      }
+      else {
+        logger.warn("Ignoring invalid result cache {}", cacheFile);
+      }
+    }
+
+    return new ResultCache(cacheFile, maxBytes, hash(patternKey), generation + 1, buffer,
+        entryCount);
+  }
+
+  /**
+   * Find the cached result of a file
+   * @param file file to look up
+   * @param size current size of the file
+   * @param mtime current modification time of the file
+   * @return cached result, or null if there is none or the file has changed
+   */
+  public Result lookup(File file, long size, long mtime) {
+    String path = file.getAbsolutePath();
+    int index = find(hash(path));
+    if (index >= 0) {
+      int entry = HEADER_BYTES + index * ENTRY_BYTES;
+      if (buffer.getLong(entry + 16) == size && buffer.getLong(entry + 24) == mtime) {
+        Result result = readData(dataStart + buffer.getInt(entry + 40), path);
+        if (result != null) {
+          used.add(index);
+          hits.incrementAndGet();
+          return result;
+        }
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Remember the result of a scanned file, to be written by save()
+   * @param file scanned file
+   * @param size size of the file before it was scanned
+   * @param mtime modification time of the file before it was scanned
+   * @param result lines written for the file
+   */
+  public void put(File file, long size, long mtime, Result result) {
+    if (System.currentTimeMillis() - mtime < RACY_MILLIS) {
+      return;
+    }
+    String path = file.getAbsolutePath();
+    byte[] data = encode(path, result);
+    if (ENTRY_BYTES + data.length <= maxBytes / 4) {
+      added.put(path, new NewEntry(hash(path), size, mtime, data));
+    }
+  }
+
+  /**
+   * Wrap the sink of one file so the lines written to it can be put in the cache afterwards
+   * @param sink sink of the scan
+   * @return recording sink
+   */
+  public Recorder record(LineSink sink) {
+    return new Recorder(sink, maxBytes / 4);
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Write the cache with this run's results, dropping the least recently used entries to
+   * stay under the size cap
+   * @throws IOException if the cache cannot be written
+   */
+  public void save() throws IOException {
+    List<long[]> entries = new ArrayList<>();
+    List<byte[]> data = new ArrayList<>();
+
+    // old entries replaced by a new result of the same file are dropped
+    Set<Long> replaced = new HashSet<>();
+    for (NewEntry entry : added.values()) {
+      replaced.add(entry.pathHash);
+    }
+    for (int i = 0; i < entryCount; i++) {
+      int entry = HEADER_BYTES + i * ENTRY_BYTES;
+      long entryPatternHash = buffer.getLong(entry + 8);
+      if (entryPatternHash == patternHash && replaced.contains(buffer.getLong(entry))) {
+        continue;
+      }
+      byte[] bytes = new byte[buffer.getInt(entry + 44)];
+      ByteBuffer source = buffer.duplicate();
+      source.position(dataStart + buffer.getInt(entry + 40));
+      source.get(bytes);
+      entries.add(new long[] {buffer.getLong(entry), entryPatternHash, buffer.getLong(entry + 16),
+          buffer.getLong(entry + 24), used.contains(i) ? generation : buffer.getLong(entry + 32),
+          data.size()});
+      data.add(bytes);
+    }
+    for (NewEntry entry : added.values()) {
+      entries.add(new long[] {entry.pathHash, patternHash, entry.size, entry.mtime, generation,
+          data.size()});
+      data.add(entry.data);
+    }
+
+    // most recently used first, keep as many as fit
+    entries.sort(Comparator.comparingLong((long[] entry) -> entry[4]).reversed());
+    long total = HEADER_BYTES;
+    int kept = 0;
+    while (kept < entries.size()
+        && total + ENTRY_BYTES + data.get((int) entries.get(kept)[5]).length <= maxBytes) {
+      total += ENTRY_BYTES + data.get((int) entries.get(kept)[5]).length;
+      kept++;
+    }
+    List<long[]> table = new ArrayList<>(entries.subList(0, kept));
+    table.sort(ResultCache::compareKeys);
+
+    write(table, data);
+    logger.info("Result cache {}: {} hits, {} misses, {} entries kept, {} evicted", cacheFile,
+        hits.get(), misses.get(), kept, entries.size() - kept);
+  }
+
+  private void write(List<long[]> table, List<byte[]> data) throws IOException {
+    Path parent = cacheFile.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, cacheFile.getFileName().toString(), ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(temp), WriterLineSink.DEFAULT_BUFFER_SIZE))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(generation);
+      out.writeInt(table.size());
+      int offset = 0;
+      for (long[] entry : table) {
+        int length = data.get((int) entry[5]).length;
+        for (int i = 0; i < 5; i++) {
+          out.writeLong(entry[i]);
+        }
+        out.writeInt(offset);
+        out.writeInt(length);
+        offset += length;
+      }
+      for (long[] entry : table) {
+        out.write(data.get((int) entry[5]));
+      }
+    }
+
+    Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Binary search the entry table
+   * @return table index of the entry, or -1
+   */
+  private int find(long pathHash) {
+    int low = 0;
+    int high = entryCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int entry = HEADER_BYTES + mid * ENTRY_BYTES;
+      int cmp = compareKeys(buffer.getLong(entry), buffer.getLong(entry + 8), pathHash,
+          patternHash);
+      if (cmp < 0) {
+        low = mid + 1;
+      }
+      else if (cmp > 0) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private static int compareKeys(long[] a, long[] b) {
+    return compareKeys(a[0], a[1], b[0], b[1]);
+  }
+
+  private static int compareKeys(long pathA, long patternA, long pathB, long patternB) {
+    int cmp = Long.compare(pathA, pathB);
+    return cmp != 0 ? cmp : Long.compare(patternA, patternB);
+  }
+
+  /**
+   * @return the result stored at offset, or null if it belongs to another path with the same
+   * hash
+   */
+  private Result readData(int offset, String path) {
+    ByteBuffer data = buffer.duplicate();
+    data.position(offset);
+    if (!readString(data).equals(path)) {
+      return null;
+    }
+    long matched = data.getLong();
+    int lineCount = data.getInt();
+    List<String> lines = new ArrayList<>(lineCount);
+    for (int i = 0; i < lineCount; i++) {
+      lines.add(readString(data));
+    }
+    return new Result(matched, lines);
+  }
+
+  private static String readString(ByteBuffer data) {
+    byte[] bytes = new byte[data.getInt()];
+    data.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] encode(String path, Result result) {
+    List<byte[]> strings = new ArrayList<>();
+    strings.add(path.getBytes(StandardCharsets.UTF_8));
+    int length = 8 + 4;
+    for (String line : result.lines) {
+      strings.add(line.getBytes(StandardCharsets.UTF_8));
+    }
+    for (byte[] string : strings) {
+      length += 4 + string.length;
+    }
+
+    ByteBuffer data = ByteBuffer.allocate(length);
+    data.putInt(strings.get(0).length).put(strings.get(0));
+    data.putLong(result.matched).putInt(result.lines.size());
+    for (byte[] line : strings.subList(1, strings.size())) {
+      data.putInt(line.length).put(line);
+    }
+    return data.array();
+  }
+
+  /**
+   * 64-bit FNV-1a hash of the UTF-8 bytes of a string
+   */
+  static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * Lines written for one file and the number of matched lines
+   */
+  public static class Result {
+    private final long matched;
+    private final List<String> lines;
+
+    public Result(long matched, List<String> lines) {
+      this.matched = matched;
+      this.lines = Collections.unmodifiableList(lines);
+    }
+
+    public long getMatched() {
+      return matched;
+    }
+
+    public List<String> getLines() {
+      return lines;
+    }
+  }
+
+  /**
+   * LineSink that passes lines through and keeps a copy of them, up to a byte limit. Results
+   * bigger than the limit are not worth a cache entry and are only passed through.
+   */
+  public static class Recorder implements LineSink {
+    private final LineSink sink;
+    private final long limit;
+    private List<String> lines = new ArrayList<>();
+    private long bytes;
+
+    private Recorder(LineSink sink, long limit) {
+      this.sink = sink;
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(String line) throws IOException {
+      sink.write(line);
+      if (lines != null) {
+        bytes += 4 + line.length();
+        if (bytes > limit) {
+          lines = null;
+        }
+        else {
+          lines.add(line);
+        }
+      }
+    }
+
+    @Override
+    public long count() {
+      return sink.count();
+    }
+
+    /**
+     * @param matched number of matched lines of the scan
+     * @return the recorded result, or null if it went over the limit
+     */
+    public Result toResult(long matched) {
+      return lines == null ? null : new Result(matched, lines);
+    }
+
+    /**
+     * The underlying sink is owned by the caller, so it is left open
+     */
+    @Override
+    public void close() {
+    }
+  }
+
+  private static class NewEntry {
+    private final long pathHash;
+    private final long size;
+    private final long mtime;
+    private final byte[] data;
+
+    NewEntry(long pathHash, long size, long mtime, byte[] data) {
+      this.pathHash = pathHash;
+      this.size = size;
+      this.mtime = mtime;
+      this.data = data;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package ca.jrvs.apps.grep;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ByteScanner that tests one byte at a time. It is the fallback on platforms where
+ * unaligned long loads are slow, and the reference SwarByteScanner is tested against.
+ */
+public class ScalarByteScanner implements ByteScanner {
+
+  @Override
+  public int indexOfLineBreak(ByteBuffer buffer, int from, int to) {
+    for (int i = from; i < to; i++) {
+      byte b = buffer.get(i);
+      if (b == '\n' || b == '\r') {
+        return i;
+      }
+    }
+    return to;
+  }
+
+  @Override
+  public int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (buffer.get(i) == b) {
+        return i;
+      }
+    }
+    return to;
+  }
+
+  @Override
+  public boolean isAscii(ByteBuffer buffer, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (buffer.get(i) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "scalar";
+  }
+}
@@ -0,0 +1,373 @@
+package ca.jrvs.apps.grep;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits a run across worker JVMs on the local host, for trees one JVM can't read fast
+ * enough, e.g. ones spanning several mount points.
+ *
+ * The files are cut into contiguous runs of about the same total size, in walk order, so
+ * each worker tends to stay on one subtree and the output is the shards' outputs one after
+ * the other. Every worker is a JavaGrepImp started with the same scan options, a shard
+ * file listing its files and an output file of its own, in a temp directory next to the
+ * output. Workers report progress on their standard output (see ShardProgress), which the
+ * coordinator logs every interval along with the workers' own log lines.
+ *
+ * When every worker is done, the shard outputs are copied into the output file in order,
+ * or written through the sink when the output is sorted. A worker that fails stops the
+ * others and fails the run.
+ */
+public class ShardCoordinator {
+
+  private static final Logger logger = LoggerFactory.getLogger(ShardCoordinator.class);
+
+  private final JavaGrepImp grep;
+  private final int workers;
+  private long reportInterval = ShardProgress.DEFAULT_INTERVAL_MILLIS;
+
+  public ShardCoordinator(JavaGrepImp grep, int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("workers must be >= 1");
+    }
+    this.grep = grep;
+    this.workers = workers;
+  }
+
+  /**
+   * Cut files into at most shards contiguous runs of about the same total size. A file
+   * bigger than a shard's share is a shard on its own.
+   * @param files files in walk order
+   * @param shards number of shards wanted
+   * @return non-empty shards in walk order
+   */
+  public static List<List<File>> partition(List<File> files, int shards) {
+    long[] sizes = new long[files.size()];
+    long total = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      sizes[i] = files.get(i).length();
+      total += sizes[i];
+    }
+
+    List<List<File>> result = new ArrayList<>();
+    List<File> shard = new ArrayList<>();
+    long size = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      shard.add(files.get(i));
+      size += sizes[i];
+      int shardsLeft = shards - result.size() - 1;
+      int filesLeft = sizes.length - i - 1;
+      // cut where the running total passes the next share, or where every shard left
+      // needs one of the files left
+      if (shardsLeft > 0 && filesLeft > 0 && (filesLeft == shardsLeft
+          || size >= (double) total * (result.size() + 1) / shards)) {
+        result.add(shard);
+        shard = new ArrayList<>();
+      }
+    }
+    if (!shard.isEmpty()) {
+      result.add(shard);
+    }
+    return result;
+  }
+
+  /**
+   * Scan the files on the workers and write their output to outFile
+   * @param files files to scan, in walk order
+   * @param outFile output file
+   * @return number of matched lines
+   * @throws IOException if a worker failed or the output cannot be written
+   */
+  public long scan(List<File> files, File outFile) throws IOException {
+    List<List<File>> shards = partition(files, workers);
+    Path dir = Files.createTempDirectory(outFile.getAbsoluteFile().getParentFile().toPath(),
+        outFile.getName() + ".shards");
+    long start = System.nanoTime();
+    List<Worker> started = new ArrayList<>();
+    try {
+      try {
+        for (int i = 0; i < shards.size(); i++) {
+          started.add(start(i, shards.get(i), dir));
+        }
+        await(started);
+      }
+      finally {
+        for (Worker worker : started) {
+          worker.process.destroyForcibly();
+        }
+      }
+
+      long matched = merge(started, outFile);
+      if (grep.getMetricsFile() != null) {
+        writeMetrics(started, System.nanoTime() - start, Paths.get(grep.getMetricsFile()));
+      }
+      return matched;
+    }
+    finally {
+      delete(dir);
+    }
+  }
+
+  private Worker start(int index, List<File> shard, Path dir) throws IOException {
+    Worker worker = new Worker(index, dir);
+    StringBuilder list = new StringBuilder();
+    for (File file : shard) {
+      // NUL can't be part of a path, a line break can
+      list.append(file.getPath()).append('\0');
+    }
+    Files.write(worker.list, list.toString().getBytes(StandardCharsets.UTF_8));
+
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    // heap size and system properties, e.g. the byte scanner, carry over; agents don't
+    for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      if (arg.startsWith("-Xmx") || arg.startsWith("-Xms") || arg.startsWith("-D")) {
+        command.add(arg);
+      }
+    }
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(JavaGrepImp.class.getName());
+    command.addAll(GrepCli.workerArgs(grep));
+    command.add("--shard=" + worker.list);
+    if (grep.getMetricsFile() != null) {
+      command.add("--metrics=" + worker.metrics);
+    }
+    command.add("--");
+    if (grep.getPatternFile() == null) {
+      command.add(grep.getRegex());
+    }
+    command.add(grep.getRootPath());
+    command.add(worker.output.toString());
+
+    worker.process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    worker.reader = new Thread(() -> read(worker), "grep-shard-" + index);
+    worker.reader.setDaemon(true);
+    worker.reader.start();
+    logger.info("Worker {} started on {} files", index, shard.size());
+    return worker;
+  }
+
+  /**
+   * Log a worker's output and keep its last progress report
+   */
+  private static void read(Worker worker) {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        worker.process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        ShardProgress.Report report = ShardProgress.parse(line);
+        if (report != null) {
+          worker.report = report;
+        }
+        else {
+          logger.info("Worker {}: {}", worker.index, line);
+        }
+      }
+    }
+    catch (IOException e) {
+      // the worker's exit status tells whether it finished
+    }
+  }
+
+  /**
+   * Wait for every worker, logging their progress every interval
+   */
+  private void await(List<Worker> started) throws IOException {
+    try {
+      while (true) {
+        boolean running = false;
+        for (Worker worker : started) {
+          if (worker.process.isAlive()) {
+            running = true;
+          }
+          else if (!worker.finished()) {
+            throw new IOException("Worker " + worker.index + " exited with "
+                + worker.process.exitValue() + " before finishing its shard");
+          }
+        }
+        if (!running) {
+          break;
+        }
+        logProgress(started);
+        waitForAny(started);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for workers", e);
+    }
+  }
+
+  private void waitForAny(List<Worker> started) throws InterruptedException {
+    for (Worker worker : started) {
+      if (worker.process.isAlive()) {
+        worker.process.waitFor(reportInterval, TimeUnit.MILLISECONDS);
+        return;
+      }
+    }
+  }
+
+  private static void logProgress(List<Worker> started) {
+    long files = 0;
+    long bytes = 0;
+    long matched = 0;
+    int running = 0;
+    for (Worker worker : started) {
+      ShardProgress.Report report = worker.report;
+      if (report != null) {
+        files += report.getFiles();
+        bytes += report.getBytes();
+        matched += report.getMatched();
+      }
+      if (worker.process.isAlive()) {
+        running++;
+      }
+    }
+    logger.info("{} of {} workers running: {} files, {} MB, {} matched lines", running,
+        started.size(), files, bytes / (1024 * 1024), matched);
+  }
+
+  /**
+   * Write the shard outputs to outFile in shard order
+   */
+  private long merge(List<Worker> started, File outFile) throws IOException {
+    long matched = 0;
+    for (Worker worker : started) {
+      matched += worker.report.getMatched();
+    }
+
+    if (grep.getSortMode() != SortMode.NONE) {
+      try (LineSink sink = grep.openSink()) {
+        for (Worker worker : started) {
+          try (Stream<String> lines = Files.lines(worker.output, StandardCharsets.UTF_8)) {
+            lines.forEach(line -> {
+              try {
+                sink.write(line);
+              }
+              catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+          }
+          catch (UncheckedIOException e) {
+            throw e.getCause();
+          }
+        }
+      }
+      return matched;
+    }
+
+    try (FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (Worker worker : started) {
+        try (FileChannel in = FileChannel.open(worker.output, StandardOpenOption.READ)) {
+          long size = in.size();
+          long done = 0;
+          while (done < size) {
+            done += in.transferTo(done, size - done, out);
+          }
+        }
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * Write the totals of every worker with the metrics it wrote, under "workers"
+   */
+  private static void writeMetrics(List<Worker> started, long elapsedNanos, Path file)
+      throws IOException {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n");
+    json.append("  \"elapsedMs\": ").append(millis(elapsedNanos)).append(",\n");
+    json.append("  \"workers\": [");
+    for (int i = 0; i < started.size(); i++) {
+      Worker worker = started.get(i);
+      ShardProgress.Report report = worker.report;
+      String metrics = Files.isRegularFile(worker.metrics)
+          ? new String(Files.readAllBytes(worker.metrics), StandardCharsets.UTF_8).trim()
+          : "null";
+      json.append(i == 0 ? "\n" : ",\n")
+          .append("    {\"shard\": ").append(worker.index)
+          .append(", \"elapsedMs\": ").append(millis(report.getElapsedNanos()))
+          .append(", \"files\": ").append(report.getFiles())
+          .append(", \"bytes\": ").append(report.getBytes())
+          .append(", \"matches\": ").append(report.getMatched())
+          .append(",\n     \"metrics\": ").append(metrics.replace("\n", "\n     "))
+          .append('}');
+    }
+    json.append(started.isEmpty() ? "]\n" : "\n  ]\n");
+    json.append("}\n");
+    Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+  }
+
+  private static void delete(Path dir) throws IOException {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  /**
+   * Time between two progress logs
+   * @param reportInterval milliseconds, ShardProgress.DEFAULT_INTERVAL_MILLIS by default
+   */
+  public void setReportInterval(long reportInterval) {
+    if (reportInterval < 1) {
+      throw new IllegalArgumentException("reportInterval must be >= 1");
+    }
+    this.reportInterval = reportInterval;
+  }
+
+  /**
+   * One worker JVM and the files it reads and writes
+   */
+  private static class Worker {
+    private final int index;
+    private final Path list;
+    private final Path output;
+    private final Path metrics;
+    private Process process;
+    private Thread reader;
+    private volatile ShardProgress.Report report;
+
+    private Worker(int index, Path dir) {
+      this.index = index;
+      this.list = dir.resolve("shard-" + index + ".list");
+      this.output = dir.resolve("shard-" + index + ".out");
+      this.metrics = dir.resolve("shard-" + index + ".json");
+    }
+
+    /**
+     * @return true once the worker has exited after its done report
+     */
+    private boolean finished() throws InterruptedException {
+      // the report is read on another thread, which ends with the worker's output
+      reader.join();
+      ShardProgress.Report last = report;
+      return process.exitValue() == 0 && last != null && last.isDone();
+    }
+  }
+}
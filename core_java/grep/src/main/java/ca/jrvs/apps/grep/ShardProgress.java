@@ -0,0 +1,162 @@
+package ca.jrvs.apps.grep;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Progress of a shard worker, reported to the ShardCoordinator as lines on the worker's
+ * standard output between its log lines:
+ *
+ * PREFIX running files bytes matched
+ * PREFIX done files bytes matched elapsedNanos
+ *
+ * Files and bytes count the files handed to the scan, matched the lines written so far.
+ * The done line is only printed after the output is closed, so a worker that exits without
+ * one has failed.
+ */
+public class ShardProgress {
+
+  static final String PREFIX = "@grep-shard ";
+  public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+  private final PrintStream out;
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong files = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private volatile Thread reporter;
+
+  public ShardProgress(PrintStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Count the files, and their bytes, as the scan takes them
+   * @param files files of the shard
+   * @return counting iterator
+   */
+  public Iterator<File> count(Iterator<File> files) {
+    return new Iterator<File>() {
+      @Override
+      public boolean hasNext() {
+        return files.hasNext();
+      }
+
+      @Override
+      public File next() {
+        File file = files.next();
+        ShardProgress.this.files.incrementAndGet();
+        bytes.addAndGet(file.length());
+        return file;
+      }
+    };
+  }
+
+  /**
+   * Report progress every interval on a daemon thread until finish()
+   * @param matched lines written so far, read without synchronization so it may lag
+   * @param intervalMillis time between two reports
+   */
+  public void start(LongSupplier matched, long intervalMillis) {
+    Thread thread = new Thread(() -> {
+      try {
+        while (true) {
+          TimeUnit.MILLISECONDS.sleep(intervalMillis);
+          out.println(PREFIX + "running " + files.get() + " " + bytes.get() + " "
+              + matched.getAsLong());
+        }
+      }
+      catch (InterruptedException e) {
+        // finished
+      }
+    }, "grep-shard-progress");
+    thread.setDaemon(true);
+    thread.start();
+    reporter = thread;
+  }
+
+  /**
+   * Stop reporting and print the final totals
+   * @param matched matched lines of the shard
+   */
+  public void finish(long matched) {
+    Thread thread = reporter;
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    out.println(PREFIX + "done " + files.get() + " " + bytes.get() + " " + matched + " "
+        + (System.nanoTime() - startNanos));
+    out.flush();
+  }
+
+  /**
+   * Parse a line of a worker's output
+   * @param line output line
+   * @return the report, or null if the line is not one
+   */
+  public static Report parse(String line) {
+    if (!line.startsWith(PREFIX)) {
+      return null;
+    }
+    String[] fields = line.substring(PREFIX.length()).split(" ");
+    boolean done = fields[0].equals("done");
+    try {
+      return new Report(done, Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+          Long.parseLong(fields[3]), done ? Long.parseLong(fields[4]) : 0);
+    }
+    catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Progress of one worker at the time of a report
+   */
+  public static class Report {
+    private final boolean done;
+    private final long files;
+    private final long bytes;
+    private final long matched;
+    private final long elapsedNanos;
+
+    Report(boolean done, long files, long bytes, long matched, long elapsedNanos) {
+      this.done = done;
+      this.files = files;
+      this.bytes = bytes;
+      this.matched = matched;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public boolean isDone() {
+      return done;
+    }
+
+    public long getFiles() {
+      return files;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public long getMatched() {
+      return matched;
+    }
+
+    /**
+     * @return time the worker took, from the done report
+     */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+  }
+}
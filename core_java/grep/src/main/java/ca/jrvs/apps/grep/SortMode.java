@@ -0,0 +1,14 @@
+package ca.jrvs.apps.grep;
+
+/**
+ * Order in which lines reach the output file, like piping it through sort and uniq
+ *
+ * - NONE: in scan order (the default)
+ * - SORT: sorted, like sort
+ * - UNIQUE: sorted with repeated lines written once, like sort -u
+ * - UNIQUE_COUNT: sorted unique lines, each after its number of occurrences, like
+ *   sort | uniq -c
+ */
+public enum SortMode {
+  NONE, SORT, UNIQUE, UNIQUE_COUNT
+}
@@ -0,0 +1,288 @@
+package ca.jrvs.apps.grep;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * LineSink that sorts the lines written to it, optionally dropping or counting repeated
+ * ones, and passes them on to another sink when closed.
+ *
+ * Memory is bounded by an external merge sort. Lines are held in memory up to a budget,
+ * then sorted and spilled to a temp file as a run. On close the runs are merged, at most
+ * MERGE_WIDTH files at a time, straight into the sink, so millions of distinct lines take
+ * disk space instead of heap. In the unique modes repeated lines are counted as they come
+ * in, so lines that repeat a lot take memory once.
+ *
+ * Lines are compared as Strings. Runs are UTF-8 files with one line per record, preceded
+ * by its count and a tab in the unique modes. Lines never contain a line terminator, so a
+ * record can't be split.
+ */
+public class SortingLineSink implements LineSink {
+
+  public static final long DEFAULT_MEMORY = 64L * 1024 * 1024;
+  static final int MERGE_WIDTH = 64;
+  // estimated heap of a buffered line besides its chars: String, array and list or map entry
+  private static final int LINE_OVERHEAD = 96;
+
+  private final LineSink sink;
+  private final SortMode mode;
+  private final long memory;
+  private final Path tempDir;
+
+  private final List<String> lines = new ArrayList<>();
+  private final Map<String, Long> counts = new HashMap<>();
+  private final List<Path> runs = new ArrayList<>();
+  private long buffered;
+  private long count;
+
+  /**
+   * @param sink destination of the sorted lines, closed with this sink
+   * @param mode how lines are sorted, anything but NONE
+   * @param memory estimated bytes of lines held in memory before a run is spilled
+   * @param tempDir directory of the run files
+   */
+  public SortingLineSink(LineSink sink, SortMode mode, long memory, Path tempDir) {
+    if (mode == null || mode == SortMode.NONE) {
+      throw new IllegalArgumentException("mode must sort");
+    }
+    if (memory < 1) {
+      throw new IllegalArgumentException("memory must be >= 1");
+    }
+    this.sink = sink;
+    this.mode = mode;
+    this.memory = memory;
+    this.tempDir = tempDir;
+  }
+
+  @Override
+  public void write(String line) throws IOException {
+    count++;
+    if (mode == SortMode.SORT) {
+      lines.add(line);
+      buffered += LINE_OVERHEAD + 2L * line.length();
+    }
+    else if (counts.merge(line, 1L, Long::sum) == 1L) {
+      buffered += LINE_OVERHEAD + 2L * line.length();
+    }
+
+    if (buffered >= memory) {
+      spill();
+    }
+  }
+
+  /**
+   * @return number of lines written to this sink, before any are dropped as repeated
+   */
+  @Override
+  public long count() {
+    return count;
+  }
+
+  /**
+   * @return number of runs spilled to disk so far
+   */
+  public int getRuns() {
+    return runs.size();
+  }
+
+  /**
+   * Sort and write every line to the sink, then close it
+   * @throws IOException if a run could not be read or written, or the sink failed
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (runs.isEmpty()) {
+        writeBuffer(this::writeToSink);
+      }
+      else {
+        spill();
+        while (runs.size() > MERGE_WIDTH) {
+          // merge the oldest runs into one until the rest can be opened at once
+          List<Path> inputs = new ArrayList<>(runs.subList(0, MERGE_WIDTH));
+          Path merged = newRun();
+          try (BufferedWriter writer = Files.newBufferedWriter(merged, StandardCharsets.UTF_8)) {
+            merge(inputs, (line, lineCount) -> writeRecord(writer, line, lineCount));
+          }
+          for (Path input : inputs) {
+            Files.delete(input);
+          }
+          // the merged run went to the end, after its inputs
+          runs.subList(0, MERGE_WIDTH).clear();
+        }
+        merge(runs, this::writeToSink);
+      }
+    }
+    finally {
+      try {
+        for (Path run : runs) {
+          Files.deleteIfExists(run);
+        }
+      }
+      finally {
+        sink.close();
+      }
+    }
+  }
+
+  /**
+   * Sort the buffered lines into a new run file and empty the buffer
+   */
+  private void spill() throws IOException {
+    Path run = newRun();
+    try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+      writeBuffer((line, lineCount) -> writeRecord(writer, line, lineCount));
+    }
+    lines.clear();
+    counts.clear();
+    buffered = 0;
+  }
+
+  private Path newRun() throws IOException {
+    Path run = Files.createTempFile(tempDir, "grep-sort", ".run");
+    runs.add(run);
+    return run;
+  }
+
+  private void writeBuffer(RecordWriter out) throws IOException {
+    if (mode == SortMode.SORT) {
+      Collections.sort(lines);
+      for (String line : lines) {
+        out.write(line, 1);
+      }
+      return;
+    }
+
+    List<String> unique = new ArrayList<>(counts.keySet());
+    Collections.sort(unique);
+    for (String line : unique) {
+      out.write(line, counts.get(line));
+    }
+  }
+
+  private void writeRecord(BufferedWriter writer, String line, long lineCount)
+      throws IOException {
+    if (mode != SortMode.SORT) {
+      writer.write(Long.toString(lineCount));
+      writer.write('\t');
+    }
+    writer.write(line);
+    writer.write('\n');
+  }
+
+  private void writeToSink(String line, long lineCount) throws IOException {
+    if (mode == SortMode.UNIQUE_COUNT) {
+      // the format of uniq -c
+      sink.write(String.format(Locale.ROOT, "%7d %s", lineCount, line));
+    }
+    else {
+      sink.write(line);
+    }
+  }
+
+  /**
+   * Merge sorted runs, adding up the counts of equal lines in the unique modes
+   */
+  private void merge(List<Path> inputs, RecordWriter out) throws IOException {
+    PriorityQueue<RunReader> queue =
+        new PriorityQueue<>(Comparator.comparing((RunReader reader) -> reader.line));
+    try {
+      for (Path input : inputs) {
+        RunReader reader = new RunReader(input);
+        if (reader.next()) {
+          queue.add(reader);
+        }
+        else {
+          reader.close();
+        }
+      }
+
+      String line = null;
+      long lineCount = 0;
+      while (!queue.isEmpty()) {
+        RunReader reader = queue.poll();
+        if (mode != SortMode.SORT && reader.line.equals(line)) {
+          lineCount += reader.count;
+        }
+        else {
+          if (line != null) {
+            out.write(line, lineCount);
+          }
+          line = reader.line;
+          lineCount = reader.count;
+        }
+
+        if (reader.next()) {
+          queue.add(reader);
+        }
+        else {
+          reader.close();
+        }
+      }
+      if (line != null) {
+        out.write(line, lineCount);
+      }
+    }
+    finally {
+      for (RunReader reader : queue) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Destination of sorted records
+   */
+  private interface RecordWriter {
+    void write(String line, long lineCount) throws IOException;
+  }
+
+  /**
+   * Current record of one run file
+   */
+  private class RunReader {
+    private final BufferedReader reader;
+    private String line;
+    private long count;
+
+    private RunReader(Path run) throws IOException {
+      this.reader = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return false at the end of the run
+     */
+    private boolean next() throws IOException {
+      String record = reader.readLine();
+      if (record == null) {
+        return false;
+      }
+      if (mode == SortMode.SORT) {
+        line = record;
+        count = 1;
+      }
+      else {
+        int tab = record.indexOf('\t');
+        count = Long.parseLong(record.substring(0, tab));
+        line = record.substring(tab + 1);
+      }
+      return true;
+    }
+
+    private void close() throws IOException {
+      reader.close();
+    }
+  }
+}
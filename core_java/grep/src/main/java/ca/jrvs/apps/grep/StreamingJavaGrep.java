@@ -0,0 +1,52 @@
+package ca.jrvs.apps.grep;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.stream.Stream;
+
+/**
+ * Streaming variant of the JavaGrep contract. Instead of materializing every line of a file
+ * and every matched line, lines are pulled lazily from each file, filtered by the match
+ * stage and pushed straight into an incremental sink. Peak heap is bounded by the reader
+ * and writer buffers rather than by the size of the corpus.
+ */
+public interface StreamingJavaGrep extends JavaGrep {
+
+  /**
+   * Traverse a given directory and hand out files as they are found, so matching can start
+   * before the traversal finishes. The stream must be closed once done.
+   *
+   * @param rootDir input directory
+   * @return lazy stream of the files under rootDir
+   */
+  Stream<File> streamFiles(String rootDir);
+
+  /**
+   * Lazily read the lines of a file. The returned stream holds the file open, so callers
+   * must close it (e.g. with try-with-resources) once done.
+   *
+   * @param inputFile file to be read
+   * @return lazy stream of lines
+   * @throws IllegalArgumentException if given inputFile is not a file
+   * @throws java.io.UncheckedIOException if the file cannot be opened or read
+   */
+  Stream<String> lines(File inputFile);
+
+  /**
+   * Match stage: scan a single file and write each matched line to the sink as soon as it
+   * is found
+   *
+   * @param inputFile file to be scanned
+   * @param sink destination of matched lines
+   * @return number of matched lines
+   * @throws IOException if reading the file or writing to the sink failed
+   */
+  long scanFile(File inputFile, LineSink sink) throws IOException;
+
+  /**
+   * Open an incremental sink over outFile
+   * @return sink that must be closed once all lines are written
+   * @throws IOException if outFile cannot be opened
+   */
+  LineSink openSink() throws IOException;
+}
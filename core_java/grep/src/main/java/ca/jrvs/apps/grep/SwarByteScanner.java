@@ -0,0 +1,76 @@
+package ca.jrvs.apps.grep;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * ByteScanner that tests eight bytes at a time (SIMD within a register). Each step loads a
+ * long and XORs it with the byte searched for repeated in every lane, which turns matching
+ * bytes into zero bytes. zeroBytes() then sets the high bit of exactly the lanes that are
+ * zero, without carries between lanes, so the first match is the lowest set bit in
+ * little-endian order and the highest in big-endian order. The bytes that don't fill a
+ * whole long are tested one at a time.
+ */
+public class SwarByteScanner implements ByteScanner {
+
+  private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long LINE_FEEDS = 0x0A0A0A0A0A0A0A0AL;
+  private static final long CARRIAGE_RETURNS = 0x0D0D0D0D0D0D0D0DL;
+
+  @Override
+  public int indexOfLineBreak(ByteBuffer buffer, int from, int to) {
+    boolean little = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+    int i = from;
+    for (; i + Long.BYTES <= to; i += Long.BYTES) {
+      long word = buffer.getLong(i);
+      long found = zeroBytes(word ^ LINE_FEEDS) | zeroBytes(word ^ CARRIAGE_RETURNS);
+      if (found != 0) {
+        return i + firstLane(found, little);
+      }
+    }
+    return ByteScanner.SCALAR.indexOfLineBreak(buffer, i, to);
+  }
+
+  @Override
+  public int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+    boolean little = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+    long pattern = (b & 0xFFL) * 0x0101010101010101L;
+    int i = from;
+    for (; i + Long.BYTES <= to; i += Long.BYTES) {
+      long found = zeroBytes(buffer.getLong(i) ^ pattern);
+      if (found != 0) {
+        return i + firstLane(found, little);
+      }
+    }
+    return ByteScanner.SCALAR.indexOf(buffer, b, i, to);
+  }
+
+  @Override
+  public boolean isAscii(ByteBuffer buffer, int from, int to) {
+    long bits = 0;
+    int i = from;
+    for (; i + Long.BYTES <= to; i += Long.BYTES) {
+      bits |= buffer.getLong(i);
+    }
+    return (bits & HIGH_BITS) == 0 && ByteScanner.SCALAR.isAscii(buffer, i, to);
+  }
+
+  /**
+   * @return word with the high bit set in every byte that is zero in x, and no other bits
+   */
+  static long zeroBytes(long x) {
+    // adding 0x7F to the low seven bits sets the high bit unless they are all zero, and the
+    // sum never carries into the next byte
+    return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+  }
+
+  private static int firstLane(long found, boolean little) {
+    return (little ? Long.numberOfTrailingZeros(found) : Long.numberOfLeadingZeros(found)) >>> 3;
+  }
+
+  @Override
+  public String toString() {
+    return "swar";
+  }
+}
@@ -0,0 +1,44 @@
+package ca.jrvs.apps.grep;
+
+import java.io.IOException;
+
+/**
+ * LineSink that records the time spent writing in GrepMetrics. Only used when metrics are
+ * enabled.
+ */
+public class TimedLineSink implements LineSink {
+
+  private final LineSink sink;
+  private final GrepMetrics metrics;
+
+  public TimedLineSink(LineSink sink, GrepMetrics metrics) {
+    this.sink = sink;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void write(String line) throws IOException {
+    long start = System.nanoTime();
+    sink.write(line);
+    metrics.recordWrite(System.nanoTime() - start);
+  }
+
+  @Override
+  public long count() {
+    return sink.count();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    long start = System.nanoTime();
+    sink.flush();
+    metrics.recordWrite(System.nanoTime() - start);
+  }
+
+  @Override
+  public void close() throws IOException {
+    long start = System.nanoTime();
+    sink.close();
+    metrics.recordWrite(System.nanoTime() - start);
+  }
+}
@@ -0,0 +1,669 @@
+package ca.jrvs.apps.grep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk trigram index over the files of a root. For each 3-byte sequence it stores the
+ * sorted ids of the files containing it, so a regex turned into a LiteralQuery only has to
+ * open the files that contain every trigram of its required literals. Candidates still need
+ * to be confirmed with the real matcher.
+ *
+ * Bytes are indexed with US-ASCII letters lower-cased, so the same index serves case
+ * sensitive and (?i) queries. Trigrams spanning a line break are skipped since no match can.
+ *
+ * The index is refreshed incrementally: files whose path, size and mtime are unchanged keep
+ * their postings from the previous index and are never read again. Files modified within
+ * ResultCache.RACY_MILLIS before the previous update started are read again, since they may
+ * have been rewritten to the same size within the same mtime tick. At query time the index
+ * file is memory mapped and the trigram table is binary searched in place.
+ *
+ * The (trigram, file) pairs of an update are sorted with an external merge sort, in runs of
+ * at most DEFAULT_RUN_PAIRS spilled next to the index, so the heap the postings take
+ * doesn't grow with the tree. Postings offsets are longs and the postings are mapped in windows of
+ * SEGMENT_BYTES, so only the file list and the trigram table have to fit in 2 GB.
+ *
+ * File layout (big-endian):
+ * magic, version, writtenMillis, fileCount, fileCount x (pathLength, UTF-8 path, size, mtime),
+ * trigramCount, trigramCount x (trigram, postingsStart (long), postingsCount), postings (int ids)
+ */
+public class TrigramIndex {
+
+  private static final Logger logger = LoggerFactory.getLogger(TrigramIndex.class);
+
+  private static final int MAGIC = 0x4A475449;
+  private static final int VERSION = 3;
+  private static final int ENTRY_BYTES = 16;
+  // 64 MB of pairs sorted in memory before a run is spilled
+  static final int DEFAULT_RUN_PAIRS = 8 * 1024 * 1024;
+  // a multiple of 4, so no posting straddles two windows
+  static final int SEGMENT_BYTES = 1 << 30;
+
+  private final long writtenMillis;
+  private final String[] paths;
+  private final long[] sizes;
+  private final long[] mtimes;
+  private final ByteBuffer buffer;
+  private final int trigramCount;
+  private final int tableStart;
+  private final ByteBuffer[] postings;
+  private final int segmentBytes;
+  private int reindexedCount;
+
+  private TrigramIndex(long writtenMillis, String[] paths, long[] sizes, long[] mtimes,
+      ByteBuffer buffer, int trigramCount, int tableStart, ByteBuffer[] postings,
+      int segmentBytes) {
+    this.writtenMillis = writtenMillis;
+    this.paths = paths;
+    this.sizes = sizes;
+    this.mtimes = mtimes;
+    this.buffer = buffer;
+    this.trigramCount = trigramCount;
+    this.tableStart = tableStart;
+    this.postings = postings;
+    this.segmentBytes = segmentBytes;
+  }
+
+  /**
+   * Memory map an existing index
+   * @param indexFile index file
+   * @return the index, or null if the file doesn't exist or isn't a valid index
+   * @throws IOException if the file cannot be read
+   */
+  public static TrigramIndex open(Path indexFile) throws IOException {
+    return open(indexFile, SEGMENT_BYTES);
+  }
+
+  /**
+   * @param segmentBytes bytes of postings per mapped window, a multiple of 4
+   * @see #open(Path)
+   */
+  static TrigramIndex open(Path indexFile, int segmentBytes) throws IOException {
+    if (!Files.isRegularFile(indexFile)) {
+      return null;
+    }
+
+    try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+      long size = channel.size();
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          Math.min(size, Integer.MAX_VALUE));
+      return read(indexFile, channel, buffer, segmentBytes);
+    }
+  }
+
+  private static TrigramIndex read(Path indexFile, FileChannel channel, ByteBuffer buffer,
+      int segmentBytes) throws IOException {
+    if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      logger.warn("Ignoring invalid trigram index {}", indexFile);
+      return null;
+    }
+
+    long writtenMillis = buffer.getLong();
+    int fileCount = buffer.getInt();
+    String[] paths = new String[fileCount];
+    long[] sizes = new long[fileCount];
+    long[] mtimes = new long[fileCount];
+    for (int i = 0; i < fileCount; i++) {
+      byte[] path = new byte[buffer.getInt()];
+      buffer.get(path);
+      paths[i] = new String(path, StandardCharsets.UTF_8);
+      sizes[i] = buffer.getLong();
+      mtimes[i] = buffer.getLong();
+    }
+    int trigramCount = buffer.getInt();
+    int tableStart = buffer.position();
+    long postingsStart = tableStart + (long) trigramCount * ENTRY_BYTES;
+    if (postingsStart > buffer.limit()) {
+      throw new IOException("Trigram index " + indexFile + " is too large: its file list and"
+          + " trigram table take more than 2 GB");
+    }
+
+    long size = channel.size();
+    ByteBuffer[] postings = new ByteBuffer[(int) ((size - postingsStart + segmentBytes - 1)
+        / segmentBytes)];
+    for (int i = 0; i < postings.length; i++) {
+      long start = postingsStart + (long) i * segmentBytes;
+      postings[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+          Math.min(segmentBytes, size - start));
+    }
+    return new TrigramIndex(writtenMillis, paths, sizes, mtimes, buffer, trigramCount,
+        tableStart, postings, segmentBytes);
+  }
+
+  /**
+   * Bring the index in line with the given files and open the result. Files whose path,
+   * size and mtime match the previous index, and that weren't modified just before it was
+   * written, reuse their postings. The rest are read.
+   *
+   * @param indexFile index file, created if missing
+   * @param files current files of the root, in the order candidates should come back
+   * @return up-to-date index
+   * @throws IOException if a file or the index cannot be read or written
+   */
+  public static TrigramIndex update(Path indexFile, List<File> files) throws IOException {
+    return update(indexFile, files, DEFAULT_RUN_PAIRS);
+  }
+
+  /**
+   * @param runPairs pairs sorted in memory before a run is spilled to disk
+   * @see #update(Path, List)
+   */
+  static TrigramIndex update(Path indexFile, List<File> files, int runPairs)
+      throws IOException {
+    // files are read after this, so a rewrite they miss changes the mtime or is racy
+    long started = System.currentTimeMillis();
+    TrigramIndex previous = open(indexFile);
+    Map<String, Integer> previousIds = new HashMap<>();
+    if (previous != null) {
+      for (int i = 0; i < previous.paths.length; i++) {
+        previousIds.put(previous.paths[i], i);
+      }
+    }
+
+    int[] remap = new int[previous == null ? 0 : previous.paths.length];
+    Arrays.fill(remap, -1);
+    String[] paths = new String[files.size()];
+    long[] sizes = new long[files.size()];
+    long[] mtimes = new long[files.size()];
+    List<Integer> changed = new ArrayList<>();
+
+    for (int id = 0; id < files.size(); id++) {
+      File file = files.get(id);
+      paths[id] = file.getAbsolutePath();
+      sizes[id] = file.length();
+      mtimes[id] = file.lastModified();
+
+      Integer old = previousIds.get(paths[id]);
+      if (old != null && previous.sizes[old] == sizes[id] && previous.mtimes[old] == mtimes[id]
+          && previous.writtenMillis - mtimes[id] >= ResultCache.RACY_MILLIS) {
+        remap[old] = id;
+      }
+      else {
+        changed.add(id);
+      }
+    }
+
+    // (trigram << 32 | file id) pairs, sorted into postings lists as they are written
+    try (PairSorter pairs = new PairSorter(indexFile.toAbsolutePath().getParent(), runPairs)) {
+      if (previous != null) {
+        previous.copyPostings(remap, pairs);
+      }
+      TrigramSet trigrams = new TrigramSet();
+      for (int id : changed) {
+        trigrams.clear();
+        trigrams.addFile(files.get(id));
+        for (int i = 0; i < trigrams.size(); i++) {
+          pairs.add((long) trigrams.get(i) << 32 | id);
+        }
+      }
+      logger.info("Trigram index {}: {} files, {} re-indexed", indexFile, files.size(),
+          changed.size());
+
+      write(indexFile, started, paths, sizes, mtimes, pairs);
+    }
+    TrigramIndex index = open(indexFile);
+    index.reindexedCount = changed.size();
+    return index;
+  }
+
+  /**
+   * Files that may contain a match for the query, in index order
+   * @param query required literals of a regex
+   * @return candidate files
+   */
+  public List<File> candidates(LiteralQuery query) {
+    int[] ids = evaluate(query);
+    List<File> files = new ArrayList<>();
+    if (ids == null) {
+      for (String path : paths) {
+        files.add(new File(path));
+      }
+    }
+    else {
+      for (int id : ids) {
+        files.add(new File(paths[id]));
+      }
+    }
+    return files;
+  }
+
+  /**
+   * @return number of indexed files
+   */
+  public int size() {
+    return paths.length;
+  }
+
+  /**
+   * @return number of files that had to be read by the update that produced this index
+   */
+  public int getReindexedCount() {
+    return reindexedCount;
+  }
+
+  /**
+   * @return sorted file ids, or null for all files
+   */
+  private int[] evaluate(LiteralQuery query) {
+    switch (query.getOp()) {
+      case LITERAL:
+        return literalIds(query.getLiteral());
+      case AND: {
+        int[] result = null;
+        for (LiteralQuery operand : query.getOperands()) {
+          int[] ids = evaluate(operand);
+          result = result == null ? ids : ids == null ? result : intersect(result, ids);
+        }
+        return result;
+      }
+      case OR: {
+        int[] result = new int[0];
+        for (LiteralQuery operand : query.getOperands()) {
+          int[] ids = evaluate(operand);
+          if (ids == null) {
+            return null;
+          }
+          result = union(result, ids);
+        }
+        return result;
+      }
+      default:
+        return null;
+    }
+  }
+
+  private int[] literalIds(String literal) {
+    byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length < 3) {
+      return null;
+    }
+    int[] result = null;
+    for (int i = 0; i + 2 < bytes.length; i++) {
+      int[] ids = postings(TrigramSet.trigram(bytes[i], bytes[i + 1], bytes[i + 2]));
+      result = result == null ? ids : intersect(result, ids);
+      if (result.length == 0) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  private int[] postings(int trigram) {
+    int lo = 0;
+    int hi = trigramCount - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int entry = tableStart + mid * ENTRY_BYTES;
+      int value = buffer.getInt(entry);
+      if (value < trigram) {
+        lo = mid + 1;
+      }
+      else if (value > trigram) {
+        hi = mid - 1;
+      }
+      else {
+        long start = buffer.getLong(entry + 4);
+        int[] ids = new int[buffer.getInt(entry + 12)];
+        for (int i = 0; i < ids.length; i++) {
+          ids[i] = posting(start + i);
+        }
+        return ids;
+      }
+    }
+    return new int[0];
+  }
+
+  /**
+   * @param index index of the posting across all postings lists
+   * @return file id
+   */
+  private int posting(long index) {
+    long position = index * 4;
+    return postings[(int) (position / segmentBytes)].getInt((int) (position % segmentBytes));
+  }
+
+  private void copyPostings(int[] remap, PairSorter pairs) throws IOException {
+    for (int t = 0; t < trigramCount; t++) {
+      int entry = tableStart + t * ENTRY_BYTES;
+      long trigram = buffer.getInt(entry);
+      long start = buffer.getLong(entry + 4);
+      int count = buffer.getInt(entry + 12);
+      for (int i = 0; i < count; i++) {
+        int id = remap[posting(start + i)];
+        if (id >= 0) {
+          pairs.add(trigram << 32 | id);
+        }
+      }
+    }
+  }
+
+  /**
+   * Write the index to a temp file and move it in place. The trigram table and the postings
+   * are written to temp files of their own as the sorted pairs are read, and appended after
+   * the header once the number of trigrams is known.
+   */
+  private static void write(Path indexFile, long writtenMillis, String[] paths, long[] sizes,
+      long[] mtimes, PairSorter pairs) throws IOException {
+    Path parent = indexFile.toAbsolutePath().getParent();
+    String name = indexFile.getFileName().toString();
+    Path table = Files.createTempFile(parent, name, ".table");
+    Path postings = Files.createTempFile(parent, name, ".postings");
+    Path temp = Files.createTempFile(parent, name, ".tmp");
+    try {
+      int trigramCount = 0;
+      try (DataOutputStream tableOut = newDataOutput(table);
+          DataOutputStream postingsOut = newDataOutput(postings)) {
+        long written = 0;
+        long pair = pairs.next();
+        while (pair >= 0) {
+          int trigram = (int) (pair >>> 32);
+          int count = 0;
+          while (pair >= 0 && (int) (pair >>> 32) == trigram) {
+            postingsOut.writeInt((int) pair);
+            count++;
+            pair = pairs.next();
+          }
+          tableOut.writeInt(trigram);
+          tableOut.writeLong(written);
+          tableOut.writeInt(count);
+          written += count;
+          trigramCount++;
+        }
+      }
+
+      writeHeader(temp, writtenMillis, paths, sizes, mtimes, trigramCount);
+      try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        out.position(out.size());
+        append(table, out);
+        append(postings, out);
+      }
+      Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally {
+      Files.deleteIfExists(table);
+      Files.deleteIfExists(postings);
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private static void writeHeader(Path file, long writtenMillis, String[] paths, long[] sizes,
+      long[] mtimes, int trigramCount) throws IOException {
+    try (DataOutputStream out = newDataOutput(file)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(writtenMillis);
+      out.writeInt(paths.length);
+      for (int i = 0; i < paths.length; i++) {
+        byte[] path = paths[i].getBytes(StandardCharsets.UTF_8);
+        out.writeInt(path.length);
+        out.write(path);
+        out.writeLong(sizes[i]);
+        out.writeLong(mtimes[i]);
+      }
+      out.writeInt(trigramCount);
+    }
+  }
+
+  private static DataOutputStream newDataOutput(Path file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file),
+        WriterLineSink.DEFAULT_BUFFER_SIZE));
+  }
+
+  /**
+   * Copy a file to the position of out
+   */
+  private static void append(Path file, FileChannel out) throws IOException {
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = in.size();
+      long done = 0;
+      while (done < size) {
+        done += in.transferTo(done, size - done, out);
+      }
+    }
+  }
+
+  private static int[] intersect(int[] a, int[] b) {
+    int[] result = new int[Math.min(a.length, b.length)];
+    int n = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+      if (a[i] < b[j]) {
+        i++;
+      }
+      else if (a[i] > b[j]) {
+        j++;
+      }
+      else {
+        result[n++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  private static int[] union(int[] a, int[] b) {
+    int[] result = new int[a.length + b.length];
+    int n = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length || j < b.length) {
+      if (j >= b.length || (i < a.length && a[i] < b[j])) {
+        result[n++] = a[i++];
+      }
+      else if (i >= a.length || b[j] < a[i]) {
+        result[n++] = b[j++];
+      }
+      else {
+        result[n++] = a[i++];
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Distinct trigrams of one file. A 2^24 bit set dedupes them and is cleared through the
+   * list of set bits, so it can be reused across files without reallocating.
+   */
+  private static class TrigramSet {
+    private final long[] seen = new long[1 << 18];
+    private int[] trigrams = new int[1024];
+    private int size;
+
+    static int trigram(byte a, byte b, byte c) {
+      return (lower(a) & 0xFF) << 16 | (lower(b) & 0xFF) << 8 | (lower(c) & 0xFF);
+    }
+
+    private static byte lower(byte b) {
+      return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    void addFile(File file) throws IOException {
+      byte[] chunk = new byte[WriterLineSink.DEFAULT_BUFFER_SIZE];
+      byte b1 = '\n';
+      byte b2 = '\n';
+      try (InputStream in = Files.newInputStream(file.toPath())) {
+        int read;
+        while ((read = in.read(chunk)) > 0) {
+          for (int i = 0; i < read; i++) {
+            byte b3 = chunk[i];
+            if (b3 != '\n' && b3 != '\r' && b2 != '\n' && b2 != '\r' && b1 != '\n' && b1 != '\r') {
+              add(trigram(b1, b2, b3));
+            }
+            b1 = b2;
+            b2 = b3;
+          }
+        }
+      }
+    }
+
+    private void add(int trigram) {
+      long bit = 1L << (trigram & 63);
+      if ((seen[trigram >>> 6] & bit) == 0) {
+        seen[trigram >>> 6] |= bit;
+        if (size == trigrams.length) {
+          trigrams = Arrays.copyOf(trigrams, size * 2);
+        }
+        trigrams[size++] = trigram;
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    int get(int i) {
+      return trigrams[i];
+    }
+
+    void clear() {
+      for (int i = 0; i < size; i++) {
+        seen[trigrams[i] >>> 6] = 0;
+      }
+      size = 0;
+    }
+  }
+
+  /**
+   * External merge sort of (trigram << 32 | file id) pairs. Pairs are sorted in memory up to
+   * runPairs, then spilled to a temp file as a run; the runs are merged as the pairs are
+   * read back. Pairs are never negative, so next() ends with -1.
+   */
+  private static class PairSorter implements Closeable {
+    private final Path tempDir;
+    private final int runPairs;
+    private final List<Path> runs = new ArrayList<>();
+    private final PriorityQueue<RunReader> merge =
+        new PriorityQueue<>(Comparator.comparingLong((RunReader run) -> run.pair));
+    private long[] values = new long[1024];
+    private int size;
+    private int next = -1;
+
+    private PairSorter(Path tempDir, int runPairs) {
+      if (runPairs < 1) {
+        throw new IllegalArgumentException("runPairs must be >= 1");
+      }
+      this.tempDir = tempDir;
+      this.runPairs = runPairs;
+    }
+
+    void add(long pair) throws IOException {
+      if (size == runPairs) {
+        spill();
+      }
+      if (size == values.length) {
+        values = Arrays.copyOf(values, (int) Math.min((long) size * 2, runPairs));
+      }
+      values[size++] = pair;
+    }
+
+    /**
+     * @return the next pair in order, or -1 once every pair was read
+     */
+    long next() throws IOException {
+      if (next < 0) {
+        start();
+      }
+      if (runs.isEmpty()) {
+        return next < size ? values[next++] : -1;
+      }
+      RunReader run = merge.poll();
+      if (run == null) {
+        return -1;
+      }
+      long pair = run.pair;
+      if (run.next()) {
+        merge.add(run);
+      }
+      return pair;
+    }
+
+    private void start() throws IOException {
+      next = 0;
+      if (runs.isEmpty()) {
+        Arrays.sort(values, 0, size);
+        return;
+      }
+      if (size > 0) {
+        spill();
+      }
+      values = null;
+      for (Path run : runs) {
+        RunReader reader = new RunReader(run);
+        if (reader.next()) {
+          merge.add(reader);
+        }
+      }
+    }
+
+    private void spill() throws IOException {
+      Arrays.sort(values, 0, size);
+      Path run = Files.createTempFile(tempDir, "trigrams", ".run");
+      runs.add(run);
+      try (DataOutputStream out = newDataOutput(run)) {
+        for (int i = 0; i < size; i++) {
+          out.writeLong(values[i]);
+        }
+      }
+      size = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (RunReader run : merge) {
+        run.in.close();
+      }
+      for (Path run : runs) {
+        Files.deleteIfExists(run);
+      }
+    }
+  }
+
+  private static class RunReader {
+    private final DataInputStream in;
+    private long remaining;
+    private long pair;
+
+    private RunReader(Path run) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run),
+          WriterLineSink.DEFAULT_BUFFER_SIZE));
+      this.remaining = Files.size(run) / 8;
+    }
+
+    /**
+     * @return true if a pair was read, false at the end of the run, which is then closed
+     */
+    private boolean next() throws IOException {
+      if (remaining == 0) {
+        in.close();
+        return false;
+      }
+      remaining--;
+      pair = in.readLong();
+      return true;
+    }
+  }
+}
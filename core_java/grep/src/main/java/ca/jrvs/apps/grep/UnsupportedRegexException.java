@@ -0,0 +1,14 @@
+package ca.jrvs.apps.grep;
+
+/**
+ * Thrown by RegexParser for valid java.util.regex syntax it doesn't model (lookaround,
+ * backreferences, possessive quantifiers, ...). Callers fall back to java.util.regex.
+ */
+public class UnsupportedRegexException extends IllegalArgumentException {
+
+  private static final long serialVersionUID = 1L;
+
+  public UnsupportedRegexException(String regex, int index, String construct) {
+    super("Unsupported " + construct + " at index " + index + " in " + regex);
+  }
+}
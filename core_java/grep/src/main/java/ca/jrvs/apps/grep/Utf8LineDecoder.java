@@ -0,0 +1,57 @@
+package ca.jrvs.apps.grep;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes single lines of UTF-8 bytes into one reusable CharBuffer, so decoding a line
+ * allocates nothing once the buffer is big enough. The returned buffer is only valid until
+ * the next call. Not thread-safe.
+ */
+final class Utf8LineDecoder {
+
+  private final CharsetDecoder decoder = newDecoder();
+  private ByteBuffer source;
+  private ByteBuffer view;
+  private CharBuffer chars = CharBuffer.allocate(256);
+
+  /**
+   * Decoder that replaces malformed input, the same as new String(bytes, UTF_8) and
+   * InputStreamReader do
+   */
+  static CharsetDecoder newDecoder() {
+    return StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /**
+   * @param buffer bytes to decode from, left untouched
+   * @param start first byte of the line
+   * @param end byte after the line
+   * @return decoded line, overwritten by the next call
+   */
+  CharBuffer decode(ByteBuffer buffer, int start, int end) {
+    if (buffer != source) {
+      source = buffer;
+      view = buffer.duplicate();
+    }
+    view.limit(view.capacity());
+    view.position(start);
+    view.limit(end);
+
+    // UTF-8 never decodes to more chars than bytes
+    if (chars.capacity() < end - start) {
+      chars = CharBuffer.allocate(end - start);
+    }
+    chars.clear();
+    decoder.reset();
+    decoder.decode(view, chars, true);
+    decoder.flush(chars);
+    chars.flip();
+    return chars;
+  }
+}
@@ -0,0 +1,76 @@
+package ca.jrvs.apps.grep;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LineSink backed by a BufferedWriter. Memory use is bounded by the writer buffer no
+ * matter how many lines pass through it.
+ */
+public class WriterLineSink implements LineSink {
+
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private final BufferedWriter writer;
+  private long count;
+
+  public WriterLineSink(Writer writer, int bufferSize) {
+    this.writer = new BufferedWriter(writer, bufferSize);
+  }
+
+  /**
+   * Open a sink that truncates and writes UTF-8 to the given file
+   * @param outFile output file
+   * @return sink over the file
+   * @throws IOException if the file cannot be opened
+   */
+  public static WriterLineSink open(File outFile) throws IOException {
+    return open(outFile, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param bufferSize size of the writer buffer in chars
+   * @see #open(File)
+   */
+  public static WriterLineSink open(File outFile, int bufferSize) throws IOException {
+    return open(outFile, bufferSize, false);
+  }
+
+  /**
+   * @param append true to write after what the file already has instead of truncating it
+   * @see #open(File, int)
+   */
+  public static WriterLineSink open(File outFile, int bufferSize, boolean append)
+      throws IOException {
+    return new WriterLineSink(
+        new OutputStreamWriter(new FileOutputStream(outFile, append), StandardCharsets.UTF_8),
+        bufferSize);
+  }
+
+  @Override
+  public void write(String line) throws IOException {
+    writer.write(line);
+    writer.newLine();
+    count++;
+  }
+
+  @Override
+  public long count() {
+    return count;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+}
@@ -0,0 +1,195 @@
+package ca.jrvs.apps.grep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Scans the entries of a zip or jar archive.
+ *
+ * The archive is opened with ZipFile, which reads the central directory and can open any
+ * entry on its own, so entries are decompressed and matched in parallel. Entries are streamed
+ * line by line and their matches are written in archive order through OrderedSlots, so memory
+ * stays bounded by the in-flight window rather than by the archive size.
+ *
+ * Every matched line is labelled with where it came from: "archive!entry:line". Entries
+ * that look binary are handled by the binary policy, TEXT unless one is set.
+ */
+public class ZipEntryScanner {
+
+  private final int threads;
+  private final int window;
+  private BinaryPolicy binaryPolicy = BinaryPolicy.TEXT;
+  private GrepMetrics metrics;
+
+  public ZipEntryScanner(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be >= 1");
+    }
+    this.threads = threads;
+    this.window = threads * 4;
+  }
+
+  /**
+   * @param binaryPolicy what to do with entries that look binary
+   * @param metrics metrics that count skipped entries, or null
+   */
+  public void setBinaryPolicy(BinaryPolicy binaryPolicy, GrepMetrics metrics) {
+    this.binaryPolicy = binaryPolicy;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Scan every entry of an archive and write matched lines to the sink in entry order
+   * @param archive zip or jar file
+   * @param stages creates the match stage of one entry for a given sink
+   * @param sink destination of matched lines
+   * @return number of matched lines
+   * @throws IOException if the archive could not be read or the sink failed
+   */
+  public long scan(File archive, Function<LineSink, MatchStage> stages, LineSink sink)
+      throws IOException {
+    return scan(archive, stages, Long.MAX_VALUE, sink);
+  }
+
+  /**
+   * Scan the entries of an archive until limit lines have matched. With one thread, each
+   * entry only gets the matches left to the limit, so exactly the first limit matched lines
+   * are written. With more, entries in flight can write matched lines past the limit.
+   * @param limit number of matched lines after which the remaining entries are skipped
+   * @return number of matched lines, at most limit
+   * @see #scan(File, Function, LineSink)
+   */
+  public long scan(File archive, Function<LineSink, MatchStage> stages, long limit,
+      LineSink sink) throws IOException {
+    try (ZipFile zip = new ZipFile(archive, StandardCharsets.UTF_8)) {
+      List<ZipEntry> entries = fileEntries(zip);
+
+      if (threads == 1) {
+        long matched = 0;
+        for (ZipEntry entry : entries) {
+          matched += scanEntry(archive, zip, entry, stages, limit - matched, sink);
+          if (matched >= limit) {
+            break;
+          }
+        }
+        return matched;
+      }
+
+      Iterator<ZipEntry> it = entries.iterator();
+      return OrderedSlots.run(new Iterator<OrderedSlots.Piece>() {
+        @Override
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        @Override
+        public OrderedSlots.Piece next() {
+          ZipEntry entry = it.next();
+          return slot -> scanEntry(archive, zip, entry, stages, limit, slot);
+        }
+      }, threads, window, limit, sink);
+    }
+  }
+
+  /**
+   * Lines of every entry of an archive, each labelled like scan() labels its matches
+   * @param archive zip or jar file
+   * @return stream of lines that must be closed
+   * @throws IOException if the archive could not be opened
+   */
+  public static Stream<String> lines(File archive) throws IOException {
+    ZipFile zip = new ZipFile(archive, StandardCharsets.UTF_8);
+    return fileEntries(zip).stream()
+        .flatMap(entry -> {
+          BufferedReader reader;
+          try {
+            reader = openEntry(zip, entry);
+          }
+          catch (IOException e) {
+            throw new UncheckedIOException("Failed to open entry " + entry.getName(), e);
+          }
+          String prefix = prefix(archive, entry);
+          return reader.lines().map(line -> prefix + line).onClose(() -> close(reader));
+        })
+        .onClose(() -> close(zip));
+  }
+
+  private long scanEntry(File archive, ZipFile zip, ZipEntry entry,
+      Function<LineSink, MatchStage> stages, long limit, LineSink sink) throws IOException {
+    MatchStage stage = stages.apply(new PrefixLineSink(prefix(archive, entry), sink));
+    stage.setLimit(limit);
+    try (InputStream in = new BufferedInputStream(zip.getInputStream(entry),
+        WriterLineSink.DEFAULT_BUFFER_SIZE)) {
+      boolean binary = binaryPolicy != BinaryPolicy.TEXT && BinaryDetector.isBinary(in);
+      if (binary && binaryPolicy == BinaryPolicy.SKIP) {
+        GrepMetrics runMetrics = metrics;
+        if (runMetrics != null) {
+          runMetrics.recordBinarySkipped(Math.max(0, entry.getCompressedSize()));
+        }
+        return 0;
+      }
+
+      // a stage without a sink only counts already
+      boolean countOnly = binary && stage.sink != null;
+      MatchStage target = stage;
+      if (countOnly) {
+        target = new CountStage(stage.matcher);
+        target.setLimit(limit);
+      }
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(in, StandardCharsets.UTF_8), WriterLineSink.DEFAULT_BUFFER_SIZE);
+      String line = reader.readLine();
+      while (line != null) {
+        target.accept(line);
+        if (target.isDone()) {
+          break;
+        }
+        line = reader.readLine();
+      }
+      if (countOnly && target.getMatched() > 0) {
+        sink.write(BinaryDetector.matchLine(archive.getPath() + "!" + entry.getName(),
+            target.getMatched()));
+      }
+      return target.getMatched();
+    }
+  }
+
+  static List<ZipEntry> fileEntries(ZipFile zip) {
+    return Collections.list(zip.entries()).stream()
+        .filter(entry -> !entry.isDirectory())
+        .collect(Collectors.toList());
+  }
+
+  private static BufferedReader openEntry(ZipFile zip, ZipEntry entry) throws IOException {
+    return new BufferedReader(
+        new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8),
+        WriterLineSink.DEFAULT_BUFFER_SIZE);
+  }
+
+  static String prefix(File archive, ZipEntry entry) {
+    return archive.getPath() + "!" + entry.getName() + ":";
+  }
+
+  private static void close(AutoCloseable closeable) {
+    try {
+      closeable.close();
+    }
+    catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
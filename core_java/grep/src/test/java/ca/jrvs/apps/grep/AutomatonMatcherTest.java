@@ -0,0 +1,120 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+public class AutomatonMatcherTest {
+
+  private static final String[] LINES = {
+      "",
+      "a",
+      "b",
+      "Romeo and Juliet",
+      "romeo AND juliet",
+      "ERROR request timeout=250",
+      "ERROR request timeout=",
+      "error: a.b.c [x] (y) {z}",
+      "aaaaaaaaaaaaaaaaaaab",
+      "ababababab",
+      "tab\there",
+      "end\n",
+      "end\r\n",
+      "end\r",
+      "end\n\n",
+      "\n",
+      "x\u2028",
+      "\u00c9t\u00e9 \u00e0 Paris",
+      "smile \ud83d\ude00 ok",
+      "\ud83d\ude00",
+      "lone \ud83d high",
+      "lone \ude00 low"
+  };
+
+  private static final String[] REGEXES = {
+      "Romeo.*Juliet", "^Romeo", "Juliet$", "^$", "^", "$", "timeout=\\d+", "timeout=\\d*$",
+      "a+b", "(a+)+b", "(ab)+", "(ab){2,3}b", "(ab){5}", "a{3,}b", "[xyz]", "[^a-z ]",
+      "Romeo|error", "(?i)romeo.*juliet", "(?i)[a-c]{3}", "(?i)PARIS|\u00e9t\u00e9", "a?b?c?",
+      "x*", "\\w+\\s\\w+", "\\W\\W", "\\S$", "end$", "end\\n$", "end$\\n", "end\\r$", "d$\\r",
+      "$\\n", "^\\n$", ".$", "^.$", "^..$", "^[^a]$", "\\D{2}", "(?:a|b|)c?$",
+      "\\.\\w\\.", "[\\[\\]()]{2}", "\\Q(y)\\E", "\\t", "\\x41|\\u0052", "(a|ab)(c|bcd)?$",
+      " \\W ", "[^\\s]k", "^.{6}\\W"
+  };
+
+  @Test
+  public void testSameAsPattern() {
+    for (String regex : REGEXES) {
+      AutomatonMatcher matcher = AutomatonMatcher.compile(regex);
+      assertSameAsPattern(regex, matcher);
+      // a second pass runs over the cached DFA states
+      assertSameAsPattern(regex, matcher);
+    }
+  }
+
+  @Test
+  public void testTinyStateCacheGivesSameResults() {
+    for (String regex : REGEXES) {
+      for (int cacheStates : new int[] {1, 2, 5}) {
+        assertSameAsPattern(regex, new AutomatonMatcher(RegexParser.parse(regex), null,
+            cacheStates));
+      }
+    }
+  }
+
+  @Test
+  public void testCatastrophicPatternRunsInLinearTime() {
+    char[] as = new char[100000];
+    Arrays.fill(as, 'a');
+    // the b at the end gets past the literal prefilter, so the automaton reads every a
+    String line = new String(as) + "!b";
+    LineMatcher matcher = LineMatchers.compile("(a+)+b", RegexEngine.AUTOMATON);
+    assertTrue(matcher instanceof AutomatonMatcher, matcher.toString());
+
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      assertFalse(matcher.find(line));
+      assertFalse(LineMatchers.compile("(a+a+)+c", RegexEngine.AUTOMATON).find(line + "c"));
+      assertTrue(matcher.find(line + "ab"));
+    });
+  }
+
+  @Test
+  public void testUnsupportedPatternsUseJavaRegex() {
+    for (String regex : new String[] {"(a)\\1", "\\bRomeo", "Rom(?=eo)", "a++b", "a{20000}"}) {
+      LineMatcher matcher = LineMatchers.compile(regex, RegexEngine.AUTOMATON);
+      assertTrue(matcher instanceof RegexLineMatcher, regex + " -> " + matcher);
+    }
+    assertThrows(UnsupportedRegexException.class, () -> AutomatonMatcher.compile("\ud83d\ude00"));
+
+    // literals keep the literal path with either engine
+    assertTrue(LineMatchers.compile("Romeo", RegexEngine.AUTOMATON) instanceof LiteralMatcher);
+  }
+
+  @Test
+  public void testPatternFileWithAutomaton() {
+    MultiPatternMatcher matcher = new MultiPatternMatcher(
+        Arrays.asList("timeout=\\d+", "Romeo", "(?i)juliet$", "(a+)+b"), new int[] {1, 2, 3, 4},
+        RegexEngine.AUTOMATON);
+
+    assertTrue(matcher.find("ERROR request timeout=250"));
+    assertTrue(matcher.find("romeo AND juliet"));
+    assertFalse(matcher.find("romeo AND juliet!"));
+    assertEquals(Arrays.asList(2, 3), matcher.matchingIds("Romeo and Juliet"));
+    assertEquals(Collections.singletonList(4), matcher.matchingIds("aaab"));
+  }
+
+  private static void assertSameAsPattern(String regex, LineMatcher matcher) {
+    Pattern expected = Pattern.compile(regex);
+    for (String line : LINES) {
+      assertEquals(expected.matcher(line).find(), matcher.find(line),
+          "regex [" + regex + "] line [" + line + "]");
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BinaryDetectorTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testDetect() throws IOException {
+    assertFalse(binary("plain ascii\n"));
+    assertFalse(binary("caf\u00e9 \u4e2d\u6587 \ud83d\ude00\n"));
+    assertTrue(binary("text\0more"));
+    // a lone continuation byte, an overlong slash, a surrogate and a code point past U+10FFFF
+    assertTrue(isBinary(new byte[] {'a', (byte) 0x80}, true));
+    assertTrue(isBinary(new byte[] {(byte) 0xc0, (byte) 0xaf}, true));
+    assertTrue(isBinary(new byte[] {(byte) 0xed, (byte) 0xa0, (byte) 0x80}, true));
+    assertTrue(isBinary(new byte[] {(byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80}, true));
+    // a sequence cut off by the end of the block is only invalid at the end of the file
+    byte[] cut = {'a', (byte) 0xe4, (byte) 0xb8};
+    assertFalse(isBinary(cut, false));
+    assertTrue(isBinary(cut, true));
+
+    // the stream is reset to its start
+    byte[] bytes = new byte[BinaryDetector.BLOCK_SIZE * 2];
+    Arrays.fill(bytes, (byte) 'x');
+    bytes[BinaryDetector.BLOCK_SIZE] = 0;
+    InputStream in = new ByteArrayInputStream(bytes);
+    assertFalse(BinaryDetector.isBinary(in));
+    assertEquals('x', in.read());
+  }
+
+  @Test
+  public void testPolicies() throws IOException {
+    Path root = Files.createDirectory(tempDir.resolve("root"));
+    Path text = root.resolve("a.log");
+    Files.write(text, Arrays.asList("ERROR text", "INFO text"), StandardCharsets.UTF_8);
+    Path binary = root.resolve("b.bin");
+    Files.write(binary, "ERROR one\0\nERROR two\nINFO\n".getBytes(StandardCharsets.UTF_8));
+    Path archive = root.resolve("c.zip");
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive))) {
+      zip.putNextEntry(new ZipEntry("d.log"));
+      zip.write("ERROR zipped\n".getBytes(StandardCharsets.UTF_8));
+      zip.putNextEntry(new ZipEntry("e.bin"));
+      zip.write("ERROR \0zipped\n".getBytes(StandardCharsets.UTF_8));
+    }
+    String entry = archive + "!e.bin";
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    grep.setRootPath(root.toString());
+    Path out = tempDir.resolve("out.txt");
+    grep.setOutFile(out.toString());
+    Path metrics = tempDir.resolve("metrics.json");
+
+    String zipped = archive + "!d.log:ERROR zipped";
+    for (boolean pipeline : new boolean[] {false, true}) {
+      grep.setPipeline(pipeline);
+      grep.setMetricsFile(null);
+      grep.setBinaryPolicy(BinaryPolicy.TEXT);
+      grep.process();
+      assertEquals(Arrays.asList(zipped, entry + ":ERROR \0zipped", "ERROR one\0",
+          "ERROR text", "ERROR two"), sorted(out), "pipeline " + pipeline);
+
+      grep.setBinaryPolicy(BinaryPolicy.COUNT);
+      grep.process();
+      assertEquals(Arrays.asList(zipped, "Binary file " + binary + ": 2 matched lines",
+          "Binary file " + entry + ": 1 matched lines", "ERROR text"), sorted(out),
+          "pipeline " + pipeline);
+
+      grep.setBinaryPolicy(BinaryPolicy.SKIP);
+      grep.setMetricsFile(metrics.toString());
+      grep.process();
+      assertEquals(Arrays.asList(zipped, "ERROR text"), sorted(out), "pipeline " + pipeline);
+      String json = new String(Files.readAllBytes(metrics), StandardCharsets.UTF_8);
+      assertTrue(json.contains("\"binarySkippedFiles\": 2"), json);
+    }
+
+    // counts keep their format, and skipped files count 0
+    grep.setPipeline(false);
+    grep.setMetricsFile(null);
+    grep.setOutputMode(OutputMode.COUNT);
+    grep.process();
+    assertEquals(Arrays.asList(text + ":1", binary + ":0", archive + ":1"), sorted(out));
+    grep.setBinaryPolicy(BinaryPolicy.COUNT);
+    grep.process();
+    assertEquals(Arrays.asList(text + ":1", binary + ":2", archive + ":2"), sorted(out));
+
+    // lists of lines leave binary files out
+    assertTrue(grep.readLines(binary.toFile()).isEmpty());
+    grep.setBinaryPolicy(BinaryPolicy.TEXT);
+    assertEquals(3, grep.readLines(binary.toFile()).size());
+  }
+
+  @Test
+  public void testFilesAreOpenedOnce() throws IOException {
+    Path root = Files.createDirectory(tempDir.resolve("root"));
+    Path text = root.resolve("a.log");
+    Files.write(text, Arrays.asList("ERROR text", "INFO text"), StandardCharsets.UTF_8);
+    Path binary = root.resolve("b.bin");
+    Files.write(binary, "ERROR one\0\nERROR two\n".getBytes(StandardCharsets.UTF_8));
+    AtomicInteger opened = new AtomicInteger();
+    JavaGrepImp grep = new JavaGrepImp() {
+      @Override
+      protected InputStream openStream(File inputFile) throws IOException {
+        opened.incrementAndGet();
+        return super.openStream(inputFile);
+      }
+    };
+    grep.setRegex("ERROR");
+    grep.setRootPath(root.toString());
+    Path out = tempDir.resolve("out.txt");
+    grep.setOutFile(out.toString());
+    List<String> expected = Arrays.asList("Binary file " + binary + ": 2 matched lines",
+        "ERROR text");
+
+    grep.process();
+    assertEquals(expected, sorted(out));
+    assertEquals(2, opened.get());
+
+    // mapped files are checked on the channel they are scanned from
+    grep.setMmapThreshold(0);
+    grep.process();
+    assertEquals(expected, sorted(out));
+    assertEquals(2, opened.get());
+    try (FileChannel channel = FileChannel.open(binary)) {
+      assertTrue(BinaryDetector.isBinary(channel));
+      assertEquals(0, channel.position());
+    }
+  }
+
+  /**
+   * @return lines of the output in order, since the walk order depends on the file system
+   */
+  private static List<String> sorted(Path out) throws IOException {
+    List<String> lines = Files.readAllLines(out);
+    Collections.sort(lines);
+    return lines;
+  }
+
+  private static boolean binary(String text) {
+    return isBinary(text.getBytes(StandardCharsets.UTF_8), true);
+  }
+
+  private static boolean isBinary(byte[] bytes, boolean complete) {
+    return BinaryDetector.isBinary(bytes, bytes.length, complete);
+  }
+}
@@ -0,0 +1,70 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class ByteScannerTest {
+
+  @Test
+  public void testSwarMatchesScalar() {
+    Random random = new Random(7);
+    byte[] alphabet = {'a', 'E', '\n', '\r', (byte) 0x80, (byte) 0xC3, (byte) 0xFF, 0, 0x7F};
+    for (int round = 0; round < 200; round++) {
+      byte[] bytes = new byte[random.nextInt(40)];
+      for (int i = 0; i < bytes.length; i++) {
+        // mostly plain bytes, so matches land in every lane and in the tail
+        bytes[i] = random.nextInt(6) == 0 ? alphabet[random.nextInt(alphabet.length)] : (byte) 'x';
+      }
+
+      ByteBuffer heap = ByteBuffer.wrap(bytes);
+      ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+      direct.put(bytes);
+      for (ByteBuffer buffer : new ByteBuffer[] {heap, direct}) {
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+          buffer.order(order);
+          for (int from = 0; from <= bytes.length; from++) {
+            for (int to = from; to <= bytes.length; to++) {
+              assertKernelsAgree(buffer, order, from, to);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static void assertKernelsAgree(ByteBuffer buffer, ByteOrder order, int from, int to) {
+    String message = order + " [" + from + ", " + to + ")";
+    ByteScanner scalar = ByteScanner.SCALAR;
+    ByteScanner swar = ByteScanner.SWAR;
+    assertEquals(scalar.indexOfLineBreak(buffer, from, to),
+        swar.indexOfLineBreak(buffer, from, to), message);
+    assertEquals(scalar.isAscii(buffer, from, to), swar.isAscii(buffer, from, to), message);
+    for (byte b : new byte[] {'E', 0, (byte) 0x80, (byte) 0xFF, 0x7F}) {
+      assertEquals(scalar.indexOf(buffer, b, from, to), swar.indexOf(buffer, b, from, to),
+          message + " " + b);
+    }
+  }
+
+  @Test
+  public void testZeroBytes() {
+    assertEquals(0x8000000000000080L, SwarByteScanner.zeroBytes(0x00FFFFFF01018000L));
+    // a zero byte doesn't flag the 0x01 next to it, which the usual (x - 0x01..) trick does
+    assertEquals(0x0000000000000080L, SwarByteScanner.zeroBytes(0x0101010101010100L));
+    assertEquals(0, SwarByteScanner.zeroBytes(0x8080808080808080L));
+  }
+
+  @Test
+  public void testSelect() {
+    assertSame(ByteScanner.SWAR, ByteScanner.select(null, "amd64"));
+    assertSame(ByteScanner.SCALAR, ByteScanner.select(null, "s390x"));
+    assertSame(ByteScanner.SCALAR, ByteScanner.select("Scalar", "amd64"));
+    assertSame(ByteScanner.SWAR, ByteScanner.select("swar", "s390x"));
+    assertThrows(IllegalArgumentException.class, () -> ByteScanner.select("avx", "amd64"));
+  }
+}
@@ -0,0 +1,112 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ChannelLineSinkTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testSameBytesAsWriterLineSink() throws IOException {
+    String sep = System.lineSeparator();
+    ByteBuffer buffer = ByteBuffer.wrap(("one" + sep + "two\r\nthree" + sep + "four")
+        .getBytes(StandardCharsets.US_ASCII));
+    int two = 3 + sep.length();
+    int three = two + 5;
+    int four = three + 5 + sep.length();
+
+    char[] longLine = new char[100];
+    Arrays.fill(longLine, '\u00e9');
+    List<Object> lines = new ArrayList<>();
+    // enough lines for several flushes of the ranges and of the staging buffer
+    for (int i = 0; i < 800; i++) {
+      lines.add("caf\u00e9 " + i);
+      lines.add(new ByteCharSequence(buffer, 0, 3));
+      lines.add(new ByteCharSequence(buffer, two, 3));
+      lines.add(new ByteCharSequence(buffer, three, 5));
+      lines.add(new ByteCharSequence(buffer, four, 4));
+      lines.add(i % 100 == 0 ? new String(longLine) : "lone \ud800 surrogate");
+    }
+
+    Path expected = tempDir.resolve("expected.txt");
+    Path actual = tempDir.resolve("actual.txt");
+    try (LineSink writer = WriterLineSink.open(expected.toFile());
+        ChannelLineSink channel = new ChannelLineSink(open(actual), 16)) {
+      for (Object line : lines) {
+        writer.write(line.toString());
+        if (line instanceof ByteCharSequence) {
+          channel.write((ByteCharSequence) line);
+        }
+        else {
+          channel.write((String) line);
+        }
+      }
+      assertEquals(lines.size(), channel.count());
+    }
+    assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+  }
+
+  @Test
+  public void testWholeFileHitIsTransferred() throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (int line = 0; text.length() < 2 * ChannelLineSink.TRANSFER_THRESHOLD; line++) {
+      text.append("line ").append(line).append(System.lineSeparator());
+    }
+    Path input = tempDir.resolve("input.txt");
+    Files.write(input, text.toString().getBytes(StandardCharsets.US_ASCII));
+
+    Path out = tempDir.resolve("out.txt");
+    try (ChannelLineSink sink = new ChannelLineSink(open(out), 1024)) {
+      MatchStage stage = new MatchStage(LineMatchers.compile("line"), sink);
+      new MappedFileScanner().scan(input.toFile(), stage);
+      // every line matched, so the file went out in one piece
+      assertEquals(Files.size(input), sink.getTransferred());
+    }
+    assertArrayEquals(Files.readAllBytes(input), Files.readAllBytes(out));
+  }
+
+  @Test
+  public void testProcessWritesMappedMatches() throws IOException {
+    Path root = Files.createDirectory(tempDir.resolve("root"));
+    List<String> lines = new ArrayList<>();
+    for (int line = 0; line < 20000; line++) {
+      String suffix = line % 7 == 0 ? " \u00e9t\u00e9" : "";
+      lines.add((line % 3 == 0 ? "ERROR " : "INFO ") + line + suffix);
+    }
+    Files.write(root.resolve("a.log"), lines, StandardCharsets.UTF_8);
+    Files.write(root.resolve("b.log"), "ERROR crlf\r\nERROR last".getBytes(
+        StandardCharsets.UTF_8));
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(tempDir.resolve("buffered.txt").toString());
+    grep.process();
+    grep.setMmapThreshold(0);
+    grep.setOutFile(tempDir.resolve("mapped.txt").toString());
+    grep.process();
+
+    List<String> mapped = Files.readAllLines(tempDir.resolve("mapped.txt"));
+    assertTrue(mapped.contains("ERROR last"));
+    assertEquals(Files.readAllLines(tempDir.resolve("buffered.txt")), mapped);
+  }
+
+  private static FileChannel open(Path path) throws IOException {
+    return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+  }
+}
@@ -0,0 +1,85 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class CharBufferLineScannerTest {
+
+  private static final String[] INPUTS = {
+      "",
+      "one line",
+      "a\nb\r\nc\rd",
+      "trailing\n",
+      "\n\n\r\n\r\r\n",
+      "caf\u00e9 \u0436\u0443\u043a \u65e5\u672c \ud83d\ude00\r\nnext \u00e9\r",
+      "a line much longer than the tiny buffers used below, so the buffer has to grow\nok"
+  };
+
+  @Test
+  public void testSameLinesAsReadLine() throws IOException {
+    for (String input : INPUTS) {
+      byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+      List<String> expected = readLines(bytes);
+      // buffer sizes that split \r\n pairs and multi-byte chars between reads
+      for (int bufferSize : new int[] {1, 2, 3, 7, 64, CharBufferLineScanner.DEFAULT_BUFFER_SIZE}) {
+        assertEquals(expected, scan(new CharBufferLineScanner(bufferSize), bytes),
+            "buffer " + bufferSize + " input [" + input + "]");
+      }
+    }
+  }
+
+  @Test
+  public void testMalformedInputIsReplaced() throws IOException {
+    byte[] bytes = {'o', 'k', (byte) 0xC3, '\n', (byte) 0xFF, (byte) 0xE2, (byte) 0x82, 'x'};
+    assertEquals(readLines(bytes), scan(new CharBufferLineScanner(2), bytes));
+  }
+
+  @Test
+  public void testScannerIsReusedAcrossStreams() throws IOException {
+    CharBufferLineScanner scanner = new CharBufferLineScanner(4);
+    for (String input : INPUTS) {
+      byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+      assertEquals(readLines(bytes), scan(scanner, bytes));
+    }
+  }
+
+  @Test
+  public void testOnlyMatchedLinesAreWritten() throws IOException {
+    ListLineSink sink = new ListLineSink();
+    MatchStage stage = new MatchStage(LineMatchers.compile("[a-c]$"), sink);
+    stage.setLimit(2);
+    byte[] bytes = "xa\nxy\nxb\nxc\n".getBytes(StandardCharsets.UTF_8);
+    new CharBufferLineScanner(3).scan(new ByteArrayInputStream(bytes), stage);
+
+    assertEquals(Arrays.asList("xa", "xb"), sink.getLines());
+  }
+
+  private static List<String> scan(CharBufferLineScanner scanner, byte[] bytes)
+      throws IOException {
+    ListLineSink sink = new ListLineSink();
+    scanner.scan(new ByteArrayInputStream(bytes), new MatchStage(line -> true, sink));
+    return sink.getLines();
+  }
+
+  private static List<String> readLines(byte[] bytes) throws IOException {
+    List<String> lines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new ByteArrayInputStream(bytes), StandardCharsets.UTF_8))) {
+      String line = reader.readLine();
+      while (line != null) {
+        lines.add(line);
+        line = reader.readLine();
+      }
+    }
+    return lines;
+  }
+}
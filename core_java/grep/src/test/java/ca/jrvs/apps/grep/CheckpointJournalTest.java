@@ -0,0 +1,169 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CheckpointJournalTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testResumeCutsOutputBackToCheckpoint() throws IOException {
+    Path journalFile = tempDir.resolve("run.journal");
+    File out = tempDir.resolve("out.txt").toFile();
+    File a = tempDir.resolve("a.log").toFile();
+    File b = tempDir.resolve("b.log").toFile();
+
+    try (CheckpointJournal journal = CheckpointJournal.create(journalFile, out, "key", 60_000);
+        LineSink sink = WriterLineSink.open(out)) {
+      sink.write("a1");
+      sink.write("a2");
+      journal.completed(a, 2, sink);
+      journal.checkpoint(sink);
+      // b is written but the run dies before the next checkpoint
+      sink.write("b1");
+      journal.completed(b, 1, sink);
+    }
+    assertEquals(Arrays.asList("a1", "a2", "b1"), Files.readAllLines(out.toPath()));
+
+    assertThrows(IllegalArgumentException.class,
+        () -> CheckpointJournal.resume(journalFile, out, "other", 60_000));
+    try (CheckpointJournal journal = CheckpointJournal.resume(journalFile, out, "key", 60_000)) {
+      assertTrue(journal.isResumed());
+      assertTrue(journal.isDone(a));
+      assertFalse(journal.isDone(b));
+      assertEquals(1, journal.getResumedFiles());
+      assertEquals(2, journal.getResumedMatched());
+    }
+    assertEquals(Arrays.asList("a1", "a2"), Files.readAllLines(out.toPath()));
+  }
+
+  @Test
+  public void testTornCheckpointIsDropped() throws IOException {
+    Path journalFile = tempDir.resolve("run.journal");
+    File out = tempDir.resolve("out.txt").toFile();
+    File a = tempDir.resolve("a.log").toFile();
+    try (CheckpointJournal journal = CheckpointJournal.create(journalFile, out, "key", 0);
+        LineSink sink = WriterLineSink.open(out)) {
+      sink.write("a1");
+      journal.completed(a, 1, sink);
+    }
+    long length = Files.size(journalFile);
+    // a count and one hash of a checkpoint whose totals never made it
+    Files.write(journalFile, new byte[] {0, 0, 0, 1, 1, 2, 3, 4, 5, 6, 7, 8},
+        StandardOpenOption.APPEND);
+
+    try (CheckpointJournal journal = CheckpointJournal.resume(journalFile, out, "key", 0)) {
+      assertTrue(journal.isDone(a));
+      assertEquals(1, journal.getResumedFiles());
+    }
+    assertEquals(length, Files.size(journalFile));
+
+    assertTrue(out.delete());
+    assertThrows(IOException.class, () -> CheckpointJournal.resume(journalFile, out, "key", 0));
+  }
+
+  @Test
+  public void testProcessResumes() throws IOException {
+    Path root = writeLogs();
+    Path out = tempDir.resolve("out.txt");
+    Path journalFile = tempDir.resolve("run.journal");
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(out.toString());
+    grep.process();
+    byte[] expected = Files.readAllBytes(out);
+
+    for (String mode : new String[] {"sequential", "threads", "pipeline"}) {
+      grep.setThreads(mode.equals("threads") ? 2 : 1);
+      grep.setPipeline(mode.equals("pipeline"));
+      grep.setCheckpointFile(journalFile.toString());
+      grep.setCheckpointInterval(0);
+      grep.setResume(false);
+      grep.process();
+      assertArrayEquals(expected, Files.readAllBytes(out), mode);
+
+      // keep two checkpoints of one file each and part of the third, and leave output of
+      // the third file behind as if the run died there
+      try (FileChannel journal = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+        journal.truncate(16 + 2 * 36 + 20);
+      }
+      Files.write(out, Arrays.asList("ERROR written after the checkpoint"),
+          StandardOpenOption.APPEND);
+
+      grep.setResume(true);
+      grep.process();
+      assertArrayEquals(expected, Files.readAllBytes(out), mode);
+    }
+  }
+
+  @Test
+  public void testJournalTotalsAreMatchedLines() throws IOException {
+    Path root = writeLogs();
+    Path out = tempDir.resolve("out.txt");
+    Path journalFile = tempDir.resolve("run.journal");
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(out.toString());
+    grep.setOutputMode(OutputMode.COUNT);
+    grep.setCheckpointFile(journalFile.toString());
+    grep.setCheckpointInterval(0);
+
+    for (String mode : new String[] {"sequential", "threads", "pipeline"}) {
+      grep.setThreads(mode.equals("threads") ? 2 : 1);
+      grep.setPipeline(mode.equals("pipeline"));
+      grep.setResume(false);
+      grep.process();
+      // one line per file is written, 13 matched lines per file are journaled
+      assertEquals(6, Files.readAllLines(out).size(), mode);
+      assertEquals(6 * 13, lastMatched(journalFile), mode);
+
+      try (FileChannel journal = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+        journal.truncate(16 + 2 * 36);
+      }
+      grep.setResume(true);
+      grep.process();
+      assertEquals(6 * 13, lastMatched(journalFile), mode);
+    }
+  }
+
+  /**
+   * @return matched lines of the last checkpoint, which ends with matched and outputLength
+   */
+  private static long lastMatched(Path journalFile) throws IOException {
+    byte[] bytes = Files.readAllBytes(journalFile);
+    return ByteBuffer.wrap(bytes, bytes.length - 16, 8).getLong();
+  }
+
+  private Path writeLogs() throws IOException {
+    Path root = Files.createDirectory(tempDir.resolve("root"));
+    for (int file = 0; file < 6; file++) {
+      List<String> lines = new ArrayList<>();
+      for (int line = 0; line < 50; line++) {
+        lines.add((line % 4 == 0 ? "ERROR " : "INFO ") + file + "/" + line);
+      }
+      Files.write(root.resolve(file + ".log"), lines, StandardCharsets.UTF_8);
+    }
+    return root;
+  }
+}
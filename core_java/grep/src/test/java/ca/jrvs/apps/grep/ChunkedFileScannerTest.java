@@ -0,0 +1,83 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ChunkedFileScannerTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testChunksMatchSequentialScan() throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (int line = 0; line < 5000; line++) {
+      content.append(line % 7 == 0 ? "ERROR " : "INFO ").append(line)
+          .append(line % 3 == 0 ? "\r\n" : "\n");
+    }
+    content.append("ERROR no newline at end");
+    Path input = tempDir.resolve("big.log");
+    Files.write(input, content.toString().getBytes(StandardCharsets.UTF_8));
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    ListLineSink expected = new ListLineSink();
+    long expectedCount = grep.scanFile(input.toFile(), expected);
+
+    // chunk sizes below, around and above the line lengths
+    for (long chunkSize : new long[] {1, 5, 13, 1000, 1 << 20}) {
+      ListLineSink sink = new ListLineSink();
+      long matched = new ChunkedFileScanner(chunkSize, 4)
+          .scan(input.toFile(), grep::newMatchStage, sink);
+
+      assertEquals(expected.getLines(), sink.getLines(), "chunk size " + chunkSize);
+      assertEquals(expectedCount, matched);
+    }
+  }
+
+  @Test
+  public void testScanFileSplitsWithThreads() throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (int line = 0; line < 2000; line++) {
+      lines.add((line % 5 == 0 ? "Romeo " : "Juliet ") + line);
+    }
+    Path input = tempDir.resolve("play.txt");
+    Files.write(input, lines, StandardCharsets.UTF_8);
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("Romeo");
+    ListLineSink sequential = new ListLineSink();
+    grep.scanFile(input.toFile(), sequential);
+
+    grep.setThreads(3);
+    grep.setChunkSize(512);
+    ListLineSink chunked = new ListLineSink();
+    grep.scanFile(input.toFile(), chunked);
+
+    assertEquals(400, chunked.getLines().size());
+    assertEquals(sequential.getLines(), chunked.getLines());
+  }
+
+  @Test
+  public void testNextLineStart() throws IOException {
+    Path input = tempDir.resolve("lines.txt");
+    Files.write(input, "ab\ncd\r\nef".getBytes(StandardCharsets.US_ASCII));
+
+    try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+      assertEquals(0, ChunkedFileScanner.nextLineStart(channel, 0, 9));
+      assertEquals(3, ChunkedFileScanner.nextLineStart(channel, 1, 9));
+      assertEquals(3, ChunkedFileScanner.nextLineStart(channel, 3, 9));
+      assertEquals(7, ChunkedFileScanner.nextLineStart(channel, 5, 9));
+      assertEquals(9, ChunkedFileScanner.nextLineStart(channel, 8, 9));
+    }
+  }
+}
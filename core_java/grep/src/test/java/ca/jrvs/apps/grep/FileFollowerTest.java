@@ -0,0 +1,130 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileFollowerTest {
+  @TempDir
+  Path tempDir;
+
+  private Path root;
+  private ListLineSink sink;
+  private FileFollower follower;
+
+  @BeforeEach
+  void setup() throws IOException {
+    root = Files.createDirectories(tempDir.resolve("logs"));
+    append(root.resolve("app.log"), "ERROR old\nINFO old\n");
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    grep.setRootPath(root.toString());
+    sink = new ListLineSink();
+    follower = new FileFollower(grep, sink);
+    follower.start();
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    follower.close();
+  }
+
+  @Test
+  public void testOnlyAppendedLinesAreScanned() throws Exception {
+    Path log = root.resolve("app.log");
+    append(log, "ERROR new\nINFO new\nERROR unfin");
+    awaitLines("ERROR old", "ERROR new");
+
+    append(log, "ished\n");
+    awaitLines("ERROR old", "ERROR new", "ERROR unfinished");
+  }
+
+  @Test
+  public void testTruncationAndRotation() throws Exception {
+    Path log = root.resolve("app.log");
+    Files.write(log, "ERROR after truncate\n".getBytes(StandardCharsets.UTF_8));
+    awaitLines("ERROR old", "ERROR after truncate");
+
+    // rotate: the old file gets a last line and is renamed, a new file takes its name
+    append(log, "ERROR last of old\n");
+    Files.move(log, root.resolve("app.log.1"));
+    append(log, "ERROR first of new\n");
+    awaitLines("ERROR old", "ERROR after truncate", "ERROR last of old", "ERROR first of new");
+  }
+
+  @Test
+  public void testRotatedUnterminatedLineIsScannedOnce() throws Exception {
+    Path log = root.resolve("app.log");
+    append(log, "ERROR unterminated");
+    Files.move(log, root.resolve("app.log.1"));
+    append(log, "ERROR first of new\n");
+    awaitLines("ERROR old", "ERROR unterminated", "ERROR first of new");
+
+    // the renamed file is followed from where it was finished, not read again
+    follower.poll(500, TimeUnit.MILLISECONDS);
+    append(root.resolve("app.log.1"), "\nERROR late write\n");
+    awaitLines("ERROR old", "ERROR unterminated", "ERROR first of new", "ERROR late write");
+  }
+
+  @Test
+  public void testDeletedFileOffsetIsForgotten() throws Exception {
+    Files.delete(root.resolve("app.log"));
+    follower.poll(500, TimeUnit.MILLISECONDS);
+
+    // a new file may get the inode of the deleted one; its first line ends where the old
+    // offset was, so a kept offset would skip it
+    append(root.resolve("other.log"), "ERROR fresh 123456\nERROR fresh two\n");
+    awaitLines("ERROR old", "ERROR fresh 123456", "ERROR fresh two");
+  }
+
+  @Test
+  public void testNewFilesAreFollowed() throws Exception {
+    Path sub = Files.createDirectories(root.resolve("sub"));
+    append(sub.resolve("other.log"), "ERROR in new dir\n");
+    awaitLines("ERROR old", "ERROR in new dir");
+
+    append(sub.resolve("other.log"), "ERROR appended\n");
+    awaitLines("ERROR old", "ERROR in new dir", "ERROR appended");
+  }
+
+  @Test
+  public void testLastLineEnd() throws IOException {
+    Path file = append(tempDir.resolve("tail.txt"), "ab\ncd\nef");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      assertEquals(6, FileFollower.lastLineEnd(channel, 0, 8));
+      assertEquals(3, FileFollower.lastLineEnd(channel, 0, 5));
+      assertEquals(4, FileFollower.lastLineEnd(channel, 4, 5));
+    }
+  }
+
+  /**
+   * Poll until the expected lines were written, or fail after a timeout
+   */
+  private void awaitLines(String... expected) throws Exception {
+    List<String> want = Arrays.asList(expected);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+    while (!want.equals(sink.getLines()) && System.nanoTime() < deadline) {
+      follower.poll(200, TimeUnit.MILLISECONDS);
+    }
+    assertEquals(want, new ArrayList<>(sink.getLines()));
+  }
+
+  private static Path append(Path file, String content) throws IOException {
+    return Files.write(file, content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND);
+  }
+}
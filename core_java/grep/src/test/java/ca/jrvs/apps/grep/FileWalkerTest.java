@@ -0,0 +1,122 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileWalkerTest {
+  @TempDir
+  Path tempDir;
+
+  private Path root;
+  private FileWalker walker;
+
+  @BeforeEach
+  void setup() throws IOException {
+    root = tempDir.resolve("root");
+    touch("a.log", "b.txt", "app/c.log", "app/build/d.log", "app/src/deep/e.log",
+        ".hidden/f.log", "g.tmp", "app/keep.tmp");
+    walker = new FileWalker();
+  }
+
+  @Test
+  public void testListAll() {
+    assertEquals(set("a.log", "b.txt", "app/c.log", "app/build/d.log", "app/src/deep/e.log",
+        ".hidden/f.log", "g.tmp", "app/keep.tmp"), walk());
+  }
+
+  @Test
+  public void testIncludeAndExclude() {
+    walker.addInclude("*.log");
+    walker.addExclude("build");
+    walker.addExclude("app/src/**");
+
+    assertEquals(set("a.log", "app/c.log", ".hidden/f.log"), walk());
+  }
+
+  @Test
+  public void testMaxDepthAndHidden() {
+    walker.setMaxDepth(2);
+    walker.setSkipHidden(true);
+
+    assertEquals(set("a.log", "b.txt", "app/c.log", "g.tmp", "app/keep.tmp"), walk());
+  }
+
+  @Test
+  public void testIgnoreFile() throws IOException {
+    Files.write(root.resolve(".grepignore"), Arrays.asList("# comment", "*.tmp", "build/",
+        "/app/src"));
+    Files.write(root.resolve("app/.grepignore"), Arrays.asList("!keep.tmp"));
+    walker.setIgnoreFileName(".grepignore");
+    walker.setSkipHidden(true);
+
+    assertEquals(set("a.log", "b.txt", "app/c.log", "app/keep.tmp"), walk());
+  }
+
+  @Test
+  public void testSymlinks() throws IOException {
+    Path target = Files.createDirectories(tempDir.resolve("elsewhere"));
+    Files.createFile(target.resolve("linked.log"));
+    Files.createSymbolicLink(root.resolve("link"), target);
+
+    assertTrue(walk().contains("link/linked.log"));
+
+    walker.setFollowLinks(false);
+    assertEquals(set("a.log", "b.txt", "app/c.log", "app/build/d.log", "app/src/deep/e.log",
+        ".hidden/f.log", "g.tmp", "app/keep.tmp"), walk());
+  }
+
+  @Test
+  public void testStreamMatchesListAndCanCloseEarly() throws IOException {
+    for (int i = 0; i < 3000; i++) {
+      touch("many/file" + i + ".txt");
+    }
+
+    List<File> listed = walker.list(root.toString());
+    try (Stream<File> files = walker.stream(root.toString())) {
+      assertEquals(listed, files.collect(Collectors.toList()));
+    }
+
+    // closing before the walk finished must not hang or fail
+    try (Stream<File> files = walker.stream(root.toString())) {
+      assertEquals(5, files.limit(5).count());
+    }
+  }
+
+  @Test
+  public void testRootFile() {
+    List<File> files = walker.list(root.resolve("b.txt").toString());
+    assertEquals(1, files.size());
+  }
+
+  private void touch(String... paths) throws IOException {
+    for (String path : paths) {
+      Path file = root.resolve(path);
+      Files.createDirectories(file.getParent());
+      Files.write(file, Arrays.asList("line"));
+    }
+  }
+
+  private Set<String> walk() {
+    return walker.list(root.toString()).stream()
+        .map(file -> root.relativize(file.toPath()).toString().replace(File.separatorChar, '/'))
+        .collect(Collectors.toCollection(TreeSet::new));
+  }
+
+  private static Set<String> set(String... paths) {
+    return new TreeSet<>(Arrays.asList(paths));
+  }
+}
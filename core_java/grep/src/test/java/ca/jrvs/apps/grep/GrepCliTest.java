@@ -0,0 +1,153 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class GrepCliTest {
+
+  @Test
+  public void testPositionalOnly() {
+    JavaGrepImp grep = new JavaGrepImp();
+    GrepCli.configure(grep, new String[] {"Romeo", "data/txt", "out.txt"});
+
+    assertEquals("Romeo", grep.getRegex());
+    assertEquals("data/txt", grep.getRootPath());
+    assertEquals("out.txt", grep.getOutFile());
+    assertEquals(1, grep.getThreads());
+  }
+
+  @Test
+  public void testOptions() {
+    JavaGrepImp grep = new JavaGrepImp();
+    GrepCli.configure(grep, new String[] {"--threads=8", "--chunk-size=16m", "--mmap-threshold=4m", "--include=*.log",
+        "--exclude=build", "--max-depth=3", "--skip-hidden", "--no-follow-links",
+        "--ignore-file=.gitignore", "--engine=automaton", "--", "--regex", "data", "out.txt"});
+
+    assertEquals(8, grep.getThreads());
+    assertEquals(16L * 1024 * 1024, grep.getChunkSize());
+    assertEquals(4L * 1024 * 1024, grep.getMmapThreshold());
+    assertEquals("--regex", grep.getRegex());
+    assertEquals(Arrays.asList("*.log"), grep.getWalker().getIncludes());
+    assertEquals(Arrays.asList("build"), grep.getWalker().getExcludes());
+    assertEquals(3, grep.getWalker().getMaxDepth());
+    assertTrue(grep.getWalker().isSkipHidden());
+    assertFalse(grep.getWalker().isFollowLinks());
+    assertEquals(".gitignore", grep.getWalker().getIgnoreFileName());
+    assertEquals(RegexEngine.AUTOMATON, grep.getEngine());
+  }
+
+  @Test
+  public void testPatternFileReplacesRegex() {
+    JavaGrepImp grep = new JavaGrepImp();
+    GrepCli.configure(grep, new String[] {"--pattern-file=patterns.txt", "data", "out.txt"});
+
+    assertEquals("patterns.txt", grep.getPatternFile());
+    assertEquals(null, grep.getRegex());
+    assertEquals("data", grep.getRootPath());
+    assertEquals("out.txt", grep.getOutFile());
+
+    assertThrows(IllegalArgumentException.class, () -> GrepCli.configure(new JavaGrepImp(),
+        new String[] {"--pattern-file=patterns.txt", "Romeo", "data", "out.txt"}));
+  }
+
+  @Test
+  public void testOutputModes() {
+    JavaGrepImp grep = new JavaGrepImp();
+    assertEquals(OutputMode.LINES, grep.getOutputMode());
+    GrepCli.configure(grep, new String[] {"--count", "--max-count=5", "Romeo", "data", "out.txt"});
+    assertEquals(OutputMode.COUNT, grep.getOutputMode());
+    assertEquals(5, grep.getMaxCount());
+
+    GrepCli.configure(grep, new String[] {"--files-with-matches", "Romeo", "data", "out.txt"});
+    assertEquals(OutputMode.FILES_WITH_MATCHES, grep.getOutputMode());
+
+    assertEquals(SortMode.NONE, grep.getSortMode());
+    GrepCli.configure(grep, new String[] {"--uniq-count", "--sort-memory=1m", "Romeo", "data",
+        "out.txt"});
+    assertEquals(SortMode.UNIQUE_COUNT, grep.getSortMode());
+    assertEquals(1024 * 1024, grep.getSortMemory());
+
+    assertEquals(BinaryPolicy.COUNT, grep.getBinaryPolicy());
+    GrepCli.configure(grep, new String[] {"--binary=skip", "Romeo", "data", "out.txt"});
+    assertEquals(BinaryPolicy.SKIP, grep.getBinaryPolicy());
+    assertThrows(IllegalArgumentException.class, () -> GrepCli.configure(grep,
+        new String[] {"--binary=without-match", "Romeo", "data", "out.txt"}));
+  }
+
+  @Test
+  public void testPipeline() {
+    JavaGrepImp grep = new JavaGrepImp();
+    assertFalse(grep.isPipeline());
+    GrepCli.configure(grep, new String[] {"--pipeline", "--readers=3", "--matchers=5", "Romeo",
+        "data", "out.txt"});
+    assertTrue(grep.isPipeline());
+    assertEquals(3, grep.getReaders());
+    assertEquals(5, grep.getMatchers());
+    assertFalse(grep.isAutoTune());
+    GrepCli.configure(grep, new String[] {"--auto-tune", "Romeo", "data", "out.txt"});
+    assertTrue(grep.isAutoTune());
+
+    assertThrows(IllegalArgumentException.class, () -> GrepCli.configure(new JavaGrepImp(),
+        new String[] {"--readers=0", "Romeo", "data", "out.txt"}));
+    // the pipeline doesn't read or fill a result cache, so the two are rejected together
+    GrepCli.configure(grep, new String[] {"--pipeline", "--cache=results.cache", "Romeo",
+        "data", "out.txt"});
+    assertThrows(IllegalArgumentException.class, grep::process);
+    assertFalse(new File("out.txt").exists());
+  }
+
+  @Test
+  public void testCheckpoint() {
+    JavaGrepImp grep = new JavaGrepImp();
+    assertFalse(grep.isResume());
+    GrepCli.configure(grep, new String[] {"--checkpoint=run.journal", "--checkpoint-interval=30",
+        "--resume", "Romeo", "data", "out.txt"});
+    assertEquals("run.journal", grep.getCheckpointFile());
+    assertEquals(30000, grep.getCheckpointInterval());
+    assertTrue(grep.isResume());
+  }
+
+  @Test
+  public void testWorkerArgs() {
+    JavaGrepImp grep = new JavaGrepImp();
+    GrepCli.configure(grep, new String[] {"--workers=4", "--threads=2", "--pipeline",
+        "--count", "--max-count=3", "--engine=automaton", "--sort", "Romeo", "data",
+        "out.txt"});
+    assertEquals(4, grep.getWorkers());
+
+    // a worker configured from the args scans like the coordinator, without its extras
+    JavaGrepImp worker = new JavaGrepImp();
+    List<String> args = new ArrayList<>(GrepCli.workerArgs(grep));
+    args.addAll(Arrays.asList("--shard=shard.list", "Romeo", "data", "shard.out"));
+    GrepCli.configure(worker, args.toArray(new String[0]));
+    assertEquals(1, worker.getWorkers());
+    assertEquals("shard.list", worker.getShardFile());
+    assertEquals(2, worker.getThreads());
+    assertTrue(worker.isPipeline());
+    assertEquals(OutputMode.COUNT, worker.getOutputMode());
+    assertEquals(3, worker.getMaxCount());
+    assertEquals(RegexEngine.AUTOMATON, worker.getEngine());
+    assertEquals(SortMode.NONE, worker.getSortMode());
+  }
+
+  @Test
+  public void testInvalidArguments() {
+    JavaGrepImp grep = new JavaGrepImp();
+    assertThrows(IllegalArgumentException.class,
+        () -> GrepCli.configure(grep, new String[] {"Romeo", "data"}));
+    assertThrows(IllegalArgumentException.class,
+        () -> GrepCli.configure(grep, new String[] {"--bogus=1", "a", "b", "c"}));
+    assertThrows(IllegalArgumentException.class,
+        () -> GrepCli.configure(grep, new String[] {"--threads=many", "a", "b", "c"}));
+    assertThrows(IllegalArgumentException.class,
+        () -> GrepCli.configure(grep, new String[] {"--engine=pcre", "a", "b", "c"}));
+  }
+}
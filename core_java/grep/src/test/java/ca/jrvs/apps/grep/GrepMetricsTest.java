@@ -0,0 +1,86 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GrepMetricsTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testProcessWritesSummary() throws IOException {
+    Path root = Files.createDirectories(tempDir.resolve("root"));
+    long bytes = 0;
+    for (int file = 0; file < 3; file++) {
+      List<String> lines = new ArrayList<>();
+      for (int line = 0; line < 100; line++) {
+        lines.add((line % 4 == 0 ? "ERROR " : "INFO ") + line);
+      }
+      Path path = Files.write(root.resolve("log" + file + ".txt"), lines, StandardCharsets.UTF_8);
+      bytes += Files.size(path);
+    }
+    Path metricsFile = tempDir.resolve("metrics.json");
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(tempDir.resolve("out.txt").toString());
+    grep.setMetricsFile(metricsFile.toString());
+    grep.process();
+
+    GrepMetrics metrics = grep.getMetrics();
+    assertEquals(3, metrics.getFiles());
+    assertEquals(bytes, metrics.getBytes());
+    assertEquals(300, metrics.getLines());
+    assertEquals(75, metrics.getMatches());
+    assertEquals(3, metrics.getSlowFiles().size());
+    assertTrue(metrics.getSlowFiles().get(0).getNanos()
+        >= metrics.getSlowFiles().get(2).getNanos());
+
+    String json = new String(Files.readAllBytes(metricsFile), StandardCharsets.UTF_8);
+    assertTrue(json.contains("\"counts\": {\"files\": 3, \"bytes\": " + bytes
+        + ", \"lines\": 300, \"matches\": 75, \"binarySkippedFiles\": 0"
+        + ", \"binarySkippedBytes\": 0}"), json);
+    assertTrue(json.contains("\"limitingStage\": \"" + metrics.getLimitingStage() + "\""), json);
+    assertTrue(json.contains("\"slowestFiles\": [\n    {\"path\": "), json);
+  }
+
+  @Test
+  public void testDisabledByDefault() throws IOException {
+    Path root = Files.createDirectories(tempDir.resolve("root"));
+    Files.write(root.resolve("a.txt"), "ERROR\n".getBytes(StandardCharsets.UTF_8));
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(tempDir.resolve("out.txt").toString());
+    grep.process();
+
+    assertNull(grep.getMetrics());
+    assertTrue(grep.newMatchStage(new ListLineSink()).getClass() == MatchStage.class);
+  }
+
+  @Test
+  public void testSlowFilesKeepsSlowest() {
+    GrepMetrics metrics = new GrepMetrics(2);
+    for (int i = 1; i <= 5; i++) {
+      metrics.recordFile(new File("f" + i), i * 1000L, 0);
+    }
+
+    assertEquals(2, metrics.getSlowFiles().size());
+    assertEquals("f5", metrics.getSlowFiles().get(0).getPath());
+    assertEquals("f4", metrics.getSlowFiles().get(1).getPath());
+    assertEquals("\"a\\\"b\\\\c\\u0009\"", GrepMetrics.quote("a\"b\\c\t"));
+  }
+}
@@ -6,6 +6,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.log4j.BasicConfigurator;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -96,4 +98,33 @@ public class JavaGrepImpTest {
       assertTrue(line.contains("Romeo") && line.contains("Juliet"));
     }
   }
+
+  @Test
+  public void testScanFileStreamsMatches() throws IOException {
+    Path input = tempDir.resolve("in.txt");
+    Files.write(input, Arrays.asList("Romeo meets Juliet", "Tybalt", "Juliet then Romeo",
+        "Romeo, Romeo, wherefore art thou Juliet"));
+    Path out = tempDir.resolve("out.txt");
+    grep.setOutFile(out.toString());
+
+    long matched;
+    try (LineSink sink = grep.openSink()) {
+      matched = grep.scanFile(input.toFile(), sink);
+      assertEquals(2, sink.count());
+    }
+
+    assertEquals(2, matched);
+    assertEquals(Arrays.asList("Romeo meets Juliet", "Romeo, Romeo, wherefore art thou Juliet"),
+        Files.readAllLines(out));
+  }
+
+  @Test
+  public void testLinesIsLazyAndClosable() throws IOException {
+    Path input = tempDir.resolve("in.txt");
+    Files.write(input, Arrays.asList("a", "b", "c"));
+
+    try (Stream<String> lines = grep.lines(input.toFile())) {
+      assertEquals(Arrays.asList("a", "b"), lines.limit(2).collect(Collectors.toList()));
+    }
+  }
 }
@@ -5,11 +5,22 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class JavaGrepLambdaImpTest {
+  @TempDir
+  Path tempDir;
+
   private JavaGrepLambdaImp grep;
 
   @BeforeEach
@@ -41,4 +52,73 @@ public class JavaGrepLambdaImpTest {
     assertFalse(files.isEmpty());
     assertTrue(files.stream().anyMatch(f -> f.getName().equals("shakespeare.txt")));
   }
+
+  @Test
+  public void testScanFile() throws IOException {
+    Path input = tempDir.resolve("in.txt");
+    Files.write(input, Arrays.asList("Romeo meets Juliet", "Tybalt", "Romeo and Juliet"));
+    Path out = tempDir.resolve("out.txt");
+    grep.setOutFile(out.toString());
+
+    try (LineSink sink = grep.openSink()) {
+      assertEquals(2, grep.scanFile(input.toFile(), sink));
+    }
+
+    assertEquals(Arrays.asList("Romeo meets Juliet", "Romeo and Juliet"), Files.readAllLines(out));
+  }
+
+  @Test
+  public void testMetrics() throws IOException {
+    Path root = Files.createDirectory(tempDir.resolve("root"));
+    List<String> lines = new ArrayList<>();
+    for (int line = 0; line < 100; line++) {
+      lines.add(line % 2 == 0 ? "Romeo and Juliet " + line : "Tybalt " + line);
+    }
+    Files.write(root.resolve("in.txt"), lines);
+    grep.setRootPath(root.toString());
+    grep.setOutFile(tempDir.resolve("out.txt").toString());
+    grep.setMetricsFile(tempDir.resolve("metrics.json").toString());
+    grep.process();
+
+    // the stream based scan tests and emits lines without accept()
+    GrepMetrics metrics = grep.getMetrics();
+    assertEquals(100, metrics.getLines());
+    assertEquals(50, metrics.getMatches());
+    assertTrue(metrics.getMatchNanos() > 0);
+  }
+
+  @Test
+  public void testBinaryPolicies() throws IOException {
+    Path root = Files.createDirectory(tempDir.resolve("root"));
+    Path binary = root.resolve("bin.dat");
+    Files.write(binary, "Romeo and Juliet\0\nRomeo, Juliet\nTybalt\n"
+        .getBytes(StandardCharsets.UTF_8));
+    Path out = tempDir.resolve("out.txt");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(out.toString());
+
+    // the default policy counts the lines of the binary file
+    grep.process();
+    assertEquals(Arrays.asList("Binary file " + binary + ": 2 matched lines"),
+        Files.readAllLines(out));
+    assertTrue(grep.readLines(binary.toFile()).isEmpty());
+    try (Stream<String> lines = grep.lines(binary.toFile())) {
+      assertEquals(3, lines.count());
+    }
+    grep.setOutputMode(OutputMode.COUNT);
+    grep.process();
+    assertEquals(Arrays.asList(binary + ":2"), Files.readAllLines(out));
+
+    grep.setBinaryPolicy(BinaryPolicy.SKIP);
+    grep.process();
+    assertEquals(Arrays.asList(binary + ":0"), Files.readAllLines(out));
+    grep.setOutputMode(OutputMode.LINES);
+    grep.process();
+    assertTrue(Files.readAllLines(out).isEmpty());
+
+    grep.setBinaryPolicy(BinaryPolicy.TEXT);
+    grep.process();
+    assertEquals(Arrays.asList("Romeo and Juliet\0", "Romeo, Juliet"), Files.readAllLines(out));
+    assertEquals(3, grep.readLines(binary.toFile()).size());
+  }
 }
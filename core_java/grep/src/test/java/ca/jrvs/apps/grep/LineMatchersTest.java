@@ -0,0 +1,117 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.junit.jupiter.api.Test;
+
+public class LineMatchersTest {
+
+  private static final String[] LINES = {
+      "",
+      "Romeo and Juliet",
+      "romeo AND juliet",
+      "ERROR request timeout=250",
+      "error: a.b.c [x] (y) {z}",
+      "price is $5 + tax?",
+      "\u00c9t\u00e9 \u00e0 Paris",
+      "aaaaaaaaaaaaaaaaaaab",
+      "ababababab"
+  };
+
+  @Test
+  public void testLiteralPath() {
+    String[] regexes = {"Romeo", "Juliet", "ERROR", "a\\.b\\.c", "\\$5 \\+ tax\\?", "\\Q[x] (y)\\E",
+        "\\Q{z}", "abab", "aab", "b", "nothing here", "", ".*ERROR.*"};
+    for (String regex : regexes) {
+      LineMatcher matcher = LineMatchers.compile(regex);
+      assertTrue(matcher instanceof LiteralMatcher, regex + " -> " + matcher);
+      assertFalse(((LiteralMatcher) matcher).isIgnoreCase());
+      assertSameAsPattern(regex, matcher);
+    }
+  }
+
+  @Test
+  public void testCaseInsensitiveLiteralPath() {
+    String[] regexes = {"(?i)romeo", "(?i)JULIET", "(?i)Error", "(?i)\\$5 \\+ TAX",
+        "(?i)\u00e9t\u00e9", "(?i)\u00c9T\u00c9", "(?i).*and.*"};
+    for (String regex : regexes) {
+      LineMatcher matcher = LineMatchers.compile(regex);
+      assertTrue(matcher instanceof LiteralMatcher, regex + " -> " + matcher);
+      assertTrue(((LiteralMatcher) matcher).isIgnoreCase());
+      assertSameAsPattern(regex, matcher);
+    }
+  }
+
+  @Test
+  public void testRegexPath() {
+    String[] regexes = {".*Romeo.*Juliet.*", "^Romeo", "Juliet$", "timeout=\\d+", "a+b",
+        "(ab)+", "[xyz]", "Romeo|error", "(?i)romeo.*juliet", "\\.*", ".*?Juliet", "(?s).*"};
+    for (String regex : regexes) {
+      LineMatcher matcher = LineMatchers.compile(regex);
+      assertTrue(matcher instanceof RegexLineMatcher, regex + " -> " + matcher);
+      assertSameAsPattern(regex, matcher);
+    }
+  }
+
+  @Test
+  public void testRequiredLiteralPrefilter() {
+    String[] filtered = {"ERROR.*timeout=\\d+", ".*Romeo.*Juliet.*", ".*?Juliet", "Romeo|error",
+        "(?i)romeo.*juliet", "a+b", "(ab)+", "[xyz]", "Jul(iet|ia)", "(?i)t(A|i)x|PARIS"};
+    for (String regex : filtered) {
+      LineMatcher matcher = LineMatchers.compile(regex);
+      assertTrue(((RegexLineMatcher) matcher).getPrefilter() != null, regex + " -> " + matcher);
+      assertSameAsPattern(regex, matcher);
+    }
+
+    // nothing is required, or the regex is outside what the literal analysis understands
+    String[] unfiltered = {"\\.*", "(?s).*", "x?y?", "(a)\\1", "\\bRomeo"};
+    for (String regex : unfiltered) {
+      LineMatcher matcher = LineMatchers.compile(regex);
+      assertEquals(null, ((RegexLineMatcher) matcher).getPrefilter(), regex + " -> " + matcher);
+      assertSameAsPattern(regex, matcher);
+    }
+
+    LineMatcher matcher = LineMatchers.compile("ERROR.*timeout=\\d+");
+    assertFalse(matcher.find("INFO request timeout=250"));
+    assertFalse(matcher.find("ERROR request timeout=slow"));
+    assertTrue(matcher.find(new StringBuilder("ERROR request timeout=250")));
+  }
+
+  @Test
+  public void testSimplify() {
+    assertEquals("Romeo.*Juliet", LineMatchers.simplify(".*Romeo.*Juliet.*"));
+    assertEquals("a\\.*", LineMatchers.simplify("a\\.*"));
+    assertEquals("a\\\\", LineMatchers.simplify("a\\\\.*"));
+    assertEquals(".*+a", LineMatchers.simplify(".*+a"));
+    assertEquals("\\Q.*\\E.*", LineMatchers.simplify("\\Q.*\\E.*"));
+  }
+
+  @Test
+  public void testInvalidRegexThrows() {
+    assertThrows(PatternSyntaxException.class, () -> LineMatchers.compile("(unclosed"));
+    assertThrows(IllegalArgumentException.class, () -> LineMatchers.compile(null));
+  }
+
+  @Test
+  public void testMatcherIsReusableAcrossLines() {
+    LineMatcher matcher = LineMatchers.compile("Ro+meo");
+    for (int i = 0; i < 3; i++) {
+      assertTrue(matcher.find("Romeo"));
+      assertFalse(matcher.find("Juliet"));
+      assertTrue(matcher.find(new StringBuilder("x Rooomeo")));
+    }
+  }
+
+  private static void assertSameAsPattern(String regex, LineMatcher matcher) {
+    Pattern expected = Pattern.compile(regex);
+    for (String line : LINES) {
+      assertEquals(expected.matcher(line).find(), matcher.find(line),
+          "regex [" + regex + "] line [" + line + "]");
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedFileScannerTest {
+  @TempDir
+  Path tempDir;
+
+  private static final String CONTENT = "ERROR first\r\n"
+      + "info\rERROR after bare cr\n"
+      + "\n"
+      + "Eh, an E without a match\r\n"
+      + "ERROR caf\u00e9 cr\u00e8me\n"
+      + "ERROR " + repeat('x', 100) + "\r\n"
+      + "ERROR no newline at end";
+
+  @Test
+  public void testMatchesReaderOutput() throws IOException {
+    Path input = write(CONTENT);
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+
+    List<String> expected = grep.readLines(input.toFile());
+    expected.removeIf(line -> !line.contains("ERROR"));
+
+    // window sizes below, at and above the line lengths, scanning every line or only those
+    // with some bytes of ERROR
+    for (long window : new long[] {1, 7, 13, 64, 4096}) {
+      for (boolean mapped : new boolean[] {true, false}) {
+        for (ByteScanner bytes : new ByteScanner[] {ByteScanner.SCALAR, ByteScanner.SWAR}) {
+          for (String required : new String[] {null, "E", "ERR", "OR"}) {
+            ListLineSink sink = new ListLineSink();
+            MatchStage stage = new MatchStage(LineMatchers.compile("ERROR"), sink);
+            MappedFileScanner scanner = new MappedFileScanner(window, mapped, bytes);
+            scanner.setRequiredBytes(required == null ? null
+                : required.getBytes(StandardCharsets.US_ASCII));
+            scanner.scan(input.toFile(), stage);
+
+            String message = "window " + window + ", mapped " + mapped + ", " + bytes
+                + ", required " + required;
+            assertEquals(expected, sink.getLines(), message);
+            assertEquals(expected.size(), stage.getMatched(), message);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testNonAsciiLinesAreDecoded() throws IOException {
+    Path input = write("plain cafe\ncaf\u00e9 au lait\nno match\n");
+    ListLineSink sink = new ListLineSink();
+
+    new MappedFileScanner()
+        .scan(input.toFile(), new MatchStage(LineMatchers.compile("caf\u00e9"), sink));
+
+    assertEquals(Arrays.asList("caf\u00e9 au lait"), sink.getLines());
+  }
+
+  @Test
+  public void testRequiredBytes() {
+    assertEquals("ERROR", required("ERROR"));
+    // the longest literal of an AND
+    assertEquals("timeout", required("ERROR.*timeout"));
+    // letters of a case-insensitive literal can't be relied on, nor can non-ASCII chars
+    assertEquals("->", required("(?i)error->x"));
+    assertEquals(" au lait", required("caf\u00e9 au lait"));
+    assertNull(required("(?i)error"));
+    assertNull(required("ERROR|WARN"));
+    assertNull(required(".*"));
+  }
+
+  private static String required(String regex) {
+    byte[] bytes = MappedFileScanner.requiredBytes(RegexLiterals.analyze(regex));
+    return bytes == null ? null : new String(bytes, StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void testEmptyFile() throws IOException {
+    Path input = write("");
+    ListLineSink sink = new ListLineSink();
+
+    MatchStage stage = new MatchStage(LineMatchers.compile(""), sink);
+    new MappedFileScanner().scan(input.toFile(), stage);
+
+    assertEquals(0, stage.getMatched());
+  }
+
+  @Test
+  public void testScanFileUsesThreshold() throws IOException {
+    Path input = write(CONTENT);
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR.*e");
+
+    ListLineSink buffered = new ListLineSink();
+    grep.scanFile(input.toFile(), buffered);
+
+    grep.setMmapThreshold(0);
+    ListLineSink mapped = new ListLineSink();
+    grep.scanFile(input.toFile(), mapped);
+
+    assertEquals(buffered.getLines(), mapped.getLines());
+  }
+
+  private Path write(String content) throws IOException {
+    Path file = tempDir.resolve("input.txt");
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private static String repeat(char c, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+}
@@ -0,0 +1,104 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MultiPatternMatcherTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testOverlappingLiterals() {
+    AhoCorasick ac = new AhoCorasick(Arrays.asList("he", "she", "his", "hers", "caf\u00e9"));
+    boolean[] found = new boolean[5];
+    ac.findAll("ushers", found);
+
+    assertTrue(found[0]);
+    assertTrue(found[1]);
+    assertFalse(found[2]);
+    assertTrue(found[3]);
+    assertTrue(ac.find("un caf\u00e9"));
+    assertFalse(ac.find("hi"));
+  }
+
+  @Test
+  public void testMatchingIdsAgreeWithPattern() {
+    List<String> patterns = Arrays.asList("Romeo", "Juliet", "(?i)nurse", "R.m",
+        "^Enter", "wher(e|fore)", "(a)\\1", "Rome");
+    int[] ids = {1, 2, 3, 4, 5, 6, 7, 8};
+    MultiPatternMatcher matcher = new MultiPatternMatcher(patterns, ids);
+    List<String> lines = Arrays.asList("Enter Romeo and Juliet", "The NURSE speaks",
+        "wherefore art thou", "Rim", "baaad", "", "Rome alone", "nothing here");
+
+    for (String line : lines) {
+      List<Integer> expected = new ArrayList<>();
+      for (int i = 0; i < patterns.size(); i++) {
+        if (Pattern.compile(patterns.get(i)).matcher(line).find()) {
+          expected.add(ids[i]);
+        }
+      }
+      assertEquals(expected, matcher.matchingIds(line), line);
+      assertEquals(!expected.isEmpty(), matcher.find(line), line);
+    }
+  }
+
+  @Test
+  public void testLoadSkipsBlankLines() throws IOException {
+    Path patterns = tempDir.resolve("patterns.txt");
+    Files.write(patterns, Arrays.asList("Romeo", "", "Jul.et"), StandardCharsets.UTF_8);
+
+    MultiPatternMatcher matcher = MultiPatternMatcher.load(patterns);
+
+    assertEquals(Arrays.asList("Romeo", "Jul.et"), matcher.getPatterns());
+    assertEquals(Arrays.asList(1, 3), matcher.matchingIds("Romeo loves Juliet"));
+    assertEquals(Collections.emptyList(), matcher.matchingIds("Tybalt"));
+  }
+
+  @Test
+  public void testLoadUnterminatedQuotes() throws IOException {
+    // \Q quotes to the end of a pattern, and must not quote the alternation around it
+    Path patterns = tempDir.resolve("patterns.txt");
+    Files.write(patterns, Arrays.asList("^foo\\Q.txt", "ba+r", "\\Qa\\E|x\\Q(y\\"),
+        StandardCharsets.UTF_8);
+
+    MultiPatternMatcher matcher = MultiPatternMatcher.load(patterns);
+
+    assertEquals(Arrays.asList(1), matcher.matchingIds("foo.txt"));
+    assertEquals(Collections.emptyList(), matcher.matchingIds("fooXtxt"));
+    assertEquals(Arrays.asList(2, 3), matcher.matchingIds("baaar"));
+    assertEquals(Arrays.asList(3), matcher.matchingIds("x(y\\"));
+    assertFalse(matcher.find("x(y"));
+  }
+
+  @Test
+  public void testProcessLabelsEachMatch() throws IOException {
+    Path root = Files.createDirectories(tempDir.resolve("root"));
+    Files.write(root.resolve("a.txt"),
+        Arrays.asList("Romeo", "Juliet", "Romeo and Juliet", "Mercutio"), StandardCharsets.UTF_8);
+    Path patterns = tempDir.resolve("patterns.txt");
+    Files.write(patterns, Arrays.asList("Romeo", "Jul[i]et"), StandardCharsets.UTF_8);
+    Path out = tempDir.resolve("out.txt");
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setPatternFile(patterns.toString());
+    grep.setRootPath(root.toString());
+    grep.setOutFile(out.toString());
+    grep.process();
+
+    assertEquals(Arrays.asList("1:Romeo", "2:Juliet", "1:Romeo and Juliet", "2:Romeo and Juliet"),
+        Files.readAllLines(out, StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,134 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OutputModeTest {
+  @TempDir
+  Path tempDir;
+
+  private Path root;
+  private File play;
+  private File notes;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    root = Files.createDirectory(tempDir.resolve("root"));
+    List<String> lines = new ArrayList<>();
+    for (int line = 0; line < 2000; line++) {
+      lines.add((line % 5 == 0 ? "Romeo " : "Juliet ") + line);
+    }
+    play = Files.write(root.resolve("play.txt"), lines, StandardCharsets.UTF_8).toFile();
+    notes = Files.write(root.resolve("notes.txt"), Arrays.asList("nothing", "here"),
+        StandardCharsets.UTF_8).toFile();
+  }
+
+  @Test
+  public void testFilesWithMatches() throws IOException {
+    for (JavaGrepImp grep : greps()) {
+      grep.setOutputMode(OutputMode.FILES_WITH_MATCHES);
+      assertEquals(Collections.singletonList(play.getPath()), scan(grep));
+    }
+  }
+
+  @Test
+  public void testCount() throws IOException {
+    for (JavaGrepImp grep : greps()) {
+      grep.setOutputMode(OutputMode.COUNT);
+      List<String> output = scan(grep);
+      Collections.sort(output);
+      assertEquals(Arrays.asList(notes.getPath() + ":0", play.getPath() + ":400"), output);
+
+      grep.setMaxCount(7);
+      output = scan(grep);
+      Collections.sort(output);
+      assertEquals(Arrays.asList(notes.getPath() + ":0", play.getPath() + ":7"), output);
+    }
+  }
+
+  @Test
+  public void testMaxCountWritesFirstLines() throws IOException {
+    for (JavaGrepImp grep : greps()) {
+      grep.setMaxCount(3);
+      assertEquals(Arrays.asList("Romeo 0", "Romeo 5", "Romeo 10"), scan(grep));
+    }
+  }
+
+  @Test
+  public void testMaxCountAcrossArchiveEntries() throws IOException {
+    File archive = tempDir.resolve("lines.zip").toFile();
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(archive.toPath()))) {
+      for (String name : new String[] {"a.txt", "b.txt"}) {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write("Romeo 1\nJuliet\nRomeo 2\n".getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+    }
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("Romeo");
+    grep.setThreads(4);
+    grep.setMaxCount(3);
+    ListLineSink sink = new ListLineSink();
+    assertEquals(3, grep.scanFile(archive, sink));
+    String prefix = archive.getPath() + "!";
+    assertEquals(Arrays.asList(prefix + "a.txt:Romeo 1", prefix + "a.txt:Romeo 2",
+        prefix + "b.txt:Romeo 1"), sink.getLines());
+  }
+
+  @Test
+  public void testFollowRejectsEarlyTermination() {
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("Romeo");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(tempDir.resolve("out.txt").toString());
+    grep.setFollow(true);
+    grep.setOutputMode(OutputMode.COUNT);
+
+    assertThrows(IllegalArgumentException.class, grep::process);
+    assertThrows(IllegalArgumentException.class, () -> grep.setMaxCount(-1));
+  }
+
+  /**
+   * Greps for Romeo over each scan path: buffered reader, stream, memory mapped bytes and
+   * parallel chunks
+   */
+  private List<JavaGrepImp> greps() {
+    JavaGrepImp buffered = new JavaGrepImp();
+    JavaGrepImp lambda = new JavaGrepLambdaImp();
+    JavaGrepImp mapped = new JavaGrepImp();
+    mapped.setMmapThreshold(0);
+    JavaGrepImp chunked = new JavaGrepImp();
+    chunked.setThreads(3);
+    chunked.setChunkSize(512);
+
+    List<JavaGrepImp> greps = Arrays.asList(buffered, lambda, mapped, chunked);
+    for (JavaGrepImp grep : greps) {
+      grep.setRegex("Romeo");
+      grep.setRootPath(root.toString());
+    }
+    return greps;
+  }
+
+  private List<String> scan(JavaGrepImp grep) throws IOException {
+    Path out = tempDir.resolve("out.txt");
+    grep.setOutFile(out.toString());
+    grep.process();
+    return Files.readAllLines(out, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,80 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ParallelFileScannerTest {
+  @TempDir
+  Path tempDir;
+
+  private JavaGrepImp grep;
+
+  @BeforeEach
+  void setup() throws IOException {
+    Path root = tempDir.resolve("root");
+    for (int dir = 0; dir < 5; dir++) {
+      Path sub = Files.createDirectories(root.resolve("dir" + dir));
+      for (int file = 0; file < 20; file++) {
+        List<String> lines = new ArrayList<>();
+        for (int line = 0; line < 200; line++) {
+          lines.add((line % 7 == 0 ? "ERROR " : "INFO ") + dir + "/" + file + "/" + line);
+        }
+        Files.write(sub.resolve("log" + file + ".txt"), lines);
+      }
+    }
+
+    grep = new JavaGrepImp();
+    grep.setRootPath(root.toString());
+    grep.setRegex("ERROR \\d+");
+  }
+
+  @Test
+  public void testParallelOutputMatchesSequential() throws IOException {
+    Path sequentialOut = tempDir.resolve("sequential.txt");
+    grep.setOutFile(sequentialOut.toString());
+    grep.process();
+
+    Path parallelOut = tempDir.resolve("parallel.txt");
+    grep.setOutFile(parallelOut.toString());
+    grep.setThreads(8);
+    grep.process();
+
+    List<String> expected = Files.readAllLines(sequentialOut);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, Files.readAllLines(parallelOut));
+  }
+
+  @Test
+  public void testScanCountsMatches() throws IOException {
+    List<File> files = grep.listFiles(grep.getRootPath());
+    ListLineSink sink = new ListLineSink();
+
+    long matched = new ParallelFileScanner(grep, 3).scan(files, sink);
+
+    assertEquals(100 * 29, matched);
+    assertEquals(matched, sink.count());
+
+    // one line per file is written, but the total is of matched lines
+    grep.setOutputMode(OutputMode.COUNT);
+    sink = new ListLineSink();
+    assertEquals(100 * 29, new ParallelFileScanner(grep, 3).scan(files, sink));
+    assertEquals(100, sink.count());
+  }
+
+  @Test
+  public void testInvalidThreads() {
+    assertThrows(IllegalArgumentException.class, () -> new ParallelFileScanner(grep, 0));
+    assertThrows(IllegalArgumentException.class, () -> grep.setThreads(0));
+  }
+}
@@ -0,0 +1,134 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PipelineScannerTest {
+  @TempDir
+  Path tempDir;
+
+  private Path root;
+  private List<File> files;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    root = Files.createDirectory(tempDir.resolve("root"));
+    for (int file = 0; file < 20; file++) {
+      StringBuilder text = new StringBuilder();
+      for (int line = 0; line < file * 37; line++) {
+        text.append(line % 3 == 0 ? "Romeo " : "Juliet ").append(file).append('/').append(line)
+            .append(line % 4 == 0 ? " \u00e9t\u00e9" : "")
+            .append(line % 7 == 0 ? "\r\n" : "\n");
+      }
+      // some files end without a line terminator, or with a lone \r
+      text.append(file % 3 == 0 ? "Romeo last" : file % 3 == 1 ? "Romeo cr\r" : "");
+      Files.write(root.resolve(String.format("%02d.txt", file)),
+          text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    char[] longLine = new char[5000];
+    Arrays.fill(longLine, 'x');
+    Files.write(root.resolve("long.txt"), Arrays.asList(new String(longLine) + "Romeo", "Romeo"),
+        StandardCharsets.UTF_8);
+
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(root.resolve("a.gz")))) {
+      out.write("Romeo gz\nJuliet gz\n".getBytes(StandardCharsets.UTF_8));
+    }
+    try (ZipOutputStream zip = new ZipOutputStream(
+        Files.newOutputStream(root.resolve("b.zip")))) {
+      for (String name : new String[] {"a.txt", "empty.txt", "b.txt"}) {
+        zip.putNextEntry(new ZipEntry(name));
+        if (!name.startsWith("empty")) {
+          zip.write("Romeo 1\nJuliet\nRomeo 2".getBytes(StandardCharsets.UTF_8));
+        }
+        zip.closeEntry();
+      }
+    }
+    files = new JavaGrepImp().listFiles(root.toString());
+  }
+
+  @Test
+  public void testSameOutputAsSequential() throws IOException {
+    for (OutputMode outputMode : OutputMode.values()) {
+      for (long maxCount : new long[] {0, 3}) {
+        JavaGrepImp grep = new JavaGrepImp();
+        grep.setRegex("Romeo");
+        grep.setOutputMode(outputMode);
+        grep.setMaxCount(maxCount);
+        ListLineSink expected = new ListLineSink();
+        for (File file : files) {
+          grep.scanFile(file, expected);
+        }
+
+        // tiny blocks and capacity, so files span many blocks and readers have to wait
+        for (int capacity : new int[] {1, 3, 64}) {
+          ListLineSink sink = new ListLineSink();
+          long matched = new PipelineScanner(grep, 3, 2, 16, capacity)
+              .scan(files.iterator(), sink);
+
+          String message = outputMode + " max " + maxCount + " capacity " + capacity;
+          assertEquals(expected.getLines(), sink.getLines(), message);
+          if (outputMode == OutputMode.LINES) {
+            assertEquals(sink.count(), matched, message);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testProcessWithPipeline() throws IOException {
+    Path sequentialOut = tempDir.resolve("sequential.txt");
+    Path pipelineOut = tempDir.resolve("pipeline.txt");
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("Romeo.*\\d$");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(sequentialOut.toString());
+    grep.process();
+
+    grep.setPipeline(true);
+    grep.setReaders(2);
+    grep.setMatchers(3);
+    grep.setOutFile(pipelineOut.toString());
+    grep.process();
+
+    assertEquals(Files.readAllLines(sequentialOut), Files.readAllLines(pipelineOut));
+  }
+
+  @Test
+  public void testFailedReadFailsScan() {
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("Romeo");
+    List<File> withMissing = new ArrayList<>(files);
+    withMissing.add(3, root.resolve("missing.txt").toFile());
+
+    assertThrows(IllegalArgumentException.class, () -> new PipelineScanner(grep, 2, 2, 16, 2)
+        .scan(withMissing.iterator(), new ListLineSink()));
+  }
+
+  @Test
+  public void testLastLineEnd() {
+    byte[] bytes = "ab\ncd\r\nef\rg\r".getBytes(StandardCharsets.US_ASCII);
+    // the \r at the end could be followed by \n
+    assertEquals(10, PipelineScanner.lastLineEnd(bytes, bytes.length));
+    assertEquals(7, PipelineScanner.lastLineEnd(bytes, 10));
+    assertEquals(7, PipelineScanner.lastLineEnd(bytes, 7));
+    assertEquals(3, PipelineScanner.lastLineEnd(bytes, 6));
+    assertEquals(0, PipelineScanner.lastLineEnd(bytes, 2));
+  }
+}
@@ -0,0 +1,116 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PoolTunerTest {
+  @TempDir
+  Path tempDir;
+
+  private static final long SECOND = 1_000_000_000L;
+  private static final long MB = 1024 * 1024;
+
+  @Test
+  public void testStarvedMatchersGetReaders() {
+    PipelineScanner pipeline = new PipelineScanner(new JavaGrepImp(), 1, 2);
+    GrepMetrics metrics = new GrepMetrics();
+    PoolTuner tuner = new PoolTuner(pipeline, metrics, 4);
+
+    // matchers busy 10% of the time
+    PoolTuner.Decision decision = tuner.step(SECOND, 100 * MB, SECOND / 5, SECOND / 5);
+    assertEquals("add reader", decision.getAction());
+    assertEquals(2, pipeline.getReaders());
+
+    // the second reader made it faster, so it stays and a third is tried
+    assertEquals("add reader", tuner.step(SECOND, 150 * MB, SECOND / 5, SECOND / 5).getAction());
+    // the third didn't, so it is removed and readers are left alone for a while
+    assertEquals("undo reader", tuner.step(SECOND, 152 * MB, SECOND / 5, SECOND / 5).getAction());
+    assertEquals(2, pipeline.getReaders());
+    for (int i = 1; i < PoolTuner.HOLD_SAMPLES; i++) {
+      assertNull(tuner.step(SECOND, 150 * MB, SECOND / 5, SECOND / 5));
+    }
+    assertEquals("add reader", tuner.step(SECOND, 150 * MB, SECOND / 5, SECOND / 5).getAction());
+
+    assertEquals(tuner.getDecisions().size(), metrics.getTuning().size());
+    assertTrue(metrics.toJson().contains("\"tuning\": [\n    {\"atMs\": "), metrics.toJson());
+  }
+
+  @Test
+  public void testBusyMatchersGrowUpToMax() {
+    PipelineScanner pipeline = new PipelineScanner(new JavaGrepImp(), 1, 1);
+    PoolTuner tuner = new PoolTuner(pipeline, null, 2);
+
+    assertEquals("add matcher", tuner.step(SECOND, 100 * MB, SECOND, SECOND).getAction());
+    assertEquals(2, pipeline.getMatchers());
+    // faster with two, and two is the most
+    assertNull(tuner.step(SECOND, 190 * MB, 2 * SECOND, 2 * SECOND));
+    assertEquals(2, pipeline.getMatchers());
+  }
+
+  @Test
+  public void testMatchersWaitingForCpuShrink() {
+    PipelineScanner pipeline = new PipelineScanner(new JavaGrepImp(), 1, 4);
+    PoolTuner tuner = new PoolTuner(pipeline, null, 4);
+
+    // matching all the time but on a CPU a fifth of it
+    PoolTuner.Decision decision = tuner.step(SECOND, 100 * MB, 4 * SECOND, 4 * SECOND / 5);
+    assertEquals("remove matcher", decision.getAction());
+    assertEquals(3, pipeline.getMatchers());
+    assertEquals(0.2, decision.getMatcherOnCpu(), 1e-9);
+  }
+
+  @Test
+  public void testPoolsResizedWhileScanning() throws IOException {
+    Path root = Files.createDirectory(tempDir.resolve("root"));
+    for (int file = 0; file < 30; file++) {
+      List<String> lines = new ArrayList<>();
+      for (int line = 0; line < 500; line++) {
+        lines.add((line % 9 == 0 ? "ERROR " : "INFO ") + file + "/" + line);
+      }
+      Files.write(root.resolve("log" + file + ".txt"), lines, StandardCharsets.UTF_8);
+    }
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    List<File> files = grep.listFiles(root.toString());
+    ListLineSink expected = new ListLineSink();
+    for (File file : files) {
+      grep.scanFile(file, expected);
+    }
+
+    // a tuner sampling every millisecond resizes the pools many times during the scan
+    PipelineScanner pipeline = new PipelineScanner(grep, 1, 1, 64, 4);
+    pipeline.setTuneInterval(1);
+    ListLineSink sink = new ListLineSink();
+    pipeline.scan(files.iterator(), sink);
+    assertEquals(expected.getLines(), sink.getLines());
+
+    // and resized from another thread as fast as it goes
+    PipelineScanner resized = new PipelineScanner(grep, 3, 3, 64, 4);
+    ListLineSink resizedSink = new ListLineSink();
+    Thread resizer = new Thread(() -> {
+      for (int i = 0; !Thread.currentThread().isInterrupted(); i++) {
+        resized.setReaders(1 + i % 3);
+        resized.setMatchers(1 + i % 4);
+      }
+    });
+    resizer.start();
+    try {
+      resized.scan(files.iterator(), resizedSink);
+    }
+    finally {
+      resizer.interrupt();
+    }
+    assertEquals(expected.getLines(), resizedSink.getLines());
+  }
+}
@@ -0,0 +1,80 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+public class RegexLiteralsTest {
+
+  @Test
+  public void testAnalyze() {
+    assertEquals("\"Romeo\"", query("Romeo"));
+    assertEquals("(\"Romeo\" AND \"Juliet\")", query(".*Romeo.*Juliet.*"));
+    assertEquals("(\"ERROR\" AND \"timeout=\")", query("ERROR.*timeout=\\d+"));
+    assertEquals("(\"abd\" OR \"acd\")", query("a(b|c)d"));
+    assertEquals("(\"foo\" OR \"bar\")", query("foo|bar"));
+    assertEquals("(\"ERROR\" AND (\"timeout\" OR \"refused\"))", query("ERROR.*(timeout|refused)"));
+    assertEquals("\"abcabc\"", query("(abc){2}"));
+    assertEquals("\"abc\"", query("(abc)+"));
+    assertEquals("\"fo\"", query("foo?"));
+    assertEquals("i\"error\"", query("(?i)ERROR"));
+    assertEquals("(\"a.b\" AND \"[x]\")", query("\\Qa.b\\E.*\\[x]"));
+  }
+
+  @Test
+  public void testNothingRequired() {
+    assertEquals("ALL", query(".*"));
+    assertEquals("ALL", query("a*"));
+    assertEquals("ALL", query("\\d+"));
+    assertEquals("ALL", query("foo|.*"));
+    // outside the parsed subset
+    assertEquals("ALL", query("(foo)\\1"));
+    assertEquals("ALL", query("(?=foo)foo"));
+    assertEquals("ALL", query("foo*+"));
+  }
+
+  /**
+   * Every line the regex matches must satisfy the query
+   */
+  @Test
+  public void testQueryIsNecessary() {
+    String[] regexes = {"ab.*cd", "a(b|c)d", "(ab|cd)+e", "x?yz", "[ab]c{2,3}d", "(?i)AbC",
+        "a.c|bb", "^ab$", "(a|b)(c|d)(e|f)", "ba*b", "c[^a]c"};
+    Random random = new Random(42);
+    for (String regex : regexes) {
+      Pattern pattern = Pattern.compile(regex);
+      LiteralQuery query = RegexLiterals.analyze(regex);
+      for (int i = 0; i < 20000; i++) {
+        StringBuilder line = new StringBuilder();
+        int length = random.nextInt(10);
+        for (int j = 0; j < length; j++) {
+          line.append("abcdefABC".charAt(random.nextInt(9)));
+        }
+        if (pattern.matcher(line).find()) {
+          assertTrue(satisfies(query, line.toString()), regex + " " + query + " " + line);
+        }
+      }
+    }
+  }
+
+  private static String query(String regex) {
+    return RegexLiterals.analyze(regex).toString();
+  }
+
+  private static boolean satisfies(LiteralQuery query, String line) {
+    switch (query.getOp()) {
+      case LITERAL:
+        return query.isIgnoreCase() ? line.toLowerCase().contains(query.getLiteral())
+            : line.contains(query.getLiteral());
+      case AND:
+        return query.getOperands().stream().allMatch(q -> satisfies(q, line));
+      case OR:
+        return query.getOperands().stream().anyMatch(q -> satisfies(q, line));
+      default:
+        return true;
+    }
+  }
+}
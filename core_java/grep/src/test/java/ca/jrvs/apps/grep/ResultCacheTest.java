@@ -0,0 +1,117 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ResultCacheTest {
+  @TempDir
+  Path tempDir;
+
+  private static final long MTIME = 1_600_000_000_000L;
+
+  @Test
+  public void testUnchangedFilesAreNotRescanned() throws IOException {
+    Path root = Files.createDirectories(tempDir.resolve("root"));
+    Path a = write(root.resolve("a.txt"), "Romeo\nTybalt\n");
+    write(root.resolve("b.txt"), "Juliet\nRomeo and Juliet\n");
+    Path cache = tempDir.resolve("grep.cache");
+
+    List<String> first = run(root, cache, "Romeo");
+
+    // same size and mtime, different content: the cached result must be used
+    write(a, "Romeo\nRomeo!\n");
+    assertEquals(first, run(root, cache, "Romeo"));
+
+    // a different mtime makes it a miss
+    a.toFile().setLastModified(MTIME + 1000);
+    List<String> third = run(root, cache, "Romeo");
+    assertEquals(Arrays.asList("Romeo", "Romeo and Juliet", "Romeo!"), third);
+
+    // another pattern never sees these entries
+    assertEquals(Arrays.asList("Romeo and Juliet"), run(root, cache, "and"));
+  }
+
+  @Test
+  public void testLookupAndSave() throws IOException {
+    Path cacheFile = tempDir.resolve("grep.cache");
+    File file = write(tempDir.resolve("a.txt"), "x").toFile();
+
+    ResultCache cache = ResultCache.open(cacheFile, 1 << 20, "regex\nx");
+    assertNull(cache.lookup(file, 1, MTIME));
+    cache.put(file, 1, MTIME, new ResultCache.Result(2, Arrays.asList("x", "caf\u00e9 x")));
+    cache.save();
+
+    cache = ResultCache.open(cacheFile, 1 << 20, "regex\nx");
+    ResultCache.Result result = cache.lookup(file, 1, MTIME);
+    assertNotNull(result);
+    assertEquals(2, result.getMatched());
+    assertEquals(Arrays.asList("x", "caf\u00e9 x"), result.getLines());
+    assertNull(cache.lookup(file, 2, MTIME));
+    assertNull(ResultCache.open(cacheFile, 1 << 20, "regex\ny").lookup(file, 1, MTIME));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws IOException {
+    Path cacheFile = tempDir.resolve("grep.cache");
+    File[] files = new File[6];
+    for (int i = 0; i < files.length; i++) {
+      files[i] = tempDir.resolve("file" + i).toFile();
+    }
+    List<String> lines = Arrays.asList(new String(new char[100]).replace('\0', 'x'));
+    // room for five entries: table entry, path, matched, line count and one line
+    long entryBytes = 48 + 4 + files[0].getAbsolutePath().length() + 8 + 4 + 4 + 100;
+    long cap = 20 + 5 * entryBytes + entryBytes / 2;
+
+    ResultCache cache = ResultCache.open(cacheFile, cap, "p");
+    for (int i = 0; i < 5; i++) {
+      cache.put(files[i], 1, MTIME, new ResultCache.Result(1, lines));
+    }
+    cache.save();
+
+    // next run uses file0 and adds file5, so one of file1-4 has to go
+    cache = ResultCache.open(cacheFile, cap, "p");
+    assertNotNull(cache.lookup(files[0], 1, MTIME));
+    cache.put(files[5], 1, MTIME, new ResultCache.Result(1, lines));
+    cache.save();
+
+    cache = ResultCache.open(cacheFile, cap, "p");
+    assertNotNull(cache.lookup(files[0], 1, MTIME));
+    assertNotNull(cache.lookup(files[5], 1, MTIME));
+    int survivors = 0;
+    for (int i = 1; i <= 4; i++) {
+      survivors += cache.lookup(files[i], 1, MTIME) == null ? 0 : 1;
+    }
+    assertEquals(3, survivors);
+  }
+
+  private List<String> run(Path root, Path cache, String regex) throws IOException {
+    Path out = tempDir.resolve("out.txt");
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex(regex);
+    grep.setRootPath(root.toString());
+    grep.setOutFile(out.toString());
+    grep.setCacheFile(cache.toString());
+    grep.process();
+    List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+    Collections.sort(lines);
+    return lines;
+  }
+
+  private static Path write(Path file, String content) throws IOException {
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    file.toFile().setLastModified(MTIME);
+    return file;
+  }
+}
@@ -0,0 +1,98 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ShardCoordinatorTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testPartition() throws IOException {
+    List<File> files = new ArrayList<>();
+    for (int size : new int[] {10, 10, 10, 10, 40, 10, 10}) {
+      Path file = tempDir.resolve(files.size() + ".log");
+      Files.write(file, new byte[size]);
+      files.add(file.toFile());
+    }
+
+    List<List<File>> shards = ShardCoordinator.partition(files, 3);
+    assertEquals(Arrays.asList(files.subList(0, 4), files.subList(4, 5), files.subList(5, 7)),
+        shards);
+    // every worker gets a file when there are few
+    assertEquals(3, ShardCoordinator.partition(files.subList(4, 7), 3).size());
+    assertEquals(Arrays.asList(files.subList(0, 2)),
+        ShardCoordinator.partition(files.subList(0, 2), 1));
+    assertTrue(ShardCoordinator.partition(new ArrayList<>(), 4).isEmpty());
+  }
+
+  @Test
+  public void testWorkersWriteTheSequentialOutput() throws IOException {
+    Path root = Files.createDirectory(tempDir.resolve("root"));
+    for (int file = 0; file < 8; file++) {
+      Path dir = Files.createDirectories(root.resolve("mount" + file % 3));
+      List<String> lines = new ArrayList<>();
+      for (int line = 0; line < 100 * (file + 1); line++) {
+        lines.add((line % 5 == 0 ? "ERROR " : "INFO ") + file + "/" + line);
+      }
+      Files.write(dir.resolve(file + ".log"), lines, StandardCharsets.UTF_8);
+    }
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(tempDir.resolve("expected.txt").toString());
+    grep.process();
+
+    grep.setWorkers(3);
+    grep.setOutFile(tempDir.resolve("out.txt").toString());
+    grep.setMetricsFile(tempDir.resolve("metrics.json").toString());
+    grep.process();
+    assertArrayEquals(Files.readAllBytes(tempDir.resolve("expected.txt")),
+        Files.readAllBytes(tempDir.resolve("out.txt")));
+
+    String metrics = new String(Files.readAllBytes(tempDir.resolve("metrics.json")),
+        StandardCharsets.UTF_8);
+    assertEquals(3, metrics.split("\"shard\"").length - 1);
+    assertEquals(3, metrics.split("\"limitingStage\"").length - 1);
+    // the shard files are gone
+    try (Stream<Path> left = Files.list(tempDir)) {
+      List<String> names = left.map(path -> path.getFileName().toString())
+          .collect(Collectors.toList());
+      assertFalse(names.stream().anyMatch(name -> name.contains(".shards")), names.toString());
+    }
+  }
+
+  @Test
+  public void testFailedWorkerFailsTheRun() throws IOException {
+    Path log = tempDir.resolve("a.log");
+    Files.write(log, Arrays.asList("ERROR one"), StandardCharsets.UTF_8);
+    JavaGrepImp grep = new JavaGrepImp() {
+      @Override
+      protected Stream<File> candidateFiles() {
+        return Stream.of(log.toFile(), tempDir.resolve("missing.log").toFile());
+      }
+    };
+    grep.setRegex("ERROR");
+    grep.setRootPath(tempDir.toString());
+    grep.setOutFile(tempDir.resolve("out.txt").toString());
+    grep.setWorkers(2);
+    assertThrows(IOException.class, grep::process);
+  }
+}
@@ -0,0 +1,120 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SortingLineSinkTest {
+  @TempDir
+  Path tempDir;
+
+  private static List<String> randomLines() {
+    Random random = new Random(42);
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      // few enough distinct lines that most repeat, some of them non-ASCII
+      int key = random.nextInt(700);
+      lines.add((key % 11 == 0 ? "\u00e9t\u00e9 " : "line ") + key);
+    }
+    lines.add("");
+    return lines;
+  }
+
+  private List<String> sort(List<String> lines, SortMode mode, long memory)
+      throws IOException {
+    ListLineSink out = new ListLineSink();
+    try (SortingLineSink sink = new SortingLineSink(out, mode, memory, tempDir)) {
+      for (String line : lines) {
+        sink.write(line);
+      }
+    }
+    try (Stream<Path> runs = Files.list(tempDir)) {
+      assertEquals(0, runs.count(), "runs are deleted");
+    }
+    return out.getLines();
+  }
+
+  @Test
+  public void testSortInMemory() throws IOException {
+    List<String> lines = Arrays.asList("b", "a", "c", "a", "B");
+    assertEquals(Arrays.asList("B", "a", "a", "b", "c"), sort(lines, SortMode.SORT, 1 << 20));
+    assertEquals(Arrays.asList("B", "a", "b", "c"), sort(lines, SortMode.UNIQUE, 1 << 20));
+    assertEquals(Arrays.asList("      1 B", "      2 a", "      1 b", "      1 c"),
+        sort(lines, SortMode.UNIQUE_COUNT, 1 << 20));
+  }
+
+  @Test
+  public void testSpilledRunsMergeToSameOutput() throws IOException {
+    List<String> lines = randomLines();
+    List<String> sorted = new ArrayList<>(lines);
+    Collections.sort(sorted);
+    TreeMap<String, Integer> counts = new TreeMap<>();
+    for (String line : lines) {
+      counts.merge(line, 1, Integer::sum);
+    }
+    List<String> counted = new ArrayList<>();
+    counts.forEach((line, count) -> counted.add(String.format("%7d %s", count, line)));
+
+    for (long memory : new long[] {1000, 20_000, 1 << 20}) {
+      assertEquals(sorted, sort(lines, SortMode.SORT, memory));
+      assertEquals(new ArrayList<>(counts.keySet()), sort(lines, SortMode.UNIQUE, memory));
+      assertEquals(counted, sort(lines, SortMode.UNIQUE_COUNT, memory));
+    }
+  }
+
+  @Test
+  public void testRunsAreMergedInPasses() throws IOException {
+    ListLineSink out = new ListLineSink();
+    SortingLineSink sink = new SortingLineSink(out, SortMode.UNIQUE, 1, tempDir);
+    for (String line : randomLines()) {
+      sink.write(line);
+    }
+    // a run per line, far more than are merged at once, so runs of merged runs are merged
+    assertEquals(randomLines().size(), sink.getRuns());
+    assertTrue(sink.getRuns() > SortingLineSink.MERGE_WIDTH * SortingLineSink.MERGE_WIDTH);
+    sink.close();
+    assertEquals(randomLines().size(), sink.count());
+    assertEquals(sort(randomLines(), SortMode.UNIQUE, 1 << 20), out.getLines());
+  }
+
+  @Test
+  public void testProcessWritesSortedOutput() throws IOException {
+    Path root = Files.createDirectory(tempDir.resolve("root"));
+    Files.write(root.resolve("a.txt"), Arrays.asList("Romeo b", "Juliet", "Romeo a", "Romeo b"),
+        StandardCharsets.UTF_8);
+    Files.write(root.resolve("b.txt"), Arrays.asList("Romeo a", "Romeo c"),
+        StandardCharsets.UTF_8);
+    Path outDir = Files.createDirectory(tempDir.resolve("out"));
+    Path out = outDir.resolve("out.txt");
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("Romeo");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(out.toString());
+    grep.setSortMode(SortMode.UNIQUE_COUNT);
+    grep.setSortMemory(1);
+    grep.process();
+
+    assertEquals(Arrays.asList("      2 Romeo a", "      2 Romeo b", "      1 Romeo c"),
+        Files.readAllLines(out));
+    try (Stream<Path> files = Files.list(outDir)) {
+      assertEquals(1, files.count(), "only the output is left");
+    }
+
+    grep.setFollow(true);
+    assertThrows(IllegalArgumentException.class, grep::process);
+  }
+}
@@ -0,0 +1,138 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TrigramIndexTest {
+  @TempDir
+  Path tempDir;
+
+  private Path root;
+  private Path indexFile;
+  private JavaGrepImp grep;
+
+  @BeforeEach
+  void setup() throws IOException {
+    root = Files.createDirectories(tempDir.resolve("root"));
+    write("a.log", "INFO started", "ERROR request timeout=30");
+    write("b.log", "INFO started", "WARN slow");
+    write("c.log", "error: connection refused");
+    // files written just before an update are read again by the next one
+    for (String name : new String[] {"a.log", "b.log", "c.log"}) {
+      root.resolve(name).toFile().setLastModified(System.currentTimeMillis() - 60_000);
+    }
+    indexFile = tempDir.resolve("index.bin");
+
+    grep = new JavaGrepImp();
+    grep.setRootPath(root.toString());
+  }
+
+  @Test
+  public void testCandidates() throws IOException {
+    TrigramIndex index = TrigramIndex.update(indexFile, grep.listFiles(root.toString()));
+
+    assertEquals(3, index.size());
+    assertEquals(names("a.log"), candidates(index, "ERROR.*timeout=\\d+"));
+    assertEquals(names("a.log", "c.log"), candidates(index, "(?i)error"));
+    assertEquals(names("b.log", "c.log"), candidates(index, "slow|refused"));
+    assertEquals(names(), candidates(index, "missing"));
+    // nothing to narrow on, so every file is a candidate
+    assertEquals(names("a.log", "b.log", "c.log"), candidates(index, "\\d+"));
+  }
+
+  @Test
+  public void testSpilledRunsAndMappedWindows() throws IOException {
+    List<File> files = grep.listFiles(root.toString());
+    TrigramIndex.update(indexFile, files, 4);
+    write("b.log", "INFO started", "WARN slow", "ERROR request timeout=99");
+    root.resolve("b.log").toFile().setLastModified(System.currentTimeMillis() - 30_000);
+    // the previous postings are merged with b's across many runs
+    TrigramIndex.update(indexFile, files, 4);
+
+    // windows of two postings
+    TrigramIndex index = TrigramIndex.open(indexFile, 8);
+    assertEquals(names("a.log", "b.log"), candidates(index, "ERROR.*timeout=\\d+"));
+    assertEquals(names("a.log", "b.log", "c.log"), candidates(index, "(?i)error"));
+    assertEquals(names("b.log", "c.log"), candidates(index, "slow|refused"));
+    assertEquals(names(), candidates(index, "missing"));
+    try (Stream<Path> left = Files.list(tempDir)) {
+      assertEquals(names("index.bin", "root"), left.map(path -> path.getFileName().toString())
+          .sorted().collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void testIncrementalUpdate() throws IOException {
+    List<File> files = grep.listFiles(root.toString());
+    assertEquals(3, TrigramIndex.update(indexFile, files).getReindexedCount());
+    assertEquals(0, TrigramIndex.update(indexFile, files).getReindexedCount());
+
+    Path b = root.resolve("b.log");
+    write("b.log", "INFO started", "ERROR request timeout=99 after change");
+    b.toFile().setLastModified(System.currentTimeMillis() + 5000);
+    TrigramIndex index = TrigramIndex.update(indexFile, grep.listFiles(root.toString()));
+
+    assertEquals(1, index.getReindexedCount());
+    assertEquals(names("a.log", "b.log"), candidates(index, "timeout"));
+    assertEquals(names("c.log"), candidates(index, "refused"));
+  }
+
+  @Test
+  public void testRacyRewriteIsReindexed() throws IOException {
+    File a = root.resolve("a.log").toFile();
+    long mtime = System.currentTimeMillis() / 1000 * 1000;
+    a.setLastModified(mtime);
+    List<File> files = grep.listFiles(root.toString());
+    TrigramIndex.update(indexFile, files);
+
+    // same size and mtime, as a rewrite within the same mtime tick leaves it
+    write("a.log", "INFO started", "ERROR request deadline=3");
+    a.setLastModified(mtime);
+    TrigramIndex index = TrigramIndex.update(indexFile, files);
+
+    assertEquals(1, index.getReindexedCount());
+    assertEquals(names("a.log"), candidates(index, "deadline"));
+    assertEquals(names(), candidates(index, "timeout"));
+  }
+
+  @Test
+  public void testProcessWithIndexMatchesFullScan() throws IOException {
+    grep.setRegex("ERROR|refused");
+    Path fullOut = tempDir.resolve("full.txt");
+    grep.setOutFile(fullOut.toString());
+    grep.process();
+
+    Path indexedOut = tempDir.resolve("indexed.txt");
+    grep.setOutFile(indexedOut.toString());
+    grep.setIndexFile(indexFile.toString());
+    grep.process();
+    grep.process();
+
+    assertEquals(Files.readAllLines(fullOut), Files.readAllLines(indexedOut));
+    assertEquals(2, Files.readAllLines(indexedOut).size());
+  }
+
+  private void write(String name, String... lines) throws IOException {
+    Files.write(root.resolve(name), Arrays.asList(lines));
+  }
+
+  private static List<String> candidates(TrigramIndex index, String regex) {
+    return index.candidates(RegexLiterals.analyze(regex)).stream().map(File::getName).sorted()
+        .collect(Collectors.toList());
+  }
+
+  private static List<String> names(String... names) {
+    return Arrays.asList(names);
+  }
+}
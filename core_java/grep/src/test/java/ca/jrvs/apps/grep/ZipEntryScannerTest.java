@@ -0,0 +1,105 @@
+package ca.jrvs.apps.grep;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ZipEntryScannerTest {
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void testGzipIsDecompressed() throws IOException {
+    Path input = tempDir.resolve("app.log.gz");
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(input))) {
+      out.write("INFO start\nERROR disk full\nINFO done\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+    // a low threshold must not send compressed bytes to the mapped scanner
+    grep.setMmapThreshold(0);
+    ListLineSink sink = new ListLineSink();
+
+    assertEquals(1, grep.scanFile(input.toFile(), sink));
+    assertEquals(Arrays.asList("ERROR disk full"), sink.getLines());
+    assertEquals(Arrays.asList("INFO start", "ERROR disk full", "INFO done"),
+        new JavaGrepLambdaImp().readLines(input.toFile()));
+  }
+
+  @Test
+  public void testEntriesAreLabelledInArchiveOrder() throws IOException {
+    File archive = writeZip(tempDir.resolve("logs.zip"), 30);
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR");
+
+    List<String> expected = new ArrayList<>();
+    for (int entry = 0; entry < 30; entry++) {
+      for (int line = 0; line < 50; line += 10) {
+        expected.add(archive.getPath() + "!logs/" + entry + ".log:ERROR " + entry + "/" + line);
+      }
+    }
+
+    for (int threads : new int[] {1, 4}) {
+      ListLineSink sink = new ListLineSink();
+      long matched = new ZipEntryScanner(threads).scan(archive, grep::newMatchStage, sink);
+
+      assertEquals(expected, sink.getLines(), threads + " threads");
+      assertEquals(expected.size(), matched);
+    }
+  }
+
+  @Test
+  public void testProcessSearchesArchives() throws IOException {
+    Path root = Files.createDirectories(tempDir.resolve("root"));
+    Files.write(root.resolve("a.txt"), Arrays.asList("ERROR plain"), StandardCharsets.UTF_8);
+    writeZip(root.resolve("b.jar"), 2);
+    Path out = tempDir.resolve("out.txt");
+
+    JavaGrepImp grep = new JavaGrepImp();
+    grep.setRegex("ERROR \\S+/0$|plain");
+    grep.setRootPath(root.toString());
+    grep.setOutFile(out.toString());
+    grep.setThreads(2);
+    grep.process();
+    assertEquals(3, Files.readAllLines(out, StandardCharsets.UTF_8).size());
+
+    // walk order between the two files is up to the file system
+    String jar = root.resolve("b.jar").toFile().getPath();
+    List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+    lines.remove("ERROR plain");
+    assertEquals(Arrays.asList(jar + "!logs/0.log:ERROR 0/0", jar + "!logs/1.log:ERROR 1/0"),
+        lines);
+  }
+
+  private static File writeZip(Path path, int entries) throws IOException {
+    try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(path))) {
+      zip.putNextEntry(new ZipEntry("logs/"));
+      zip.closeEntry();
+      for (int entry = 0; entry < entries; entry++) {
+        zip.putNextEntry(new ZipEntry("logs/" + entry + ".log"));
+        StringBuilder content = new StringBuilder();
+        for (int line = 0; line < 50; line++) {
+          content.append(line % 10 == 0 ? "ERROR " : "INFO ").append(entry).append('/')
+              .append(line).append('\n');
+        }
+        zip.write(content.toString().getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+      }
+    }
+    return path.toFile();
+  }
+}